@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 QNX Software Systems and others.
+ * Copyright (c) 2008, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@
 package org.eclipse.cdt.core.internal.errorparsers.tests;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -190,6 +191,78 @@ public class ErrorParserManagerTest extends TestCase {
 
 	}
 
+	public void testOutputInSmallChunks() throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(CTestPlugin.getDefault().getFileInPlugin(
+				new Path("resources/errortests/output-1")));
+		// lines and line terminators are split between the chunks
+		byte b[] = new byte[7];
+		while (true) {
+			int k = fileInputStream.read(b);
+			if (k < 0)
+				break;
+			epManager.write(b, 0, k);
+		}
+		end();
+		assertEquals(22, errorList.size());
+	}
+
+	public void testOutputByteByByte() throws IOException {
+		// the multi-byte characters of encodings like UTF-8 are split between the writes
+		final String description = "unknown type \u00e4\u00f6\u00fc\u20ac";
+		final byte[] bytes = ("catchpoints.cpp:12: warning: " + description + "\n").getBytes();
+		for (int i = 0; i < bytes.length; i++) {
+			epManager.write(bytes[i]);
+		}
+		end();
+		assertEquals(1, errorList.size());
+
+		ProblemMarkerInfo problemMarkerInfo = errorList.get(0);
+		assertEquals(new String(description.getBytes()), problemMarkerInfo.description);
+		assertEquals(12, problemMarkerInfo.lineNumber);
+	}
+
+	public void testCloseWithoutGetOutputStream() throws IOException {
+		// the builders pass the manager to a StreamMonitor and close it without opening
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		epManager.setOutputStream(console);
+		for (int i = 0; i < 100; i++) {
+			output("catchpoints.cpp:" + (i + 1) + ": warning: no return statement in function returning non-void\n");
+		}
+		output("catchpoints.cpp:200: warning: last line without terminator");
+		epManager.close();
+		assertEquals(101, errorList.size());
+		assertEquals(200, errorList.get(100).lineNumber);
+
+		// closing twice, like the monitor of stdout and stderr does, is harmless
+		epManager.close();
+		assertEquals(101, errorList.size());
+	}
+
+	public void testOutputThroughput() throws IOException {
+		FileInputStream fileInputStream = new FileInputStream(CTestPlugin.getDefault().getFileInPlugin(
+				new Path("resources/errortests/output-1")));
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		byte b[] = new byte[1024];
+		while (true) {
+			int k = fileInputStream.read(b);
+			if (k < 0)
+				break;
+			content.write(b, 0, k);
+		}
+		final byte[] output = content.toByteArray();
+		final int repeat = 50;
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < repeat; i++) {
+			for (int offset = 0; offset < output.length; offset += 4096) {
+				epManager.write(output, offset, Math.min(4096, output.length - offset));
+			}
+		}
+		end();
+		time = System.currentTimeMillis() - time;
+		assertEquals(22 * repeat, errorList.size());
+		System.out.println("ErrorParserManagerTest: parsed " + repeat * output.length / 1024 + "kB in " + time + "ms");
+	}
+
 
 
 	private String addErrorParserExtension(String shortId, Class cl) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Andrew Gvozdev and others.
+ * Copyright (c) 2009, 2011 Andrew Gvozdev and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -741,5 +741,80 @@ public class RegexErrorParserTests extends TestCase {
 		assertEquals(0, errorList.size());
 	}
 
+	/**
+	 * Checks that the literals required by a pattern do not prevent matching lines.
+	 *
+	 * @throws Exception...
+	 */
+	public void testRegexErrorParserRequiredLiterals() throws Exception {
+		RegexErrorParser regexErrorParser = new RegexErrorParser();
+		regexErrorParser.addPattern(new RegexErrorPattern("(.*):(\\d+): fatal\\.? (.*)",
+				"$1", "$2", "$3", null, IMarkerGenerator.SEVERITY_ERROR_RESOURCE, true));
+		regexErrorParser.addPattern(new RegexErrorPattern("(.*):(\\d+): (warn|note)s?: (.*)",
+				"$1", "$2", "$4", null, IMarkerGenerator.SEVERITY_WARNING, true));
+		regexErrorParser.addPattern(new RegexErrorPattern("ab+c[:;]x{0,2}y(.*)",
+				null, null, "$1", null, IMarkerGenerator.SEVERITY_INFO, true));
+		regexErrorParser.addPattern(new RegexErrorPattern("(?i)ERROR (.*)",
+				null, null, "$1", null, IMarkerGenerator.SEVERITY_INFO, true));
+
+		errorList.clear();
+		ErrorParserManager epManager = new ErrorParserManager(fProject, markerGenerator, new String[0]);
+
+		assertTrue(regexErrorParser.processLine("file.c:10: fatal. description", epManager));
+		assertTrue(regexErrorParser.processLine("file.c:11: fatal description", epManager));
+		assertTrue(regexErrorParser.processLine("file.c:12: warn: description", epManager));
+		assertTrue(regexErrorParser.processLine("file.c:13: notes: description", epManager));
+		assertTrue(regexErrorParser.processLine("abbc;y description", epManager));
+		assertTrue(regexErrorParser.processLine("abc:xxy description", epManager));
+		assertTrue(regexErrorParser.processLine("error description", epManager));
+		assertFalse(regexErrorParser.processLine("file.c:14 fatal description", epManager));
+		assertFalse(regexErrorParser.processLine("ac:y description", epManager));
+		assertEquals(7, errorList.size());
+		assertEquals(13, errorList.get(3).lineNumber);
+		assertEquals("description", errorList.get(3).description);
+
+		// the literals are updated with the pattern
+		RegexErrorPattern pattern = regexErrorParser.getPatterns()[0];
+		pattern.setPattern("(.*) failed");
+		assertTrue(pattern.processLine("compilation failed", epManager));
+		assertFalse(pattern.processLine("file.c:15: fatal description", epManager));
+	}
 
+	/**
+	 * Checks that the operands of escape sequences are not taken for required literals.
+	 *
+	 * @throws Exception...
+	 */
+	public void testRegexErrorParserRequiredLiteralsEscapes() throws Exception {
+		ErrorParserManager epManager = new ErrorParserManager(fProject, markerGenerator, new String[0]);
+		String[] patterns = {
+				"fail\\x41ed: (.*)",
+				"fail\\u0041ed: (.*)",
+				"fail\\0101ed: (.*)",
+				"fail\\01ed: (.*)",
+				"fail\\cAed: (.*)",
+				"fail\\p{Lu}ed: (.*)",
+				"fail\\pLed: (.*)",
+				"fail\\P{Ll}ed: (.*)",
+		};
+		String[] lines = {
+				"failAed: description",
+				"failAed: description",
+				"failAed: description",
+				"fail\u0001ed: description",
+				"fail\u0001ed: description",
+				"failAed: description",
+				"failAed: description",
+				"failAed: description",
+		};
+		for (int i = 0; i < patterns.length; i++) {
+			RegexErrorPattern pattern = new RegexErrorPattern(patterns[i],
+					null, null, "$1", null, IMarkerGenerator.SEVERITY_INFO, true);
+			errorList.clear();
+			assertTrue(patterns[i], pattern.processLine(lines[i], epManager));
+			assertEquals(patterns[i], 1, errorList.size());
+			assertEquals(patterns[i], "description", errorList.get(0).description);
+			assertFalse(patterns[i], pattern.processLine("failed: description", epManager));
+		}
+	}
 }
@@ -21,8 +21,10 @@ import junit.framework.TestSuite;
 
 import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
 import org.eclipse.cdt.internal.core.parser.scanner.AbstractCharArray;
+import org.eclipse.cdt.internal.core.parser.scanner.CharArray;
 import org.eclipse.cdt.internal.core.parser.scanner.FileCharArray;
 import org.eclipse.cdt.internal.core.parser.scanner.LazyCharArray;
+import org.eclipse.cdt.internal.core.parser.scanner.SingleByteCharArray;
 
 public class FileCharArrayTests extends BaseTestCase {
 	
@@ -63,6 +65,55 @@ public class FileCharArrayTests extends BaseTestCase {
 		testFile(false, LazyCharArray.CHUNK_SIZE*3+1);
 	}
 
+	public void testSingleByteFile() throws IOException {
+		final int charSize= (int) FileCharArray.SINGLE_BYTE_THRESHOLD + 5;
+		createFile(true, charSize);
+		AbstractCharArray charArray= createCharArray("utf-8");
+		assertTrue(charArray instanceof SingleByteCharArray);
+		assertEquals(charSize, charArray.getLength());
+		checkContent(charArray, charSize - LazyCharArray.CHUNK_SIZE, charSize);
+
+		char[] chars= new char[charSize];
+		charArray.arraycopy(0, chars, 0, charSize);
+		assertEquals(new CharArray(chars).getContentsHash(), charArray.getContentsHash());
+	}
+
+	public void testSingleByteFileNonAscii() throws IOException {
+		final int charSize= (int) FileCharArray.SINGLE_BYTE_THRESHOLD + 5;
+		createFile(false, charSize);
+		AbstractCharArray charArray= createCharArray("utf-8");
+		assertTrue(charArray instanceof LazyCharArray);
+		assertEquals(charSize, charArray.getLength());
+
+		// every byte is a character in latin-1
+		charArray= createCharArray("iso-8859-1");
+		assertTrue(charArray instanceof SingleByteCharArray);
+		assertEquals(charSize + 1, charArray.getLength());
+		assertEquals(0xc2, charArray.get(0));
+		assertEquals(0xa2, charArray.get(1));
+	}
+
+	public void testSingleByteFileIsNotLocked() throws IOException {
+		final int charSize= (int) FileCharArray.SINGLE_BYTE_THRESHOLD + 5;
+		createFile(true, charSize);
+		AbstractCharArray charArray= createCharArray("utf-8");
+		assertTrue(charArray instanceof SingleByteCharArray);
+
+		// the file can be replaced while the content is in use
+		assertTrue(fFile.delete());
+		assertEquals(charSize, charArray.getLength());
+		checkContent(charArray, charSize - 10, charSize);
+	}
+
+	private AbstractCharArray createCharArray(String charSet) throws IOException {
+		final FileInputStream inputStream = new FileInputStream(fFile);
+		try {
+			return FileCharArray.create(fFile.getPath(), charSet, inputStream);
+		} finally {
+			inputStream.close();
+		}
+	}
+
 	private void testFile(boolean aligned, int charSize) throws IOException {
 		createFile(aligned, charSize);
 		
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.core.parser.tests.scanner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
+import org.eclipse.cdt.internal.core.parser.FileContentCache;
+import org.eclipse.cdt.internal.core.parser.scanner.AbstractCharArray;
+import org.eclipse.cdt.internal.core.parser.scanner.CharArray;
+
+public class FileContentCacheTests extends BaseTestCase {
+
+	public static TestSuite suite() {
+		return suite(FileContentCacheTests.class);
+	}
+
+	private List<File> fFiles= new ArrayList<File>();
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File file : fFiles) {
+			file.delete();
+		}
+		super.tearDown();
+	}
+
+	private File createFile(String content) throws IOException {
+		File file= File.createTempFile("content", ".h");
+		fFiles.add(file);
+		Writer out= new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private void put(FileContentCache cache, File file, String content) {
+		cache.put(file.getPath(), file.lastModified(), file.length(), new CharArray(content));
+	}
+
+	private void checkContent(String expected, AbstractCharArray chars) {
+		assertNotNull(chars);
+		assertEquals(expected.length(), chars.getLength());
+		char[] dest= new char[expected.length()];
+		chars.arraycopy(0, dest, 0, dest.length);
+		assertEquals(expected, new String(dest));
+		for (int i = 0; i < expected.length(); i++) {
+			assertEquals(expected.charAt(i), chars.get(i));
+		}
+		assertEquals(new CharArray(expected).getContentsHash(), chars.getContentsHash());
+	}
+
+	public void testHitAndMiss() throws Exception {
+		FileContentCache cache= new FileContentCache(1024 * 1024);
+		final String content= "int a;\n";
+		File file= createFile(content);
+		assertNull(cache.get(file.getPath(), file));
+		put(cache, file, content);
+		checkContent(content, cache.get(file.getPath(), file));
+
+		FileContentCache.Statistics stats= cache.getStatistics();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getEntryCount());
+		assertEquals(content.length(), stats.getBytes());
+
+		cache.remove(file.getPath());
+		assertNull(cache.get(file.getPath(), file));
+		assertEquals(0, cache.getStatistics().getBytes());
+	}
+
+	public void testWideCharacters() throws Exception {
+		FileContentCache cache= new FileContentCache(1024 * 1024);
+		final String content= "const char* euro= \"\u20ac\";\n";
+		File file= createFile(content);
+		put(cache, file, content);
+		checkContent(content, cache.get(file.getPath(), file));
+		assertEquals(2 * content.length(), cache.getStatistics().getBytes());
+	}
+
+	public void testModifiedFile() throws Exception {
+		FileContentCache cache= new FileContentCache(1024 * 1024);
+		File file= createFile("int a;\n");
+		put(cache, file, "int a;\n");
+		Writer out= new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			out.write("int b;\n");
+		} finally {
+			out.close();
+		}
+		assertNull(cache.get(file.getPath(), file));
+		assertTrue(cache.isEmpty());
+	}
+
+	public void testSpaceLimit() throws Exception {
+		final int limit= 1024 * 1024;
+		FileContentCache cache= new FileContentCache(limit);
+		final String content= createContent(100 * 1024);
+		for (int i = 0; i < 30; i++) {
+			File file= createFile(content);
+			put(cache, file, content);
+			assertTrue(cache.getStatistics().getBytes() <= limit);
+		}
+		FileContentCache.Statistics stats= cache.getStatistics();
+		assertTrue(stats.getEvictions() + stats.getRejections() > 0);
+
+		cache.setSpaceLimit(0);
+		assertTrue(cache.isEmpty());
+		File file= createFile(content);
+		put(cache, file, content);
+		assertTrue(cache.isEmpty());
+	}
+
+	public void testFrequentFilesSurviveScans() throws Exception {
+		FileContentCache cache= new FileContentCache(1024 * 1024);
+		final String content= createContent(100 * 1024);
+		File frequent= createFile(content);
+		put(cache, frequent, content);
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(cache.get(frequent.getPath(), frequent));
+		}
+		// files that are read once must not replace the frequently used one.
+		for (int i = 0; i < 30; i++) {
+			File file= createFile(content);
+			assertNull(cache.get(file.getPath(), file));
+			put(cache, file, content);
+		}
+		checkContent(content, cache.get(frequent.getPath(), frequent));
+		assertTrue(cache.getStatistics().getRejections() > 0);
+	}
+
+	private String createContent(int length) {
+		StringBuilder buf= new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			buf.append((char) ('a' + i % 26));
+		}
+		return buf.toString();
+	}
+}
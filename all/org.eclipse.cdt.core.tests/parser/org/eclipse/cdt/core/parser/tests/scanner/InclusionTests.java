@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2009 IBM Corporation and others.
+ * Copyright (c) 2004, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,20 +12,31 @@
  *******************************************************************************/
 package org.eclipse.cdt.core.parser.tests.scanner;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestSuite;
 
+import org.eclipse.cdt.core.dom.ast.IASTPreprocessorIncludeStatement;
+import org.eclipse.cdt.core.dom.parser.c.GCCScannerExtensionConfiguration;
+import org.eclipse.cdt.core.index.IIndexFileLocation;
 import org.eclipse.cdt.core.model.ICProject;
 import org.eclipse.cdt.core.parser.ExtendedScannerInfo;
 import org.eclipse.cdt.core.parser.FileContent;
 import org.eclipse.cdt.core.parser.IScannerInfo;
 import org.eclipse.cdt.core.parser.IToken;
+import org.eclipse.cdt.core.parser.NullLogService;
 import org.eclipse.cdt.core.parser.ParserLanguage;
 import org.eclipse.cdt.core.parser.ParserMode;
 import org.eclipse.cdt.core.parser.ScannerInfo;
 import org.eclipse.cdt.core.testplugin.CProjectHelper;
 import org.eclipse.cdt.core.testplugin.util.TestSourceReader;
+import org.eclipse.cdt.internal.core.parser.scanner.CPreprocessor;
+import org.eclipse.cdt.internal.core.parser.scanner.InternalFileContent;
+import org.eclipse.cdt.internal.core.parser.scanner.InternalFileContentProvider;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache;
 import org.eclipse.cdt.internal.core.pdom.indexer.PDOMNullIndexer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
@@ -35,6 +46,28 @@ import org.eclipse.core.runtime.NullProgressMonitor;
  * Scanner2Tests ported to use the CPreprocessor
  */
 public class InclusionTests extends PreprocessorTestsBase {
+	/**
+	 * Provides the content of files and remembers the files that were requested.
+	 */
+	private static class RecordingFileContentProvider extends InternalFileContentProvider {
+		final List<String> fRequested= new ArrayList<String>();
+
+		@Override
+		public InternalFileContent getContentForInclusion(String path) {
+			fRequested.add(new File(path).getName());
+			return (InternalFileContent) FileContent.createForExternalFileLocation(path);
+		}
+
+		@Override
+		public InternalFileContent getContentForInclusion(IIndexFileLocation ifl, String astPath) {
+			return null;
+		}
+
+		int getRequestCount(String name) {
+			return Collections.frequency(fRequested, name);
+		}
+	}
+
     public static TestSuite suite() {
 		return suite(InclusionTests.class);
 	}
@@ -278,4 +311,211 @@ public class InclusionTests extends PreprocessorTestsBase {
     	validateInteger("1");
     	validateEOF();
     }
+
+    // #include "guard.h"
+    // #include "guard.h"
+    // #include "guard2.h"
+    // #include "guard2.h"
+    public void testIncludeGuard() throws Exception {
+    	importFile("guard.h", "#ifndef GUARD_H\n#define GUARD_H\n1\n#endif\n");
+    	importFile("guard2.h", "// comment\n#if !defined(GUARD2_H)\n#define GUARD2_H\n2\n#endif // GUARD2_H\n");
+    	IFile base = importFile("base.cpp", getAboveComment());
+
+    	FileContent reader= FileContent.create(base);
+    	initializeScanner(reader, ParserLanguage.C, ParserMode.COMPLETE_PARSE, new ScannerInfo());
+    	validateInteger("1");
+    	validateInteger("2");
+    	validateEOF();
+
+    	// the second inclusions are skipped, the conditionals are not reported again.
+    	assertEquals(10, fLocationResolver.getAllPreprocessorStatements().length);
+    	IASTPreprocessorIncludeStatement[] includes= fLocationResolver.getIncludeDirectives();
+    	assertEquals(4, includes.length);
+    	for (IASTPreprocessorIncludeStatement include : includes) {
+    		assertTrue(include.isResolved());
+    	}
+    }
+
+    // #include "noguard.h"
+    // #include "noguard.h"
+    // #include "guard.h"
+    // #undef GUARD_H
+    // #include "guard.h"
+    public void testNoIncludeGuard() throws Exception {
+    	importFile("noguard.h", "#ifndef NOGUARD_H\n#define NOGUARD_H\n#endif\n1\n");
+    	importFile("guard.h", "#ifndef GUARD_H\n#define GUARD_H\n2\n#endif\n");
+    	IFile base = importFile("base.cpp", getAboveComment());
+
+    	FileContent reader= FileContent.create(base);
+    	initializeScanner(reader, ParserLanguage.C, ParserMode.COMPLETE_PARSE, new ScannerInfo());
+    	validateInteger("1");
+    	validateInteger("1");
+    	validateInteger("2");
+    	validateInteger("2");
+    	validateEOF();
+    }
+
+    private RecordingFileContentProvider initializeScanner(IFile file, PreprocessedHeaderCache cache) throws Exception {
+    	RecordingFileContentProvider provider= new RecordingFileContentProvider();
+    	fScanner= new CPreprocessor(FileContent.create(file), new ScannerInfo(), ParserLanguage.C, new NullLogService(),
+    			GCCScannerExtensionConfiguration.getInstance(), provider);
+    	fScanner.setPreprocessedHeaderCache(cache);
+    	fLocationResolver= fScanner.getLocationMap();
+    	return provider;
+    }
+
+    private IFile importHeader(String fileName, String contents, long age) throws Exception {
+    	IFile file= importFile(fileName, contents);
+    	// the cache does not trust recent time-stamps
+    	assertTrue(file.getLocation().toFile().setLastModified(System.currentTimeMillis() - age));
+    	return file;
+    }
+
+    // #include "guard.h"
+    // #include "guard.h"
+    // #include "guard.h"
+    public void testGuardedInclusionIsNotRead() throws Exception {
+    	importFile("guard.h", "#ifndef GUARD_H\n#define GUARD_H\n1\n#endif\n");
+    	IFile base = importFile("base.c", getAboveComment());
+
+    	RecordingFileContentProvider provider= initializeScanner(base, null);
+    	validateInteger("1");
+    	validateEOF();
+    	assertEquals(1, provider.getRequestCount("guard.h"));
+    	assertEquals(3, fLocationResolver.getIncludeDirectives().length);
+    }
+
+    // #include "config.h"
+    // ONE TWO ADD(3,4)
+    public void testHeaderCacheReplaysMacros() throws Exception {
+    	importHeader("config.h", "#ifndef CONFIG_H\n#define CONFIG_H\n#include \"sub.h\"\n" +
+    			"#define ONE 1\n#define ADD(a,b) a+b\n#undef UNUSED\n#endif\n", 10000);
+    	importHeader("sub.h", "#define TWO 2\n#define UNUSED\n", 10000);
+    	IFile base = importFile("base.c", getAboveComment());
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	for (int i = 0; i < 2; i++) {
+    		RecordingFileContentProvider provider= initializeScanner(base, cache);
+    		validateInteger("1");
+    		validateInteger("2");
+    		validateInteger("3");
+    		validateToken(IToken.tPLUS);
+    		validateInteger("4");
+    		validateEOF();
+    		assertEquals(1, fLocationResolver.getIncludeDirectives().length);
+    		assertTrue(fLocationResolver.getIncludeDirectives()[0].isResolved());
+    		if (i == 0) {
+    			assertEquals(1, provider.getRequestCount("config.h"));
+    			assertEquals(1, provider.getRequestCount("sub.h"));
+    			assertEquals(2, cache.getEntryCount());
+    			assertEquals(0, cache.getHits());
+    		} else {
+    			// replayed without reading the headers
+    			assertEquals(0, provider.getRequestCount("config.h"));
+    			assertEquals(0, provider.getRequestCount("sub.h"));
+    			assertEquals(1, cache.getHits());
+    			assertNull(fScanner.getMacroDefinitions().get("UNUSED"));
+    			assertNotNull(fScanner.getMacroDefinitions().get("CONFIG_H"));
+    		}
+    	}
+    }
+
+    // #include "tokens.h"
+    // X
+    public void testHeaderWithTokensIsNotCached() throws Exception {
+    	importHeader("tokens.h", "#define X 1\nint x;\n", 10000);
+    	IFile base = importFile("base.c", getAboveComment());
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	for (int i = 0; i < 2; i++) {
+    		RecordingFileContentProvider provider= initializeScanner(base, cache);
+    		validateToken(IToken.t_int);
+    		validateIdentifier("x");
+    		validateToken(IToken.tSEMI);
+    		validateInteger("1");
+    		validateEOF();
+    		assertEquals(1, provider.getRequestCount("tokens.h"));
+    	}
+    	assertEquals(0, cache.getEntryCount());
+    }
+
+    // #include "recent.h"
+    // X
+    public void testRecentlyModifiedHeaderIsNotCached() throws Exception {
+    	importHeader("recent.h", "#define X 1\n", 0);
+    	IFile base = importFile("base.c", getAboveComment());
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	initializeScanner(base, cache);
+    	validateInteger("1");
+    	validateEOF();
+    	assertEquals(0, cache.getEntryCount());
+    }
+
+    public void testHeaderCacheDependsOnMacroContext() throws Exception {
+    	importHeader("mode.h", "#ifdef FAST\n#define SPEED 2\n#else\n#define SPEED 1\n#endif\n", 10000);
+    	IFile fast = importFile("fast.c", "#define FAST\n#include \"mode.h\"\nSPEED\n");
+    	IFile slow = importFile("slow.c", "#include \"mode.h\"\nSPEED\n");
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	initializeScanner(fast, cache);
+    	validateInteger("2");
+    	validateEOF();
+    	RecordingFileContentProvider provider= initializeScanner(slow, cache);
+    	validateInteger("1");
+    	validateEOF();
+    	assertEquals(1, provider.getRequestCount("mode.h"));
+    	assertEquals(2, cache.getEntryCount());
+
+    	provider= initializeScanner(fast, cache);
+    	validateInteger("2");
+    	validateEOF();
+    	assertEquals(0, provider.getRequestCount("mode.h"));
+    }
+
+    // #include "config.h"
+    // VALUE
+    public void testChangedIncludedHeaderIsNotReplayed() throws Exception {
+    	importHeader("config.h", "#include \"value.h\"\n", 10000);
+    	importHeader("value.h", "#define VALUE 1\n", 10000);
+    	IFile base = importFile("base.c", getAboveComment());
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	initializeScanner(base, cache);
+    	validateInteger("1");
+    	validateEOF();
+
+    	importHeader("value.h", "#define VALUE 22\n", 5000);
+    	RecordingFileContentProvider provider= initializeScanner(base, cache);
+    	validateInteger("22");
+    	validateEOF();
+    	assertEquals(1, provider.getRequestCount("config.h"));
+    	assertEquals(1, provider.getRequestCount("value.h"));
+    }
+
+    // #include "config.h"
+    // VALUE
+    public void testPersistedHeaderCache() throws Exception {
+    	importHeader("config.h", "#define VALUE 1\n", 10000);
+    	IFile base = importFile("base.c", getAboveComment());
+    	PreprocessedHeaderCache cache= new PreprocessedHeaderCache();
+
+    	initializeScanner(base, cache);
+    	validateInteger("1");
+    	validateEOF();
+
+    	File file= File.createTempFile("headers", ".dat");
+    	try {
+    		cache.save(file);
+    		cache= new PreprocessedHeaderCache();
+    		cache.load(file);
+    	} finally {
+    		file.delete();
+    	}
+    	RecordingFileContentProvider provider= initializeScanner(base, cache);
+    	validateInteger("1");
+    	validateEOF();
+    	assertEquals(0, provider.getRequestCount("config.h"));
+    	assertEquals(1, cache.getHits());
+    }
 }
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.index.tests;
+
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.core.dom.ILinkage;
+import org.eclipse.cdt.core.dom.IPDOMManager;
+import org.eclipse.cdt.core.dom.ast.IBinding;
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.index.IIndexFile;
+import org.eclipse.cdt.core.index.IIndexName;
+import org.eclipse.cdt.core.index.IndexFilter;
+import org.eclipse.cdt.core.index.IndexLocationFactory;
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.testplugin.CProjectHelper;
+import org.eclipse.cdt.core.testplugin.util.TestSourceReader;
+import org.eclipse.cdt.internal.core.pdom.indexer.PDOMIndexerTask;
+import org.eclipse.core.resources.IFile;
+
+/**
+ * Indexes a project with multiple parser threads and checks that the result is the same
+ * as the one of a sequential run.
+ */
+public class IndexParallelParsingTest extends IndexTestBase {
+	private static final int SOURCES= 40;
+	private static final int HEADERS= 5;
+
+	public static TestSuite suite() {
+		return suite(IndexParallelParsingTest.class);
+	}
+
+	private ICProject fProject;
+	private String fOldParserThreads;
+
+	public IndexParallelParsingTest(String name) {
+		super(name);
+	}
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		fOldParserThreads= System.getProperty(PDOMIndexerTask.PARSER_THREADS_PROPERTY);
+		fProject= CProjectHelper.createCCProject("ParallelParsing" + System.currentTimeMillis(), "bin", IPDOMManager.ID_FAST_INDEXER);
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		if (fOldParserThreads == null) {
+			System.getProperties().remove(PDOMIndexerTask.PARSER_THREADS_PROPERTY);
+		} else {
+			System.setProperty(PDOMIndexerTask.PARSER_THREADS_PROPERTY, fOldParserThreads);
+		}
+		if (fProject != null) {
+			CProjectHelper.delete(fProject);
+		}
+		super.tearDown();
+	}
+
+	private IFile[] createFiles() throws Exception {
+		TestSourceReader.createFile(fProject.getProject(), "common.h",
+				"#ifndef COMMON_H\n#define COMMON_H\nint common(int);\nstruct Shared { int fField; };\n#endif\n");
+		for (int j = 0; j < HEADERS; j++) {
+			TestSourceReader.createFile(fProject.getProject(), "h" + j + ".h",
+					"#include \"common.h\"\nint hfunc" + j + "(Shared*);\n");
+		}
+		IFile[] sources= new IFile[SOURCES];
+		for (int i = 0; i < SOURCES; i++) {
+			sources[i]= TestSourceReader.createFile(fProject.getProject(), "src" + i + ".cpp",
+					"#include \"common.h\"\n#include \"h" + (i % HEADERS) + ".h\"\n" +
+					"int func" + i + "(Shared* s) { return common(" + i + ") + hfunc" + (i % HEADERS) + "(s) + s->fField; }\n");
+		}
+		return sources;
+	}
+
+	private void reindex(int parserThreads) throws Exception {
+		System.setProperty(PDOMIndexerTask.PARSER_THREADS_PROPERTY, String.valueOf(parserThreads));
+		CCorePlugin.getIndexManager().reindex(fProject);
+		assertTrue(CCorePlugin.getIndexManager().joinIndexer(20000, npm()));
+	}
+
+	private void checkIndex(IFile[] sources) throws Exception {
+		IIndex index= CCorePlugin.getIndexManager().getIndex(fProject);
+		index.acquireReadLock();
+		try {
+			for (int i = 0; i < SOURCES; i++) {
+				IIndexFile file= index.getFile(ILinkage.CPP_LINKAGE_ID, IndexLocationFactory.getWorkspaceIFL(sources[i]));
+				assertNotNull(sources[i].getName(), file);
+				assertEquals(sources[i].getName(), 2, file.getIncludes().length);
+
+				IBinding[] bindings= index.findBindings(("func" + i).toCharArray(), IndexFilter.ALL, npm());
+				assertEquals(1, bindings.length);
+				assertEquals(1, index.findDefinitions(bindings[0]).length);
+			}
+			IFile header= fProject.getProject().getFile("common.h");
+			assertEquals(1, index.getFiles(IndexLocationFactory.getWorkspaceIFL(header)).length);
+
+			IBinding[] bindings= index.findBindings("common".toCharArray(), IndexFilter.ALL, npm());
+			assertEquals(1, bindings.length);
+			IIndexName[] refs= index.findReferences(bindings[0]);
+			assertEquals(SOURCES, refs.length);
+
+			bindings= index.findBindings("fField".toCharArray(), IndexFilter.ALL, npm());
+			assertEquals(1, bindings.length);
+			assertEquals(SOURCES, index.findReferences(bindings[0]).length);
+
+			for (int j = 0; j < HEADERS; j++) {
+				bindings= index.findBindings(("hfunc" + j).toCharArray(), IndexFilter.ALL, npm());
+				assertEquals(1, bindings.length);
+				assertEquals(SOURCES / HEADERS, index.findReferences(bindings[0]).length);
+			}
+		} finally {
+			index.releaseReadLock();
+		}
+	}
+
+	public void testParallelParsing() throws Exception {
+		IFile[] sources= createFiles();
+		reindex(4);
+		checkIndex(sources);
+	}
+
+	public void testSameResultAsSequentialParsing() throws Exception {
+		IFile[] sources= createFiles();
+		reindex(1);
+		checkIndex(sources);
+		reindex(3);
+		checkIndex(sources);
+	}
+
+	public void testUpdateWithParallelParsing() throws Exception {
+		IFile[] sources= createFiles();
+		reindex(4);
+		// Change the header included by all sources.
+		IFile header= TestSourceReader.createFile(fProject.getProject(), "common.h",
+				"#ifndef COMMON_H\n#define COMMON_H\nint common(int);\nstruct Shared { int fField; int fOther; };\n#endif\n");
+		IIndex index= CCorePlugin.getIndexManager().getIndex(fProject);
+		TestSourceReader.waitUntilFileIsIndexed(index, header, 20000);
+		assertTrue(CCorePlugin.getIndexManager().joinIndexer(20000, npm()));
+		checkIndex(sources);
+
+		index.acquireReadLock();
+		try {
+			assertEquals(1, index.findBindings("fOther".toCharArray(), IndexFilter.ALL, npm()).length);
+		} finally {
+			index.releaseReadLock();
+		}
+	}
+}
@@ -29,6 +29,10 @@ public class BTreeExpensiveTests extends BTreeTests {
 	public void testBySortedSetMirror() throws Exception {
 		sortedMirrorTest(100);
 	}
+
+	public void testBulkLoadPerformance() throws Exception {
+		compareBulkLoadWithInsertion(1000000);
+	}
 	
 	// @Override
 	public void testInsertion() throws Exception {
@@ -163,6 +163,97 @@ public class BTreeTests extends BaseTestCase {
 		finish();
 	}
 
+	/**
+	 * Bulk load sorted records with duplicates into trees of varying degree and size and
+	 * check the result against a TreeSet. Afterwards the tree has to support insertions and
+	 * deletions as usual.
+	 */
+	public void testBulkLoad() throws Exception {
+		final int[] sizes= {0, 1, 2, 3, 4, 7, 8, 15, 16, 17, 31, 32, 33, 255, 256, 257, 4096, 20001};
+		for (int degree= 2; degree <= 8; degree+= 3) {
+			for (int i = 0; i < sizes.length; i++) {
+				int size= sizes[i];
+				init(degree);
+				Random random= new Random(size);
+				SortedSet expected= new TreeSet();
+				long[] records= new long[size];
+				for (int j = 0; j < size; j++) {
+					int value= random.nextInt(2 * size + 1);
+					expected.add(new Integer(value));
+					records[j]= new BTMockRecord(db, value).getRecord();
+				}
+				btree.sort(records);
+				btree.bulkLoad(records);
+				String msg= "[degree " + degree + ", size " + size + "] ";
+				assertBTreeInvariantsHold(msg);
+				assertBTreeMatchesSortedSet(msg, btree, expected);
+
+				for (int j = 0; j < 100; j++) {
+					int value= 2 * size + 1 + j;
+					expected.add(new Integer(value));
+					btree.insert(new BTMockRecord(db, value).getRecord());
+				}
+				for (int j = 0; j < size / 2; j++) {
+					BTMockRecord rec= new BTMockRecord(records[j], db);
+					expected.remove(new Integer(rec.intValue()));
+					btree.delete(records[j]);
+				}
+				assertBTreeInvariantsHold(msg);
+				assertBTreeMatchesSortedSet(msg, btree, expected);
+				finish();
+			}
+		}
+	}
+
+	public void testBulkLoadRejectsUnsortedRecords() throws Exception {
+		init(8);
+		long[] records= {new BTMockRecord(db, 2).getRecord(), new BTMockRecord(db, 1).getRecord()};
+		try {
+			btree.bulkLoad(records);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		btree.sort(records);
+		btree.bulkLoad(records);
+		try {
+			btree.bulkLoad(records);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		finish();
+	}
+
+	/**
+	 * Compares the time for inserting random records one by one with the time for
+	 * sorting and bulk loading them.
+	 */
+	protected void compareBulkLoadWithInsertion(int size) throws Exception {
+		for (int bulk= 0; bulk < 2; bulk++) {
+			init(8);
+			Random random= new Random(size);
+			long[] records= new long[size];
+			for (int i = 0; i < size; i++) {
+				records[i]= new BTMockRecord(db, random.nextInt(Integer.MAX_VALUE)).getRecord();
+			}
+			long time= System.currentTimeMillis();
+			if (bulk == 0) {
+				for (int i = 0; i < size; i++) {
+					btree.insert(records[i]);
+				}
+				time= System.currentTimeMillis() - time;
+				System.out.println("Insertion of " + size + " records: " + time + " ms");
+			} else {
+				btree.sort(records);
+				long sortTime= System.currentTimeMillis() - time;
+				btree.bulkLoad(records);
+				time= System.currentTimeMillis() - time;
+				System.out.println("Bulk load of " + size + " records: " + time + " ms (sorting: " + sortTime + " ms)");
+			}
+			assertBTreeInvariantsHold("");
+			finish();
+		}
+	}
+
 	public void assertBTreeInvariantsHold(String msg) throws CoreException {
 		String errorReport = btree.getInvariantsErrorReport();
 		if(!errorReport.equals("")) {
@@ -13,7 +13,9 @@
 package org.eclipse.cdt.internal.pdom.tests;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Random;
 
 import junit.framework.Test;
@@ -22,6 +24,7 @@ import org.eclipse.cdt.core.testplugin.CTestPlugin;
 import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
 import org.eclipse.cdt.internal.core.pdom.db.BTree;
 import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
+import org.eclipse.cdt.internal.core.pdom.db.CompressedChunkFile;
 import org.eclipse.cdt.internal.core.pdom.db.Database;
 import org.eclipse.cdt.internal.core.pdom.db.IBTreeComparator;
 import org.eclipse.cdt.internal.core.pdom.db.IBTreeVisitor;
@@ -126,6 +129,249 @@ public class DBTest extends BaseTestCase {
 		assertEquals(mem2, mem1);
 	}
 	
+	public void testMappedIO() throws Exception {
+		File f = getTestDir().append("testMappedIO.dat").toFile();
+		f.delete();
+		final int chunks= 100;
+		long[] records= writeChunks(f, chunks);
+		final Database wdb = new Database(f, new ChunkCache(), 0, false, false);
+		wdb.setExclusiveLock();
+		long mem= wdb.malloc(42);
+		wdb.putShort(mem, (short) -2);
+		wdb.putLong(mem + 2, 0x0102030405060708L);
+		wdb.putChar(mem + 10, 'x');
+		wdb.put3ByteUnsignedInt(mem + 12, 0xfedcba);
+		wdb.putBytes(mem + 15, new byte[] {1, 2, 3}, 3);
+		wdb.close();
+		try {
+			Database mapped= new Database(f, new ChunkCache(), 0, true, true);
+			assertTrue(mapped.isUsingMappedIO());
+			mapped.setLocked(true);
+			for (int i = 0; i < records.length; i++) {
+				assertEquals(i, mapped.getInt(records[i]));
+				assertEquals(records[i], mapped.getRecPtr(records[i] + 4));
+			}
+			assertEquals(-2, mapped.getShort(mem));
+			assertEquals(0x0102030405060708L, mapped.getLong(mem + 2));
+			assertEquals('x', mapped.getChar(mem + 10));
+			assertEquals(0xfedcba, mapped.get3ByteUnsignedInt(mem + 12));
+			byte[] bytes= new byte[3];
+			mapped.getBytes(mem + 15, bytes);
+			assertEquals(3, bytes[2]);
+			mapped.setExclusiveLock();
+			mapped.close();
+			// the regions are unmapped on close, the file can be deleted right away.
+			assertTrue(f.delete());
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testMappedIOOnlyForReadOnly() throws Exception {
+		File f = getTestDir().append("testMappedIOWritable.dat").toFile();
+		f.delete();
+		final Database db = new Database(f, new ChunkCache(0), 0, false, true);
+		try {
+			assertFalse(db.isUsingMappedIO());
+			db.setExclusiveLock();
+			long[] records= new long[50];
+			for (int i = 0; i < records.length; i++) {
+				records[i]= db.malloc(Database.MAX_MALLOC_SIZE);
+				db.putInt(records[i], i);
+			}
+			db.flush();
+			db.giveUpExclusiveLock(true);
+			// chunks have been evicted, they need to be read from the grown file
+			for (int i = 0; i < records.length; i++) {
+				assertEquals(i, db.getInt(records[i]));
+			}
+			db.setExclusiveLock();
+			db.clear(0);
+		} finally {
+			db.close();
+			f.delete();
+		}
+	}
+
+	public void testCompressedSnapshot() throws Exception {
+		File f = getTestDir().append("testCompressed.dat").toFile();
+		File compressed = getTestDir().append("testCompressed.pdz").toFile();
+		File restored = getTestDir().append("testRestored.dat").toFile();
+		f.delete();
+		compressed.delete();
+		restored.delete();
+		final int chunks= 100;
+		long[] records= writeChunks(f, chunks);
+		try {
+			Database raw= new Database(f, new ChunkCache(), 0, true);
+			raw.setLocked(true);
+			assertFalse(raw.isCompressed());
+			raw.transferCompressedTo(compressed);
+			raw.setExclusiveLock();
+			raw.close();
+			assertTrue(compressed.length() < f.length() / 4);
+
+			// a compressed snapshot can only be opened read-only
+			try {
+				new Database(compressed, new ChunkCache(), 0, false);
+				fail();
+			} catch (CoreException e) {
+			}
+
+			Database rdb= new Database(compressed, new ChunkCache(), 0, true, true);
+			assertTrue(rdb.isCompressed());
+			assertFalse(rdb.isUsingMappedIO());
+			rdb.setLocked(true);
+			for (int i = records.length; --i >= 0;) {
+				assertEquals(i, rdb.getInt(records[i]));
+				assertEquals(records[i], rdb.getRecPtr(records[i] + 4));
+			}
+			rdb.setExclusiveLock();
+			rdb.close();
+
+			OutputStream out= new FileOutputStream(restored);
+			try {
+				CompressedChunkFile.decompress(compressed, out);
+			} finally {
+				out.close();
+			}
+			assertEquals(f.length(), restored.length());
+			Database rest= new Database(restored, new ChunkCache(), 0, true);
+			rest.setLocked(true);
+			readChunks(rest, records);
+			rest.setExclusiveLock();
+			rest.close();
+		} finally {
+			f.delete();
+			compressed.delete();
+			restored.delete();
+		}
+	}
+
+	/**
+	 * Compares reading all chunks of a database through the file channel with reading them from
+	 * memory-mapped regions. The first pass uses a fresh cache (cold open), the second pass 
+	 * uses the same database (warm).
+	 */
+	public void testReadPerformanceOfIOModes() throws Exception {
+		File f = getTestDir().append("testIOModes.dat").toFile();
+		f.delete();
+		final int chunks= 4096;
+		long[] records= writeChunks(f, chunks);
+		try {
+			for (int mode = 0; mode < 2; mode++) {
+				final boolean mapped= mode == 1;
+				long start= System.currentTimeMillis();
+				Database rdb= new Database(f, new ChunkCache(), 0, true, mapped);
+				rdb.setLocked(true);
+				readChunks(rdb, records);
+				long cold= System.currentTimeMillis() - start;
+				start= System.currentTimeMillis();
+				readChunks(rdb, records);
+				long warm= System.currentTimeMillis() - start;
+				rdb.setExclusiveLock();
+				rdb.close();
+				System.out.println("Chunks: " + chunks + " mapped: " + mapped + " Time cold: " + cold + " warm: " + warm);
+			}
+		} finally {
+			f.delete();
+		}
+	}
+
+	public void testChunkCacheIsScanResistant() throws Exception {
+		File f = getTestDir().append("testScanResistance.dat").toFile();
+		f.delete();
+		final int hot= 8;
+		long[] records= writeChunks(f, 1000);
+		try {
+			Database rdb= new Database(f, new ChunkCache(64 * Database.CHUNK_SIZE), 0, true);
+			rdb.setLocked(true);
+			for (int pass = 0; pass < 2; pass++) {
+				for (int i = 0; i < hot; i++) {
+					assertEquals(i, rdb.getInt(records[i]));
+				}
+			}
+			for (int i = hot; i < records.length; i++) {
+				assertEquals(i, rdb.getInt(records[i]));
+			}
+			rdb.resetCacheCounters();
+			for (int i = 0; i < hot; i++) {
+				assertEquals(i, rdb.getInt(records[i]));
+			}
+			assertEquals(hot, rdb.getCacheHits());
+			assertEquals(0, rdb.getCacheMisses());
+			rdb.setExclusiveLock();
+			rdb.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	/**
+	 * Reads random chunks from multiple threads sharing one cache.
+	 */
+	public void testConcurrentReadPerformance() throws Exception {
+		File f = getTestDir().append("testConcurrentReads.dat").toFile();
+		f.delete();
+		final long[] records= writeChunks(f, 2048);
+		try {
+			final Database rdb= new Database(f, new ChunkCache(), 0, true);
+			rdb.setLocked(true);
+			for (int threads = 1; threads <= 8; threads*= 2) {
+				final Throwable[] failure= {null};
+				Thread[] readers= new Thread[threads];
+				long start= System.currentTimeMillis();
+				for (int t = 0; t < threads; t++) {
+					final Random random= new Random(t);
+					readers[t]= new Thread() {
+						@Override
+						public void run() {
+							try {
+								for (int j = 0; j < 200000; j++) {
+									int i= random.nextInt(records.length);
+									assertEquals(i, rdb.getInt(records[i]));
+								}
+							} catch (Throwable e) {
+								failure[0]= e;
+							}
+						}
+					};
+					readers[t].start();
+				}
+				for (Thread reader : readers) {
+					reader.join();
+				}
+				if (failure[0] != null) {
+					throw new Exception(failure[0]);
+				}
+				System.out.println("Threads: " + threads + " Reads: " + threads * 200000 + " Time: " + (System.currentTimeMillis() - start));
+			}
+			rdb.setExclusiveLock();
+			rdb.close();
+		} finally {
+			f.delete();
+		}
+	}
+
+	private long[] writeChunks(File f, int chunks) throws CoreException {
+		final Database wdb = new Database(f, new ChunkCache(), 0, false, false);
+		wdb.setExclusiveLock();
+		long[] records= new long[chunks];
+		for (int i = 0; i < chunks; i++) {
+			records[i]= wdb.malloc(Database.MAX_MALLOC_SIZE);
+			wdb.putInt(records[i], i);
+			wdb.putRecPtr(records[i] + 4, records[i]);
+		}
+		wdb.close();
+		return records;
+	}
+
+	private void readChunks(Database rdb, long[] records) throws CoreException {
+		for (int i = 0; i < records.length; i++) {
+			assertEquals(i, rdb.getInt(records[i]));
+		}
+	}
+
 	private static class FindVisitor implements IBTreeVisitor {
 		private Database db;
 		private String key;
@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.pdom.tests;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+
+import org.eclipse.cdt.core.model.LanguageManager;
+import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
+import org.eclipse.cdt.internal.core.index.IIndexFragment;
+import org.eclipse.cdt.internal.core.index.WritableCIndex;
+import org.eclipse.cdt.internal.core.pdom.PDOMLockStatistics;
+import org.eclipse.cdt.internal.core.pdom.WritablePDOM;
+import org.eclipse.cdt.internal.core.pdom.YieldableIndexLock;
+import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
+
+/**
+ * Tests for the read and write locks of the PDOM.
+ */
+public class PDOMLockTests extends BaseTestCase {
+	private File fFile;
+	private WritablePDOM fPDOM;
+
+	public static Test suite() {
+		return suite(PDOMLockTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fFile= File.createTempFile("pdomlock", ".pdom");
+		fPDOM= new WritablePDOM(fFile, null, new ChunkCache(),
+				LanguageManager.getInstance().getPDOMLinkageFactoryMappings());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		fPDOM.close();
+		fFile.delete();
+		super.tearDown();
+	}
+
+	public void testLockStatistics() throws Exception {
+		fPDOM.resetLockStatistics();
+		for (int i = 0; i < 3; i++) {
+			fPDOM.acquireReadLock();
+			fPDOM.releaseReadLock();
+		}
+		fPDOM.acquireWriteLock();
+		fPDOM.releaseWriteLock();
+
+		PDOMLockStatistics stats= fPDOM.getLockStatistics();
+		assertEquals(3, stats.getReadLockWaitTimes().getSampleCount());
+		assertEquals(1, stats.getWriteLockWaitTimes().getSampleCount());
+		assertEquals(1, stats.getWriteLockHoldTimes().getSampleCount());
+
+		// The snapshot does not change.
+		fPDOM.acquireReadLock();
+		fPDOM.releaseReadLock();
+		assertEquals(3, stats.getReadLockWaitTimes().getSampleCount());
+
+		fPDOM.resetLockStatistics();
+		assertEquals(0, fPDOM.getLockStatistics().getReadLockWaitTimes().getSampleCount());
+	}
+
+	public void testHistogramBuckets() throws Exception {
+		assertEquals(1, PDOMLockStatistics.Histogram.getUpperBound(0));
+		assertEquals(2, PDOMLockStatistics.Histogram.getUpperBound(1));
+		assertEquals(Long.MAX_VALUE,
+				PDOMLockStatistics.Histogram.getUpperBound(PDOMLockStatistics.Histogram.BUCKET_COUNT - 1));
+	}
+
+	public void testWriterWaitsForReaders() throws Exception {
+		fPDOM.resetLockStatistics();
+		fPDOM.acquireReadLock();
+		final boolean[] acquired= {false};
+		Thread writer= new Thread() {
+			@Override
+			public void run() {
+				try {
+					fPDOM.acquireWriteLock();
+					synchronized (acquired) {
+						acquired[0]= true;
+					}
+					fPDOM.releaseWriteLock();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		writer.start();
+		waitForWriter();
+		Thread.sleep(50);
+		synchronized (acquired) {
+			assertFalse(acquired[0]);
+		}
+		fPDOM.releaseReadLock();
+		writer.join(10000);
+		synchronized (acquired) {
+			assertTrue(acquired[0]);
+		}
+		assertTrue(fPDOM.getLockStatistics().getWriteLockWaitTimes().getTotalTime() >= 50);
+	}
+
+	public void testWriteLockFromReadLock() throws Exception {
+		fPDOM.acquireReadLock();
+		fPDOM.acquireWriteLock(1);
+		fPDOM.releaseWriteLock(1, false);
+		fPDOM.releaseReadLock();
+
+		// A writer that gives up a read lock must not wait for a writer that needs all locks to
+		// be released.
+		fPDOM.acquireReadLock();
+		Thread writer= new Thread() {
+			@Override
+			public void run() {
+				try {
+					fPDOM.acquireWriteLock();
+					fPDOM.releaseWriteLock();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		writer.start();
+		waitForWriter();
+		fPDOM.acquireWriteLock(1);
+		fPDOM.releaseWriteLock(0, true);
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+	}
+
+	public void testFairWriteLocks() throws Exception {
+		fPDOM.setFairLocks(true);
+		final List<String> order= new ArrayList<String>();
+		fPDOM.acquireWriteLock();
+		Thread first= startWriter("first", order);
+		waitForWriter();
+		Thread.sleep(50);
+		Thread second= startWriter("second", order);
+		Thread.sleep(50);
+		fPDOM.releaseWriteLock();
+		first.join(10000);
+		second.join(10000);
+		synchronized (order) {
+			assertEquals(2, order.size());
+			assertEquals("first", order.get(0));
+			assertEquals("second", order.get(1));
+		}
+	}
+
+	public void testFairWriteLockFromReadLock() throws Exception {
+		// An earlier request that needs all read locks to be released must not block a
+		// later request giving up the read lock, even with fair locking.
+		fPDOM.setFairLocks(true);
+		final List<String> order= new ArrayList<String>();
+		fPDOM.acquireReadLock();
+		Thread writer= startWriter("writer", order);
+		waitForWriter();
+		fPDOM.acquireWriteLock(1);
+		synchronized (order) {
+			assertTrue(order.isEmpty());
+		}
+		fPDOM.releaseWriteLock(0, true);
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+		synchronized (order) {
+			assertEquals(1, order.size());
+		}
+	}
+
+	public void testYieldToWaitingWriters() throws Exception {
+		WritableCIndex index= new WritableCIndex(fPDOM, new IIndexFragment[0]);
+		YieldableIndexLock lock= new YieldableIndexLock(index, 0, false, 1);
+		// The waiting writer shall get the lock before it is acquired again.
+		fPDOM.setFairLocks(true);
+		fPDOM.resetLockStatistics();
+		lock.acquire();
+		Thread.sleep(20);
+		// Nobody is waiting, the lock is kept although the maximum hold time has elapsed.
+		lock.yield();
+		assertEquals(0, fPDOM.getLockStatistics().getWriteLockHoldTimes().getSampleCount());
+
+		final List<String> order= new ArrayList<String>();
+		Thread writer= startWriter("writer", order);
+		waitForWriter();
+		lock.yield();
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+		lock.release();
+		synchronized (order) {
+			assertEquals(1, order.size());
+		}
+		assertEquals(3, fPDOM.getLockStatistics().getWriteLockHoldTimes().getSampleCount());
+	}
+
+	public void testYieldToWaitingWritersWithReadLocks() throws Exception {
+		WritableCIndex index= new WritableCIndex(fPDOM, new IIndexFragment[0]);
+		index.acquireReadLock();
+		YieldableIndexLock lock= new YieldableIndexLock(index, 1, false, 1);
+		fPDOM.setFairLocks(true);
+		lock.acquire();
+		Thread.sleep(20);
+
+		// The read lock the write lock was acquired from must be given up, too.
+		final List<String> order= new ArrayList<String>();
+		Thread writer= startWriter("writer", order);
+		waitForWriter();
+		lock.yield();
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+		synchronized (order) {
+			assertEquals(1, order.size());
+		}
+
+		// The read lock is established again.
+		lock.release();
+		index.releaseReadLock();
+	}
+
+	public void testNoYieldBeforeMaxHoldTime() throws Exception {
+		WritableCIndex index= new WritableCIndex(fPDOM, new IIndexFragment[0]);
+		YieldableIndexLock lock= new YieldableIndexLock(index, 0, false, 100000);
+		fPDOM.resetLockStatistics();
+		lock.acquire();
+		final List<String> order= new ArrayList<String>();
+		Thread writer= startWriter("writer", order);
+		waitForWriter();
+		lock.yield();
+		synchronized (order) {
+			assertTrue(order.isEmpty());
+		}
+		lock.release();
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+	}
+
+	private Thread startWriter(final String name, final List<String> order) {
+		Thread writer= new Thread() {
+			@Override
+			public void run() {
+				try {
+					fPDOM.acquireWriteLock();
+					synchronized (order) {
+						order.add(name);
+					}
+					fPDOM.releaseWriteLock();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		writer.start();
+		return writer;
+	}
+
+	private void waitForWriter() throws InterruptedException {
+		for (int i = 0; i < 1000 && !fPDOM.hasWaitingWriters(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(fPDOM.hasWaitingWriters());
+	}
+}
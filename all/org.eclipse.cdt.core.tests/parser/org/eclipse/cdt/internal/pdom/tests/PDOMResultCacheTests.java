@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.pdom.tests;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.Test;
+
+import org.eclipse.cdt.core.model.LanguageManager;
+import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
+import org.eclipse.cdt.internal.core.pdom.PDOMResultCache;
+import org.eclipse.cdt.internal.core.pdom.WritablePDOM;
+import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
+import org.eclipse.cdt.internal.core.pdom.dom.cpp.PDOMInstanceCache;
+
+/**
+ * Tests for the cache of results computed from the database of a PDOM.
+ */
+public class PDOMResultCacheTests extends BaseTestCase {
+	private File fFile;
+	private WritablePDOM fPDOM;
+
+	public static Test suite() {
+		return suite(PDOMResultCacheTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fFile= File.createTempFile("pdomcache", ".pdom");
+		fPDOM= new WritablePDOM(fFile, null, new ChunkCache(),
+				LanguageManager.getInstance().getPDOMLinkageFactoryMappings());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		fPDOM.close();
+		fFile.delete();
+		super.tearDown();
+	}
+
+	public void testResultsSurviveReadLocks() throws Exception {
+		final Long recordKey= new Long(4711);
+		final Object transientKey= new Object();
+		fPDOM.acquireReadLock();
+		fPDOM.putCachedResult(recordKey, "record");
+		fPDOM.putCachedResult(transientKey, "transient");
+		fPDOM.releaseReadLock();
+
+		fPDOM.acquireReadLock();
+		assertEquals("record", fPDOM.getCachedResult(recordKey));
+		assertNull(fPDOM.getCachedResult(transientKey));
+		fPDOM.releaseReadLock();
+
+		// Any write access invalidates the results.
+		fPDOM.acquireWriteLock();
+		fPDOM.releaseWriteLock();
+		fPDOM.acquireReadLock();
+		assertNull(fPDOM.getCachedResult(recordKey));
+		fPDOM.releaseReadLock();
+	}
+
+	public void testInstanceCachesAreTransient() throws Exception {
+		final Object instancesKey= fPDOM.createTransientKeyForCache(4711, 2);
+		final Long recordKey= new Long(4711);
+		assertFalse(instancesKey.equals(fPDOM.createTransientKeyForCache(4711, 3)));
+		fPDOM.acquireReadLock();
+		fPDOM.putCachedResult(instancesKey, new PDOMInstanceCache());
+		fPDOM.putCachedResult(recordKey, "record");
+		assertTrue(fPDOM.getCachedResult(instancesKey) instanceof PDOMInstanceCache);
+		fPDOM.releaseReadLock();
+
+		fPDOM.acquireWriteLock();
+		fPDOM.releaseWriteLock();
+
+		fPDOM.acquireReadLock();
+		assertNull(fPDOM.getCachedResult(instancesKey));
+		assertNull(fPDOM.getCachedResult(recordKey));
+		fPDOM.putCachedResult(instancesKey, new PDOMInstanceCache());
+		fPDOM.releaseReadLock();
+
+		// Instances do not even survive the read-lock.
+		fPDOM.acquireReadLock();
+		assertNull(fPDOM.getCachedResult(instancesKey));
+		fPDOM.releaseReadLock();
+	}
+
+	public void testWriteWithEstablishedReadLocks() throws Exception {
+		final String key= fPDOM.createKeyForCache(4711, "name".toCharArray());
+		fPDOM.acquireReadLock();
+		fPDOM.acquireWriteLock(1);
+		fPDOM.putCachedResult(key, "value");
+		fPDOM.releaseWriteLock(1, false);
+		assertEquals("value", fPDOM.getCachedResult(key));
+		fPDOM.releaseReadLock();
+
+		fPDOM.acquireReadLock();
+		assertNull(fPDOM.getCachedResult(key));
+		fPDOM.releaseReadLock();
+	}
+
+	public void testPutWithoutReplace() throws Exception {
+		final Long key= new Long(1);
+		assertEquals("first", fPDOM.putCachedResult(key, "first", false));
+		assertEquals("first", fPDOM.putCachedResult(key, "second", false));
+		assertEquals("second", fPDOM.putCachedResult(key, "second", true));
+		assertEquals("second", fPDOM.putCachedResult(key, null, false));
+		fPDOM.putCachedResult(key, null);
+		assertNull(fPDOM.getCachedResult(key));
+	}
+
+	public void testStatisticsPerKeyType() throws Exception {
+		fPDOM.resetResultCacheStatistics();
+		fPDOM.putCachedResult(new Long(1), "value");
+		fPDOM.getCachedResult(new Long(1));
+		fPDOM.getCachedResult(new Long(1));
+		fPDOM.getCachedResult(new Long(2));
+		fPDOM.getCachedResult("key");
+
+		List<PDOMResultCache.KeyTypeStatistics> stats= fPDOM.getResultCacheStatistics();
+		assertEquals(2, stats.size());
+		assertEquals(Long.class.getName(), stats.get(0).getKeyType());
+		assertEquals(2, stats.get(0).getHits());
+		assertEquals(1, stats.get(0).getMisses());
+		assertEquals(String.class.getName(), stats.get(1).getKeyType());
+		assertEquals(0, stats.get(1).getHits());
+		assertEquals(1, stats.get(1).getMisses());
+
+		fPDOM.resetResultCacheStatistics();
+		assertTrue(fPDOM.getResultCacheStatistics().isEmpty());
+	}
+
+	public void testSizeLimit() throws Exception {
+		final int capacity= 160;
+		PDOMResultCache cache= new PDOMResultCache(capacity);
+		for (int i = 0; i < 10 * capacity; i++) {
+			cache.put(new Long(i), "value", true);
+			assertTrue(cache.size() <= capacity);
+		}
+		assertTrue(cache.getEvictions() >= 9 * capacity);
+
+		// Results for transient keys are not evicted.
+		Object[] keys= new Object[2 * capacity];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i]= new Object();
+			cache.put(keys[i], "value", true);
+		}
+		for (Object key : keys) {
+			assertNotNull(cache.get(key));
+		}
+		cache.clearTransient();
+		for (Object key : keys) {
+			assertNull(cache.get(key));
+		}
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		final PDOMResultCache cache= new PDOMResultCache(1000);
+		final Throwable[] failure= {null};
+		Thread[] threads= new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset= t * 10000;
+			threads[t]= new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 10000; i++) {
+							final Long key= new Long(offset + i % 100);
+							Object value= cache.put(key, key, false);
+							assertEquals(key, value);
+							value= cache.get(key);
+							if (value != null) {
+								assertEquals(key, value);
+							}
+						}
+					} catch (Throwable e) {
+						synchronized (failure) {
+							failure[0]= e;
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		synchronized (failure) {
+			assertNull(failure[0]);
+		}
+	}
+}
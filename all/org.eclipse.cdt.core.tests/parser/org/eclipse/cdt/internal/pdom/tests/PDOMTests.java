@@ -27,6 +27,8 @@ public class PDOMTests extends TestSuite {
 		
 		suite.addTest(DBTest.suite());
 		suite.addTest(DBPropertiesTests.suite());
+		suite.addTest(PDOMLockTests.suite());
+		suite.addTest(PDOMResultCacheTests.suite());
 		suite.addTest(PDOMCBugsTest.suite());
 		suite.addTest(PDOMCPPBugsTest.suite());
 		suite.addTest(PDOMSearchTest.suite());
@@ -39,6 +41,7 @@ public class PDOMTests extends TestSuite {
 		suite.addTest(OverloadsWithinSingleTUTests.suite());
 		suite.addTest(OverloadsWithinCommonHeaderTests.suite());
 		suite.addTest(BTreeTests.suite());
+		suite.addTest(TrigramIndexTests.suite());
 		suite.addTest(FilesOnReindexTests.suite());		
 		suite.addTest(GeneratePDOMApplicationTest.suite());
 		
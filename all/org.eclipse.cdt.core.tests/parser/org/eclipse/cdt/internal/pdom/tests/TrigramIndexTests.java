@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.pdom.tests;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import junit.framework.Test;
+
+import org.eclipse.cdt.core.testplugin.CTestPlugin;
+import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
+import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
+import org.eclipse.cdt.internal.core.pdom.db.Database;
+import org.eclipse.cdt.internal.core.pdom.db.TrigramIndex;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Tests for the trigram index used to search bindings with regular expressions.
+ */
+public class TrigramIndexTests extends BaseTestCase {
+	private static final String[] NAMES= {
+		"MyManagerImpl", "ManagerImpl", "IndexManager", "fooobar", "foobar", "FooBar", "abcd", "acd",
+		"bcd", "def", "cdef", "xdef", "operator +=", "a_b_c", "x"
+	};
+	private static final String[] PATTERNS= {
+		".*Manager.*Impl", "a?bcd", "ab+cd", "fo{2}bar", "fo+bar", "(abc)?def", "ab{0,2}cd", ".*bar",
+		"[a-c]def", "foo\\.bar", "\\wdef", "operator.*", "a_b_c", "ab|xdef", ".*"
+	};
+
+	private Database db;
+
+	public static Test suite() {
+		return suite(TrigramIndexTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		IPath path = CTestPlugin.getDefault().getStateLocation().append("tests/");
+		File dir = path.toFile();
+		if (!dir.exists())
+			dir.mkdir();
+		db = new Database(path.append(getName() + System.currentTimeMillis() + ".dat").toFile(),
+				new ChunkCache(), 0, false);
+		db.setExclusiveLock();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.close();
+		if (!db.getLocation().delete()) {
+			db.getLocation().deleteOnExit();
+		}
+		db= null;
+		super.tearDown();
+	}
+
+	public void testRequiredTrigrams() throws Exception {
+		assertNull(TrigramIndex.getRequiredTrigrams(Pattern.compile("ab")));
+		assertNull(TrigramIndex.getRequiredTrigrams(Pattern.compile("ab+cd")));
+		assertNull(TrigramIndex.getRequiredTrigrams(Pattern.compile("abc|def")));
+		assertNull(TrigramIndex.getRequiredTrigrams(Pattern.compile("(?x)abc")));
+		assertNull(TrigramIndex.getRequiredTrigrams(Pattern.compile("abc", Pattern.LITERAL)));
+		assertEquals(1, TrigramIndex.getRequiredTrigrams(Pattern.compile("abc")).length);
+		assertEquals(7, TrigramIndex.getRequiredTrigrams(Pattern.compile(".*Manager.*Impl")).length);
+		assertEquals(2, TrigramIndex.getRequiredTrigrams(Pattern.compile("foo\\.bar", Pattern.CASE_INSENSITIVE)).length);
+	}
+
+	public void testNoFalseNegatives() throws Exception {
+		for (String p : PATTERNS) {
+			for (int flags : new int[] {0, Pattern.CASE_INSENSITIVE}) {
+				Pattern pattern= Pattern.compile(p, flags);
+				int[] required= TrigramIndex.getRequiredTrigrams(pattern);
+				if (required == null)
+					continue;
+				for (String name : NAMES) {
+					if (pattern.matcher(name).matches()) {
+						int[] trigrams= TrigramIndex.computeTrigrams(name.toCharArray());
+						for (int trigram : required) {
+							assertTrue(p + " / " + name, Arrays.binarySearch(trigrams, trigram) >= 0);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	public void testCandidates() throws Exception {
+		TrigramIndex index= new TrigramIndex(db);
+		long[] records= new long[NAMES.length];
+		for (int i = 0; i < NAMES.length; i++) {
+			records[i]= db.malloc(4);
+			index.add(NAMES[i].toCharArray(), records[i]);
+		}
+		index= new TrigramIndex(db, index.getRecord());
+		for (String p : PATTERNS) {
+			Pattern pattern= Pattern.compile(p, Pattern.CASE_INSENSITIVE);
+			int[] required= TrigramIndex.getRequiredTrigrams(pattern);
+			if (required == null)
+				continue;
+			Set<Long> candidates= new HashSet<Long>();
+			for (long rec : index.getCandidates(required)) {
+				candidates.add(rec);
+			}
+			for (int i = 0; i < NAMES.length; i++) {
+				if (pattern.matcher(NAMES[i]).matches()) {
+					assertTrue(p + " / " + NAMES[i], candidates.contains(records[i]));
+				}
+			}
+		}
+		long[] candidates= index.getCandidates(TrigramIndex.getRequiredTrigrams(Pattern.compile(".*Manager.*Impl")));
+		assertEquals(2, candidates.length);
+	}
+
+	public void testManyPostings() throws Exception {
+		TrigramIndex index= new TrigramIndex(db);
+		Random random= new Random(42);
+		final int count= 5000;
+		long[] withName= new long[count];
+		for (int i = 0; i < count; i++) {
+			long rec= db.malloc(4);
+			if (random.nextBoolean()) {
+				index.add(("item" + i + "Manager").toCharArray(), rec);
+				withName[i]= rec;
+			} else {
+				index.add(("item" + i).toCharArray(), rec);
+			}
+		}
+		long[] candidates= index.getCandidates(TrigramIndex.getRequiredTrigrams(Pattern.compile(".*Manager")));
+		for (long rec : withName) {
+			if (rec != 0) {
+				assertTrue(Arrays.binarySearch(candidates, rec) >= 0);
+			}
+		}
+		for (int i = 1; i < candidates.length; i++) {
+			assertTrue(candidates[i-1] < candidates[i]);
+		}
+	}
+}
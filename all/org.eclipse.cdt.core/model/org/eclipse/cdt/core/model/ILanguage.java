@@ -82,6 +82,16 @@ public interface ILanguage extends IAdaptable {
 	 */
 	public final static int OPTION_PARSE_INACTIVE_CODE= 0x20;
 
+	/**
+	 * Option for {@link #getASTTranslationUnit(FileContent, IScannerInfo, IncludeFileContentProvider, IIndex, int, IParserLogService)}
+	 * Allows the preprocessor to replay headers that do not contribute any tokens to the parser from
+	 * a cache shared by all translation units, rather than reading them. The directives of such headers
+	 * are not reported, therefore the option must not be used for ASTs that are stored in the index.
+	 * 
+	 * @since 5.3
+	 */
+	public final static int OPTION_USE_PREPROCESSED_HEADER_CACHE= 0x40;
+
 	/**
 	 * Return the language id for this language.
 	 * This is to differentiate languages from each other.
@@ -800,6 +800,10 @@ public class TranslationUnit extends Openable implements ITranslationUnit {
 		if (isSourceUnit()) {
 			options |= ILanguage.OPTION_IS_SOURCE_UNIT;
 		}
+		if (index != null && (style & AST_SKIP_INDEXED_HEADERS) != 0) {
+			// headers are not fully represented in such ASTs, anyway.
+			options |= ILanguage.OPTION_USE_PREPROCESSED_HEADER_CACHE;
+		}
 		final IParserLogService log;
 		if (monitor instanceof ICanceler) {
 			log= new ParserLogService(DebugLogConstants.PARSER, (ICanceler) monitor);
@@ -35,6 +35,7 @@ import org.eclipse.cdt.core.parser.ParserLanguage;
 import org.eclipse.cdt.core.parser.ParserMode;
 import org.eclipse.cdt.internal.core.dom.parser.AbstractGNUSourceCodeParser;
 import org.eclipse.cdt.internal.core.parser.scanner.CPreprocessor;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache;
 import org.eclipse.cdt.internal.core.util.ICancelable;
 import org.eclipse.cdt.internal.core.util.ICanceler;
 import org.eclipse.core.runtime.CoreException;
@@ -119,6 +120,9 @@ public abstract class AbstractCLikeLanguage extends AbstractLanguage implements
 		final IScanner scanner= createScanner(reader, scanInfo, fileCreator, log);
 		scanner.setComputeImageLocations((options & OPTION_NO_IMAGE_LOCATIONS) == 0);
 		scanner.setProcessInactiveCode((options & OPTION_PARSE_INACTIVE_CODE) != 0);
+		if ((options & OPTION_USE_PREPROCESSED_HEADER_CACHE) != 0 && scanner instanceof CPreprocessor) {
+			((CPreprocessor) scanner).setPreprocessedHeaderCache(PreprocessedHeaderCache.getInstance());
+		}
 
 		final ISourceCodeParser parser= createParser(scanner, log, index, false, options);
 
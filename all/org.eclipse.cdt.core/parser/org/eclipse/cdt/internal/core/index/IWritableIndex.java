@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Wind River Systems, Inc. and others.
+ * Copyright (c) 2006, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -120,6 +120,18 @@ public interface IWritableIndex extends IIndex {
 	 * @param flushDatabase when true the changes are flushed to disk.
 	 */
 	void releaseWriteLock(int establishReadLockCount, boolean flushDatabase);
+
+	/**
+	 * Returns whether other threads are waiting for the write lock.
+	 */
+	boolean hasWaitingWriters();
+
+	/**
+	 * Temporarily releases the write lock together with the read locks it was acquired from,
+	 * such that other writers can get in, and acquires it again. The read locks keep being
+	 * counted for this index. If interrupted, the write lock is no longer held.
+	 */
+	void yieldWriteLock() throws InterruptedException;
 	
 	/**
 	 * Resets the counters for cache-hits
@@ -93,6 +93,11 @@ public interface IWritableIndexFragment extends IIndexFragment {
 	 */
 	void releaseWriteLock(int establishReadLockCount, boolean flush);
 
+	/**
+	 * Returns whether other threads are waiting for the write lock.
+	 */
+	boolean hasWaitingWriters();
+
 	/**
 	 * Write the key, value mapping to the fragment properties. If a mapping for the
 	 * same key already exists, it is overwritten.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Wind River Systems, Inc. and others.
+ * Copyright (c) 2006, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -130,6 +130,22 @@ public class WritableCIndex extends CIndex implements IWritableIndex {
 		fIsWriteLocked= true;
 	}
 
+	public boolean hasWaitingWriters() {
+		return fWritableFragment.hasWaitingWriters();
+	}
+
+	public void yieldWriteLock() throws InterruptedException {
+		checkThread();
+		assert fIsWriteLocked: "No write lock to be yielded"; //$NON-NLS-1$
+
+		// Other writers may change the index.
+		clearResultCache();
+		fIsWriteLocked= false;
+		fWritableFragment.releaseWriteLock(0, false);
+		fWritableFragment.acquireWriteLock(0);
+		fIsWriteLocked= true;
+	}
+
 	public void releaseWriteLock(int establishReadlockCount) {
 		releaseWriteLock(establishReadlockCount, true);
 	}
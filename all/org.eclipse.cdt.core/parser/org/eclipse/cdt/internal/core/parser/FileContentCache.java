@@ -0,0 +1,549 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.parser;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.internal.core.parser.scanner.AbstractCharArray;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Preferences;
+
+/**
+ * Process wide cache for the contents of files, bounded by the number of bytes used for
+ * storing the contents. The contents are stored outside of the java heap in direct buffers,
+ * files that contain latin-1 characters, only, use one byte per character.
+ * <p>
+ * New entries are kept in a small window, when they are pushed out of the window they are
+ * admitted to the main part of the cache only if they are accessed more frequently than the
+ * entries they would replace (W-TinyLFU). The frequencies are approximated with a small sketch,
+ * such that files that are read once during indexing do not push out the frequently included
+ * headers.
+ * <p>
+ * An entry is valid as long as the time-stamp and the length of the file do not change, in
+ * addition entries for workspace files are removed when the resource changes.
+ */
+public final class FileContentCache {
+	/**
+	 * Snapshot of the statistics of the cache.
+	 */
+	public static final class Statistics {
+		private final long fHits;
+		private final long fMisses;
+		private final long fEvictions;
+		private final long fRejections;
+		private final long fBytes;
+		private final long fSpaceLimit;
+		private final int fEntries;
+
+		Statistics(long hits, long misses, long evictions, long rejections, long bytes, long limit, int entries) {
+			fHits= hits;
+			fMisses= misses;
+			fEvictions= evictions;
+			fRejections= rejections;
+			fBytes= bytes;
+			fSpaceLimit= limit;
+			fEntries= entries;
+		}
+
+		/** Number of requests that were answered from the cache. */
+		public long getHits() {
+			return fHits;
+		}
+
+		/** Number of requests that could not be answered from the cache. */
+		public long getMisses() {
+			return fMisses;
+		}
+
+		/** Ratio of hits to the total number of requests, between 0 and 1. */
+		public double getHitRatio() {
+			final long requests= fHits + fMisses;
+			return requests == 0 ? 0.0 : (double) fHits / requests;
+		}
+
+		/** Number of entries that were removed from the cache to make room for other entries. */
+		public long getEvictions() {
+			return fEvictions;
+		}
+
+		/** Number of candidates that were not admitted to the cache. */
+		public long getRejections() {
+			return fRejections;
+		}
+
+		/** Number of bytes used for storing file contents. */
+		public long getBytes() {
+			return fBytes;
+		}
+
+		/** Maximum number of bytes used for storing file contents. */
+		public long getSpaceLimit() {
+			return fSpaceLimit;
+		}
+
+		/** Number of files in the cache. */
+		public int getEntryCount() {
+			return fEntries;
+		}
+	}
+
+	private static final class Entry {
+		final String fPath;
+		final long fTimestamp;
+		final long fFileLength;
+		final ByteBuffer fData;
+		final boolean fWide;
+		final int fLength;
+		final long fHash;
+
+		Entry(String path, long timestamp, long fileLength, ByteBuffer data, boolean wide, int length, long hash) {
+			fPath= path;
+			fTimestamp= timestamp;
+			fFileLength= fileLength;
+			fData= data;
+			fWide= wide;
+			fLength= length;
+			fHash= hash;
+		}
+
+		int getSize() {
+			return fData.capacity();
+		}
+	}
+
+	/**
+	 * Read-only view on the contents of an entry.
+	 */
+	private static final class CachedCharArray extends AbstractCharArray {
+		private final Entry fEntry;
+
+		CachedCharArray(Entry entry) {
+			fEntry= entry;
+		}
+
+		@Override
+		public int tryGetLength() {
+			return fEntry.fLength;
+		}
+
+		@Override
+		public int getLength() {
+			return fEntry.fLength;
+		}
+
+		@Override
+		public boolean isValidOffset(int offset) {
+			return offset < fEntry.fLength;
+		}
+
+		@Override
+		public long getContentsHash() {
+			return fEntry.fHash;
+		}
+
+		@Override
+		public char get(int offset) {
+			if (fEntry.fWide)
+				return fEntry.fData.getChar(offset << 1);
+			return (char) (fEntry.fData.get(offset) & 0xff);
+		}
+
+		@Override
+		public void arraycopy(int offset, char[] destination, int destinationPos, int length) {
+			final ByteBuffer data= fEntry.fData;
+			final int end= destinationPos + length;
+			if (fEntry.fWide) {
+				for (int i = destinationPos, pos= offset << 1; i < end; i++, pos+= 2) {
+					destination[i]= data.getChar(pos);
+				}
+			} else {
+				for (int i = destinationPos, pos= offset; i < end; i++, pos++) {
+					destination[i]= (char) (data.get(pos) & 0xff);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count-min sketch with four rows of byte counters, used to estimate the frequencies of
+	 * accesses to files. The counters are halved periodically, such that older accesses count
+	 * less.
+	 */
+	static final class FrequencySketch {
+		private static final int ROWS= 4;
+		private static final int MAX_COUNT= 15;
+		private static final int[] SEEDS= {0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+		private final byte[] fCounters;
+		private final int fMask;
+		private final int fSampleSize;
+		private int fAdditions;
+
+		FrequencySketch(int width) {
+			int w= 16;
+			while (w < width)
+				w <<= 1;
+			fCounters= new byte[ROWS * w];
+			fMask= w - 1;
+			fSampleSize= 10 * w;
+		}
+
+		void increment(int hash) {
+			boolean added= false;
+			for (int i = 0; i < ROWS; i++) {
+				final int idx= index(hash, i);
+				if (fCounters[idx] < MAX_COUNT) {
+					fCounters[idx]++;
+					added= true;
+				}
+			}
+			if (added && ++fAdditions >= fSampleSize) {
+				reset();
+			}
+		}
+
+		int frequency(int hash) {
+			int result= MAX_COUNT;
+			for (int i = 0; i < ROWS; i++) {
+				result= Math.min(result, fCounters[index(hash, i)]);
+			}
+			return result;
+		}
+
+		private int index(int hash, int row) {
+			int h= (hash ^ SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+			h^= h >>> 16;
+			return row * (fMask + 1) + (h & fMask);
+		}
+
+		private void reset() {
+			for (int i = 0; i < fCounters.length; i++) {
+				fCounters[i]= (byte) (fCounters[i] >> 1);
+			}
+			fAdditions/= 2;
+		}
+	}
+
+	/** Percentage of the space reserved for the window of new entries. */
+	private static final int WINDOW_PERCENT= 1;
+	/** Minimum size of the window, such that a typical header fits into it. */
+	private static final long MIN_WINDOW_SIZE= 256 * 1024;
+	private static final int SKETCH_WIDTH= 8 * 1024;
+
+	private static FileContentCache sInstance;
+
+	/**
+	 * Returns the cache used for reading files for the parser.
+	 */
+	public static synchronized FileContentCache getInstance() {
+		if (sInstance == null) {
+			sInstance= new FileContentCache(getConfiguredSpaceLimit());
+			sInstance.addResourceChangeListener();
+		}
+		return sInstance;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static long getConfiguredSpaceLimit() {
+		int mb= org.eclipse.cdt.core.parser.CodeReaderCache.DEFAULT_CACHE_SIZE_IN_MB;
+		final CCorePlugin plugin= CCorePlugin.getDefault();
+		if (plugin != null) {
+			Preferences prefs= plugin.getPluginPreferences();
+			if (prefs != null && prefs.contains(org.eclipse.cdt.core.parser.CodeReaderCache.CODE_READER_BUFFER)) {
+				mb= Math.max(0, prefs.getInt(org.eclipse.cdt.core.parser.CodeReaderCache.CODE_READER_BUFFER));
+			}
+		}
+		return mb * 1024L * 1024L;
+	}
+
+	// access-ordered maps, the eldest entry is the least recently used one.
+	private final LinkedHashMap<String, Entry> fWindow= new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Entry> fMain= new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private final FrequencySketch fSketch= new FrequencySketch(SKETCH_WIDTH);
+	private long fSpaceLimit;
+	private long fWindowLimit;
+	private long fWindowBytes;
+	private long fMainBytes;
+
+	private long fHits;
+	private long fMisses;
+	private long fEvictions;
+	private long fRejections;
+
+	/**
+	 * Creates a cache with the given limit, clients should use {@link #getInstance()}.
+	 */
+	public FileContentCache(long spaceLimit) {
+		setSpaceLimit(spaceLimit);
+	}
+
+	private void addResourceChangeListener() {
+		try {
+			ResourcesPlugin.getWorkspace().addResourceChangeListener(new IResourceChangeListener() {
+				public void resourceChanged(IResourceChangeEvent event) {
+					final IResourceDelta delta= event.getDelta();
+					if (delta != null && !isEmpty()) {
+						removeAffectedFiles(delta);
+					}
+				}
+			}, IResourceChangeEvent.POST_CHANGE);
+		} catch (IllegalStateException e) {
+			// No workspace (e.g. the standalone indexer), entries are still validated
+			// with the time-stamps of the files.
+		}
+	}
+
+	void removeAffectedFiles(IResourceDelta delta) {
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta d) throws CoreException {
+					final IResource res= d.getResource();
+					if (res instanceof IFile) {
+						IPath location= res.getLocation();
+						if (location != null) {
+							remove(location.toOSString());
+						}
+						return false;
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			CCorePlugin.log(e);
+		}
+	}
+
+	/**
+	 * Sets the maximum number of bytes used by the cache, a limit of zero disables the cache.
+	 */
+	public synchronized void setSpaceLimit(long bytes) {
+		fSpaceLimit= Math.max(0, bytes);
+		fWindowLimit= Math.min(fSpaceLimit, Math.max(MIN_WINDOW_SIZE, fSpaceLimit * WINDOW_PERCENT / 100));
+		evictFromWindow();
+		evictFromMain(0);
+	}
+
+	public synchronized long getSpaceLimit() {
+		return fSpaceLimit;
+	}
+
+	/**
+	 * Returns the cached contents of the file at the given location, or <code>null</code> if
+	 * the contents are not cached or the file has changed since it was cached.
+	 */
+	public AbstractCharArray get(String path, File file) {
+		if (getSpaceLimit() == 0)
+			return null;
+
+		final long timestamp= file.lastModified();
+		final long length= file.length();
+		synchronized (this) {
+			fSketch.increment(path.hashCode());
+			Entry entry= fWindow.get(path);
+			if (entry == null) {
+				entry= fMain.get(path);
+			}
+			if (entry != null) {
+				if (entry.fTimestamp == timestamp && entry.fFileLength == length && timestamp != 0) {
+					fHits++;
+					return new CachedCharArray(entry);
+				}
+				remove(path);
+			}
+			fMisses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Offers the contents of a file to the cache. The time-stamp and the length of the
+	 * file must have been determined before reading the file.
+	 */
+	public void put(String path, long timestamp, long fileLength, AbstractCharArray chars) {
+		final long limit= getSpaceLimit();
+		final int length= chars.tryGetLength();
+		if (limit == 0 || timestamp == 0 || length < 0 || 2L * length > limit)
+			return;
+
+		final Entry entry= createEntry(path, timestamp, fileLength, chars, length);
+		if (entry == null)
+			return;
+
+		synchronized (this) {
+			if (fWindow.containsKey(path) || fMain.containsKey(path)) {
+				remove(path);
+			}
+			fWindow.put(path, entry);
+			fWindowBytes+= entry.getSize();
+			evictFromWindow();
+		}
+	}
+
+	private static Entry createEntry(String path, long timestamp, long fileLength, AbstractCharArray chars, int length) {
+		final char[] buf= new char[Math.min(length, 4096)];
+		boolean wide= false;
+		for (int offset = 0; offset < length && !wide; offset+= buf.length) {
+			final int len= Math.min(buf.length, length - offset);
+			chars.arraycopy(offset, buf, 0, len);
+			for (int i = 0; i < len; i++) {
+				if (buf[i] > 0xff) {
+					wide= true;
+					break;
+				}
+			}
+		}
+
+		final ByteBuffer data;
+		try {
+			data= ByteBuffer.allocateDirect(wide ? 2 * length : length);
+		} catch (OutOfMemoryError e) {
+			// Direct memory is exhausted, don't cache the file.
+			return null;
+		}
+		for (int offset = 0; offset < length; offset+= buf.length) {
+			final int len= Math.min(buf.length, length - offset);
+			chars.arraycopy(offset, buf, 0, len);
+			for (int i = 0; i < len; i++) {
+				if (wide) {
+					data.putChar(buf[i]);
+				} else {
+					data.put((byte) buf[i]);
+				}
+			}
+		}
+		return new Entry(path, timestamp, fileLength, data, wide, length, chars.getContentsHash());
+	}
+
+	/**
+	 * Moves entries from the window to the main part of the cache, as long as the window
+	 * exceeds its limit.
+	 */
+	private void evictFromWindow() {
+		Iterator<Entry> it= fWindow.values().iterator();
+		while (fWindowBytes > fWindowLimit && it.hasNext()) {
+			final Entry candidate= it.next();
+			it.remove();
+			fWindowBytes-= candidate.getSize();
+			admit(candidate);
+		}
+	}
+
+	/**
+	 * Adds the candidate to the main part of the cache if it is accessed more frequently than
+	 * all of the entries that need to be evicted to make room for it.
+	 */
+	private void admit(Entry candidate) {
+		final long mainLimit= fSpaceLimit - fWindowLimit;
+		final int size= candidate.getSize();
+		if (size > mainLimit) {
+			fRejections++;
+			return;
+		}
+		final long needed= fMainBytes + size - mainLimit;
+		if (needed > 0) {
+			final int candidateFreq= fSketch.frequency(candidate.fPath.hashCode());
+			long freed= 0;
+			for (Entry victim : fMain.values()) {
+				if (freed >= needed)
+					break;
+				if (fSketch.frequency(victim.fPath.hashCode()) >= candidateFreq) {
+					fRejections++;
+					return;
+				}
+				freed+= victim.getSize();
+			}
+			evictFromMain(size);
+		}
+		fMain.put(candidate.fPath, candidate);
+		fMainBytes+= size;
+	}
+
+	/**
+	 * Evicts the least recently used entries of the main part, until the given number of
+	 * additional bytes fit into it.
+	 */
+	private void evictFromMain(int additional) {
+		final long mainLimit= fSpaceLimit - fWindowLimit;
+		Iterator<Entry> it= fMain.values().iterator();
+		while (fMainBytes + additional > mainLimit && it.hasNext()) {
+			final Entry victim= it.next();
+			it.remove();
+			fMainBytes-= victim.getSize();
+			fEvictions++;
+		}
+	}
+
+	/**
+	 * Removes the contents of the file with the given location from the cache.
+	 */
+	public synchronized void remove(String path) {
+		Entry entry= fWindow.remove(path);
+		if (entry != null) {
+			fWindowBytes-= entry.getSize();
+		}
+		entry= fMain.remove(path);
+		if (entry != null) {
+			fMainBytes-= entry.getSize();
+		}
+	}
+
+	public synchronized boolean isEmpty() {
+		return fWindow.isEmpty() && fMain.isEmpty();
+	}
+
+	/**
+	 * Removes all entries from the cache.
+	 */
+	public synchronized void clear() {
+		fWindow.clear();
+		fMain.clear();
+		fWindowBytes= fMainBytes= 0;
+	}
+
+	/**
+	 * Returns the locations of the files currently held in the cache.
+	 */
+	public synchronized List<String> getCachedFiles() {
+		List<String> result= new ArrayList<String>(fWindow.size() + fMain.size());
+		result.addAll(fWindow.keySet());
+		result.addAll(fMain.keySet());
+		return result;
+	}
+
+	/**
+	 * Returns a snapshot of the statistics of this cache.
+	 */
+	public synchronized Statistics getStatistics() {
+		return new Statistics(fHits, fMisses, fEvictions, fRejections, fWindowBytes + fMainBytes,
+				fSpaceLimit, fWindow.size() + fMain.size());
+	}
+
+	/**
+	 * Resets the hit, miss, eviction and rejection counters.
+	 */
+	public synchronized void resetStatistics() {
+		fHits= fMisses= fEvictions= fRejections= 0;
+	}
+}
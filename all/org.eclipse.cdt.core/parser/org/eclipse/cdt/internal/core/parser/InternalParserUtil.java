@@ -21,6 +21,7 @@ import org.eclipse.cdt.core.index.IIndexFileLocation;
 import org.eclipse.cdt.core.parser.FileContent;
 import org.eclipse.cdt.core.parser.ParserFactory;
 import org.eclipse.cdt.internal.core.parser.scanner.AbstractCharArray;
+import org.eclipse.cdt.internal.core.parser.scanner.CharArray;
 import org.eclipse.cdt.internal.core.parser.scanner.FileCharArray;
 import org.eclipse.cdt.internal.core.parser.scanner.InternalFileContent;
 import org.eclipse.cdt.internal.core.resources.PathCanonicalizationStrategy;
@@ -151,11 +152,20 @@ public class InternalParserUtil extends ParserFactory {
 		String path= file.getLocationURI().getPath();
 		path= normalizePath(path, file);
 
+		final File localFile= new File(path);
+		InternalFileContent result= getCachedFileContent(path, localFile);
+		if (result != null)
+			return result;
+
+		final long timestamp= localFile.lastModified();
+		final long length= localFile.length();
 		InputStream in;
 		try {
 			in= file.getContents(true);
 			try {
-				return createFileContent(path, file.getCharset(), in);
+				result= createFileContent(path, file.getCharset(), in);
+				cacheFileContent(path, timestamp, length, result);
+				return result;
 			} finally {
 				try {
 					in.close();
@@ -199,6 +209,12 @@ public class InternalParserUtil extends ParserFactory {
 			}
 		}
 		if (includeFile != null && includeFile.isFile()) {
+			InternalFileContent result= getCachedFileContent(path, includeFile);
+			if (result != null)
+				return result;
+
+			final long timestamp= includeFile.lastModified();
+			final long length= includeFile.length();
 			FileInputStream in;
 			try {
 				in = new FileInputStream(includeFile);
@@ -207,7 +223,9 @@ public class InternalParserUtil extends ParserFactory {
 				return null;
 			}
 			try {
-				return createFileContent(path, encoding, in);
+				result= createFileContent(path, encoding, in);
+				cacheFileContent(path, timestamp, length, result);
+				return result;
 			} finally {
 				try {
 					in.close();
@@ -218,6 +236,26 @@ public class InternalParserUtil extends ParserFactory {
 		return null;
 	}
 
+	private static InternalFileContent getCachedFileContent(String path, File file) {
+		AbstractCharArray chars= FileContentCache.getInstance().get(path, file);
+		if (chars != null)
+			return new InternalFileContent(path, chars);
+		return null;
+	}
+
+	/**
+	 * Offers small files to the cache. Larger files are either memory mapped or read lazily,
+	 * in both cases it is not worth copying the entire content.
+	 */
+	private static void cacheFileContent(String path, long timestamp, long length, InternalFileContent content) {
+		if (content != null) {
+			AbstractCharArray chars= content.getSource();
+			if (chars instanceof CharArray) {
+				FileContentCache.getInstance().put(path, timestamp, length, chars);
+			}
+		}
+	}
+
 	private static InternalFileContent createFileContent(String path, String charset, InputStream in) {
 		try {
 			AbstractCharArray chars= FileCharArray.create(path, charset, in);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@
 package org.eclipse.cdt.internal.core.parser.scanner;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -49,6 +50,11 @@ import org.eclipse.cdt.internal.core.parser.scanner.ExpressionEvaluator.EvalExce
 import org.eclipse.cdt.internal.core.parser.scanner.InternalFileContent.InclusionKind;
 import org.eclipse.cdt.internal.core.parser.scanner.Lexer.LexerOptions;
 import org.eclipse.cdt.internal.core.parser.scanner.MacroDefinitionParser.InvalidMacroDefinitionException;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache.Entry;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache.FileRecord;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache.IncludeRecord;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache.MacroRecord;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache.Recorder;
 import org.eclipse.cdt.internal.core.parser.scanner.ScannerContext.BranchKind;
 import org.eclipse.cdt.internal.core.parser.scanner.ScannerContext.CodeState;
 import org.eclipse.cdt.internal.core.parser.scanner.ScannerContext.Conditional;
@@ -108,13 +114,14 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     	}
     };
 
-    private static class IncludeResolution {String fLocation; boolean fHeuristic;}
+    private static class IncludeResolution {String fLocation; boolean fHeuristic; IncludeSearchPathElement fOnPath;}
     final private IIncludeFileTester<IncludeResolution> createPathTester= new IIncludeFileTester<IncludeResolution>() {
     	public IncludeResolution checkFile(String path, boolean isHeuristicMatch, IncludeSearchPathElement onPath) {
     		if (fFileContentProvider.getInclusionExists(path)) {
     			IncludeResolution res= new IncludeResolution();
     			res.fHeuristic= isHeuristicMatch;
     			res.fLocation= path;
+    			res.fOnPath= onPath;
     			return res;
     		}
     		return null;
@@ -163,6 +170,7 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     // configuration
     final private LexerOptions fLexOptions= new LexerOptions();
     final private char[] fAdditionalNumericLiteralSuffixes;
+    final private String fConfigurationID;
     final private CharArrayIntMap fKeywords;
     final private CharArrayIntMap fPPKeywords;
     private IncludeSearchPathElement[] fIncludeSearchPath;
@@ -178,6 +186,17 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 
     /** Set of already included files */
     private final HashSet<String> fAllIncludedFiles= new HashSet<String>();
+    /** Maps the locations of files that are completely wrapped by an include guard to the guard */
+    private final HashMap<String, char[]> fIncludeGuards= new HashMap<String, char[]>();
+
+    /** Cache for headers that contribute no tokens, or <code>null</code> */
+    private PreprocessedHeaderCache fHeaderCache;
+    private long fConfigHash;
+    /** Exclusive or of the hashes of all macros in the dictionary, maintained while a cache is used */
+    private long fMacroContextHash;
+    /** Recorders for the headers on the stack of contexts, innermost last */
+    private final ArrayList<Recorder> fRecorders= new ArrayList<Recorder>();
+    private int fValidRecorders;
 
 	private final Lexer fRootLexer;
 	private final ScannerContext fRootContext;
@@ -209,6 +228,7 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     		
         fLog = log;
         fAdditionalNumericLiteralSuffixes= nonNull(configuration.supportAdditionalNumericLiteralSuffixes());
+        fConfigurationID= configuration.getClass().getName() + ':' + language;
         fLexOptions.fSupportDollarInIdentifiers= configuration.support$InIdentifiers();
         fLexOptions.fSupportAtSignInIdentifiers= configuration.supportAtSignInIdentifiers();
         fLexOptions.fSupportMinAndMax = configuration.supportMinAndMaxOperators();
@@ -263,6 +283,32 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 	public void setScanComments(boolean val) {
 	}
 
+	/**
+	 * Allows for replaying headers that do not contribute any tokens from the given cache rather
+	 * than reading them. The directives of such headers are not reported, therefore the cache
+	 * must not be used when the AST is stored in the index.
+	 */
+	public void setPreprocessedHeaderCache(PreprocessedHeaderCache cache) {
+		fHeaderCache= cache;
+		fRecorders.clear();
+		fValidRecorders= 0;
+		if (cache != null) {
+			StringBuilder buf= new StringBuilder(fConfigurationID);
+			buf.append(new String(fAdditionalNumericLiteralSuffixes));
+			buf.append(fLexOptions.fSupportDollarInIdentifiers).append(fLexOptions.fSupportAtSignInIdentifiers);
+			buf.append(fLexOptions.fSupportMinAndMax).append(fLexOptions.fSupportSlashPercentComments);
+			buf.append(fLexOptions.fSupportUTFLiterals);
+			for (IncludeSearchPathElement elem : fIncludeSearchPath) {
+				buf.append('\0').append(elem.isForQuoteIncludesOnly()).append(elem.getPath());
+			}
+			fConfigHash= PreprocessedHeaderCache.hash(buf.toString());
+			fMacroContextHash= 0;
+			for (PreprocessorMacro macro : fMacroDictionary.values()) {
+				fMacroContextHash ^= PreprocessedHeaderCache.hashMacro(macro);
+			}
+		}
+	}
+
 	public ILocationResolver getLocationResolver() {
 		return fLocationMap;
 	}
@@ -423,7 +469,7 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     	try {
     		PreprocessorMacro result= fMacroDefinitionParser.parseMacroDefinition(lex, ILexerLog.NULL, value);
     		fLocationMap.registerPredefinedMacro(result);
-	    	fMacroDictionary.put(result.getNameCharArray(), result);
+	    	defineMacro(result);
 	    	return result;
     	} catch (Exception e) {
     		fLog.traceLog("Invalid macro definition: '" + String.valueOf(key) + "'");     //$NON-NLS-1$//$NON-NLS-2$
@@ -715,6 +761,13 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
         			return ppToken;
         		}
             	final ILocationCtx locationCtx = fCurrentContext.getLocationCtx();
+            	final char[] guard= fCurrentContext.getIncludeGuard();
+            	if (guard != null) {
+            		fIncludeGuards.put(locationCtx.getFilePath(), guard);
+            	}
+            	if (!fRecorders.isEmpty() && fRecorders.get(fRecorders.size() - 1).fContext == fCurrentContext) {
+            		finishRecorder(guard);
+            	}
             	fLocationMap.popContext(locationCtx);
         		fCurrentContext= fCurrentContext.getParent();
         		assert fCurrentContext != null;
@@ -734,6 +787,9 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
                	}
         	
         	case IToken.tIDENTIFIER:
+        		if ((options & STOP_AT_NL) == 0) {
+        			invalidateRecorders();
+        		}
         		fCurrentContext.nextPPToken(); // consume the identifier
         		if ((options & NO_EXPANSION) == 0) {
         			final Lexer lexer= fCurrentContext.getLexer();
@@ -761,6 +817,9 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
         			checkNumber(ppToken, true);
         		}
         		break;
+        	}
+        	if ((options & STOP_AT_NL) == 0) {
+        		invalidateRecorders();
         	}
 			fCurrentContext.nextPPToken();
         	return ppToken;
@@ -914,6 +973,13 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 
     private <T> T findInclusion(final String includeDirective, final boolean quoteInclude,
     		final boolean includeNext, final String currentFile, final IIncludeFileTester<T> tester) {
+    	return findInclusion(includeDirective, quoteInclude, includeNext, currentFile,
+    			fCurrentContext.getFoundOnPath(), fCurrentContext.getFoundViaDirective(), tester);
+    }
+
+    private <T> T findInclusion(final String includeDirective, final boolean quoteInclude,
+    		final boolean includeNext, final String currentFile, IncludeSearchPathElement currentFoundOnPath,
+    		String currentFoundViaDirective, final IIncludeFileTester<T> tester) {
         T reader = null;
 		// Filename is an absolute path
 		if (new File(includeDirective).isAbsolute()) {
@@ -947,10 +1013,10 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
         // in the search path after the one where the current file was found.
         IncludeSearchPathElement searchAfter= null;
         if (includeNext && currentFile != null) {
-        	searchAfter = fCurrentContext.getFoundOnPath();
+        	searchAfter = currentFoundOnPath;
         	if (searchAfter == null) {
         		// the current file was found without search path
-        		String directive= fCurrentContext.getFoundViaDirective();
+        		String directive= currentFoundViaDirective;
         		if (directive == null) {
         			directive= new File(currentFile).getName();
         		}
@@ -1006,18 +1072,38 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     		final char[] expansionImage = macro.getExpansionImage();
     		if (expansionImage == null) {
     			// this is an undef
-    			fMacroDictionary.remove(macro.getNameCharArray());
+    			undefineMacro(macro.getNameCharArray());
     		} else {
     			PreprocessorMacro result= MacroDefinitionParser.parseMacroDefinition(macro.getNameCharArray(), macro.getParameterList(), expansionImage);
     			final IASTFileLocation loc= macro.getFileLocation();
     			fLocationMap.registerMacroFromIndex(result, loc, -1);
-    			fMacroDictionary.put(result.getNameCharArray(), result);
+    			defineMacro(result);
     		}
     	} catch (Exception e) {
     		fLog.traceLog("Invalid macro definition: '" + macro.getName() + "'");     //$NON-NLS-1$//$NON-NLS-2$
     	}
     }
 
+    private void defineMacro(PreprocessorMacro macro) {
+    	final char[] name= macro.getNameCharArray();
+    	if (fHeaderCache != null) {
+    		PreprocessorMacro old= fMacroDictionary.get(name);
+    		if (old != null) {
+    			fMacroContextHash ^= PreprocessedHeaderCache.hashMacro(old);
+    		}
+    		fMacroContextHash ^= PreprocessedHeaderCache.hashMacro(macro);
+    	}
+    	fMacroDictionary.put(name, macro);
+    }
+
+    private PreprocessorMacro undefineMacro(char[] name) {
+    	PreprocessorMacro old= fMacroDictionary.remove(name, 0, name.length);
+    	if (old != null && fHeaderCache != null) {
+    		fMacroContextHash ^= PreprocessedHeaderCache.hashMacro(old);
+    	}
+    	return old;
+    }
+
     public ILocationResolver getLocationMap() {
     	return fLocationMap;
     }
@@ -1027,6 +1113,8 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 	}
 
     public void handleProblem(int id,  char[] arg, int offset, int endOffset) {
+    	// problems are not replayed from the cache
+    	invalidateRecorders();
         fLocationMap.encounterProblem(id, arg, offset, endOffset);
     }
     	
@@ -1055,6 +1143,7 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     		break;
 
     	default:
+    		fCurrentContext.otherDirective();
     		int endOffset= lexer.consumeLine(ORIGIN_PREPROCESSOR_DIRECTIVE);
     		handleProblem(IProblem.PREPROCESSOR_INVALID_DIRECTIVE, ident.getCharImage(), startOffset, endOffset);
     		return;
@@ -1065,6 +1154,19 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     	final int type = fPPKeywords.get(name);
     	int condEndOffset;
     	switch (type) {
+    	case IPreprocessorDirective.ppIfdef:
+    	case IPreprocessorDirective.ppIfndef:
+    	case IPreprocessorDirective.ppIf:
+    	case IPreprocessorDirective.ppElif:
+    	case IPreprocessorDirective.ppElse:
+    	case IPreprocessorDirective.ppEndif:
+    		// conditionals are tracked by the context
+    		break;
+    	default:
+    		fCurrentContext.otherDirective();
+    		break;
+    	}
+    	switch (type) {
     	case IPreprocessorDirective.ppImport:
     	case IPreprocessorDirective.ppInclude:
     		executeInclude(lexer, startOffset, false, fCurrentContext.getCodeState() == CodeState.eActive, withinExpansion);
@@ -1251,13 +1353,39 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 				isHeuristic= resolved.fHeuristic;
 			}
 		} else {
-			final InternalFileContent fi= findInclusion(includeDirective, userInclude, include_next,
-					getCurrentFilename(), createCodeReaderTester);
+			// resolve the inclusion without reading the file
+			final String includingFile= getCurrentFilename();
+			final IncludeResolution resolved= findInclusion(includeDirective, userInclude, include_next,
+					includingFile, createPathTester);
+			InternalFileContent fi= null;
+			boolean handled= false;
+			if (resolved != null) {
+				path= resolved.fLocation;
+				isHeuristic= resolved.fHeuristic;
+				if (isProtectedByIncludeGuard(path)) {
+					// the content would be skipped as inactive code, anyway.
+					fAllIncludedFiles.add(path);
+					recordGuardedInclusion(includeDirective, userInclude, include_next, path, isHeuristic);
+					handled= true;
+				} else if (replayFromCache(includeDirective, userInclude, include_next, resolved)) {
+					handled= true;
+				} else {
+					fi= createCodeReaderTester.checkFile(path, isHeuristic, resolved.fOnPath);
+				}
+			}
+			if (!handled && fi == null) {
+				// the content provider may supply files that do not exist or fail to read existing ones
+				path= null;
+				isHeuristic= false;
+				fi= findInclusion(includeDirective, userInclude, include_next, includingFile,
+						createCodeReaderTester);
+			}
 			if (fi != null) {
 				path= fi.getFileLocation();
 				isHeuristic= fi.isFoundByHeuristics();
 				switch (fi.getKind()) {
 				case FOUND_IN_INDEX:
+					invalidateRecorders();
 					processInclusionFromIndex(poundOffset, path, fi);
 					break;
 				case USE_SOURCE:
@@ -1270,15 +1398,22 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 						ScannerContext fctx= new ScannerContext(ctx, fCurrentContext, new Lexer(source,
 								fLexOptions, this, this));
 						fctx.setFoundOnPath(fi.getFoundOnPath(), includeDirective);
+						if (fHeaderCache != null) {
+							startRecorder(fctx, includingFile, includeDirective, userInclude, include_next, path,
+									source, isHeuristic);
+						}
 						fCurrentContext= fctx;
+					} else {
+						invalidateRecorders();
 					}
 					fLocationMap.replacingFile(fFileContentProvider, fi);
 					break;
 					
 				case SKIP_FILE:
+					invalidateRecorders();
 					break;
 				}
-			} else {
+			} else if (!handled) {
 				final int len = headerName.length + 2;
 				StringBuilder name= new StringBuilder(len);
 				name.append(userInclude ? '"' : '<');
@@ -1322,6 +1457,16 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 		return headerName;
 	}
 	
+	/**
+	 * Checks whether the file was included before and is completely wrapped by an include guard
+	 * that is currently defined. Such a file can be skipped without changing the result of the
+	 * preprocessor.
+	 */
+	private boolean isProtectedByIncludeGuard(String filename) {
+		final char[] guard= fIncludeGuards.get(filename);
+		return guard != null && fMacroDictionary.containsKey(guard);
+	}
+
 	private boolean isCircularInclusion(String filename) {
 		ILocationCtx checkContext= fCurrentContext.getLocationCtx();
 		while (checkContext != null) {
@@ -1333,14 +1478,212 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 		return false;
 	}
 
+	private int indexOfSearchPathElement(IncludeSearchPathElement elem) {
+		if (elem != null) {
+			for (int i = 0; i < fIncludeSearchPath.length; i++) {
+				if (fIncludeSearchPath[i] == elem)
+					return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Marks the headers that are currently preprocessed as not cacheable.
+	 */
+	private void invalidateRecorders() {
+		if (fValidRecorders > 0) {
+			for (Recorder recorder : fRecorders) {
+				recorder.fValid= false;
+			}
+			fValidRecorders= 0;
+		}
+	}
+
+	private void record(MacroRecord macro) {
+		for (Recorder recorder : fRecorders) {
+			if (recorder.fValid) {
+				recorder.fMacros.add(macro);
+			}
+		}
+	}
+
+	private void record(IncludeRecord include, FileRecord file) {
+		for (Recorder recorder : fRecorders) {
+			if (recorder.fValid) {
+				recorder.fIncludes.add(include);
+				recorder.fFiles.add(file);
+			}
+		}
+	}
+
+	private void startRecorder(ScannerContext fctx, String includingFile, String includeDirective,
+			boolean quoteInclude, boolean includeNext, String path, AbstractCharArray source, boolean isHeuristic) {
+		if (isHeuristic) {
+			// the heuristics are not part of the key
+			invalidateRecorders();
+		} else if (fValidRecorders > 0) {
+			final IncludeRecord include= new IncludeRecord(includingFile, includeDirective, quoteInclude, includeNext, path);
+			for (Recorder recorder : fRecorders) {
+				if (recorder.fValid) {
+					recorder.fIncludes.add(include);
+				}
+			}
+		}
+		Recorder recorder= new Recorder(fctx, path, source, indexOfSearchPathElement(fctx.getFoundOnPath()),
+				includeDirective, fMacroContextHash);
+		if (isHeuristic) {
+			recorder.fValid= false;
+		} else {
+			fValidRecorders++;
+		}
+		fRecorders.add(recorder);
+	}
+
+	/**
+	 * Called when the context of the innermost recorded header is popped. Stores the effect
+	 * of the header in the cache and adds it to the enclosing headers.
+	 */
+	private void finishRecorder(char[] guard) {
+		final Recorder recorder= fRecorders.remove(fRecorders.size() - 1);
+		final long hash= PreprocessedHeaderCache.getContentHash(recorder.fSource);
+		final boolean trustStamp= fHeaderCache.putContentHash(recorder.fPath, recorder.fTimestamp, recorder.fLength, hash);
+		if (!recorder.fValid)
+			return;
+
+		fValidRecorders--;
+		if (!trustStamp) {
+			// the file could be modified without changing its time-stamp
+			invalidateRecorders();
+			return;
+		}
+		final FileRecord file= new FileRecord(recorder.fPath, hash, recorder.fFoundOnPath,
+				recorder.fFoundViaDirective, guard);
+		final String key= PreprocessedHeaderCache.createKey(recorder.fPath, hash, fConfigHash,
+				recorder.fFoundOnPath, recorder.fFoundViaDirective, recorder.fMacroContextHash);
+		fHeaderCache.put(key, recorder.createEntry(file));
+		for (Recorder outer : fRecorders) {
+			if (outer.fValid) {
+				outer.fFiles.add(file);
+			}
+		}
+	}
+
+	/**
+	 * Records an inclusion that was skipped because of an include guard.
+	 */
+	private void recordGuardedInclusion(String includeDirective, boolean quoteInclude, boolean includeNext,
+			String path, boolean isHeuristic) {
+		if (fValidRecorders == 0)
+			return;
+
+		final long hash= isHeuristic ? 0 : fHeaderCache.getContentHash(path);
+		if (hash == 0) {
+			invalidateRecorders();
+			return;
+		}
+		record(new IncludeRecord(getCurrentFilename(), includeDirective, quoteInclude, includeNext, path),
+				new FileRecord(path, hash, -1, null, fIncludeGuards.get(path)));
+	}
+
+	/**
+	 * Replays the effect of a header from the cache, if possible.
+	 */
+	private boolean replayFromCache(String includeDirective, boolean quoteInclude, boolean includeNext,
+			IncludeResolution resolved) {
+		if (fHeaderCache == null || resolved.fHeuristic)
+			return false;
+
+		final String path= resolved.fLocation;
+		final long hash= fHeaderCache.getContentHash(path);
+		if (hash == 0)
+			return false;
+
+		final String key= PreprocessedHeaderCache.createKey(path, hash, fConfigHash,
+				indexOfSearchPathElement(resolved.fOnPath), includeDirective, fMacroContextHash);
+		final Entry entry= fHeaderCache.get(key);
+		if (entry == null || !isReplayable(entry))
+			return false;
+
+		for (MacroRecord m : entry.fMacros) {
+			if (m.fExpansion == null) {
+				undefineMacro(m.fName);
+			} else {
+				try {
+					PreprocessorMacro macro= MacroDefinitionParser.parseMacroDefinition(m.fName, m.fParameters, m.fExpansion);
+					fLocationMap.registerMacroFromIndex(macro,
+							new ASTFileLocationForBuiltins(m.fFile, m.fNameOffset, m.fNameLength), -1);
+					defineMacro(macro);
+				} catch (Exception e) {
+		    		fLog.traceLog("Invalid macro definition: '" + String.valueOf(m.fName) + "'");     //$NON-NLS-1$//$NON-NLS-2$
+				}
+			}
+		}
+		for (FileRecord file : entry.fFiles) {
+			fAllIncludedFiles.add(file.fPath);
+			if (file.fIncludeGuard != null) {
+				fIncludeGuards.put(file.fPath, file.fIncludeGuard);
+			}
+		}
+		if (fValidRecorders > 0) {
+			final IncludeRecord include= new IncludeRecord(getCurrentFilename(), includeDirective, quoteInclude,
+					includeNext, path);
+			for (Recorder recorder : fRecorders) {
+				if (recorder.fValid) {
+					recorder.fIncludes.add(include);
+					recorder.add(entry);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the files of a cached header are unchanged and that its include directives
+	 * still resolve to the same files.
+	 */
+	private boolean isReplayable(Entry entry) {
+		HashMap<String, FileRecord> processedFiles= new HashMap<String, FileRecord>();
+		for (int i = 0; i < entry.fFiles.length; i++) {
+			final FileRecord file= entry.fFiles[i];
+			// the header itself is checked via the key
+			if (i > 0 && !fHeaderCache.isUpToDate(file))
+				return false;
+			if (isCircularInclusion(file.fPath))
+				return false;
+			if (file.fFoundViaDirective != null) {
+				processedFiles.put(file.fPath, file);
+			}
+		}
+		for (IncludeRecord include : entry.fIncludes) {
+			final FileRecord from= processedFiles.get(include.fFromFile);
+			if (from == null)
+				return false;
+			final int onPath= from.fFoundOnPath;
+			final IncludeResolution resolved= findInclusion(include.fDirective, include.fQuoteInclude,
+					include.fIncludeNext, include.fFromFile,
+					onPath >= 0 && onPath < fIncludeSearchPath.length ? fIncludeSearchPath[onPath] : null,
+					from.fFoundViaDirective, createPathTester);
+			if (resolved == null || resolved.fHeuristic || !include.fTarget.equals(resolved.fLocation))
+				return false;
+		}
+		return true;
+	}
+
 
     private void executeDefine(final Lexer lexer, int startOffset, boolean isActive) throws OffsetLimitReachedException {
 		try {
 			ObjectStyleMacro macrodef = fMacroDefinitionParser.parseMacroDefinition(lexer, this);
-			if (isActive)
-				fMacroDictionary.put(macrodef.getNameCharArray(), macrodef);
-			
 			final Token name= fMacroDefinitionParser.getNameToken();
+			if (isActive) {
+				defineMacro(macrodef);
+				if (fValidRecorders > 0) {
+					record(new MacroRecord(macrodef.getNameCharArray(), macrodef.getParameterList(),
+							macrodef.getExpansionImage(), getCurrentFilename(), name.getOffset(),
+							name.getEndOffset() - name.getOffset()));
+				}
+			}
+			
 			fLocationMap.encounterPoundDefine(startOffset, name.getOffset(), name.getEndOffset(),
 					macrodef.getExpansionOffset(), macrodef.getExpansionEndOffset(), isActive, macrodef);
 		} catch (InvalidMacroDefinitionException e) {
@@ -1365,7 +1708,11 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
     	final char[] namechars= name.getCharImage();
     	PreprocessorMacro definition;
     	if (isActive) {
-    		definition= fMacroDictionary.remove(namechars, 0, namechars.length);
+    		definition= undefineMacro(namechars);
+    		if (fValidRecorders > 0) {
+    			record(new MacroRecord(namechars, null, null, getCurrentFilename(), name.getOffset(),
+    					name.getEndOffset() - name.getOffset()));
+    		}
     	} else {
     		definition= fMacroDictionary.get(namechars);
     	}
@@ -1393,6 +1740,9 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 	    		handleProblem(IProblem.PREPROCESSOR_DEFINITION_NOT_FOUND, name.getCharImage(), offset, nameEndOffset);
 	    	} else {
 	    		final char[] namechars= name.getCharImage();
+	    		if (isIfndef) {
+	    			fCurrentContext.setGuardMacro(namechars);
+	    		}
 	    		macro= fMacroDictionary.get(namechars);
 	    		isActive= (macro == null) == isIfndef;
 	    		if (macro == null) {
@@ -1428,6 +1778,9 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 			condEndOffset= getTokensWithinPPDirective(true, condition, withinExpansion);
 			endOffset= lexer.currentToken().getEndOffset();
 			
+			if (!isElif) {
+				fCurrentContext.setGuardMacro(getNegatedDefinedMacro(condition));
+			}
 			if (condition.first() == null) {
 				handleProblem(IProblem.SCANNER_EXPRESSION_SYNTAX_ERROR, null, startOffset, endOffset);
 			} else {
@@ -1452,6 +1805,35 @@ public class CPreprocessor implements ILexerLog, IScanner, IAdaptable {
 		return fCurrentContext.setBranchState(cond, isActive, withinExpansion, startOffset);
     }
 
+	/**
+	 * Returns the name of the macro for a condition of the form <code>!defined(MACRO)</code>
+	 * or <code>!defined MACRO</code>, or <code>null</code> for any other condition.
+	 */
+	private static char[] getNegatedDefinedMacro(TokenList condition) {
+		Token t= condition.first();
+		if (t == null || t.getType() != IToken.tNOT)
+			return null;
+		t= (Token) t.getNext();
+		if (t == null || t.getType() != CPreprocessor.tDEFINED)
+			return null;
+		t= (Token) t.getNext();
+		boolean paren= false;
+		if (t != null && t.getType() == IToken.tLPAREN) {
+			paren= true;
+			t= (Token) t.getNext();
+		}
+		if (t == null || t.getType() != IToken.tIDENTIFIER)
+			return null;
+		final char[] macro= t.getCharImage();
+		t= (Token) t.getNext();
+		if (paren) {
+			if (t == null || t.getType() != IToken.tRPAREN)
+				return null;
+			t= (Token) t.getNext();
+		}
+		return t == null ? macro : null;
+	}
+
 	private CodeState executeElse(final Lexer lexer, final int startOffset,boolean withinExpansion)
 			throws OffsetLimitReachedException {
 		final int endOffset= lexer.consumeLine(ORIGIN_PREPROCESSOR_DIRECTIVE);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010 Wind River Systems, Inc. and others.
+ * Copyright (c) 2010, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -30,6 +30,8 @@ import org.eclipse.cdt.core.CCorePlugin;
  */
 public class FileCharArray extends LazyCharArray {
 	private static final String UTF8_CHARSET_NAME = "UTF-8"; //$NON-NLS-1$
+	/** Files of this size or larger are stored with one byte per character, if possible. */
+	public static final long SINGLE_BYTE_THRESHOLD = 4 * 1024 * 1024;
 
 	public static AbstractCharArray create(String fileName, String charSet, InputStream in) throws IOException {
 		// no support for non-local files
@@ -45,6 +47,11 @@ public class FileCharArray extends LazyCharArray {
 		if (lsize < CHUNK_SIZE) {
 			return decodeSmallFile(channel, (int) lsize, charSet);
 		}
+		if (lsize >= SINGLE_BYTE_THRESHOLD) {
+			AbstractCharArray result= SingleByteCharArray.create(channel, lsize, charSet);
+			if (result != null)
+				return result;
+		}
 
 		return new FileCharArray(fileName, charSet);
 	}
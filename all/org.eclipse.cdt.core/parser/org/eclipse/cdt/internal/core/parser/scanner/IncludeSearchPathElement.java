@@ -40,6 +40,10 @@ final class IncludeSearchPathElement {
 		return fForQuoteIncludesOnly;
 	}
 
+	public String getPath() {
+		return fPath;
+	}
+
 	public String getLocation(String includeDirective) {
 		if (fIsFrameworkDirectory) {
 			int firstSep = firstSeparator(includeDirective);
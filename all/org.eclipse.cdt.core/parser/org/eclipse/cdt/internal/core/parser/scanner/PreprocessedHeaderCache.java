@@ -0,0 +1,578 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.parser.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.cdt.core.CCorePlugin;
+
+/**
+ * Process wide cache for the effect of headers that do not contribute any tokens to the parser,
+ * e.g. configuration headers that consist of macro definitions and include guards, only. Such
+ * a header can be replayed from the cache without reading and lexing it and the files it includes.
+ * <p>
+ * An entry is keyed by the location of the header, the hash of its content, the configuration of
+ * the preprocessor (include search path, lexer options), the way the header was found and the
+ * macro dictionary at the point of inclusion. It records the macro definitions and undefinitions
+ * performed by the header and the files it includes together with the include directives that
+ * have to resolve to the same files when the entry is replayed.
+ * <p>
+ * The content hashes are looked up via the time-stamps and lengths of the files. The hashes are
+ * recorded whenever the preprocessor reads a file, such that a file that is touched without changing
+ * its content is served from the cache once it has been read again. Time-stamps that are too recent
+ * to be trusted (the file system may not record a modification within the same interval) are not
+ * recorded.
+ * <p>
+ * The cache is persisted in the state location of the core plugin.
+ */
+public final class PreprocessedHeaderCache {
+	private static final int VERSION= 1;
+	private static final String FILE_NAME= "preprocessedHeaders.dat"; //$NON-NLS-1$
+
+	/** Maximum number of cached headers */
+	static final int MAX_ENTRIES= 1000;
+	/** Maximum number of time-stamps for which the content hash is remembered */
+	static final int MAX_STAMPS= 20000;
+	/** Headers defining more macros are not cached */
+	static final int MAX_MACROS_PER_ENTRY= 10000;
+	/** Modifications within this interval may not change the time-stamp of a file */
+	static final long TIMESTAMP_GRANULARITY= 2000;
+
+	private static final long FNV_OFFSET= 0xcbf29ce484222325L;
+	private static final long FNV_PRIME= 0x100000001b3L;
+
+	/**
+	 * A file read for a cached header.
+	 */
+	static final class FileRecord {
+		final String fPath;
+		final long fHash;
+		/** Index of the include search path element the file was found on, or <code>-1</code> */
+		final int fFoundOnPath;
+		final String fFoundViaDirective;
+		final char[] fIncludeGuard;
+
+		FileRecord(String path, long hash, int foundOnPath, String viaDirective, char[] guard) {
+			fPath= path;
+			fHash= hash;
+			fFoundOnPath= foundOnPath;
+			fFoundViaDirective= viaDirective;
+			fIncludeGuard= guard;
+		}
+	}
+
+	/**
+	 * An include directive encountered in a cached header.
+	 */
+	static final class IncludeRecord {
+		final String fFromFile;
+		final String fDirective;
+		final boolean fQuoteInclude;
+		final boolean fIncludeNext;
+		final String fTarget;
+
+		IncludeRecord(String fromFile, String directive, boolean quoteInclude, boolean includeNext, String target) {
+			fFromFile= fromFile;
+			fDirective= directive;
+			fQuoteInclude= quoteInclude;
+			fIncludeNext= includeNext;
+			fTarget= target;
+		}
+	}
+
+	/**
+	 * A macro definition or undefinition (with a <code>null</code> expansion) performed by a
+	 * cached header.
+	 */
+	static final class MacroRecord {
+		final char[] fName;
+		final char[][] fParameters;
+		final char[] fExpansion;
+		final String fFile;
+		final int fNameOffset;
+		final int fNameLength;
+
+		MacroRecord(char[] name, char[][] params, char[] expansion, String file, int nameOffset, int nameLength) {
+			fName= name;
+			fParameters= params;
+			fExpansion= expansion;
+			fFile= file;
+			fNameOffset= nameOffset;
+			fNameLength= nameLength;
+		}
+	}
+
+	/**
+	 * The recorded effect of a header, the header itself is the first file.
+	 */
+	static final class Entry {
+		final FileRecord[] fFiles;
+		final IncludeRecord[] fIncludes;
+		final MacroRecord[] fMacros;
+
+		Entry(FileRecord[] files, IncludeRecord[] includes, MacroRecord[] macros) {
+			fFiles= files;
+			fIncludes= includes;
+			fMacros= macros;
+		}
+	}
+
+	/**
+	 * Collects the effect of a header while it is preprocessed. A recorder becomes invalid as soon
+	 * as the header or one of the files it includes does something that cannot be replayed.
+	 */
+	static final class Recorder {
+		final ScannerContext fContext;
+		final String fPath;
+		final AbstractCharArray fSource;
+		final int fFoundOnPath;
+		final String fFoundViaDirective;
+		final long fMacroContextHash;
+		final long fTimestamp;
+		final long fLength;
+		boolean fValid= true;
+		final List<FileRecord> fFiles= new ArrayList<FileRecord>();
+		final List<IncludeRecord> fIncludes= new ArrayList<IncludeRecord>();
+		final List<MacroRecord> fMacros= new ArrayList<MacroRecord>();
+
+		Recorder(ScannerContext ctx, String path, AbstractCharArray source, int foundOnPath, String via,
+				long macroContextHash) {
+			fContext= ctx;
+			fPath= path;
+			fSource= source;
+			fFoundOnPath= foundOnPath;
+			fFoundViaDirective= via;
+			fMacroContextHash= macroContextHash;
+			File file= new File(path);
+			fTimestamp= file.lastModified();
+			fLength= file.length();
+		}
+
+		void add(Entry entry) {
+			for (FileRecord f : entry.fFiles) {
+				fFiles.add(f);
+			}
+			for (IncludeRecord i : entry.fIncludes) {
+				fIncludes.add(i);
+			}
+			for (MacroRecord m : entry.fMacros) {
+				fMacros.add(m);
+			}
+		}
+
+		Entry createEntry(FileRecord self) {
+			FileRecord[] files= new FileRecord[fFiles.size() + 1];
+			files[0]= self;
+			for (int i = 1; i < files.length; i++) {
+				files[i]= fFiles.get(i - 1);
+			}
+			return new Entry(files, fIncludes.toArray(new IncludeRecord[fIncludes.size()]),
+					fMacros.toArray(new MacroRecord[fMacros.size()]));
+		}
+	}
+
+	private static final class Stamp {
+		final long fTimestamp;
+		final long fLength;
+		final long fHash;
+
+		Stamp(long timestamp, long length, long hash) {
+			fTimestamp= timestamp;
+			fLength= length;
+			fHash= hash;
+		}
+	}
+
+	private static PreprocessedHeaderCache sInstance;
+
+	/**
+	 * Returns the cache used for the ASTs of editors, it is loaded from the state location of
+	 * the core plugin.
+	 */
+	public static synchronized PreprocessedHeaderCache getInstance() {
+		if (sInstance == null) {
+			sInstance= new PreprocessedHeaderCache();
+			File file= getPersistenceFile();
+			if (file != null && file.exists()) {
+				try {
+					sInstance.load(file);
+				} catch (IOException e) {
+					sInstance.clear();
+					file.delete();
+				}
+			}
+		}
+		return sInstance;
+	}
+
+	/**
+	 * Saves the cache if it has been used, called when the core plugin is stopped.
+	 */
+	public static synchronized void shutdown() {
+		if (sInstance != null) {
+			File file= getPersistenceFile();
+			if (file != null) {
+				try {
+					sInstance.save(file);
+				} catch (IOException e) {
+					CCorePlugin.log(e);
+				}
+			}
+			sInstance= null;
+		}
+	}
+
+	private static File getPersistenceFile() {
+		CCorePlugin plugin= CCorePlugin.getDefault();
+		if (plugin == null)
+			return null;
+		return plugin.getStateLocation().append(FILE_NAME).toFile();
+	}
+
+	// access-ordered maps, the eldest entry is the least recently used one.
+	private final LinkedHashMap<String, Entry> fEntries= new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private final LinkedHashMap<String, Stamp> fStamps= new LinkedHashMap<String, Stamp>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Stamp> eldest) {
+			return size() > MAX_STAMPS;
+		}
+	};
+	private long fHits;
+	private long fMisses;
+
+	/**
+	 * Creates an empty cache, clients should use {@link #getInstance()}.
+	 */
+	public PreprocessedHeaderCache() {
+	}
+
+	/**
+	 * Computes the key for a header.
+	 */
+	static String createKey(String path, long contentHash, long configHash, int foundOnPath,
+			String viaDirective, long macroContextHash) {
+		StringBuilder buf= new StringBuilder(path.length() + 64);
+		buf.append(path).append('\0');
+		buf.append(Long.toHexString(contentHash)).append('\0');
+		buf.append(Long.toHexString(configHash)).append('\0');
+		buf.append(foundOnPath).append('\0');
+		if (foundOnPath < 0 && viaDirective != null) {
+			buf.append(viaDirective);
+		}
+		buf.append('\0');
+		buf.append(Long.toHexString(macroContextHash));
+		return buf.toString();
+	}
+
+	/**
+	 * Computes the hash of a macro for the hash of the macro dictionary, which is the exclusive
+	 * or of the hashes of all macros in the dictionary.
+	 */
+	static long hashMacro(PreprocessorMacro macro) {
+		long h= hash(FNV_OFFSET, macro.getNameCharArray());
+		if (macro.isDynamic()) {
+			return h;
+		}
+		final char[][] params= macro.getParameterList();
+		if (params != null) {
+			h= (h ^ '(') * FNV_PRIME;
+			for (char[] param : params) {
+				h= hash(h, param);
+				h= (h ^ ',') * FNV_PRIME;
+			}
+		}
+		h= (h ^ ' ') * FNV_PRIME;
+		return hash(h, macro.getExpansionImage());
+	}
+
+	/**
+	 * Computes a hash for the given string.
+	 */
+	static long hash(String string) {
+		long h= FNV_OFFSET;
+		for (int i = 0; i < string.length(); i++) {
+			h= (h ^ string.charAt(i)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	private static long hash(long h, char[] chars) {
+		if (chars != null) {
+			for (char c : chars) {
+				h= (h ^ c) * FNV_PRIME;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the hash of the given content, which is never <code>0</code>.
+	 */
+	static long getContentHash(AbstractCharArray content) {
+		final long hash= content.getContentsHash();
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Returns the hash of the content of the file at the given location, or <code>0</code> if
+	 * the file has not been read since it was last modified.
+	 */
+	public long getContentHash(String path) {
+		File file= new File(path);
+		final long timestamp= file.lastModified();
+		final long length= file.length();
+		synchronized (this) {
+			Stamp stamp= fStamps.get(path);
+			if (stamp != null && stamp.fTimestamp == timestamp && stamp.fLength == length) {
+				return stamp.fHash;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Records the hash of the content of a file, the time-stamp and the length of the file
+	 * must have been determined before reading the file. Returns whether the time-stamp can
+	 * be trusted.
+	 */
+	public boolean putContentHash(String path, long timestamp, long length, long hash) {
+		if (timestamp == 0 || hash == 0 || System.currentTimeMillis() - timestamp < TIMESTAMP_GRANULARITY)
+			return false;
+
+		synchronized (this) {
+			fStamps.put(path, new Stamp(timestamp, length, hash));
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the entry for the given key or <code>null</code>.
+	 */
+	synchronized Entry get(String key) {
+		Entry entry= fEntries.get(key);
+		if (entry == null) {
+			fMisses++;
+		} else {
+			fHits++;
+		}
+		return entry;
+	}
+
+	synchronized void put(String key, Entry entry) {
+		if (entry.fMacros.length <= MAX_MACROS_PER_ENTRY) {
+			fEntries.put(key, entry);
+		}
+	}
+
+	/**
+	 * Checks whether the given file still has the content it had when the entry was recorded.
+	 */
+	boolean isUpToDate(FileRecord file) {
+		return file.fHash == getContentHash(file.fPath);
+	}
+
+	public synchronized long getHits() {
+		return fHits;
+	}
+
+	public synchronized long getMisses() {
+		return fMisses;
+	}
+
+	public synchronized int getEntryCount() {
+		return fEntries.size();
+	}
+
+	public synchronized void clear() {
+		fEntries.clear();
+		fStamps.clear();
+		fHits= fMisses= 0;
+	}
+
+	/**
+	 * Writes the cache to the given file.
+	 */
+	public void save(File file) throws IOException {
+		DataOutputStream out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			synchronized (this) {
+				out.writeInt(VERSION);
+				out.writeInt(fStamps.size());
+				for (Map.Entry<String, Stamp> e : fStamps.entrySet()) {
+					out.writeUTF(e.getKey());
+					final Stamp stamp= e.getValue();
+					out.writeLong(stamp.fTimestamp);
+					out.writeLong(stamp.fLength);
+					out.writeLong(stamp.fHash);
+				}
+				out.writeInt(fEntries.size());
+				for (Map.Entry<String, Entry> e : fEntries.entrySet()) {
+					out.writeUTF(e.getKey());
+					writeEntry(out, e.getValue());
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Adds the entries stored in the given file to the cache.
+	 */
+	public void load(File file) throws IOException {
+		DataInputStream in= new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != VERSION)
+				return;
+
+			int count= in.readInt();
+			LinkedHashMap<String, Stamp> stamps= new LinkedHashMap<String, Stamp>();
+			for (int i = 0; i < count; i++) {
+				final String path= in.readUTF();
+				stamps.put(path, new Stamp(in.readLong(), in.readLong(), in.readLong()));
+			}
+			count= in.readInt();
+			LinkedHashMap<String, Entry> entries= new LinkedHashMap<String, Entry>();
+			for (int i = 0; i < count; i++) {
+				final String key= in.readUTF();
+				entries.put(key, readEntry(in));
+			}
+			synchronized (this) {
+				fStamps.putAll(stamps);
+				fEntries.putAll(entries);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+		out.writeInt(entry.fFiles.length);
+		for (FileRecord f : entry.fFiles) {
+			out.writeUTF(f.fPath);
+			out.writeLong(f.fHash);
+			out.writeInt(f.fFoundOnPath);
+			writeString(out, f.fFoundViaDirective);
+			writeChars(out, f.fIncludeGuard);
+		}
+		out.writeInt(entry.fIncludes.length);
+		for (IncludeRecord inc : entry.fIncludes) {
+			out.writeUTF(inc.fFromFile);
+			out.writeUTF(inc.fDirective);
+			out.writeBoolean(inc.fQuoteInclude);
+			out.writeBoolean(inc.fIncludeNext);
+			out.writeUTF(inc.fTarget);
+		}
+		out.writeInt(entry.fMacros.length);
+		for (MacroRecord m : entry.fMacros) {
+			writeChars(out, m.fName);
+			if (m.fParameters == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(m.fParameters.length);
+				for (char[] param : m.fParameters) {
+					writeChars(out, param);
+				}
+			}
+			writeChars(out, m.fExpansion);
+			writeString(out, m.fFile);
+			out.writeInt(m.fNameOffset);
+			out.writeInt(m.fNameLength);
+		}
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		FileRecord[] files= new FileRecord[in.readInt()];
+		for (int i = 0; i < files.length; i++) {
+			files[i]= new FileRecord(in.readUTF(), in.readLong(), in.readInt(), readString(in), readChars(in));
+		}
+		IncludeRecord[] includes= new IncludeRecord[in.readInt()];
+		for (int i = 0; i < includes.length; i++) {
+			includes[i]= new IncludeRecord(in.readUTF(), in.readUTF(), in.readBoolean(), in.readBoolean(), in.readUTF());
+		}
+		MacroRecord[] macros= new MacroRecord[in.readInt()];
+		for (int i = 0; i < macros.length; i++) {
+			final char[] name= readChars(in);
+			char[][] params= null;
+			final int paramCount= in.readInt();
+			if (paramCount >= 0) {
+				params= new char[paramCount][];
+				for (int j = 0; j < paramCount; j++) {
+					params[j]= readChars(in);
+				}
+			}
+			macros[i]= new MacroRecord(name, params, readChars(in), readString(in), in.readInt(), in.readInt());
+		}
+		return new Entry(files, includes, macros);
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null) {
+			out.writeUTF(str);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+		if (chars == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(chars.length);
+			for (char c : chars) {
+				out.writeChar(c);
+			}
+		}
+	}
+
+	private static char[] readChars(DataInputStream in) throws IOException {
+		final int length= in.readInt();
+		if (length < 0)
+			return null;
+		char[] chars= new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i]= in.readChar();
+		}
+		return chars;
+	}
+
+	/**
+	 * Returns the locations of the headers for which the cache has entries, for testing purposes.
+	 */
+	public synchronized List<String> getCachedHeaders() {
+		List<String> result= new ArrayList<String>();
+		for (Iterator<String> it = fEntries.keySet().iterator(); it.hasNext();) {
+			String key= it.next();
+			result.add(key.substring(0, key.indexOf('\0')));
+		}
+		return result;
+	}
+}
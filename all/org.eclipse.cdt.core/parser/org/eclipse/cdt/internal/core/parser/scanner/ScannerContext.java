@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 Wind River Systems, Inc. and others.
+ * Copyright (c) 2007, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -22,6 +22,7 @@ import org.eclipse.cdt.core.parser.OffsetLimitReachedException;
 final class ScannerContext {
 	enum BranchKind {eIf, eElif, eElse, eEnd}
 	enum CodeState {eActive, eParseInactive, eSkipInactive}
+	private enum GuardState {eInitial, eCandidate, eInGuard, eClosed, eNone}
 	final static class Conditional {
 		private CodeState fInitialState;
 		private BranchKind fLast;
@@ -44,6 +45,8 @@ final class ScannerContext {
 	private CodeState fCurrentState= CodeState.eActive;
 	private IncludeSearchPathElement fFoundOnPath;
 	private String fFoundViaDirective;
+	private GuardState fGuardState= GuardState.eInitial;
+	private char[] fGuardMacro;
 
 	/**
 	 * @param ctx 
@@ -101,6 +104,9 @@ final class ScannerContext {
 		
 		// an if starts a new conditional construct
 		if (branchKind == BranchKind.eIf) {
+			if (fConditionals.isEmpty()) {
+				fGuardState= fGuardState == GuardState.eInitial && !withinExpansion ? GuardState.eCandidate : GuardState.eNone;
+			}
 			fConditionals.add(result= new Conditional(fCurrentState));
 			return result;
 		}
@@ -108,15 +114,24 @@ final class ScannerContext {
 		// if we are not inside of an conditional there shouldn't be an #else, #elsif or #end
 		final int pos= fConditionals.size()-1;
 		if (pos < 0) {
+			fGuardState= GuardState.eNone;
 			return null;
 		}
 		
 		// an #end just pops one construct and restores state
 		if (branchKind == BranchKind.eEnd) {
+			if (pos == 0) {
+				fGuardState= fGuardState == GuardState.eInGuard && !withinExpansion ? GuardState.eClosed : GuardState.eNone;
+			}
 			result= fConditionals.remove(pos);
 			return result;
 		}
 		
+		// an #elif or #else of the outermost conditional
+		if (pos == 0) {
+			fGuardState= GuardState.eNone;
+		}
+
 		// #elif or #else cannot appear after another #else
 		result= fConditionals.get(pos);
 		if (result.fLast == BranchKind.eElse)
@@ -241,11 +256,63 @@ final class ScannerContext {
 			return currentLexerToken();
 		}
 		if (fLexer != null) {
-			return fLexer.nextToken();
+			final Token t= fLexer.nextToken();
+			if (fGuardState != GuardState.eNone && getCodeBranchNesting() == 0) {
+				switch (t.getType()) {
+				case Lexer.tNEWLINE:
+				case IToken.tEND_OF_INPUT:
+					break;
+				case IToken.tPOUND:
+					// directives are tracked separately.
+					if (fLexer.currentTokenIsFirstOnLine())
+						break;
+					fGuardState= GuardState.eNone;
+					break;
+				default:
+					fGuardState= GuardState.eNone;
+					break;
+				}
+			}
+			return t;
 		}
 		return new Token(IToken.tEND_OF_INPUT, null, 0, 0);
 	}
 
+	/**
+	 * Informs the context about the macro tested by the outermost conditional, must be
+	 * called after the conditional has been started via {@link #newBranch(BranchKind, boolean)}.
+	 * @param macro the name of the macro, if the condition is true exactly if the
+	 * macro is not defined, or <code>null</code>.
+	 */
+	public void setGuardMacro(char[] macro) {
+		if (fGuardState == GuardState.eCandidate) {
+			if (macro != null) {
+				fGuardMacro= macro;
+				fGuardState= GuardState.eInGuard;
+			} else {
+				fGuardState= GuardState.eNone;
+			}
+		}
+	}
+
+	/**
+	 * Informs the context about a directive other than a conditional.
+	 */
+	public void otherDirective() {
+		if (getCodeBranchNesting() == 0) {
+			fGuardState= GuardState.eNone;
+		}
+	}
+
+	/**
+	 * Returns the include guard of the file, or <code>null</code> if the file is not completely
+	 * wrapped in a conditional of the form <code>#ifndef GUARD</code> or <code>#if !defined(GUARD)</code>.
+	 * The result is meaningful only after the entire input of the context was consumed.
+	 */
+	public char[] getIncludeGuard() {
+		return fGuardState == GuardState.eClosed ? fGuardMacro : null;
+	}
+
 	/**
 	 * If this is a lexer based context the current line is consumed.
 	 * @see Lexer#consumeLine(int)
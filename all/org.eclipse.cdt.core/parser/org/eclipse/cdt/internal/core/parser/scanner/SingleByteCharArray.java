@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.parser.scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Implementation of char array for a large file where every byte represents exactly one character.
+ * This is the case for files using an ISO-8859-1 encoding and for files containing ASCII characters,
+ * only, using UTF-8 or US-ASCII. The content is read into a byte array, such that it uses half of
+ * the memory of a char array and does not need to be decoded.
+ * <p>
+ * The file is not mapped, a mapping would keep the file locked until the array is garbage collected,
+ * which prevents saving or deleting the file on some platforms.
+ */
+public final class SingleByteCharArray extends AbstractCharArray {
+	private static final long ASCII_MASK= 0x8080808080808080L;
+
+	/**
+	 * Reads the file for the given channel, or returns <code>null</code> in case the content cannot
+	 * be represented with one byte per character. The channel is not closed.
+	 */
+	public static AbstractCharArray create(FileChannel channel, long lsize, String charSet) throws IOException {
+		if (lsize > Integer.MAX_VALUE)
+			return null;
+
+		final String name= Charset.forName(charSet).name();
+		final boolean isLatin1= name.equals("ISO-8859-1"); //$NON-NLS-1$
+		final boolean isUTF8= name.equals("UTF-8"); //$NON-NLS-1$
+		if (!isLatin1 && !isUTF8 && !name.equals("US-ASCII")) //$NON-NLS-1$
+			return null;
+
+		final byte[] bytes= new byte[(int) lsize];
+		final ByteBuffer buffer= ByteBuffer.wrap(bytes);
+		long pos= 0;
+		while (buffer.hasRemaining()) {
+			final int read= channel.read(buffer, pos);
+			if (read < 0)
+				return null;	// the file has been truncated in the meantime
+			pos+= read;
+		}
+		int start= 0;
+		if (isUTF8 && lsize >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB
+				&& bytes[2] == (byte) 0xBF) {
+			start= 3;
+		}
+		if (!isLatin1 && !isASCII(buffer, start, bytes.length))
+			return null;
+
+		return new SingleByteCharArray(bytes, start, bytes.length - start);
+	}
+
+	private static boolean isASCII(ByteBuffer buffer, int from, int to) {
+		int i= from;
+		for (; i + 8 <= to; i+= 8) {
+			if ((buffer.getLong(i) & ASCII_MASK) != 0)
+				return false;
+		}
+		for (; i < to; i++) {
+			if (buffer.get(i) < 0)
+				return false;
+		}
+		return true;
+	}
+
+	private final byte[] fBytes;
+	private final int fStart;
+	private final int fLength;
+	private long fHash64;
+	private boolean fHashComputed;
+
+	private SingleByteCharArray(byte[] bytes, int start, int length) {
+		fBytes= bytes;
+		fStart= start;
+		fLength= length;
+	}
+
+	@Override
+	public int tryGetLength() {
+		return fLength;
+	}
+
+	@Override
+	public int getLength() {
+		return fLength;
+	}
+
+	@Override
+	public boolean isValidOffset(int offset) {
+		return offset < fLength;
+	}
+
+	@Override
+	public char get(int offset) {
+		return (char) (fBytes[fStart + offset] & 0xff);
+	}
+
+	@Override
+	public void arraycopy(int offset, char[] destination, int destinationPos, int length) {
+		int pos= fStart + offset;
+		final int end= destinationPos + length;
+		for (int i = destinationPos; i < end; i++) {
+			destination[i]= (char) (fBytes[pos++] & 0xff);
+		}
+	}
+
+	@Override
+	public long getContentsHash() {
+		if (!fHashComputed) {
+			// Feed the hasher with chunks, the result is the same as for the other char arrays.
+			StreamHasher hasher= new StreamHasher();
+			char[] chunk= new char[Math.min(fLength, LazyCharArray.CHUNK_SIZE)];
+			for (int offset = 0; offset < fLength; offset+= chunk.length) {
+				final int len= Math.min(chunk.length, fLength - offset);
+				if (len < chunk.length) {
+					chunk= new char[len];
+				}
+				arraycopy(offset, chunk, 0, len);
+				hasher.addChunk(chunk);
+			}
+			fHash64= hasher.computeHash();
+			fHashComputed= true;
+		}
+		return fHash64;
+	}
+}
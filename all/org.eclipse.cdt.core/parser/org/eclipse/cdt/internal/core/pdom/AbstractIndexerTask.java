@@ -24,6 +24,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.dom.IPDOMIndexerTask;
@@ -106,7 +113,7 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			fRequestIsCounted = true;
 		}
 
-		public Object[] getPreprocessingDirectives() throws CoreException {
+		public synchronized Object[] getPreprocessingDirectives() throws CoreException {
 			if (fPreprocessingDirectives == null) {
 				if (fIndexFile == null)
 					return new Object[0];
@@ -115,7 +122,7 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			return fPreprocessingDirectives;
 		}
 		
-		public ICPPUsingDirective[] getUsingDirectives() throws CoreException {
+		public synchronized ICPPUsingDirective[] getUsingDirectives() throws CoreException {
 			if (fDirectives == null) {
 				if (fIndexFile == null)
 					return ICPPUsingDirective.EMPTY_ARRAY;
@@ -124,15 +131,15 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			return fDirectives;
 		}
 
-		public void setPreprocessorDirectives(IIndexInclude[] includes, IIndexMacro[] macros) throws CoreException {
+		public synchronized void setPreprocessorDirectives(IIndexInclude[] includes, IIndexMacro[] macros) throws CoreException {
 			fPreprocessingDirectives= merge(includes, macros);
 		}
 
-		public void setUsingDirectives(ICPPUsingDirective[] usingDirectives) {
+		public synchronized void setUsingDirectives(ICPPUsingDirective[] usingDirectives) {
 			fDirectives= usingDirectives;
 		}
 
-		public void clearCaches() {
+		public synchronized void clearCaches() {
 			fPreprocessingDirectives= null;
 			fDirectives= null;
 		}
@@ -171,6 +178,26 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 	}
 
 	protected enum MessageKind { parsingFileTask, errorWhileParsing, tooManyIndexProblems }
+
+	/**
+	 * A source file parsed by one of the parser threads, waiting to be stored in the index.
+	 */
+	private static class ParsedSource {
+		final Object fTu;
+		final IIndexFileLocation fIfl;
+		volatile boolean fCanceled;
+		IASTTranslationUnit fAST;
+		IIndexFileLocation[] fIfls;
+		PreparedSymbols fSymbols;
+		long fContentsHash;
+		int fConfigHash;
+		Throwable fError;
+
+		ParsedSource(Object tu, IIndexFileLocation ifl) {
+			fTu= tu;
+			fIfl= ifl;
+		}
+	}
 	
 	private int fUpdateFlags= IIndexManager.UPDATE_ALL;
 	private UnusedHeaderStrategy fIndexHeadersWithoutContext= UnusedHeaderStrategy.useDefaultLanguage;
@@ -187,8 +214,17 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 	private ITodoTaskUpdater fTodoTaskUpdater;
 	private final boolean fIsFastIndexer;
 	private long fFileSizeLimit= 0;
-	private InternalFileContentProvider fCodeReaderFactory;
+	// Every thread parsing files needs its own content provider.
+	private final ThreadLocal<InternalFileContentProvider> fCodeReaderFactory= new ThreadLocal<InternalFileContentProvider>();
 	private int fSwallowOutOfMemoryError= 5;
+	private int fParserThreads= 1;
+	private ExecutorService fParserPool;
+	/**
+	 * Separates the parser threads from the thread writing to the index. Parser threads hold the read
+	 * lock while they parse a source file using the index, the thread running the task holds the write 
+	 * lock while it stores a batch of ASTs.
+	 */
+	private final ReentrantReadWriteLock fParserGate= new ReentrantReadWriteLock();
 	/**
 	 * A queue of urgent indexing tasks that contribute additional files to this task.
 	 * The files from the urgent tasks are indexed before all not yet processed files. 
@@ -238,6 +274,15 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 		fFileSizeLimit= limit;
 	}
 
+	/**
+	 * Sets the number of threads used to parse source files concurrently. The ASTs are stored in
+	 * the index one after the other by the thread running the task. With the default of 1 all files
+	 * are parsed by the thread running the task.
+	 */
+	public final void setParserThreads(int count) {
+		fParserThreads= Math.max(1, count);
+	}
+
 	protected abstract IWritableIndex createIndex();
 	protected abstract IIncludeFileResolutionHeuristics createIncludeHeuristics();
 	protected abstract IncludeFileContentProvider createReaderFactory();
@@ -287,23 +332,25 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			}
 			return null;
 		}
-		if (fCodeReaderFactory == null) {
+		InternalFileContentProvider codeReaderFactory= fCodeReaderFactory.get();
+		if (codeReaderFactory == null) {
 			InternalFileContentProvider fileContentProvider = createInternalFileContentProvider();
 			if (fIsFastIndexer) {
 				IndexBasedFileContentProvider ibfcp = new IndexBasedFileContentProvider(fIndex, fResolver,
 						language.getLinkageID(), fileContentProvider, this);
 				ibfcp.setSupportFillGapFromContextToHeader(inContext);
 				ibfcp.setFileSizeLimit(fFileSizeLimit);
-				fCodeReaderFactory= ibfcp;
+				codeReaderFactory= ibfcp;
 			} else {
-				fCodeReaderFactory= fileContentProvider;
+				codeReaderFactory= fileContentProvider;
 			}
+			fCodeReaderFactory.set(codeReaderFactory);
 		} else if (fIsFastIndexer) {
-			((IndexBasedFileContentProvider) fCodeReaderFactory).setLinkage(language.getLinkageID());
+			((IndexBasedFileContentProvider) codeReaderFactory).setLinkage(language.getLinkageID());
 		}
-		fCodeReaderFactory.setIncludeResolutionHeuristics(createIncludeHeuristics());
+		codeReaderFactory.setIncludeResolutionHeuristics(createIncludeHeuristics());
 		try {
-			IASTTranslationUnit ast= language.getASTTranslationUnit(codeReader, scanInfo, fCodeReaderFactory,
+			IASTTranslationUnit ast= language.getASTTranslationUnit(codeReader, scanInfo, codeReaderFactory,
 					fIndex, options, getLogService());
 			if (pm.isCanceled()) {
 				return null;
@@ -311,7 +358,7 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			return ast;
 		} finally {
 			if (fIsFastIndexer) {
-				((IndexBasedFileContentProvider) fCodeReaderFactory).cleanupAfterTranslationUnit();
+				((IndexBasedFileContentProvider) codeReaderFactory).cleanupAfterTranslationUnit();
 			}
 		}
 	}
@@ -422,6 +469,11 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			synchronized (this) {
 				fTaskCompleted = true;
 			}
+			if (fParserPool != null) {
+				fParserPool.shutdown();
+				fParserPool= null;
+			}
+			fCodeReaderFactory.remove();
 		}
 	}
 
@@ -556,35 +608,61 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 
 	private void requestUpdate(int linkageID, IIndexFileLocation ifl, IIndexFragmentFile ifile) {
 		FileKey key= new FileKey(linkageID, ifl.getURI());
-		IndexFileContent info= fFileInfos.get(key);
-		if (info == null) {
-			info= createFileInfo(key, null);
+		synchronized (fFileInfos) {
+			IndexFileContent info= fFileInfos.get(key);
+			if (info == null) {
+				info= createFileInfo(key, null);
+			}
+			info.fIndexFile= ifile;
+			info.fRequestUpdate= true;
+			info.fIsUpdated= false;
 		}
-		info.fIndexFile= ifile;
-		info.fRequestUpdate= true;
-		info.fIsUpdated= false;
 	}
 	
 	private void setIndexed(int linkageID, IIndexFileLocation ifl) {
 		FileKey key= new FileKey(linkageID, ifl.getURI());
-		IndexFileContent info= fFileInfos.get(key);
-		if (info == null) {
-			info= createFileInfo(key, null);
+		synchronized (fFileInfos) {
+			IndexFileContent info= fFileInfos.get(key);
+			if (info == null) {
+				info= createFileInfo(key, null);
+			}
+			info.fIsUpdated= true;
+			info.clearCaches();
 		}
-		info.fIsUpdated= true;
-		info.clearCaches();
 	}
 
 	private IndexFileContent createFileInfo(FileKey key, IIndexFile ifile) {
 		IndexFileContent info = new IndexFileContent();
-		fFileInfos.put(key, info);
+		synchronized (fFileInfos) {
+			fFileInfos.put(key, info);
+		}
 		info.fIndexFile= ifile;
 		return info;
 	}
 
 	private IndexFileContent getFileInfo(int linkageID, IIndexFileLocation ifl) {
 		FileKey key= new FileKey(linkageID, ifl.getURI());
-		return fFileInfos.get(key);
+		synchronized (fFileInfos) {
+			return fFileInfos.get(key);
+		}
+	}
+
+	/**
+	 * Checks whether the file still needs to be updated, the flags of the file infos may be
+	 * accessed by parser threads.
+	 */
+	private boolean isUpdateRequested(int linkageID, IIndexFileLocation ifl) {
+		synchronized (fFileInfos) {
+			IndexFileContent info= getFileInfo(linkageID, ifl);
+			return info != null && info.fRequestUpdate && !info.fIsUpdated;
+		}
+	}
+
+	private boolean isUpdated(int linkageID, IIndexFileLocation ifl) {
+		synchronized (fFileInfos) {
+			IndexFileContent info= getFileInfo(linkageID, ifl);
+			return info != null && info.fIsUpdated;
+		}
 	}
 
 	private boolean isSourceUnitConfigChange(Object tu, IIndexFragmentFile ifile) {
@@ -726,24 +804,30 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 		// Sources
 		List<Object> files= fileListMap.get(getFileListKey(linkageID, true));
 		if (files != null) {
-			for (Iterator<Object> iter = files.iterator(); iter.hasNext();) {
-				Object tu = iter.next();
+			if (fParserThreads > 1) {
+				parseSourcesConcurrently(linkageID, files, monitor);
 				if (monitor.isCanceled() || hasUrgentTasks())
 					return;
+			} else {
+				for (Iterator<Object> iter = files.iterator(); iter.hasNext();) {
+					Object tu = iter.next();
+					if (monitor.isCanceled() || hasUrgentTasks())
+						return;
 
-				final IIndexFileLocation ifl = fResolver.resolveFile(tu);
-				if (ifl != null) {
-					final IndexFileContent info= getFileInfo(linkageID, ifl);
-					if (info != null && info.fRequestUpdate && !info.fIsUpdated) {
-						info.fRequestIsCounted= false;
-						final IScannerInfo scannerInfo= fResolver.getBuildConfiguration(linkageID, tu);
-						parseFile(tu, linkageID, ifl, scannerInfo, false, monitor);
-						if (info.fIsUpdated) {
-							updateFileCount(1, 0, 0);	// a source file was parsed
+					final IIndexFileLocation ifl = fResolver.resolveFile(tu);
+					if (ifl != null) {
+						final IndexFileContent info= getFileInfo(linkageID, ifl);
+						if (info != null && info.fRequestUpdate && !info.fIsUpdated) {
+							info.fRequestIsCounted= false;
+							final IScannerInfo scannerInfo= fResolver.getBuildConfiguration(linkageID, tu);
+							parseFile(tu, linkageID, ifl, scannerInfo, false, monitor);
+							if (info.fIsUpdated) {
+								updateFileCount(1, 0, 0);	// a source file was parsed
+							}
 						}
 					}
+					iter.remove();
 				}
-				iter.remove();
 			}
 		}
 		
@@ -799,6 +883,192 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 		}
 	}
 
+	/**
+	 * Parses the source files on the pool of parser threads and stores the ASTs in the index in the
+	 * order of the list. Files that have not been stored when the task is canceled or urgent work
+	 * arrives remain in the list.
+	 */
+	private void parseSourcesConcurrently(final int linkageID, List<Object> files, final IProgressMonitor monitor)
+			throws CoreException, InterruptedException {
+		if (fParserPool == null) {
+			fParserPool= Executors.newFixedThreadPool(fParserThreads, new ThreadFactory() {
+				private int fCount;
+				public Thread newThread(final Runnable r) {
+					Runnable runnable= new Runnable() {
+						public void run() {
+							try {
+								r.run();
+							} finally {
+								fCodeReaderFactory.remove();
+							}
+						}
+					};
+					Thread thread= new Thread(runnable, "Indexer Parser " + (++fCount)); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		// Limit the number of ASTs held in memory.
+		final int maxPending= 2 * fParserThreads;
+		final LinkedList<ParsedSource> pending= new LinkedList<ParsedSource>();
+		final LinkedList<Future<ParsedSource>> futures= new LinkedList<Future<ParsedSource>>();
+		try {
+			for (Iterator<Object> iter = files.iterator(); ;) {
+				while (pending.size() < maxPending && iter.hasNext() && !monitor.isCanceled() && !hasUrgentTasks()) {
+					final Object tu = iter.next();
+					iter.remove();
+					final IIndexFileLocation ifl = fResolver.resolveFile(tu);
+					if (ifl != null && isUpdateRequested(linkageID, ifl)) {
+						getFileInfo(linkageID, ifl).fRequestIsCounted= false;
+						final IScannerInfo scannerInfo= fResolver.getBuildConfiguration(linkageID, tu);
+						final ParsedSource source= new ParsedSource(tu, ifl);
+						pending.add(source);
+						futures.add(fParserPool.submit(new Callable<ParsedSource>() {
+							public ParsedSource call() {
+								parseSource(source, linkageID, scannerInfo, monitor);
+								return source;
+							}
+						}));
+					}
+				}
+				if (pending.isEmpty() || monitor.isCanceled() || hasUrgentTasks())
+					return;
+
+				// Wait for the next source without blocking the parser threads, then store it together 
+				// with the sources that have been parsed in the meantime. This way the parser threads
+				// are stopped once per batch rather than once per source.
+				awaitParsed(pending.getFirst(), futures.getFirst());
+				fParserGate.writeLock().lock();
+				try {
+					do {
+						futures.removeFirst();
+						storeSource(linkageID, pending.removeFirst(), monitor);
+					} while (!pending.isEmpty() && futures.getFirst().isDone() 
+							&& awaitParsed(pending.getFirst(), futures.getFirst())
+							&& !monitor.isCanceled() && !hasUrgentTasks());
+				} finally {
+					fParserGate.writeLock().unlock();
+				}
+			}
+		} finally {
+			if (!pending.isEmpty()) {
+				for (ParsedSource source : pending) {
+					source.fCanceled= true;
+				}
+				for (Future<ParsedSource> future : futures) {
+					future.cancel(false);
+				}
+				// Wait for the parser threads still working on canceled files.
+				fParserGate.writeLock().lock();
+				fParserGate.writeLock().unlock();
+
+				// The files will be parsed later on.
+				ArrayList<Object> unparsed= new ArrayList<Object>(pending.size());
+				for (ParsedSource source : pending) {
+					unparsed.add(source.fTu);
+				}
+				files.addAll(0, unparsed);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the parser thread to complete the source, returns <code>true</code>.
+	 */
+	private static boolean awaitParsed(ParsedSource source, Future<ParsedSource> future) throws InterruptedException {
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			source.fError= e.getCause();
+		}
+		return true;
+	}
+
+	/**
+	 * Parses a source file and resolves the names that need to be stored in the index. Called
+	 * on a parser thread.
+	 */
+	private void parseSource(ParsedSource source, int linkageID, IScannerInfo scanInfo, IProgressMonitor pm) {
+		try {
+			if (source.fCanceled || pm.isCanceled())
+				return;
+
+			AbstractLanguage lang= getLanguage(source.fTu, linkageID);
+			if (lang == null)
+				return;
+
+			if (fShowActivity) {
+				trace("Indexer: parsing " + getPathForLabel(source.fIfl).toOSString()); //$NON-NLS-1$
+			}
+			// Reading the file does not involve the index.
+			long start= System.currentTimeMillis();
+			FileContent codeReader= fResolver.getCodeReader(source.fTu);
+			final int configHash= computeHashCode(scanInfo);
+			fParserGate.readLock().lock();
+			try {
+				if (source.fCanceled)
+					return;
+				IASTTranslationUnit ast= createAST(source.fTu, lang, codeReader, scanInfo, fASTOptions, false, pm);
+				synchronized (fStatistics) {
+					fStatistics.fParsingTime += System.currentTimeMillis() - start;
+				}
+				if (ast != null) {
+					source.fContentsHash= codeReader.getContentsHash();
+					source.fConfigHash= configHash;
+					source.fIfls= collectFilesToUpdate(linkageID, ast);
+					source.fSymbols= prepareSymbols(ast, source.fIfls, pm);
+					source.fAST= ast;
+				}
+			} finally {
+				fParserGate.readLock().unlock();
+			}
+		} catch (Exception e) {
+			source.fError= e;
+		} catch (Error e) {
+			source.fError= e;
+		}
+	}
+
+	/**
+	 * Stores a source file parsed by a parser thread in the index. Must be called with the write 
+	 * lock of the parser gate.
+	 */
+	private void storeSource(int linkageID, ParsedSource source, IProgressMonitor pm)
+			throws CoreException, InterruptedException {
+		final IPath path= getPathForLabel(source.fIfl);
+		pm.subTask(getMessage(MessageKind.parsingFileTask,
+				path.lastSegment(), path.removeLastSegments(1).toString()));
+		Throwable th= source.fError;
+		if (th == null && source.fAST != null) {
+			try {
+				writeToIndex(linkageID, source.fSymbols, source.fIfls, source.fContentsHash,
+						source.fConfigHash, pm);
+			} catch (CoreException e) {
+				th= e;
+			} catch (RuntimeException e) {
+				th= e;
+			} catch (StackOverflowError e) {
+				th= e;
+			} catch (AssertionError e) {
+				th= e;
+			} catch (OutOfMemoryError e) {
+				th= e;
+			}
+		}
+		// Release the AST as early as possible.
+		source.fAST= null;
+		source.fSymbols= null;
+		if (th != null) {
+			if (th instanceof OutOfMemoryError && --fSwallowOutOfMemoryError < 0)
+				throw (OutOfMemoryError) th;
+			swallowError(path, th);
+		}
+		if (isUpdated(linkageID, source.fIfl)) {
+			updateFileCount(1, 0, 0);	// a source file was parsed
+		}
+	}
+
 	private synchronized boolean hasUrgentTasks() {
 		return !fUrgentTasks.isEmpty();
 	}
@@ -849,14 +1119,7 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 	private void parseFile(Object tu, int linkageID, IIndexFileLocation ifl, IScannerInfo scanInfo,
 			boolean inContext, IProgressMonitor pm) throws CoreException, InterruptedException {
 		IPath path= getPathForLabel(ifl);
-		AbstractLanguage[] langs= fResolver.getLanguages(tu, true);
-		AbstractLanguage lang= null;
-		for (AbstractLanguage lang2 : langs) {
-			if (lang2.getLinkageID() == linkageID) {
-				lang= lang2;
-				break;
-			}
-		}
+		AbstractLanguage lang= getLanguage(tu, linkageID);
 		if (lang == null) {
 			return;
 		}
@@ -871,7 +1134,9 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			long start= System.currentTimeMillis();
 			FileContent codeReader= fResolver.getCodeReader(tu);
 			IASTTranslationUnit ast= createAST(tu, lang, codeReader, scanInfo, fASTOptions, inContext, pm);
-			fStatistics.fParsingTime += System.currentTimeMillis() - start;
+			synchronized (fStatistics) {
+				fStatistics.fParsingTime += System.currentTimeMillis() - start;
+			}
 			if (ast != null) {
 				writeToIndex(linkageID, ast, codeReader.getContentsHash(), computeHashCode(scanInfo), pm);
 			}
@@ -893,8 +1158,55 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 		}
 	}
 	
+	private AbstractLanguage getLanguage(Object tu, int linkageID) {
+		AbstractLanguage[] langs= fResolver.getLanguages(tu, true);
+		for (AbstractLanguage lang : langs) {
+			if (lang.getLinkageID() == linkageID) {
+				return lang;
+			}
+		}
+		return null;
+	}
+
 	private void writeToIndex(final int linkageID, IASTTranslationUnit ast, long fileContentsHash,
 			int configHash, IProgressMonitor pm) throws CoreException, InterruptedException {
+		IIndexFileLocation[] ifls= collectFilesToUpdate(linkageID, ast);
+		try {
+			addSymbols(ast, ifls, fIndex, 1, false, fileContentsHash, configHash, fTodoTaskUpdater, pm);
+		} finally {
+			// mark as updated in any case, to avoid parsing files that caused an exception to be thrown.
+			markUpdated(linkageID, ifls);
+		}
+	}
+
+	/**
+	 * Stores symbols prepared by a parser thread. Files that have been updated in the meantime
+	 * by another translation unit are skipped.
+	 */
+	private void writeToIndex(final int linkageID, PreparedSymbols symbols, IIndexFileLocation[] ifls,
+			long fileContentsHash, int configHash, IProgressMonitor pm)
+			throws CoreException, InterruptedException {
+		ArrayList<IIndexFileLocation> filtered= new ArrayList<IIndexFileLocation>(ifls.length);
+		for (IIndexFileLocation ifl : ifls) {
+			if (isUpdateRequested(linkageID, ifl)) {
+				filtered.add(ifl);
+			}
+		}
+		ifls= filtered.toArray(new IIndexFileLocation[filtered.size()]);
+		try {
+			storeSymbols(symbols, ifls, fIndex, 1, false, fileContentsHash, configHash, fTodoTaskUpdater, pm);
+		} finally {
+			// mark as updated in any case, to avoid parsing files that caused an exception to be thrown.
+			markUpdated(linkageID, ifls);
+		}
+	}
+
+	/**
+	 * Computes the files of the AST that need to be stored in the index, in the order
+	 * they have to be written.
+	 */
+	private IIndexFileLocation[] collectFilesToUpdate(final int linkageID, IASTTranslationUnit ast)
+			throws CoreException {
 		HashSet<IIndexFileLocation> enteredFiles= new HashSet<IIndexFileLocation>();
 		ArrayList<IIndexFileLocation> orderedIFLs= new ArrayList<IIndexFileLocation>();
 		
@@ -906,18 +1218,16 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 			collectOrderedIFLs(linkageID, inclusion, enteredFiles, orderedIFLs);
 		}
 		
-		IndexFileContent info= getFileInfo(linkageID, topIfl);
-		if (info != null && info.fRequestUpdate && !info.fIsUpdated) {
+		if (isUpdateRequested(linkageID, topIfl)) {
 			orderedIFLs.add(topIfl);
 		}
-		
-		IIndexFileLocation[] ifls= orderedIFLs.toArray(new IIndexFileLocation[orderedIFLs.size()]);
-		try {
-			addSymbols(ast, ifls, fIndex, 1, false, fileContentsHash, configHash, fTodoTaskUpdater, pm);
-		} finally {
-			// mark as updated in any case, to avoid parsing files that caused an exception to be thrown.
+		return orderedIFLs.toArray(new IIndexFileLocation[orderedIFLs.size()]);
+	}
+
+	private void markUpdated(int linkageID, IIndexFileLocation[] ifls) {
+		synchronized (fFileInfos) {
 			for (IIndexFileLocation ifl : ifls) {
-				info= getFileInfo(linkageID, ifl);
+				IndexFileContent info= getFileInfo(linkageID, ifl);
 				Assert.isNotNull(info);
 				info.fIsUpdated= true;
 			}
@@ -941,6 +1251,12 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 	}
 
 	public final boolean needToUpdateHeader(int linkageID, IIndexFileLocation ifl) throws CoreException {
+		synchronized (fFileInfos) {
+			return needToUpdateHeaderLocked(linkageID, ifl);
+		}
+	}
+
+	private boolean needToUpdateHeaderLocked(int linkageID, IIndexFileLocation ifl) throws CoreException {
 		IndexFileContent info= getFileInfo(linkageID, ifl);
 		if (info == null) {
 			IIndexFile ifile= null;
@@ -1084,16 +1400,18 @@ public abstract class AbstractIndexerTask extends PDOMWriter {
 	}
 
 	public final IndexFileContent getFileContent(int linkageID, IIndexFileLocation ifl) throws CoreException {
-		if (!needToUpdateHeader(linkageID, ifl)) {
-			IndexFileContent info= getFileInfo(linkageID, ifl);
-			Assert.isNotNull(info);
-			if (info.fIndexFile == null) {
-				info.fIndexFile= fIndex.getFile(linkageID, ifl);
+		synchronized (fFileInfos) {
+			if (!needToUpdateHeaderLocked(linkageID, ifl)) {
+				IndexFileContent info= getFileInfo(linkageID, ifl);
+				Assert.isNotNull(info);
 				if (info.fIndexFile == null) {
-					return null;
+					info.fIndexFile= fIndex.getFile(linkageID, ifl);
+					if (info.fIndexFile == null) {
+						return null;
+					}
 				}
+				return info;
 			}
-			return info;
 		}
 		return null;
 	}
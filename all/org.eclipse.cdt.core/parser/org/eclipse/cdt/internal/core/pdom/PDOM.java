@@ -28,6 +28,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 import org.eclipse.cdt.core.CCorePlugin;
@@ -72,6 +75,7 @@ import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
 import org.eclipse.cdt.internal.core.pdom.db.DBProperties;
 import org.eclipse.cdt.internal.core.pdom.db.Database;
 import org.eclipse.cdt.internal.core.pdom.db.IBTreeVisitor;
+import org.eclipse.cdt.internal.core.pdom.db.TrigramIndex;
 import org.eclipse.cdt.internal.core.pdom.dom.BindingCollector;
 import org.eclipse.cdt.internal.core.pdom.dom.FindBinding;
 import org.eclipse.cdt.internal.core.pdom.dom.IPDOMLinkageFactory;
@@ -102,6 +106,23 @@ public class PDOM extends PlatformObject implements IPDOM {
 	private static final int LONG_WRITE_LOCK_REPORT_THRESHOLD = 1000;
 	private static final int LONG_READ_LOCK_WAIT_REPORT_THRESHOLD = 1000;
 	static boolean sDEBUG_LOCKS= false; // initialized in the PDOMManager, because IBM needs PDOM independent of runtime plugin.
+	/**
+	 * System property to serve the requests for the write lock in the order they were made.
+	 */
+	public static final String FAIR_LOCKS_PROPERTY = "org.eclipse.cdt.core.parser.pdom.fairLocks"; //$NON-NLS-1$
+	private static final boolean sFAIR_LOCKS= Boolean.getBoolean(FAIR_LOCKS_PROPERTY);
+	/**
+	 * System property to maintain a trigram index over the names of the bindings in new databases.
+	 * The index speeds up searching for bindings with regular expressions.
+	 */
+	public static final String TRIGRAM_INDEX_PROPERTY = "org.eclipse.cdt.core.parser.pdom.trigramIndex"; //$NON-NLS-1$
+	private static final boolean sCREATE_TRIGRAM_INDEX= Boolean.getBoolean(TRIGRAM_INDEX_PROPERTY);
+	/**
+	 * System property for the maximum number of results derived from database records that are
+	 * kept in the result cache.
+	 */
+	public static final String RESULT_CACHE_SIZE_PROPERTY = "org.eclipse.cdt.core.parser.pdom.resultCacheSize"; //$NON-NLS-1$
+	private static final int sRESULT_CACHE_SIZE= Integer.getInteger(RESULT_CACHE_SIZE_PROPERTY, PDOMResultCache.DEFAULT_CAPACITY).intValue();
 
 	/**
 	 * Identifier for PDOM format
@@ -240,7 +261,9 @@ public class PDOM extends PlatformObject implements IPDOM {
 	public static final int LINKAGES = Database.DATA_AREA;
 	public static final int FILE_INDEX = Database.DATA_AREA + 4;
 	public static final int PROPERTIES = Database.DATA_AREA + 8;
-	public static final int END= Database.DATA_AREA + 12;
+	// Optional, older databases have a zero in this slot.
+	public static final int TRIGRAM_INDEX = Database.DATA_AREA + 12;
+	public static final int END= Database.DATA_AREA + 16;
 	static {
 		assert END <= Database.CHUNK_SIZE;
 	}
@@ -297,7 +320,8 @@ public class PDOM extends PlatformObject implements IPDOM {
 	private File fPath;
 	private IIndexLocationConverter locationConverter;
 	private Map<String, IPDOMLinkageFactory> fPDOMLinkageFactoryCache;
-	private HashMap<Object, Object> fResultCache= new HashMap<Object, Object>();
+	private final PDOMResultCache fResultCache= new PDOMResultCache(sRESULT_CACHE_SIZE);
+	private TrigramIndex fTrigramIndex;
 	private List<IListener> listeners;
 	protected ChangeEvent fEvent= new ChangeEvent();
 
@@ -457,6 +481,20 @@ public class PDOM extends PlatformObject implements IPDOM {
 		return file;
 	}
 
+	/**
+	 * Returns the trigram index over the names of the bindings, or <code>null</code> if the
+	 * database does not have one.
+	 */
+	public TrigramIndex getTrigramIndex() throws CoreException {
+		if (fTrigramIndex == null) {
+			long rec= db.getRecPtr(TRIGRAM_INDEX);
+			if (rec != 0) {
+				fTrigramIndex= new TrigramIndex(db, rec);
+			}
+		}
+		return fTrigramIndex;
+	}
+
 	protected void clearFileIndex() throws CoreException {
 		db.putRecPtr(FILE_INDEX, 0);
 		fileIndex = null;
@@ -614,6 +652,11 @@ public class PDOM extends PlatformObject implements IPDOM {
 			}
 		}
 
+		IIndexFragmentBinding[] result= findBindingsViaTrigramIndex(patterns, isFullyQualified, filter, monitor);
+		if (result != null) {
+			return result;
+		}
+
 		BindingFinder finder = new BindingFinder(patterns, isFullyQualified, filter, monitor);
 		for (PDOMLinkage linkage : getLinkageList()) {
 			if (filter.acceptLinkage(linkage)) {
@@ -630,6 +673,78 @@ public class PDOM extends PlatformObject implements IPDOM {
 		return finder.getBindings();
 	}
 
+	/**
+	 * Uses the trigram index to compute the candidates for the last pattern and checks them
+	 * like the {@link BindingFinder} would. Returns <code>null</code> if there is no trigram index
+	 * or the pattern cannot be used with it.
+	 */
+	private IIndexFragmentBinding[] findBindingsViaTrigramIndex(Pattern[] patterns, boolean isFullyQualified,
+			IndexFilter filter, IProgressMonitor monitor) throws CoreException {
+		final TrigramIndex trigramIndex= getTrigramIndex();
+		if (trigramIndex == null)
+			return null;
+		final Pattern pattern= patterns[patterns.length-1];
+		final int[] trigrams= TrigramIndex.getRequiredTrigrams(pattern);
+		if (trigrams == null)
+			return null;
+
+		HashMap<Long, PDOMLinkage> linkages= new HashMap<Long, PDOMLinkage>();
+		for (PDOMLinkage linkage : getLinkageList()) {
+			if (filter.acceptLinkage(linkage)) {
+				linkages.put(linkage.getRecord(), linkage);
+			}
+		}
+		List<IIndexFragmentBinding> result= new ArrayList<IIndexFragmentBinding>();
+		for (long rec : trigramIndex.getCandidates(trigrams)) {
+			if (monitor.isCanceled())
+				return IIndexFragmentBinding.EMPTY_INDEX_BINDING_ARRAY;
+
+			// Find the linkage of the binding.
+			long parentRec= rec;
+			do {
+				parentRec= PDOMNode.getParentNodeRec(db, parentRec);
+			} while (parentRec != 0 && !linkages.containsKey(parentRec));
+			if (parentRec == 0)
+				continue;
+
+			PDOMBinding binding= linkages.get(parentRec).getBinding(rec);
+			if (binding != null && pattern.matcher(new String(binding.getNameCharArray())).matches()
+					&& filter.acceptBinding(binding)) {
+				final PDOMNode owner= binding.getParentNode();
+				boolean matches= ownersMatch(owner, patterns, patterns.length-2, isFullyQualified);
+				if (!matches && binding instanceof IEnumerator && owner instanceof ICPPEnumeration
+						&& !((ICPPEnumeration) owner).isScoped()) {
+					// Unscoped enumerators are also visited as children of the enclosing scope.
+					matches= ownersMatch(owner.getParentNode(), patterns, patterns.length-2, isFullyQualified);
+				}
+				if (matches) {
+					result.add(binding);
+				}
+			}
+		}
+		return result.toArray(new IIndexFragmentBinding[result.size()]);
+	}
+
+	/**
+	 * Checks whether the owner and its enclosing nodes match the patterns up to the given index.
+	 * All of them must have children, otherwise the {@link BindingFinder} does not visit the binding.
+	 */
+	private boolean ownersMatch(PDOMNode owner, Pattern[] patterns, int idx, boolean isFullyQualified)
+			throws CoreException {
+		for (; owner != null; owner= owner.getParentNode()) {
+			if (!(owner instanceof PDOMNamedNode) || !((PDOMNamedNode) owner).mayHaveChildren())
+				return false;
+			if (idx >= 0) {
+				String name= new String(((PDOMNamedNode) owner).getNameCharArray());
+				if (!patterns[idx--].matcher(name).matches())
+					return false;
+			} else if (isFullyQualified) {
+				return false;
+			}
+		}
+		return idx < 0;
+	}
+
 	private Boolean getCaseSensitive(Pattern[] patterns) {
 		Boolean caseSensitive= null;
 		for (Pattern p : patterns) {
@@ -783,6 +898,10 @@ public class PDOM extends PlatformObject implements IPDOM {
 	}
 
 	public void insertLinkage(PDOMLinkage linkage) throws CoreException {
+		if (sCREATE_TRIGRAM_INDEX && db.getRecPtr(LINKAGES) == 0 && db.getRecPtr(TRIGRAM_INDEX) == 0) {
+			// The database is empty, the index will cover all bindings.
+			db.putRecPtr(TRIGRAM_INDEX, new TrigramIndex(db).getRecord());
+		}
 		linkage.setNext(db.getRecPtr(LINKAGES));
 		db.putRecPtr(LINKAGES, linkage.getRecord());
 		fLinkageIDCache.put(linkage.getLinkageID(), linkage);
@@ -790,39 +909,61 @@ public class PDOM extends PlatformObject implements IPDOM {
 
 	// Read-write lock rules. Readers don't conflict with other readers,
 	// Writers conflict with readers, and everyone conflicts with writers.
-	private Object mutex = new Object();
+	// Waiting readers are preferred over waiting writers. With fair locking the
+	// writers are served in the order of their requests.
+	private final ReentrantLock mutex = new ReentrantLock(sFAIR_LOCKS);
+	private final Condition lockReleased = mutex.newCondition();
+	private final LinkedList<WriteLockRequest> waitingWriters= new LinkedList<WriteLockRequest>();
+	private boolean fFairLocks= sFAIR_LOCKS;	// protected by mutex
+	private final PDOMLockStatistics fLockStatistics= new PDOMLockStatistics();
 	private int lockCount;
 	private int waitingReaders;
 	private long lastWriteAccess= 0;
 	private long lastReadAccess= 0;
 	private long timeWriteLockAcquired;
+	// Set when the result cache needs to be cleared once all read-locks are released.
+	private boolean fResultCacheStale;
+
+	private static class WriteLockRequest {
+		final int fGiveupReadLocks;
+		WriteLockRequest(int giveupReadLocks) {
+			fGiveupReadLocks= giveupReadLocks;
+		}
+	}
 
 	public void acquireReadLock() throws InterruptedException {
-		long t = sDEBUG_LOCKS ? System.nanoTime() : 0;
-		synchronized (mutex) {
+		long t = System.nanoTime();
+		mutex.lock();
+		try {
 			++waitingReaders;
 			try {
 				while (lockCount < 0)
-					mutex.wait();
+					lockReleased.await();
 			} finally {
 				--waitingReaders;
 			}
 			++lockCount;
 			db.setLocked(true);
 
+			t = System.nanoTime() - t;
+			fLockStatistics.fReadLockWait.add(t);
 			if (sDEBUG_LOCKS) {
-				t = (System.nanoTime() - t) / 1000000;
+				t = t / 1000000;
 				if (t >= LONG_READ_LOCK_WAIT_REPORT_THRESHOLD) {
 					System.out.println("Acquired index read lock after " + t + " ms wait."); //$NON-NLS-1$//$NON-NLS-2$
 				}
 				incReadLock(fLockDebugging);
 			}
+		} finally {
+			mutex.unlock();
 		}
 	}
 
 	public void releaseReadLock() {
 		boolean clearCache= false;
-		synchronized (mutex) {
+		boolean clearAll= false;
+		mutex.lock();
+		try {
 			assert lockCount > 0: "No lock to release"; //$NON-NLS-1$
 			if (sDEBUG_LOCKS) {
 				decReadLock(fLockDebugging);
@@ -831,12 +972,23 @@ public class PDOM extends PlatformObject implements IPDOM {
 			lastReadAccess= System.currentTimeMillis();
 			if (lockCount > 0)
 				--lockCount;
-			mutex.notifyAll();
+			lockReleased.signalAll();
 			clearCache= lockCount == 0;
+			if (clearCache) {
+				clearAll= fResultCacheStale;
+				fResultCacheStale= false;
+			}
 			db.setLocked(lockCount != 0);
+		} finally {
+			mutex.unlock();
 		}
 		if (clearCache) {
-			clearResultCache();
+			// Results derived from the database stay valid as long as there is no write access.
+			if (clearAll) {
+				clearResultCache();
+			} else {
+				fResultCache.clearTransient();
+			}
 		}
 	}
 
@@ -857,7 +1009,9 @@ public class PDOM extends PlatformObject implements IPDOM {
 	 */
 	public void acquireWriteLock(int giveupReadLocks) throws InterruptedException {
 		assert !isPermanentlyReadOnly();
-		synchronized (mutex) {
+		final long t= System.nanoTime();
+		mutex.lock();
+		try {
 			if (sDEBUG_LOCKS) {
 				incWriteLock(giveupReadLocks);
 			}
@@ -873,27 +1027,62 @@ public class PDOM extends PlatformObject implements IPDOM {
 			}
 
 			// Let the readers go first
-			long start= sDEBUG_LOCKS ? System.currentTimeMillis() : 0;
-			while (lockCount > giveupReadLocks || waitingReaders > 0) {
-				mutex.wait(BLOCKED_WRITE_LOCK_OUTPUT_INTERVAL);
-				if (sDEBUG_LOCKS) {
-					start = reportBlockedWriteLock(start, giveupReadLocks);
+			final WriteLockRequest request= new WriteLockRequest(giveupReadLocks);
+			waitingWriters.add(request);
+			try {
+				long start= sDEBUG_LOCKS ? System.currentTimeMillis() : 0;
+				while (!canAcquireWriteLock(request)) {
+					lockReleased.await(BLOCKED_WRITE_LOCK_OUTPUT_INTERVAL, TimeUnit.MILLISECONDS);
+					if (sDEBUG_LOCKS) {
+						start = reportBlockedWriteLock(start, giveupReadLocks);
+					}
 				}
+			} finally {
+				waitingWriters.remove(request);
+				// Writers queued behind this one may be able to proceed, now.
+				lockReleased.signalAll();
+			}
+			if (lockCount == 0) {
+				// Results computed by earlier readers may have been cached.
+				fResultCache.clear();
 			}
 			lockCount= -1;
-			if (sDEBUG_LOCKS)
-				timeWriteLockAcquired = System.currentTimeMillis();
+			timeWriteLockAcquired = System.nanoTime();
+			fLockStatistics.fWriteLockWait.add(timeWriteLockAcquired - t);
 			db.setExclusiveLock();
+		} finally {
+			mutex.unlock();
 		}
 	}
 
+	/**
+	 * Checks whether the write lock can be granted to the given request, the mutex must be held.
+	 * With fair locking a request has to wait for all earlier requests that could be granted, as
+	 * well. Earlier requests that cannot be granted because they need the read locks held by a
+	 * later request do not block the later one.
+	 */
+	private boolean canAcquireWriteLock(WriteLockRequest request) {
+		if (lockCount > request.fGiveupReadLocks || waitingReaders > 0)
+			return false;
+		if (fFairLocks) {
+			for (WriteLockRequest earlier : waitingWriters) {
+				if (earlier == request)
+					break;
+				if (lockCount <= earlier.fGiveupReadLocks)
+					return false;
+			}
+		}
+		return true;
+	}
+
 	final public void releaseWriteLock() {
 		releaseWriteLock(0, true);
 	}
 
 	@SuppressWarnings("nls")
 	public void releaseWriteLock(int establishReadLocks, boolean flush) {
-		// When all locks are released we can clear the result cache.
+		// When all locks are released we can clear the result cache, otherwise this is done
+		// when the last read-lock is released.
 		if (establishReadLocks == 0) {
 			clearResultCache();
 		}
@@ -906,26 +1095,83 @@ public class PDOM extends PlatformObject implements IPDOM {
 		lastWriteAccess= System.currentTimeMillis();
 		final ChangeEvent event= fEvent;
 		fEvent= new ChangeEvent();
-		synchronized (mutex) {
+		mutex.lock();
+		try {
+			final long timeHeld= System.nanoTime() - timeWriteLockAcquired;
+			fLockStatistics.fWriteLockHold.add(timeHeld);
 			if (sDEBUG_LOCKS) {
-				long timeHeld = lastWriteAccess - timeWriteLockAcquired;
-				if (timeHeld >= LONG_WRITE_LOCK_REPORT_THRESHOLD) {
-					System.out.println("Index write lock held for " + timeHeld + " ms");
+				if (timeHeld / 1000000 >= LONG_WRITE_LOCK_REPORT_THRESHOLD) {
+					System.out.println("Index write lock held for " + timeHeld / 1000000 + " ms");
 				}
 				decWriteLock(establishReadLocks);
 			}
 
 			if (lockCount < 0)
 				lockCount= establishReadLocks;
-			mutex.notifyAll();
+			fResultCacheStale= lockCount != 0;
+			lockReleased.signalAll();
 			db.setLocked(lockCount != 0);
+		} finally {
+			mutex.unlock();
 		}
 		fireChange(event);
 	}
 
 	public boolean hasWaitingReaders() {
-		synchronized (mutex) {
+		mutex.lock();
+		try {
 			return waitingReaders > 0;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	/**
+	 * Changes whether the write lock is granted in the order of the requests, for testing purposes
+	 * only. By default this is controlled by {@link #FAIR_LOCKS_PROPERTY}.
+	 */
+	public void setFairLocks(boolean fair) {
+		mutex.lock();
+		try {
+			fFairLocks= fair;
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	/**
+	 * Returns whether other threads are waiting for the write lock.
+	 */
+	public boolean hasWaitingWriters() {
+		mutex.lock();
+		try {
+			return !waitingWriters.isEmpty();
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the statistics about waiting for and holding the locks of this PDOM.
+	 */
+	public PDOMLockStatistics getLockStatistics() {
+		mutex.lock();
+		try {
+			return new PDOMLockStatistics(fLockStatistics);
+		} finally {
+			mutex.unlock();
+		}
+	}
+
+	/**
+	 * Discards the statistics collected so far.
+	 */
+	public void resetLockStatistics() {
+		mutex.lock();
+		try {
+			fLockStatistics.reset();
+		} finally {
+			mutex.unlock();
 		}
 	}
 
@@ -1221,14 +1467,35 @@ public class PDOM extends PlatformObject implements IPDOM {
 
 	private void clearCaches() {
 		fileIndex= null;
+		fTrigramIndex= null;
 		fLinkageIDCache.clear();
 		clearResultCache();
 	}
 
 	public void clearResultCache() {
-		synchronized (fResultCache) {
-			fResultCache.clear();
-		}
+		fResultCache.clear();
+	}
+
+	/**
+	 * Returns the hit and miss counts of the result cache per type of key.
+	 */
+	public List<PDOMResultCache.KeyTypeStatistics> getResultCacheStatistics() {
+		return fResultCache.getStatistics();
+	}
+
+	/**
+	 * Returns the number of results that had to be discarded from the result cache to make
+	 * room for new ones.
+	 */
+	public long getResultCacheEvictions() {
+		return fResultCache.getEvictions();
+	}
+
+	/**
+	 * Discards the statistics collected for the result cache.
+	 */
+	public void resetResultCacheStatistics() {
+		fResultCache.resetStatistics();
 	}
 
 	public long getCacheHits() {
@@ -1248,9 +1515,7 @@ public class PDOM extends PlatformObject implements IPDOM {
 	}
 
 	public Object getCachedResult(Object key) {
-		synchronized (fResultCache) {
-			return fResultCache.get(key);
-		}
+		return fResultCache.get(key);
 	}
 
 	public void putCachedResult(Object key, Object result) {
@@ -1258,26 +1523,25 @@ public class PDOM extends PlatformObject implements IPDOM {
 	}
 
 	public Object putCachedResult(Object key, Object result, boolean replace) {
-		synchronized (fResultCache) {
-			Object old= fResultCache.put(key, result);
-			if (old != null && !replace) {
-				fResultCache.put(key, old);
-				return old;
-			}
-			return result;
-		}
+		return fResultCache.put(key, result, replace);
 	}
 
 	public void removeCachedResult(Object key) {
-		synchronized (fResultCache) {
-			fResultCache.remove(key);
-		}
+		fResultCache.remove(key);
 	}
 
 	public String createKeyForCache(long record, char[] name) {
 		return new StringBuilder(name.length + 2).append((char) (record >> 16)).append((char) record).append(name).toString();
 	}
 
+	/**
+	 * Creates a key for results that belong to the given record but may reference objects that
+	 * are not stored in the database. These results are discarded with the last read-lock.
+	 */
+	public Object createTransientKeyForCache(long record, int kind) {
+		return new PDOMResultCache.TransientKey(record, kind);
+	}
+
 	public boolean hasLastingDefinition(PDOMBinding binding) throws CoreException {
 		return binding.hasDefinition();
 	}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.pdom;
+
+import java.util.Arrays;
+
+/**
+ * Statistics about the time threads wait for the locks of a {@link PDOM} and the time the
+ * write lock is held. Obtain a snapshot via {@link PDOM#getLockStatistics()}.
+ */
+public final class PDOMLockStatistics {
+	/**
+	 * Histogram of durations with buckets of exponentially growing size. Bucket 0 counts
+	 * durations below 1 ms, bucket <code>i</code> counts durations of at least
+	 * <code>2^(i-1)</code> and less than <code>2^i</code> milliseconds. The last bucket
+	 * collects all longer durations.
+	 */
+	public static final class Histogram {
+		public static final int BUCKET_COUNT= 18;
+
+		private final long[] fCounts= new long[BUCKET_COUNT];
+		private long fTotalNanos;
+		private long fMaxNanos;
+
+		void add(long nanos) {
+			if (nanos < 0)
+				nanos= 0;
+			long millis= nanos / 1000000;
+			int bucket= 0;
+			while (millis > 0 && bucket < BUCKET_COUNT - 1) {
+				millis >>>= 1;
+				bucket++;
+			}
+			fCounts[bucket]++;
+			fTotalNanos+= nanos;
+			if (nanos > fMaxNanos)
+				fMaxNanos= nanos;
+		}
+
+		void reset() {
+			Arrays.fill(fCounts, 0);
+			fTotalNanos= 0;
+			fMaxNanos= 0;
+		}
+
+		void copyFrom(Histogram other) {
+			System.arraycopy(other.fCounts, 0, fCounts, 0, BUCKET_COUNT);
+			fTotalNanos= other.fTotalNanos;
+			fMaxNanos= other.fMaxNanos;
+		}
+
+		/**
+		 * Returns the number of durations recorded in the given bucket.
+		 */
+		public long getCount(int bucket) {
+			return fCounts[bucket];
+		}
+
+		/**
+		 * Returns the exclusive upper bound of the given bucket in milliseconds, or
+		 * <code>Long.MAX_VALUE</code> for the last bucket.
+		 */
+		public static long getUpperBound(int bucket) {
+			if (bucket >= BUCKET_COUNT - 1)
+				return Long.MAX_VALUE;
+			return 1L << bucket;
+		}
+
+		/**
+		 * Returns the number of recorded durations.
+		 */
+		public long getSampleCount() {
+			long result= 0;
+			for (long count : fCounts) {
+				result+= count;
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the sum of all recorded durations in milliseconds.
+		 */
+		public long getTotalTime() {
+			return fTotalNanos / 1000000;
+		}
+
+		/**
+		 * Returns the longest recorded duration in milliseconds.
+		 */
+		public long getMaxTime() {
+			return fMaxNanos / 1000000;
+		}
+
+		@Override
+		@SuppressWarnings("nls")
+		public String toString() {
+			StringBuilder buf= new StringBuilder();
+			buf.append(getSampleCount()).append(" samples, total ").append(getTotalTime());
+			buf.append(" ms, max ").append(getMaxTime()).append(" ms [");
+			int last= BUCKET_COUNT - 1;
+			while (last > 0 && fCounts[last] == 0)
+				last--;
+			for (int i = 0; i <= last; i++) {
+				if (i > 0)
+					buf.append(", ");
+				if (i == BUCKET_COUNT - 1) {
+					buf.append(">=").append(getUpperBound(i - 1));
+				} else {
+					buf.append('<').append(getUpperBound(i));
+				}
+				buf.append(": ").append(fCounts[i]);
+			}
+			buf.append(']');
+			return buf.toString();
+		}
+	}
+
+	final Histogram fReadLockWait= new Histogram();
+	final Histogram fWriteLockWait= new Histogram();
+	final Histogram fWriteLockHold= new Histogram();
+
+	PDOMLockStatistics() {
+	}
+
+	PDOMLockStatistics(PDOMLockStatistics other) {
+		fReadLockWait.copyFrom(other.fReadLockWait);
+		fWriteLockWait.copyFrom(other.fWriteLockWait);
+		fWriteLockHold.copyFrom(other.fWriteLockHold);
+	}
+
+	void reset() {
+		fReadLockWait.reset();
+		fWriteLockWait.reset();
+		fWriteLockHold.reset();
+	}
+
+	/**
+	 * Returns the time threads waited for a read lock.
+	 */
+	public Histogram getReadLockWaitTimes() {
+		return fReadLockWait;
+	}
+
+	/**
+	 * Returns the time threads waited for the write lock.
+	 */
+	public Histogram getWriteLockWaitTimes() {
+		return fWriteLockWait;
+	}
+
+	/**
+	 * Returns the time the write lock was held.
+	 */
+	public Histogram getWriteLockHoldTimes() {
+		return fWriteLockHold;
+	}
+
+	@Override
+	@SuppressWarnings("nls")
+	public String toString() {
+		return "read lock wait: " + fReadLockWait + "\nwrite lock wait: " + fWriteLockWait +
+				"\nwrite lock hold: " + fWriteLockHold;
+	}
+}
@@ -15,7 +15,10 @@
  *******************************************************************************/
 package org.eclipse.cdt.internal.core.pdom;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -70,6 +73,7 @@ import org.eclipse.cdt.internal.core.index.IndexerStateEvent;
 import org.eclipse.cdt.internal.core.index.provider.IndexProviderManager;
 import org.eclipse.cdt.internal.core.pdom.PDOM.IListener;
 import org.eclipse.cdt.internal.core.pdom.db.ChunkCache;
+import org.eclipse.cdt.internal.core.pdom.db.CompressedChunkFile;
 import org.eclipse.cdt.internal.core.pdom.dom.IPDOMLinkageFactory;
 import org.eclipse.cdt.internal.core.pdom.dom.PDOMProjectIndexLocationConverter;
 import org.eclipse.cdt.internal.core.pdom.indexer.AbstractPDOMIndexer;
@@ -1189,6 +1193,23 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 	 * @throws IllegalArgumentException if a file exists at targetLocation
 	 */
 	public void exportProjectPDOM(ICProject cproject, File targetLocation, final IIndexLocationConverter newConverter) throws CoreException {
+		exportProjectPDOM(cproject, targetLocation, newConverter, false);
+	}
+
+	/**
+	 * Exports the project PDOM to the specified location, rewriting locations with
+	 * the specified location converter. Optionally a compressed snapshot is written, 
+	 * which can be opened read-only without decompressing it first.
+	 * <br>
+	 * Note. This will acquire a write lock while the pdom is exported
+	 * @param targetLocation a location that does not currently exist
+	 * @param newConverter
+	 * @param compress whether to write a compressed snapshot
+	 * @throws CoreException
+	 * @throws IllegalArgumentException if a file exists at targetLocation
+	 */
+	public void exportProjectPDOM(ICProject cproject, File targetLocation, final IIndexLocationConverter newConverter,
+			boolean compress) throws CoreException {
 		if (targetLocation.exists()) {
 			boolean deleted= targetLocation.delete();
 			if (!deleted) {
@@ -1198,7 +1219,11 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 				);
 			}
 		}
+		File copyLocation= targetLocation;
 		try {
+			if (compress) {
+				copyLocation= File.createTempFile("export", ".pdom"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
 			// copy it
 			PDOM pdom= getOrCreatePDOM(cproject);
 			pdom.acquireReadLock();
@@ -1206,7 +1231,7 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 			try {
 				oldID= pdom.getProperty(IIndexFragment.PROPERTY_FRAGMENT_ID);
 				pdom.flush();
-				FileChannel to = new FileOutputStream(targetLocation).getChannel();
+				FileChannel to = new FileOutputStream(copyLocation).getChannel();
 				pdom.getDB().transferTo(to);
 				to.close();
 			} finally {
@@ -1214,7 +1239,7 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 			}
 
 			// overwrite internal location representations
-			final WritablePDOM newPDOM = new WritablePDOM(targetLocation, pdom.getLocationConverter(), getLinkageFactories());			
+			final WritablePDOM newPDOM = new WritablePDOM(copyLocation, pdom.getLocationConverter(), getLinkageFactories());			
 			newPDOM.acquireWriteLock();
 			try {
 				newPDOM.rewriteLocations(newConverter);
@@ -1222,6 +1247,10 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 				// ensure fragment id has a sensible value, in case callee's do not
 				// overwrite their own values
 				newPDOM.setProperty(IIndexFragment.PROPERTY_FRAGMENT_ID, "exported."+oldID); //$NON-NLS-1$
+				if (compress) {
+					newPDOM.flush();
+					newPDOM.getDB().transferCompressedTo(targetLocation);
+				}
 				newPDOM.close();
 			} finally {
 				newPDOM.releaseWriteLock();
@@ -1230,11 +1259,16 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 			throw new CoreException(CCorePlugin.createStatus(ioe.getMessage()));
 		} catch (InterruptedException ie) {
 			throw new CoreException(CCorePlugin.createStatus(ie.getMessage()));
+		} finally {
+			if (copyLocation != targetLocation) {
+				copyLocation.delete();
+			}
 		}
 	}
 
 	/**
-	 * Resets the pdom for the project with the provided stream. 
+	 * Resets the pdom for the project with the provided stream, which may also contain a 
+	 * compressed snapshot of the database.
 	 * @throws CoreException
 	 * @throws OperationCanceledException in case the thread was interrupted
 	 * @since 4.0
@@ -1243,6 +1277,17 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 		// make a copy of the database
 		String newName= createNewDatabaseName(project);
 		File newFile= fileFromDatabaseName(newName);
+		File uncompressed= null;
+		if (!stream.markSupported()) {
+			stream= new BufferedInputStream(stream);
+		}
+		stream.mark(4);
+		final boolean isCompressed= readInt(stream) == CompressedChunkFile.MAGIC;
+		stream.reset();
+		if (isCompressed) {
+			uncompressed= decompress(stream);
+			stream= new FileInputStream(uncompressed);
+		}
 		OutputStream out= new FileOutputStream(newFile);
 		try {
 			int version= 0;
@@ -1266,6 +1311,10 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 			}
 		} finally {
 			out.close();
+			if (uncompressed != null) {
+				stream.close();
+				uncompressed.delete();
+			}
 		}
 		
 		WritablePDOM pdom= (WritablePDOM) getPDOM(project);
@@ -1283,6 +1332,49 @@ public class PDOMManager implements IWritableIndexManager, IListener {
 		}
 	}
 	
+	private static int readInt(InputStream stream) throws IOException {
+		int result= 0;
+		for (int i=0; i<4; i++) {
+			result= (result << 8) + (stream.read() & 0xff);
+		}
+		return result;
+	}
+
+	/**
+	 * Decompresses a compressed snapshot of a database into a temporary file.
+	 */
+	private static File decompress(InputStream stream) throws IOException {
+		// the snapshot needs random access, store it in a temporary file first.
+		File compressed= File.createTempFile("import", ".pdz"); //$NON-NLS-1$ //$NON-NLS-2$
+		File result= File.createTempFile("import", ".pdom"); //$NON-NLS-1$ //$NON-NLS-2$
+		boolean ok= false;
+		try {
+			OutputStream out= new FileOutputStream(compressed);
+			try {
+				byte[] buffer= new byte[2048];
+				int read;
+				while ((read= stream.read(buffer)) >= 0) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				out.close();
+			}
+			out= new BufferedOutputStream(new FileOutputStream(result));
+			try {
+				CompressedChunkFile.decompress(compressed, out);
+			} finally {
+				out.close();
+			}
+			ok= true;
+		} finally {
+			compressed.delete();
+			if (!ok) {
+				result.delete();
+			}
+		}
+		return result;
+	}
+
 	public void export(ICProject project, String location, int options, IProgressMonitor monitor) throws CoreException {
 		TeamPDOMExportOperation operation= new TeamPDOMExportOperation(project);
 		operation.setTargetLocation(location);
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.pdom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for results computed from the database of a {@link PDOM}. The cache is split into
+ * shards with individual locks, such that concurrent readers rarely contend.
+ * <p>
+ * Results stored with keys derived from database records (<code>Long</code> and
+ * <code>String</code> keys) stay valid until the database is modified. They are kept in a
+ * size-bounded cache that survives releasing the read-locks, therefore such results must not
+ * reference anything but objects for database records. Results for all other keys (e.g.
+ * bindings of an AST, or template instances created on behalf of a record, see
+ * {@link TransientKey}) are transient, they are discarded as soon as the last lock on the
+ * database is released.
+ */
+public final class PDOMResultCache {
+	public static final int DEFAULT_CAPACITY= 50000;
+	private static final int SHARD_COUNT= 16;
+
+	/**
+	 * Hit and miss counts for the keys of a certain type.
+	 */
+	public static final class KeyTypeStatistics {
+		private final String fKeyType;
+		private final long fHits;
+		private final long fMisses;
+
+		KeyTypeStatistics(String keyType, long hits, long misses) {
+			fKeyType= keyType;
+			fHits= hits;
+			fMisses= misses;
+		}
+
+		/**
+		 * Returns the name of the class of the keys.
+		 */
+		public String getKeyType() {
+			return fKeyType;
+		}
+
+		public long getHits() {
+			return fHits;
+		}
+
+		public long getMisses() {
+			return fMisses;
+		}
+
+		/**
+		 * Returns the fraction of the lookups that were successful, or <code>0</code> when
+		 * there was no lookup.
+		 */
+		public double getHitRatio() {
+			final long total= fHits + fMisses;
+			return total == 0 ? 0 : (double) fHits / total;
+		}
+
+		@Override
+		public String toString() {
+			return fKeyType + ": " + fHits + " hits, " + fMisses + " misses"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	/**
+	 * Key for results that belong to a database record, but may reference objects that are
+	 * not stored in the database, like template instances or specialized members. The results
+	 * for such keys are transient.
+	 */
+	public static final class TransientKey {
+		private final long fRecord;
+		private final int fKind;
+
+		public TransientKey(long record, int kind) {
+			fRecord= record;
+			fKind= kind;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof TransientKey) {
+				final TransientKey other= (TransientKey) obj;
+				return fRecord == other.fRecord && fKind == other.fKind;
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (fRecord ^ (fRecord >>> 32)) * 31 + fKind;
+		}
+	}
+
+	private static final class Counter {
+		final AtomicLong fHits= new AtomicLong();
+		final AtomicLong fMisses= new AtomicLong();
+	}
+
+	private static final class LRUShard extends LinkedHashMap<Object, Object> {
+		private static final long serialVersionUID= 1L;
+		private final int fCapacity;
+		private long fEvictions;
+
+		LRUShard(int capacity) {
+			super(16, 0.75f, true);
+			fCapacity= capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+			if (size() > fCapacity) {
+				fEvictions++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private final LRUShard[] fPersistent= new LRUShard[SHARD_COUNT];
+	@SuppressWarnings("unchecked")
+	private final HashMap<Object, Object>[] fTransient= new HashMap[SHARD_COUNT];
+	private final ConcurrentMap<Class<?>, Counter> fCounters= new ConcurrentHashMap<Class<?>, Counter>();
+
+	public PDOMResultCache(int capacity) {
+		final int shardCapacity= Math.max(1, capacity / SHARD_COUNT);
+		for (int i = 0; i < SHARD_COUNT; i++) {
+			fPersistent[i]= new LRUShard(shardCapacity);
+			fTransient[i]= new HashMap<Object, Object>();
+		}
+	}
+
+	private static boolean isPersistent(Object key) {
+		return key instanceof Long || key instanceof String;
+	}
+
+	private Map<Object, Object> getShard(Object key) {
+		int h= key.hashCode();
+		h^= (h >>> 16) ^ (h >>> 8);
+		final int idx= h & (SHARD_COUNT - 1);
+		return isPersistent(key) ? fPersistent[idx] : fTransient[idx];
+	}
+
+	private Counter getCounter(Object key) {
+		final Class<?> type= key.getClass();
+		Counter counter= fCounters.get(type);
+		if (counter == null) {
+			counter= new Counter();
+			Counter old= fCounters.putIfAbsent(type, counter);
+			if (old != null)
+				counter= old;
+		}
+		return counter;
+	}
+
+	public Object get(Object key) {
+		final Map<Object, Object> shard= getShard(key);
+		final Object result;
+		synchronized (shard) {
+			result= shard.get(key);
+		}
+		final Counter counter= getCounter(key);
+		if (result != null) {
+			counter.fHits.incrementAndGet();
+		} else {
+			counter.fMisses.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Stores the result for the given key. In case <code>replace</code> is <code>false</code> an
+	 * existing result is retained. Returns the result that is cached after the operation.
+	 */
+	public Object put(Object key, Object result, boolean replace) {
+		final Map<Object, Object> shard= getShard(key);
+		synchronized (shard) {
+			if (!replace) {
+				Object old= shard.get(key);
+				if (old != null)
+					return old;
+			}
+			if (result == null) {
+				shard.remove(key);
+			} else {
+				shard.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	public void remove(Object key) {
+		final Map<Object, Object> shard= getShard(key);
+		synchronized (shard) {
+			shard.remove(key);
+		}
+	}
+
+	/**
+	 * Discards the results for keys that are not derived from database records.
+	 */
+	public void clearTransient() {
+		for (HashMap<Object, Object> shard : fTransient) {
+			synchronized (shard) {
+				if (!shard.isEmpty()) {
+					shard.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discards all results.
+	 */
+	public void clear() {
+		clearTransient();
+		for (LRUShard shard : fPersistent) {
+			synchronized (shard) {
+				shard.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 */
+	public int size() {
+		int size= 0;
+		for (HashMap<Object, Object> shard : fTransient) {
+			synchronized (shard) {
+				size+= shard.size();
+			}
+		}
+		for (LRUShard shard : fPersistent) {
+			synchronized (shard) {
+				size+= shard.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of results that were discarded to make room for new ones.
+	 */
+	public long getEvictions() {
+		long evictions= 0;
+		for (LRUShard shard : fPersistent) {
+			synchronized (shard) {
+				evictions+= shard.fEvictions;
+			}
+		}
+		return evictions;
+	}
+
+	/**
+	 * Returns the hit and miss counts per type of key, sorted by the name of the type.
+	 */
+	public List<KeyTypeStatistics> getStatistics() {
+		List<KeyTypeStatistics> result= new ArrayList<KeyTypeStatistics>();
+		for (Map.Entry<Class<?>, Counter> entry : fCounters.entrySet()) {
+			final Counter counter= entry.getValue();
+			result.add(new KeyTypeStatistics(entry.getKey().getName(), counter.fHits.get(), counter.fMisses.get()));
+		}
+		Collections.sort(result, new Comparator<KeyTypeStatistics>() {
+			public int compare(KeyTypeStatistics o1, KeyTypeStatistics o2) {
+				return o1.getKeyType().compareTo(o2.getKeyType());
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Discards the hit and miss counts and the number of evictions.
+	 */
+	public void resetStatistics() {
+		fCounters.clear();
+		for (LRUShard shard : fPersistent) {
+			synchronized (shard) {
+				shard.fEvictions= 0;
+			}
+		}
+	}
+}
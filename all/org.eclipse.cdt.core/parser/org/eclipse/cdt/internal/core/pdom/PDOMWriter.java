@@ -80,6 +80,21 @@ abstract public class PDOMWriter {
 		ArrayList<IASTPreprocessorStatement> fMacros= new ArrayList<IASTPreprocessorStatement>();
 		ArrayList<IASTPreprocessorIncludeStatement> fIncludes= new ArrayList<IASTPreprocessorIncludeStatement>();
 	}
+
+	/**
+	 * Symbols extracted from an AST with the names already resolved, ready to be stored in the index.
+	 * @see PDOMWriter#prepareSymbols(IASTTranslationUnit, IIndexFileLocation[], IProgressMonitor)
+	 */
+	protected static final class PreparedSymbols {
+		final IASTTranslationUnit fAST;
+		final Map<IIndexFileLocation, Symbols> fSymbolMap= new HashMap<IIndexFileLocation, Symbols>();
+		final HashSet<IASTPreprocessorIncludeStatement> fContextIncludes= new HashSet<IASTPreprocessorIncludeStatement>();
+		final ArrayList<IStatus> fStati= new ArrayList<IStatus>();
+
+		PreparedSymbols(IASTTranslationUnit ast) {
+			fAST= ast;
+		}
+	}
 	private boolean fShowProblems;
 	protected boolean fShowInclusionProblems;
 	private boolean fShowScannerProblems;
@@ -143,26 +158,47 @@ abstract public class PDOMWriter {
 	public void addSymbols(IASTTranslationUnit ast, IIndexFileLocation[] ifls, IWritableIndex index,
 			int readlockCount, boolean flushIndex, long fileContentsHash, int configHash,
 			ITodoTaskUpdater taskUpdater, IProgressMonitor pm) throws InterruptedException, CoreException {
+		PreparedSymbols symbols= prepareSymbols(ast, ifls, pm);
+		storeSymbols(symbols, ifls, index, readlockCount, flushIndex, fileContentsHash, configHash,
+				taskUpdater, pm);
+	}
+
+	/**
+	 * Extracts the symbols for the given files from the AST and resolves their names. This does not 
+	 * modify the index and can be performed concurrently for different ASTs, as long as the index 
+	 * is not modified at the same time.
+	 */
+	protected final PreparedSymbols prepareSymbols(IASTTranslationUnit ast, IIndexFileLocation[] ifls,
+			IProgressMonitor pm) throws CoreException {
 		if (fShowProblems) {
 			fShowInclusionProblems= true;
 			fShowScannerProblems= true;
 			fShowSyntaxProblems= true;
 		}
-		final Map<IIndexFileLocation, Symbols> symbolMap= new HashMap<IIndexFileLocation, Symbols>();
+		final PreparedSymbols result= new PreparedSymbols(ast);
 		for (IIndexFileLocation ifl : ifls) {
-			prepareInMap(symbolMap, ifl);
+			prepareInMap(result.fSymbolMap, ifl);
 		}
-		ArrayList<IStatus> stati= new ArrayList<IStatus>();
-
-		HashSet<IASTPreprocessorIncludeStatement> contextIncludes= new HashSet<IASTPreprocessorIncludeStatement>();
-		extractSymbols(ast, symbolMap, contextIncludes);
+		extractSymbols(ast, result.fSymbolMap, result.fContextIncludes);
 
 		// name resolution
-		resolveNames(symbolMap, ifls, stati, pm);
+		resolveNames(result.fSymbolMap, ifls, result.fStati, pm);
+		return result;
+	}
+
+	/**
+	 * Stores previously prepared symbols in the index. The files must be a subset of the ones
+	 * the symbols have been prepared for.
+	 */
+	protected final void storeSymbols(PreparedSymbols symbols, IIndexFileLocation[] ifls, IWritableIndex index,
+			int readlockCount, boolean flushIndex, long fileContentsHash, int configHash,
+			ITodoTaskUpdater taskUpdater, IProgressMonitor pm) throws InterruptedException, CoreException {
+		final IASTTranslationUnit ast= symbols.fAST;
+		final ArrayList<IStatus> stati= symbols.fStati;
 
 		// index update
-		storeSymbolsInIndex(symbolMap, ifls, ast.getLinkage().getLinkageID(), fileContentsHash,
-				configHash, contextIncludes, index, readlockCount, flushIndex, stati, pm);
+		storeSymbolsInIndex(symbols.fSymbolMap, ifls, ast.getLinkage().getLinkageID(), fileContentsHash,
+				configHash, symbols.fContextIncludes, index, readlockCount, flushIndex, stati, pm);
 
 		if (taskUpdater != null) {
 			taskUpdater.updateTasks(ast.getComments(), ifls);
@@ -237,62 +273,74 @@ abstract public class PDOMWriter {
 	private void resolveNames(final Map<IIndexFileLocation, Symbols> symbolMap, IIndexFileLocation[] ifls,
 			ArrayList<IStatus> stati, IProgressMonitor pm) {
 		long start= System.currentTimeMillis();
-		for (IIndexFileLocation path : ifls) {
-			if (pm.isCanceled()) {
-				return;
-			}
-			Symbols symbols= symbolMap.get(path);
-
-			final ArrayList<IASTName[]> names= symbols.fNames;
-			boolean reported= false;
-			for (Iterator<IASTName[]> j = names.iterator(); j.hasNext();) {
-				final IASTName[] na= j.next();
-				final IASTName name = na[0];
-				if (name != null) { // should not be null, just be defensive.
-					Throwable th= null;
-					try {
-						final IBinding binding = name.resolveBinding();
-						if (name.getPropertyInParent() == ICPPASTTemplateId.TEMPLATE_NAME &&
-								((IASTName) name.getParent()).getBinding() == binding) {
-								na[0]= null;
-						} else if (binding instanceof IProblemBinding) {
-							fStatistics.fProblemBindingCount++;
-							if (fShowProblems) {
-								reportProblem((IProblemBinding) binding);
-							}
-						} else if (name.isReference()) {
-							if (binding instanceof ICPPTemplateParameter ||
-									binding instanceof ICPPUnknownBinding ||
-									((fSkipReferences & SKIP_TYPE_REFERENCES) != 0 &&
-											isTypeReferenceBinding(binding))) {
-								if (!isRequiredReference(name)) {
+		int problemBindingCount= 0;
+		int referenceCount= 0;
+		int declarationCount= 0;
+		try {
+			for (IIndexFileLocation path : ifls) {
+				if (pm.isCanceled()) {
+					return;
+				}
+				Symbols symbols= symbolMap.get(path);
+
+				final ArrayList<IASTName[]> names= symbols.fNames;
+				boolean reported= false;
+				for (Iterator<IASTName[]> j = names.iterator(); j.hasNext();) {
+					final IASTName[] na= j.next();
+					final IASTName name = na[0];
+					if (name != null) { // should not be null, just be defensive.
+						Throwable th= null;
+						try {
+							final IBinding binding = name.resolveBinding();
+							if (name.getPropertyInParent() == ICPPASTTemplateId.TEMPLATE_NAME &&
+									((IASTName) name.getParent()).getBinding() == binding) {
 									na[0]= null;
+							} else if (binding instanceof IProblemBinding) {
+								problemBindingCount++;
+								if (fShowProblems) {
+									reportProblem((IProblemBinding) binding);
+								}
+							} else if (name.isReference()) {
+								if (binding instanceof ICPPTemplateParameter ||
+										binding instanceof ICPPUnknownBinding ||
+										((fSkipReferences & SKIP_TYPE_REFERENCES) != 0 &&
+												isTypeReferenceBinding(binding))) {
+									if (!isRequiredReference(name)) {
+										na[0]= null;
+									} else {
+										referenceCount++;
+									}
 								} else {
-									fStatistics.fReferenceCount++;
+									referenceCount++;
 								}
 							} else {
-								fStatistics.fReferenceCount++;
+								declarationCount++;
 							}
-						} else {
-							fStatistics.fDeclarationCount++;
+						} catch (RuntimeException e) {
+							th= e;
+						} catch (StackOverflowError e) {
+							th= e;
 						}
-					} catch (RuntimeException e) {
-						th= e;
-					} catch (StackOverflowError e) {
-						th= e;
-					}
-					if (th != null) {
-						if (!reported) {
-							stati.add(CCorePlugin.createStatus(NLS.bind(Messages.PDOMWriter_errorResolvingName,
-									name.toString(), path.getURI().getPath()), th));
+						if (th != null) {
+							if (!reported) {
+								stati.add(CCorePlugin.createStatus(NLS.bind(Messages.PDOMWriter_errorResolvingName,
+										name.toString(), path.getURI().getPath()), th));
+							}
+							reported= true;
+							j.remove();
 						}
-						reported= true;
-						j.remove();
 					}
 				}
 			}
+		} finally {
+			// Names may be resolved by multiple threads, see prepareSymbols().
+			synchronized (fStatistics) {
+				fStatistics.fProblemBindingCount+= problemBindingCount;
+				fStatistics.fReferenceCount+= referenceCount;
+				fStatistics.fDeclarationCount+= declarationCount;
+				fStatistics.fResolutionTime += System.currentTimeMillis()-start;
+			}
 		}
-		fStatistics.fResolutionTime += System.currentTimeMillis()-start;
 	}
 
 	private void extractSymbols(IASTTranslationUnit ast, final Map<IIndexFileLocation, Symbols> symbolMap,
@@ -372,8 +420,12 @@ abstract public class PDOMWriter {
 			}
 		}
 
-		fStatistics.fUnresolvedIncludesCount += unresolvedIncludes;
-		fStatistics.fPreprocessorProblemCount += ast.getPreprocessorProblemsCount() - unresolvedIncludes;
+		final List<IASTProblem> problems= visitor.getProblems();
+		synchronized (fStatistics) {
+			fStatistics.fUnresolvedIncludesCount += unresolvedIncludes;
+			fStatistics.fPreprocessorProblemCount += ast.getPreprocessorProblemsCount() - unresolvedIncludes;
+			fStatistics.fSyntaxProblemsCount += problems.size();
+		}
 		if (fShowScannerProblems || fShowInclusionProblems) {
 			final boolean reportAll= fShowScannerProblems && fShowInclusionProblems;
 			IASTProblem[] scannerProblems= ast.getPreprocessorProblems();
@@ -384,8 +436,6 @@ abstract public class PDOMWriter {
 			}
 		}
 
-		final List<IASTProblem> problems= visitor.getProblems();
-		fStatistics.fSyntaxProblemsCount += problems.size();
 		if (fShowSyntaxProblems) {
 			for (IASTProblem problem : problems) {
 				reportProblem(problem);
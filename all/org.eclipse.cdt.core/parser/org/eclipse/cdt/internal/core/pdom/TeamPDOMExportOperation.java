@@ -22,6 +22,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -58,6 +59,12 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 	 */
 	public static int EXPORT_OPTION_RESOURCE_SNAPSHOT = 1;
 
+	/**
+	 * Option constant (value:2) to indicate that the PDOM shall be exported as
+	 * a compressed snapshot, rather than compressing the entire file.
+	 */
+	public static int EXPORT_OPTION_COMPRESSED_SNAPSHOT = 2;
+
 	private static final String RESOURCE_PREFIX = "res-"; //$NON-NLS-1$
 	private static final String CDT_PREFIX = "cdt-"; //$NON-NLS-1$
 	private static final String RESOURCE_SNAP_EXTENSION = "snap.zip"; //$NON-NLS-1$
@@ -107,7 +114,8 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 	
 			// create index
 			IIndexLocationConverter converter= new PDOMProjectIndexLocationConverter(fProject.getProject(), true);
-			pdomManager.exportProjectPDOM(fProject, tmpPDOM, converter);
+			final boolean compress= (fOptions & EXPORT_OPTION_COMPRESSED_SNAPSHOT) != 0;
+			pdomManager.exportProjectPDOM(fProject, tmpPDOM, converter, compress);
 			checkMonitor(monitor);
 			monitor.worked(5);
 			
@@ -125,7 +133,7 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 			}
 			
 			// create archive
-			createArchive(tmpPDOM, tmpChecksums);
+			createArchive(tmpPDOM, tmpChecksums, compress);
 			
 			// store preferences
 			monitor.setTaskName(Messages.TeamPDOMExportOperation_taskExportIndex);
@@ -237,15 +245,15 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 		}
 	} 
 
-	private void createArchive(File tmpPDOM, File tmpChecksums) throws CoreException {
+	private void createArchive(File tmpPDOM, File tmpChecksums, boolean isCompressed) throws CoreException {
 		fTargetLocationFile.delete();
 		ZipOutputStream out= null;
 		try {
 			fTargetLocationFile.getParentFile().mkdirs();
 			out= new ZipOutputStream(new FileOutputStream(fTargetLocationFile));
 			out.setLevel(Deflater.BEST_COMPRESSION);
-			writeEntry(out, TeamPDOMImportOperation.INDEX_NAME, tmpPDOM);
-			writeEntry(out, TeamPDOMImportOperation.CHECKSUMS_NAME, tmpChecksums);
+			writeEntry(out, TeamPDOMImportOperation.INDEX_NAME, tmpPDOM, isCompressed);
+			writeEntry(out, TeamPDOMImportOperation.CHECKSUMS_NAME, tmpChecksums, false);
 		}
 		catch (IOException e) {
 			throw new CoreException(CCorePlugin.createStatus(Messages.TeamPDOMExportOperation_errorCreateArchive, e));
@@ -259,8 +267,14 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 		}
 	}
 
-	private void writeEntry(ZipOutputStream out, String name, File input) throws IOException {
+	private void writeEntry(ZipOutputStream out, String name, File input, boolean store) throws IOException {
 		ZipEntry e= new ZipEntry(name);
+		if (store) {
+			// the content is compressed already
+			e.setMethod(ZipEntry.STORED);
+			e.setSize(input.length());
+			e.setCrc(computeCRC(input));
+		}
 		out.putNextEntry(e);
 		int read= 0;
 		byte[] buffer= new byte[4096];
@@ -276,6 +290,22 @@ public class TeamPDOMExportOperation implements IWorkspaceRunnable {
 		}
 	}
 
+	private long computeCRC(File input) throws IOException {
+		CRC32 crc= new CRC32();
+		int read= 0;
+		byte[] buffer= new byte[4096];
+		InputStream in= new FileInputStream(input);
+		try {
+			while ((read= in.read(buffer)) >= 0) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		finally {
+			close(in);
+		}
+		return crc.getValue();
+	}
+
 	private SubProgressMonitor subMonitor(IProgressMonitor monitor, int ticks) {
 		return new SubProgressMonitor(monitor, ticks);
 	}
@@ -189,15 +189,26 @@ public class WritablePDOM extends PDOM implements IWritableIndexFragment {
 
 		clearFileIndex();
 		final List<PDOMFile> notConverted = new ArrayList<PDOMFile>();
+		long[] converted = new long[pdomfiles.size()];
+		int convertedCount = 0;
 		for (PDOMFile file : pdomfiles) {
 			String internalFormat = newConverter.toInternalFormat(file.getLocation());
 			if (internalFormat != null) {
 				file.setInternalLocation(internalFormat);
-				getFileIndex().insert(file.getRecord());
+				converted[convertedCount++] = file.getRecord();
 			} else {
 				notConverted.add(file);
 			}
 		}
+		if (convertedCount < converted.length) {
+			long[] tmp = new long[convertedCount];
+			System.arraycopy(converted, 0, tmp, 0, convertedCount);
+			converted = tmp;
+		}
+		// rebuild the file index in one go rather than inserting the files one by one
+		BTree fileIndex = getFileIndex();
+		fileIndex.sort(converted);
+		fileIndex.bulkLoad(converted);
 
 		// remove content where converter returns null
 		for (PDOMFile file : notConverted) {
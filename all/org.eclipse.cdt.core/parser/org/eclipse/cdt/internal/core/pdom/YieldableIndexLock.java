@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010 Google, Inc and others.
+ * Copyright (c) 2010, 2011 Google, Inc and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,16 +18,33 @@ import org.eclipse.cdt.internal.core.index.IWritableIndex;
  * @since 5.2
  */
 public class YieldableIndexLock {
+	/**
+	 * System property for the time in milliseconds after which the write lock is yielded to
+	 * other writers waiting for it. By default the lock is yielded to waiting readers, only.
+	 */
+	public static final String MAX_HOLD_TIME_PROPERTY = "org.eclipse.cdt.core.parser.pdom.maxWriteLockHoldTime"; //$NON-NLS-1$
+	private static final long MAX_HOLD_TIME= Long.getLong(MAX_HOLD_TIME_PROPERTY, 0).longValue();
+
 	private final IWritableIndex index;
 	private final int readlockCount;
 	private final boolean flushIndex;
+	private final long maxHoldTime;
 	private long lastLockTime;
 	private long cumulativeLockTime;
 
 	public YieldableIndexLock(IWritableIndex index, int readlockCount, boolean flushIndex) {
+		this(index, readlockCount, flushIndex, MAX_HOLD_TIME);
+	}
+
+	/**
+	 * @param maxHoldTime time in milliseconds after which the lock is yielded to waiting writers,
+	 * or 0 to yield to readers, only.
+	 */
+	public YieldableIndexLock(IWritableIndex index, int readlockCount, boolean flushIndex, long maxHoldTime) {
 		this.index = index;
 		this.readlockCount = readlockCount;
 		this.flushIndex = flushIndex;
+		this.maxHoldTime = maxHoldTime;
 	}
 
 	/**
@@ -52,8 +69,9 @@ public class YieldableIndexLock {
 	}
 
 	/**
-	 * Yields the lock temporarily if it was held for YIELD_INTERVAL or more, and somebody is waiting
-	 * for a read lock. 
+	 * Yields the lock temporarily if somebody is waiting for a read lock, or if it was held for
+	 * longer than the maximum hold time and another writer is waiting for it. When yielding
+	 * to a writer, the read locks the write lock was acquired from are given up as well.
 	 * @throws InterruptedException
 	 */
 	public void yield() throws InterruptedException {
@@ -62,6 +80,13 @@ public class YieldableIndexLock {
 			cumulativeLockTime += System.currentTimeMillis() - lastLockTime;
 			lastLockTime = 0;
 			acquire();
+		} else if (maxHoldTime > 0 && System.currentTimeMillis() - lastLockTime >= maxHoldTime &&
+				index.hasWaitingWriters()) {
+			// Read locks held by this thread would block the writer, too.
+			cumulativeLockTime += System.currentTimeMillis() - lastLockTime;
+			lastLockTime = 0;
+			index.yieldWriteLock();
+			lastLockTime = System.currentTimeMillis();
 		}
 	}
 
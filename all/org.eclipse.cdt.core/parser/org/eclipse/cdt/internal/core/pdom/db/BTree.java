@@ -13,6 +13,9 @@
 
 package org.eclipse.cdt.internal.core.pdom.db;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 import com.ibm.icu.text.MessageFormat;
 
 import org.eclipse.cdt.core.CCorePlugin;
@@ -216,6 +219,120 @@ public class BTree {
 		return db.malloc((2 * MAX_RECORDS + 1) * Database.INT_SIZE);
 	}
 
+	/**
+	 * Sorts the records with respect to the comparator of this b-tree, such that they
+	 * can be passed to {@link #bulkLoad(long[])}.
+	 */
+	public void sort(long[] records) throws CoreException {
+		Long[] boxed= new Long[records.length];
+		for (int i = 0; i < records.length; i++) {
+			boxed[i]= records[i];
+		}
+		try {
+			Arrays.sort(boxed, new Comparator<Long>() {
+				public int compare(Long r1, Long r2) {
+					try {
+						return cmp.compare(r1, r2);
+					} catch (CoreException e) {
+						throw new WrappedCoreException(e);
+					}
+				}
+			});
+		} catch (WrappedCoreException e) {
+			throw (CoreException) e.getCause();
+		}
+		for (int i = 0; i < records.length; i++) {
+			records[i]= boxed[i];
+		}
+	}
+
+	private static class WrappedCoreException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		public WrappedCoreException(CoreException e) {
+			super(e);
+		}
+	}
+
+	/**
+	 * Fills an empty b-tree with the given records. The nodes are built bottom-up and
+	 * are packed as densely as the invariants of the b-tree allow, which is a lot faster
+	 * than inserting the records one by one. As with {@link #insert(long)}, a record
+	 * that compares equal to its predecessor is not added to the tree.
+	 *
+	 * @param records the records, sorted with respect to the comparator of the b-tree.
+	 * @throws IllegalStateException if the b-tree is not empty.
+	 * @throws IllegalArgumentException if the records are not sorted.
+	 */
+	public void bulkLoad(long[] records) throws CoreException {
+		if (getRoot() != 0)
+			throw new IllegalStateException();
+
+		long[] unique= new long[records.length];
+		int count= 0;
+		for (long record : records) {
+			if (count > 0) {
+				int c= cmp.compare(unique[count - 1], record);
+				if (c > 0)
+					throw new IllegalArgumentException();
+				if (c == 0)
+					continue;
+			}
+			unique[count++]= record;
+		}
+		if (count == 0)
+			return;
+
+		// capacity[h] is the maximum number of records in a sub-tree of height h
+		long[] capacity= new long[] {MAX_RECORDS};
+		while (capacity[capacity.length - 1] < count) {
+			long[] grown= new long[capacity.length + 1];
+			System.arraycopy(capacity, 0, grown, 0, capacity.length);
+			grown[capacity.length]= MAX_RECORDS + MAX_CHILDREN * capacity[capacity.length - 1];
+			capacity= grown;
+		}
+		long root= buildNode(unique, 0, count, capacity, capacity.length - 1, true);
+		db.putRecPtr(rootPointer, root);
+	}
+
+	/**
+	 * Creates a sub-tree of the given height for the records in the range
+	 * <code>[from, from + count)</code>.
+	 */
+	private long buildNode(long[] records, int from, int count, long[] capacity, int height, boolean isRoot)
+			throws CoreException {
+		long node= allocateNode();
+		if (height == 0) {
+			Chunk chunk= db.getChunk(node);
+			for (int i = 0; i < count; i++) {
+				putRecord(chunk, node, i, records[from + i]);
+			}
+			return node;
+		}
+
+		// Use as few children as possible, each of them is at least half full.
+		final long childCapacity= capacity[height - 1];
+		int children= (int) ((count + childCapacity + 1) / (childCapacity + 1));
+		if (!isRoot && children < DEGREE)
+			children= DEGREE;
+
+		final int inChildren= count - (children - 1);
+		final int perChild= inChildren / children;
+		final int remainder= inChildren % children;
+		int pos= from;
+		for (int i = 0; i < children; i++) {
+			int childCount= i < remainder ? perChild + 1 : perChild;
+			long child= buildNode(records, pos, childCount, capacity, height - 1, false);
+			pos+= childCount;
+			// the chunk may have been released while building the child
+			Chunk chunk= db.getChunk(node);
+			putChild(chunk, node, i, child);
+			if (i < children - 1) {
+				putRecord(chunk, node, i, records[pos++]);
+			}
+		}
+		return node;
+	}
+
 	/**
 	 * Deletes the specified record from the B-tree.
 	 * <p>
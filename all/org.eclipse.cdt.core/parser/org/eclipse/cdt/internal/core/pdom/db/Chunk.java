@@ -21,22 +21,39 @@ import org.eclipse.core.runtime.CoreException;
  * Caches the content of a piece of the database.
  */
 final class Chunk {
-	final private byte[] fBuffer= new byte[Database.CHUNK_SIZE];
+	final private byte[] fBuffer;
+	final private ByteBuffer fMapped;	// content of a mapped chunk of a read-only database, or null.
 
 	final Database fDatabase;
 	final int fSequenceNumber;
 	
-	boolean fCacheHitFlag= false;
 	boolean fDirty= false;
 	boolean fLocked= false;	// locked chunks must not be released from cache.
-	int fCacheIndex= -1;
+	int fCacheIndex= -1;	// index of the cache segment, or -1 if the chunk is not cached.
+	boolean fCacheProtected= false;
+	Chunk fCachePrev;
+	Chunk fCacheNext;
 		
 	Chunk(Database db, int sequenceNumber) {
 		fDatabase= db;
 		fSequenceNumber= sequenceNumber;
+		fBuffer= new byte[Database.CHUNK_SIZE];
+		fMapped= null;
+	}
+
+	/**
+	 * Creates a chunk of a read-only database, that is backed by the given view on 
+	 * the memory-mapped file. The content is not copied.
+	 */
+	Chunk(Database db, int sequenceNumber, ByteBuffer mapped) {
+		fDatabase= db;
+		fSequenceNumber= sequenceNumber;
+		fBuffer= null;
+		fMapped= mapped;
 	}
 
 	void read() throws CoreException {
+		assert fMapped == null;
 		try {
 			final ByteBuffer buf= ByteBuffer.wrap(fBuffer);
 			fDatabase.read(buf, (long)fSequenceNumber*Database.CHUNK_SIZE);
@@ -46,6 +63,7 @@ final class Chunk {
 	}
 
 	void flush() throws CoreException {
+		assert fMapped == null;
 		try {
 			final ByteBuffer buf= ByteBuffer.wrap(fBuffer);
 			fDatabase.write(buf, (long)fSequenceNumber*Database.CHUNK_SIZE);
@@ -59,29 +77,38 @@ final class Chunk {
 	}
 
 	public void putByte(final long offset, final byte value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		fBuffer[recPtrToIndex( offset )]= value;
 	}
 	
 	public byte getByte(final long offset) {
+		if (fMapped != null) {
+			return fMapped.get(recPtrToIndex( offset ));
+		}
 		return fBuffer[recPtrToIndex( offset )];
 	}
 	
 	public byte[] getBytes(final long offset, final int length) {
 		final byte[] bytes = new byte[length];
+		if (fMapped != null) {
+			final ByteBuffer buf= fMapped.duplicate();
+			buf.position(recPtrToIndex( offset ));
+			buf.get(bytes);
+			return bytes;
+		}
 		System.arraycopy(fBuffer, recPtrToIndex( offset ), bytes, 0, length);
 		return bytes;
 	}
 	
 	public void putBytes(final long offset, final byte[] bytes) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		System.arraycopy(bytes, 0, fBuffer, recPtrToIndex( offset ), bytes.length);
 	}
 	
 	public void putInt(final long offset, final int value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx= recPtrToIndex( offset );
 		putInt(value, fBuffer, idx);
@@ -96,6 +123,9 @@ final class Chunk {
 
 	
 	public int getInt(final long offset) {
+		if (fMapped != null) {
+			return fMapped.getInt(recPtrToIndex(offset));
+		}
 		return getInt(fBuffer, recPtrToIndex(offset));
 	}
 
@@ -159,7 +189,7 @@ final class Chunk {
 	 * This is a pointer to a block + BLOCK_HEADER_SIZE.
 	 */
 	public void putRecPtr(final long offset, final long value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty = true;
 		int idx = recPtrToIndex(offset);
 		putRecPtr(value, fBuffer, idx);
@@ -171,7 +201,7 @@ final class Chunk {
 	 * pointer is not moved past the BLOCK_HEADER_SIZE.
 	 */
 	public void putFreeRecPtr(final long offset, final long value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty = true;
 		int idx = recPtrToIndex(offset);
 		putInt(compressFreeRecPtr(value), fBuffer, idx);
@@ -179,17 +209,21 @@ final class Chunk {
 
 	public long getRecPtr(final long offset) {
 		final int idx = recPtrToIndex(offset);
+		if (fMapped != null) {
+			long address = expandToFreeRecPtr(fMapped.getInt(idx));
+			return address != 0 ? (address + Database.BLOCK_HEADER_SIZE) : address;
+		}
 		return getRecPtr(fBuffer, idx);
 	}
 	
 	public long getFreeRecPtr(final long offset) {
 		final int idx = recPtrToIndex(offset);
-		int value = getInt(fBuffer, idx);
+		int value = fMapped != null ? fMapped.getInt(idx) : getInt(fBuffer, idx);
 		return expandToFreeRecPtr(value);
 	}
 	
 	public void put3ByteUnsignedInt(final long offset, final int value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx= recPtrToIndex( offset );
 		fBuffer[idx]= (byte)(value >> 16);
@@ -199,13 +233,18 @@ final class Chunk {
 	
 	public int get3ByteUnsignedInt(final long offset) {
 		int idx= recPtrToIndex( offset );
+		if (fMapped != null) {
+			return ((fMapped.get(idx) & 0xff) << 16) |
+				((fMapped.get(++idx) & 0xff) <<  8) |
+				((fMapped.get(++idx) & 0xff) <<  0);
+		}
 		return ((fBuffer[idx] & 0xff) << 16) |
 			((fBuffer[++idx] & 0xff) <<  8) |
 			((fBuffer[++idx] & 0xff) <<  0);
 	}
 
 	public void putShort(final long offset, final short value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx= recPtrToIndex( offset );
 		fBuffer[idx]= (byte)(value >> 8);
@@ -214,11 +253,17 @@ final class Chunk {
 	
 	public short getShort(final long offset) {
 		int idx= recPtrToIndex( offset );
+		if (fMapped != null) {
+			return fMapped.getShort(idx);
+		}
 		return (short) (((fBuffer[idx] << 8) | (fBuffer[++idx] & 0xff)));
 	}
 
 	public long getLong(final long offset) {
 		int idx= recPtrToIndex( offset );
+		if (fMapped != null) {
+			return fMapped.getLong(idx);
+		}
 		return ((((long)fBuffer[idx] & 0xff) << 56) |
 				(((long)fBuffer[++idx] & 0xff) << 48) |
 				(((long)fBuffer[++idx] & 0xff) << 40) |
@@ -230,7 +275,7 @@ final class Chunk {
 	}
 
 	public void putLong(final long offset, final long value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx= recPtrToIndex( offset );
 
@@ -245,7 +290,7 @@ final class Chunk {
 	}
 	
 	public void putChar(final long offset, final char value) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx= recPtrToIndex( offset );
 		fBuffer[idx]= (byte)(value >> 8);
@@ -254,17 +299,20 @@ final class Chunk {
 	
 	public char getChar(final long offset) {
 		int idx= recPtrToIndex( offset );
+		if (fMapped != null) {
+			return fMapped.getChar(idx);
+		}
 		return (char) (((fBuffer[idx] << 8) | (fBuffer[++idx] & 0xff)));
 	}
 
 	public void getCharArray(final long offset, final char[] result) {
-		final ByteBuffer buf= ByteBuffer.wrap(fBuffer);
+		final ByteBuffer buf= fMapped != null ? fMapped.duplicate() : ByteBuffer.wrap(fBuffer);
 		buf.position(recPtrToIndex( offset ));
 		buf.asCharBuffer().get(result);
 	}
 	
 	void clear(final long offset, final int length) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx = recPtrToIndex(offset);
 		final int end = idx + length;
@@ -274,7 +322,7 @@ final class Chunk {
 	}
 
 	void put(final long offset, final byte[] data, final int len) {
-		assert fLocked;
+		assert fLocked && fMapped == null;
 		fDirty= true;
 		int idx = recPtrToIndex(offset);
 		int i=0;
@@ -285,6 +333,12 @@ final class Chunk {
 	
 	public void get(final long offset, byte[] data) {
 		int idx = recPtrToIndex(offset);
+		if (fMapped != null) {
+			final ByteBuffer buf= fMapped.duplicate();
+			buf.position(idx);
+			buf.get(data);
+			return;
+		}
 		final int end= idx + data.length;
 		int i= 0;
 		while (idx < end) {
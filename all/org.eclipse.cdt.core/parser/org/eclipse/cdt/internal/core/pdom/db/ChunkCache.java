@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007 Wind River Systems, Inc. and others.
+ * Copyright (c) 2007, 2010 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -7,17 +7,158 @@
  *
  * Contributors:
  *    Markus Schorn - initial API and implementation
- *******************************************************************************/ 
+ *******************************************************************************/
 
 package org.eclipse.cdt.internal.core.pdom.db;
 
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache for the chunks of one or more databases.
+ * <p>
+ * The cache is divided into segments, each of them protected by its own lock. A chunk is always
+ * handled by the same segment, which is determined by the database and the sequence number of the
+ * chunk. The database uses the lock of that segment (see {@link #getLock(Database, int)}) to
+ * protect the corresponding slot of its chunk table. Operations that have to access all chunks
+ * of a database use {@link #lockAll()}.
+ * <p>
+ * Every segment uses a segmented LRU policy: chunks that are added to the cache are put on a
+ * probationary list, only chunks that are hit again while being cached are promoted to the
+ * protected list. Chunks demoted from the protected list go back to the probationary list.
+ * Victims are taken from the probationary list, such that a scan over many chunks that are
+ * accessed only once does not evict the chunks that are frequently used.
+ */
 public final class ChunkCache {
+	private static final int MAX_SEGMENTS= 16;
 	private static ChunkCache sSharedInstance= new ChunkCache();
-	
-	private Chunk[] fPageTable;
-	private boolean fTableIsFull= false;
-	private int fPointer= 0;
-	
+
+	/**
+	 * Doubly linked list of chunks, using the links stored in the chunks. The first element
+	 * is the least recently used one.
+	 */
+	private static final class ChunkList {
+		Chunk fFirst;
+		Chunk fLast;
+		int fSize;
+
+		void addLast(Chunk chunk) {
+			chunk.fCachePrev= fLast;
+			chunk.fCacheNext= null;
+			if (fLast == null) {
+				fFirst= chunk;
+			} else {
+				fLast.fCacheNext= chunk;
+			}
+			fLast= chunk;
+			fSize++;
+		}
+
+		void remove(Chunk chunk) {
+			final Chunk prev= chunk.fCachePrev;
+			final Chunk next= chunk.fCacheNext;
+			if (prev == null) {
+				fFirst= next;
+			} else {
+				prev.fCacheNext= next;
+			}
+			if (next == null) {
+				fLast= prev;
+			} else {
+				next.fCachePrev= prev;
+			}
+			chunk.fCachePrev= chunk.fCacheNext= null;
+			fSize--;
+		}
+	}
+
+	private static final class Segment extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+
+		final int fIndex;
+		final ChunkList fProbation= new ChunkList();
+		final ChunkList fProtected= new ChunkList();
+		int fCapacity;
+		int fProtectedCapacity;
+
+		Segment(int index) {
+			fIndex= index;
+		}
+
+		void setCapacity(int capacity) {
+			fCapacity= Math.max(1, capacity);
+			fProtectedCapacity= fCapacity * 3 / 4;
+			while (fProbation.fSize + fProtected.fSize > fCapacity) {
+				evictChunk();
+			}
+			while (fProtected.fSize > fProtectedCapacity) {
+				demoteChunk();
+			}
+		}
+
+		void add(Chunk chunk) {
+			if (chunk.fCacheIndex >= 0) {
+				if (chunk.fCacheProtected) {
+					fProtected.remove(chunk);
+					fProtected.addLast(chunk);
+				} else if (fProtectedCapacity > 0) {
+					fProbation.remove(chunk);
+					if (fProtected.fSize >= fProtectedCapacity) {
+						demoteChunk();
+					}
+					chunk.fCacheProtected= true;
+					fProtected.addLast(chunk);
+				} else {
+					fProbation.remove(chunk);
+					fProbation.addLast(chunk);
+				}
+				return;
+			}
+			if (fProbation.fSize + fProtected.fSize >= fCapacity) {
+				evictChunk();
+			}
+			chunk.fCacheIndex= fIndex;
+			chunk.fCacheProtected= false;
+			fProbation.addLast(chunk);
+		}
+
+		void remove(Chunk chunk) {
+			if (chunk.fCacheIndex >= 0) {
+				if (chunk.fCacheProtected) {
+					fProtected.remove(chunk);
+				} else {
+					fProbation.remove(chunk);
+				}
+				chunk.fCacheIndex= -1;
+				chunk.fCacheProtected= false;
+			}
+		}
+
+		/**
+		 * Moves the least recently used protected chunk to the probationary list.
+		 */
+		private void demoteChunk() {
+			final Chunk chunk= fProtected.fFirst;
+			fProtected.remove(chunk);
+			chunk.fCacheProtected= false;
+			fProbation.addLast(chunk);
+		}
+
+		/**
+		 * Evicts a chunk from the segment and the chunk table of its database.
+		 */
+		private void evictChunk() {
+			Chunk chunk= fProbation.fFirst;
+			if (chunk == null) {
+				chunk= fProtected.fFirst;
+			}
+			remove(chunk);
+			chunk.fDatabase.releaseChunk(chunk);
+		}
+	}
+
+	private final Segment[] fSegments;
+	private final int fSegmentMask;
+
 	public static ChunkCache getSharedInstance() {
 		return sSharedInstance;
 	}
@@ -25,116 +166,122 @@ public final class ChunkCache {
 	public ChunkCache() {
 		this(5*1024*1024);
 	}
-	
+
 	public ChunkCache(long maxSize) {
-		fPageTable= new Chunk[computeLength(maxSize)];
-	}
-	
-	public synchronized void add(Chunk chunk, boolean locked) {
-		if (locked) {
-			chunk.fLocked= true;
-		}
-		if (chunk.fCacheIndex >= 0) {
-			chunk.fCacheHitFlag= true;
-			return;
-		}
-		if (fTableIsFull) {
-			evictChunk();
-			chunk.fCacheIndex= fPointer;
-			fPageTable[fPointer]= chunk;
-		}
-		else {
-			chunk.fCacheIndex= fPointer;
-			fPageTable[fPointer]= chunk;
-
-			fPointer++;
-			if (fPointer == fPageTable.length) {
-				fPointer= 0;
-				fTableIsFull= true;
-			}
+		final int length= computeLength(maxSize);
+		int segmentCount= 1;
+		while (segmentCount < MAX_SEGMENTS && segmentCount * 2 <= length) {
+			segmentCount*= 2;
+		}
+		fSegments= new Segment[segmentCount];
+		fSegmentMask= segmentCount - 1;
+		for (int i = 0; i < fSegments.length; i++) {
+			fSegments[i]= new Segment(i);
 		}
+		distributeCapacity(length);
 	}
-	
-	/**                                                                   
-	 * Evicts a chunk from the page table and the chunk table.            
-	 * After this method returns, {@link #fPointer}  will contain
-	 * the index of the evicted chunk within the page table.              
-	 */                                                                   
-	private void evictChunk() {
-		/*
-		 * Use the CLOCK algorithm to determine which chunk to evict.
-		 * i.e., if the chunk in the current slot of the page table has been
-		 * recently referenced (i.e. the reference flag is set), unset the
-		 * reference flag and move to the next slot.  Otherwise, evict the
-		 * chunk in the current slot.
-		 */
-		while (true) {
-			Chunk chunk = fPageTable[fPointer];
-			if (chunk.fCacheHitFlag) {
-				chunk.fCacheHitFlag= false;
-				fPointer= (fPointer + 1) % fPageTable.length;
-			} else {
-				chunk.fDatabase.releaseChunk(chunk);
-				chunk.fCacheIndex= -1;
-				fPageTable[fPointer] = null;
-				return;
-			}
+
+	private Segment getSegment(Database db, int sequenceNumber) {
+		int h= db.hashCode() + sequenceNumber;
+		h^= (h >>> 16);
+		return fSegments[h & fSegmentMask];
+	}
+
+	/**
+	 * Returns the lock protecting the given chunk of the database. The database must hold
+	 * the lock while accessing the slot for the chunk in its chunk table.
+	 */
+	ReentrantLock getLock(Database db, int sequenceNumber) {
+		return getSegment(db, sequenceNumber);
+	}
+
+	/**
+	 * Acquires the locks of all segments in ascending order.
+	 */
+	void lockAll() {
+		for (Segment segment : fSegments) {
+			segment.lock();
+		}
+	}
+
+	void unlockAll() {
+		for (int i = fSegments.length-1; i >= 0; i--) {
+			fSegments[i].unlock();
 		}
 	}
 
-	public synchronized void remove(Chunk chunk) {
-		final int idx= chunk.fCacheIndex;
-		if (idx >= 0) {
-			if (fTableIsFull) {
-				fPointer= fPageTable.length-1;
-				fTableIsFull= false;
+	/**
+	 * Returns whether the current thread holds the lock of any of the segments.
+	 */
+	boolean isLockedByCurrentThread() {
+		for (Segment segment : fSegments) {
+			if (segment.isHeldByCurrentThread()) {
+				return true;
 			}
-			else {
-				fPointer--;
+		}
+		return false;
+	}
+
+	public void add(Chunk chunk, boolean locked) {
+		final Segment segment= getSegment(chunk.fDatabase, chunk.fSequenceNumber);
+		segment.lock();
+		try {
+			if (locked) {
+				chunk.fLocked= true;
 			}
-			chunk.fCacheIndex= -1;
-			final Chunk move= fPageTable[fPointer];
-			fPageTable[idx]= move;
-			move.fCacheIndex= idx;
-			fPageTable[fPointer]= null;
-		}	
+			segment.add(chunk);
+		} finally {
+			segment.unlock();
+		}
+	}
+
+	public void remove(Chunk chunk) {
+		final Segment segment= getSegment(chunk.fDatabase, chunk.fSequenceNumber);
+		segment.lock();
+		try {
+			segment.remove(chunk);
+		} finally {
+			segment.unlock();
+		}
 	}
 
-	/**                                                                           
+	/**
 	 * Returns the maximum size of the chunk cache in bytes.
-	 */                                                                           
-	public synchronized long getMaxSize() {
-		return (long) fPageTable.length * Database.CHUNK_SIZE;
-	}
-
-	/**                                                                           
-	 * Clears the page table and changes it to hold chunks with
-	 * maximum total memory of <code>maxSize</code>.       
-	 * @param maxSize the total size of the chunks in bytes.                
-	 */                                                                           
-	public synchronized void setMaxSize(long maxSize) {
-		final int newLength= computeLength(maxSize);
-		final int oldLength= fTableIsFull ? fPageTable.length : fPointer;
-		if (newLength > oldLength) {
-			Chunk[] newTable= new Chunk[newLength];
-			System.arraycopy(fPageTable, 0, newTable, 0, oldLength);
-			fTableIsFull= false;
-			fPointer= oldLength;
-			fPageTable= newTable;
-		}
-		else {
-			for (int i=newLength; i<oldLength; i++) {
-				final Chunk chunk= fPageTable[i];
-				chunk.fDatabase.releaseChunk(chunk);
-				chunk.fCacheIndex= -1;
+	 */
+	public long getMaxSize() {
+		lockAll();
+		try {
+			long length= 0;
+			for (Segment segment : fSegments) {
+				length+= segment.fCapacity;
 			}
-			Chunk[] newTable= new Chunk[newLength];
-			System.arraycopy(fPageTable, 0, newTable, 0, newLength);
-			fTableIsFull= true;
-			fPointer= 0;
-			fPageTable= newTable;
-		}       
-	}                                                                             
+			return length * Database.CHUNK_SIZE;
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * Changes the cache to hold chunks with maximum total memory of <code>maxSize</code>.
+	 * Chunks exceeding the new size are evicted.
+	 * @param maxSize the total size of the chunks in bytes.
+	 */
+	public void setMaxSize(long maxSize) {
+		lockAll();
+		try {
+			distributeCapacity(computeLength(maxSize));
+		} finally {
+			unlockAll();
+		}
+	}
+
+	private void distributeCapacity(int length) {
+		final int perSegment= length / fSegments.length;
+		final int remainder= length % fSegments.length;
+		for (int i = 0; i < fSegments.length; i++) {
+			fSegments[i].setCapacity(i < remainder ? perSegment + 1 : perSegment);
+		}
+	}
 
 	private int computeLength(long maxSize) {
 		long maxLength= Math.min(maxSize/Database.CHUNK_SIZE, Integer.MAX_VALUE);
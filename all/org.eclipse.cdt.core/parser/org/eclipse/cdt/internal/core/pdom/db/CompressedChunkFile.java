@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.pdom.db;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed snapshot of a database file. The chunks are grouped into blocks which are
+ * compressed individually, such that a chunk can be read without decompressing the entire
+ * file. A {@link Database} opened read-only on such a file decompresses the chunks on demand.
+ */
+/*
+ * offset                 content
+ *                        _____________________________
+ * 0                     | MAGIC
+ * 4                     | format version
+ * 8                     | chunk size
+ * 12                    | number of chunks per block
+ * 16                    | number of chunks
+ * 20                    | number of blocks (n)
+ * HEADER_SIZE           | n+1 offsets (8 bytes each) of the compressed blocks, the last one
+ *                       | marks the end of the last block.
+ * HEADER_SIZE + 8*(n+1) | deflated blocks
+ *
+ * The magic number cannot be confused with the version number at the beginning of an
+ * uncompressed database.
+ */
+public class CompressedChunkFile {
+	public static final int MAGIC= 0x43445a21;	// 'CDZ!'
+	public static final int FORMAT_VERSION= 1;
+	public static final int CHUNKS_PER_BLOCK= 16;
+
+	private static final int HEADER_SIZE= 24;
+	private static final int BLOCK_CACHE_SIZE= 8;
+
+	private final int fChunkCount;
+	private final int fChunksPerBlock;
+	private final long[] fBlockOffsets;
+	private final Map<Integer, byte[]> fBlockCache;	// protected by itself
+
+	/**
+	 * Reads the offset table of a compressed file.
+	 * @throws IOException if the file is not a compressed database or cannot be read.
+	 */
+	public CompressedChunkFile(FileChannel channel) throws IOException {
+		ByteBuffer header= ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header, 0);
+		header.flip();
+		if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+				|| header.getInt() != Database.CHUNK_SIZE) {
+			throw new IOException("Unsupported compressed database"); //$NON-NLS-1$
+		}
+		fChunksPerBlock= header.getInt();
+		fChunkCount= header.getInt();
+		final int blockCount= header.getInt();
+		if (fChunksPerBlock <= 0 || fChunkCount < 0
+				|| blockCount != (fChunkCount + fChunksPerBlock - 1) / fChunksPerBlock) {
+			throw new IOException("Corrupt compressed database"); //$NON-NLS-1$
+		}
+		ByteBuffer offsets= ByteBuffer.allocate((blockCount + 1) * 8);
+		readFully(channel, offsets, HEADER_SIZE);
+		offsets.flip();
+		fBlockOffsets= new long[blockCount + 1];
+		for (int i = 0; i < fBlockOffsets.length; i++) {
+			fBlockOffsets[i]= offsets.getLong();
+		}
+		fBlockCache= new LinkedHashMap<Integer, byte[]>(BLOCK_CACHE_SIZE, 0.75f, true) {
+			private static final long serialVersionUID= 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > BLOCK_CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of chunks of the uncompressed database.
+	 */
+	public int getChunkCount() {
+		return fChunkCount;
+	}
+
+	/**
+	 * Fills the buffer with the uncompressed content at the given position, the range must
+	 * not span multiple chunks. Can be called from any thread.
+	 */
+	public void read(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		final int chunk= (int) (position / Database.CHUNK_SIZE);
+		final int offset= (int) (position % Database.CHUNK_SIZE);
+		if (chunk >= fChunkCount || offset + buf.remaining() > Database.CHUNK_SIZE) {
+			throw new EOFException();
+		}
+		final int block= chunk / fChunksPerBlock;
+		final byte[] data= getBlock(channel, block);
+		buf.put(data, (chunk - block * fChunksPerBlock) * Database.CHUNK_SIZE + offset, buf.remaining());
+	}
+
+	private byte[] getBlock(FileChannel channel, int block) throws IOException {
+		final Integer key= block;
+		synchronized (fBlockCache) {
+			byte[] data= fBlockCache.get(key);
+			if (data != null)
+				return data;
+		}
+
+		// decompress outside of the lock, in the rare case that two threads need the same block
+		// it is decompressed twice.
+		final long start= fBlockOffsets[block];
+		final long end= fBlockOffsets[block + 1];
+		if (end < start || end - start > Integer.MAX_VALUE) {
+			throw new IOException("Corrupt compressed database"); //$NON-NLS-1$
+		}
+		ByteBuffer compressed= ByteBuffer.allocate((int) (end - start));
+		readFully(channel, compressed, start);
+
+		final int chunks= Math.min(fChunksPerBlock, fChunkCount - block * fChunksPerBlock);
+		final byte[] data= new byte[chunks * Database.CHUNK_SIZE];
+		Inflater inflater= new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, compressed.capacity());
+			int length= 0;
+			while (length < data.length) {
+				int n= inflater.inflate(data, length, data.length - length);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Corrupt compressed database"); //$NON-NLS-1$
+				}
+				length+= n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		synchronized (fBlockCache) {
+			fBlockCache.put(key, data);
+		}
+		return data;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n= channel.read(buf, position);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			position+= n;
+		}
+	}
+
+	/**
+	 * Checks whether the file starts with the magic number of a compressed database.
+	 */
+	public static boolean isCompressed(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_SIZE)
+			return false;
+		ByteBuffer buf= ByteBuffer.allocate(4);
+		readFully(channel, buf, 0);
+		buf.flip();
+		return buf.getInt() == MAGIC;
+	}
+
+	/**
+	 * Writes a compressed snapshot of the uncompressed database in <code>from</code>
+	 * to the target file.
+	 */
+	public static void write(FileChannel from, File target) throws IOException {
+		final long size= from.size();
+		final int chunkCount= (int) (size / Database.CHUNK_SIZE);
+		final int blockCount= (chunkCount + CHUNKS_PER_BLOCK - 1) / CHUNKS_PER_BLOCK;
+		final long[] offsets= new long[blockCount + 1];
+		final long dataStart= HEADER_SIZE + 8L * offsets.length;
+
+		RandomAccessFile out= new RandomAccessFile(target, "rw"); //$NON-NLS-1$
+		try {
+			out.setLength(0);
+			out.seek(dataStart);
+			final byte[] block= new byte[CHUNKS_PER_BLOCK * Database.CHUNK_SIZE];
+			final byte[] compressed= new byte[Database.CHUNK_SIZE];
+			final Deflater deflater= new Deflater(Deflater.DEFAULT_COMPRESSION);
+			try {
+				long position= 0;
+				for (int i = 0; i < blockCount; i++) {
+					offsets[i]= out.getFilePointer();
+					final int chunks= Math.min(CHUNKS_PER_BLOCK, chunkCount - i * CHUNKS_PER_BLOCK);
+					ByteBuffer buf= ByteBuffer.wrap(block, 0, chunks * Database.CHUNK_SIZE);
+					readFully(from, buf, position);
+					position+= chunks * Database.CHUNK_SIZE;
+
+					deflater.reset();
+					deflater.setInput(block, 0, chunks * Database.CHUNK_SIZE);
+					deflater.finish();
+					while (!deflater.finished()) {
+						int n= deflater.deflate(compressed);
+						out.write(compressed, 0, n);
+					}
+				}
+			} finally {
+				deflater.end();
+			}
+			offsets[blockCount]= out.getFilePointer();
+
+			out.seek(0);
+			ByteBuffer header= ByteBuffer.allocate((int) dataStart);
+			header.putInt(MAGIC);
+			header.putInt(FORMAT_VERSION);
+			header.putInt(Database.CHUNK_SIZE);
+			header.putInt(CHUNKS_PER_BLOCK);
+			header.putInt(chunkCount);
+			header.putInt(blockCount);
+			for (long offset : offsets) {
+				header.putLong(offset);
+			}
+			out.write(header.array());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the uncompressed database of a compressed snapshot to the given stream.
+	 */
+	public static void decompress(File source, OutputStream out) throws IOException {
+		RandomAccessFile in= new RandomAccessFile(source, "r"); //$NON-NLS-1$
+		try {
+			final FileChannel channel= in.getChannel();
+			CompressedChunkFile file= new CompressedChunkFile(channel);
+			for (int i = 0; i * file.fChunksPerBlock < file.fChunkCount; i++) {
+				out.write(file.getBlock(channel, i));
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -17,11 +17,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.locks.Lock;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.core.runtime.CoreException;
@@ -61,6 +64,18 @@ import org.eclipse.osgi.util.NLS;
  * PREV_OFFSET      | pointer to prev block (of same size) (only in free blocks)
  * NEXT_OFFSET      | pointer to next block (of same size) (only in free blocks)
  * 
+ * ===== mapped io
+ * 
+ * Optionally the chunks of a database opened read-only are served directly from memory-mapped 
+ * regions of the file rather than being copied via read calls on the file channel. A region is a 
+ * multiple of CHUNK_SIZE, such that a chunk never spans two regions. Since the file cannot change,
+ * a region is mapped at most once. The regions are unmapped explicitly when the database is closed,
+ * such that the file can be deleted or replaced right away.
+ * 
+ * ===== compressed snapshots
+ * 
+ * A database opened read-only may also be backed by a compressed snapshot written via 
+ * transferCompressedTo(). The chunks are decompressed on demand, see CompressedChunkFile.
  */
 public class Database {
 	// public for tests only, you shouldn't need these
@@ -77,6 +92,12 @@ public class Database {
 	public static final int TYPE_SIZE = 2+PTR_SIZE;  // size of a type in the database in bytes
 	public static final int VALUE_SIZE = TYPE_SIZE;  // size of a value in the database in bytes
 	public static final long MAX_DB_SIZE= ((long) 1 << (Integer.SIZE + BLOCK_SIZE_DELTA_BITS));
+	public static final int MAPPED_REGION_SIZE= CHUNK_SIZE * 1024 * 16;
+
+	/**
+	 * System property to make databases read their chunks from memory-mapped regions by default.
+	 */
+	public static final String MAPPED_IO_PROPERTY= "org.eclipse.cdt.core.parser.pdom.mappedio"; //$NON-NLS-1$
 
 
 	public static final int VERSION_OFFSET = 0;
@@ -91,6 +112,10 @@ public class Database {
 	private boolean fExclusiveLock= false;	// necessary for any write operation
 	private boolean fLocked;				// necessary for any operation.
 	private boolean fIsMarkedIncomplete= false;
+	private final boolean fUseMappedIO;
+	private MappedByteBuffer[] fMappedRegions;	// protected by fMappedRegionsLock
+	private final Object fMappedRegionsLock= new Object();
+	private CompressedChunkFile fCompressedFile;
 
 	private int fVersion;
 	private final Chunk fHeaderChunk;
@@ -101,8 +126,8 @@ public class Database {
 	
 	private long malloced;
 	private long freed;
-	private long cacheHits;
-	private long cacheMisses;
+	private long cacheHits;		// statistics only, not synchronized
+	private long cacheMisses;	// statistics only, not synchronized
 	
 	/**
 	 * Construct a new Database object, creating a backing file if necessary.
@@ -113,6 +138,20 @@ public class Database {
 	 * @throws CoreException
 	 */
 	public Database(File location, ChunkCache cache, int version, boolean openReadOnly) throws CoreException {
+		this(location, cache, version, openReadOnly, Boolean.getBoolean(MAPPED_IO_PROPERTY));
+	}
+
+	/**
+	 * Construct a new Database object, creating a backing file if necessary.
+	 * @param location the local file path for the database 
+	 * @param cache the cache to be used optimization
+	 * @param version the version number to store in the database (only applicable for new databases)
+	 * @param openReadOnly whether this Database object will ever need writing to
+	 * @param useMappedIO whether chunks shall be read from memory-mapped regions of the file, 
+	 * 	ignored unless the database is opened read-only.
+	 * @throws CoreException
+	 */
+	public Database(File location, ChunkCache cache, int version, boolean openReadOnly, boolean useMappedIO) throws CoreException {
 		try {
 			fLocation = location;
 			fReadOnly= openReadOnly;
@@ -120,6 +159,15 @@ public class Database {
 			openFile();
 			
 			int nChunksOnDisk = (int) (fFile.length() / CHUNK_SIZE);
+			if (CompressedChunkFile.isCompressed(fFile.getChannel())) {
+				if (!openReadOnly) {
+					fFile.close();
+					throw new IOException("Compressed database " + location + " cannot be opened for writing"); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				fCompressedFile= new CompressedChunkFile(fFile.getChannel());
+				nChunksOnDisk= fCompressedFile.getChunkCount();
+			}
+			fUseMappedIO= openReadOnly && useMappedIO && fCompressedFile == null;
 			fHeaderChunk= new Chunk(this, 0);
 			fHeaderChunk.fLocked= true;		// never makes it into the cache, needed to satisfy assertions
 			if (nChunksOnDisk <= 0) {
@@ -146,7 +194,11 @@ public class Database {
 		int retries= 0;
 		do {
 			try {
-				fFile.getChannel().read(buf, position);
+				if (fCompressedFile != null) {
+					fCompressedFile.read(fFile.getChannel(), buf, position);
+				} else {
+					fFile.getChannel().read(buf, position);
+				}
 				return;
 			}
 			catch (ClosedChannelException e) {
@@ -170,6 +222,85 @@ public class Database {
 		} while(true);
 	}
 
+	/**
+	 * Returns a view on the memory-mapped content of the chunk with the given index, or 
+	 * <code>null</code> if the chunk has to be read via the file channel.
+	 */
+	private ByteBuffer getMappedChunk(int index) throws IOException {
+		if (!fUseMappedIO || index == 0) {
+			return null;
+		}
+		final long position= (long) index * CHUNK_SIZE;
+		final int regionIndex= (int) (position / MAPPED_REGION_SIZE);
+		final int offset= (int) (position % MAPPED_REGION_SIZE);
+		synchronized (fMappedRegionsLock) {
+			if (fMappedRegions == null) {
+				final long regionCount= (fFile.length() + MAPPED_REGION_SIZE - 1) / MAPPED_REGION_SIZE;
+				fMappedRegions= new MappedByteBuffer[(int) regionCount];
+			}
+			if (regionIndex >= fMappedRegions.length) {
+				return null;
+			}
+			MappedByteBuffer region= fMappedRegions[regionIndex];
+			if (region == null) {
+				final long regionStart= (long) regionIndex * MAPPED_REGION_SIZE;
+				final long length= Math.min(MAPPED_REGION_SIZE, fFile.length() - regionStart);
+				region= fFile.getChannel().map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+				fMappedRegions[regionIndex]= region;
+			}
+			if (offset + CHUNK_SIZE > region.capacity()) {
+				return null;
+			}
+			final ByteBuffer view= region.duplicate();
+			view.limit(offset + CHUNK_SIZE).position(offset);
+			return view.slice();
+		}
+	}
+
+	/**
+	 * Unmaps all regions of the file. Must only be called after all chunks have been removed 
+	 * from the cache, any access to a chunk of an unmapped region is fatal.
+	 */
+	private void unmapRegions() {
+		synchronized (fMappedRegionsLock) {
+			if (fMappedRegions != null) {
+				for (MappedByteBuffer region : fMappedRegions) {
+					if (region != null) {
+						unmap(region);
+					}
+				}
+				fMappedRegions= null;
+			}
+		}
+	}
+
+	/**
+	 * Releases the mapping without waiting for the garbage collector. Otherwise the file cannot 
+	 * be deleted on Windows as long as the mapping exists. When the VM does not support this, the 
+	 * mapping is left to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer region) {
+		try {
+			Method getCleaner= region.getClass().getMethod("cleaner"); //$NON-NLS-1$
+			getCleaner.setAccessible(true);
+			Object cleaner= getCleaner.invoke(region);
+			if (cleaner != null) {
+				Method clean= cleaner.getClass().getMethod("clean"); //$NON-NLS-1$
+				clean.setAccessible(true);
+				clean.invoke(cleaner);
+			}
+		} catch (Throwable e) {
+			// not supported by this VM
+		}
+	}
+
+	/**
+	 * Returns whether chunks are read from memory-mapped regions of the file.
+	 */
+	public boolean isUsingMappedIO() {
+		return fUseMappedIO;
+	}
+
 	private void reopen(ClosedChannelException e, int attempt) throws ClosedChannelException, FileNotFoundException {
 		// only if the current thread was not interrupted we try to reopen the file.
 		if (e instanceof ClosedByInterruptException || attempt >= 20) {
@@ -195,6 +326,25 @@ public class Database {
         }
 	}
 	
+	/**
+	 * Writes a compressed snapshot of the database to the target file. The snapshot can be
+	 * opened read-only, the chunks are then decompressed on demand.
+	 */
+	public void transferCompressedTo(File target) throws IOException {
+		assert fLocked;
+		if (fCompressedFile != null) {
+			throw new IOException("Database " + fLocation + " is already compressed"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		CompressedChunkFile.write(fFile.getChannel(), target);
+	}
+
+	/**
+	 * Returns whether the database is backed by a compressed snapshot.
+	 */
+	public boolean isCompressed() {
+		return fCompressedFile != null;
+	}
+
 	public int getVersion() {
 		return fVersion;
 	}
@@ -219,6 +369,7 @@ public class Database {
 		// chunks have been removed from the cache, so we may just reset the array of chunks.
 		fChunks = new Chunk[] {null};
 		fChunksUsed = fChunksAllocated = fChunks.length;
+		unmapRegions();
 		try {
 			fHeaderChunk.flush();	// zero out header chunk
 			fFile.getChannel().truncate(CHUNK_SIZE);	// truncate database
@@ -245,7 +396,8 @@ public class Database {
 	}
 
 	private void removeChunksFromCache() {
-		synchronized (fCache) {
+		fCache.lockAll();
+		try {
 			for (int i=1; i < fChunks.length; i++) {
 				Chunk chunk= fChunks[i];
 				if (chunk != null) {
@@ -253,6 +405,8 @@ public class Database {
 					fChunks[i]= null;
 				}
 			}
+		} finally {
+			fCache.unlockAll();
 		}
 	}
 	
@@ -268,20 +422,31 @@ public class Database {
 		long long_index = offset / CHUNK_SIZE;
 		assert long_index < Integer.MAX_VALUE; 
 
-		synchronized(fCache) {
+		final int index = (int)long_index;
+		final Lock lock= fCache.getLock(this, index);
+		lock.lock();
+		try {
 			assert fLocked;
-			final int index = (int)long_index;
 			Chunk chunk= fChunks[index];
 			if (chunk == null) {
 				cacheMisses++;
-				chunk = fChunks[index] = new Chunk(this, index);
-				chunk.read();
+				final ByteBuffer mapped= getMappedChunk(index);
+				if (mapped != null) {
+					chunk = fChunks[index] = new Chunk(this, index, mapped);
+				} else {
+					chunk = fChunks[index] = new Chunk(this, index);
+					chunk.read();
+				}
 			}
 			else {
 				cacheHits++;
 			}
 			fCache.add(chunk, fExclusiveLock);
 			return chunk;
+		} catch (IOException e) {
+			throw new CoreException(new DBStatus(e));
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -338,20 +503,28 @@ public class Database {
 	
 	private long createNewChunk() throws CoreException {
 		assert fExclusiveLock;
-		synchronized (fCache) {
-			final int newChunkIndex = fChunksUsed; // fChunks.length;
+		final int newChunkIndex = fChunksUsed; // fChunks.length;
 
-			final Chunk chunk = new Chunk(this, newChunkIndex);
-			chunk.fDirty = true;
+		final Chunk chunk = new Chunk(this, newChunkIndex);
+		chunk.fDirty = true;
 
-			if (newChunkIndex >= fChunksAllocated) {
+		if (newChunkIndex >= fChunksAllocated) {
+			// other threads may release chunks of this database while we copy the table.
+			fCache.lockAll();
+			try {
 				int increment = Math.max(1024, fChunksAllocated/20);
 				Chunk[] newchunks = new Chunk[fChunksAllocated + increment];
 				System.arraycopy(fChunks, 0, newchunks, 0, fChunksAllocated);
 
 				fChunks = newchunks;
 				fChunksAllocated += increment;
+			} finally {
+				fCache.unlockAll();
 			}
+		}
+		final Lock lock= fCache.getLock(this, newChunkIndex);
+		lock.lock();
+		try {
 			fChunksUsed += 1;
 			fChunks[newChunkIndex] = chunk;
 
@@ -371,6 +544,8 @@ public class Database {
 								.getResourceString("pdom.DatabaseTooLarge"), bindings), null)); //$NON-NLS-1$
 			}
 			return address;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -379,7 +554,8 @@ public class Database {
 	 */
 	private long createNewChunks(int numChunks) throws CoreException {
 		assert fExclusiveLock;
-		synchronized (fCache) {
+		fCache.lockAll();
+		try {
 			final int oldLen= fChunks.length;
 			Chunk[] newchunks = new Chunk[oldLen+numChunks];
 			System.arraycopy(fChunks, 0, newchunks, 0, oldLen);
@@ -394,6 +570,8 @@ public class Database {
 			fChunksAllocated=oldLen+numChunks;
 			fChunksUsed=oldLen+numChunks;
 			return (long)(oldLen + numChunks - 1) * CHUNK_SIZE;
+		} finally {
+			fCache.unlockAll();
 		}
 	}
 	
@@ -588,6 +766,7 @@ public class Database {
 		fHeaderChunk.fDirty= false;
 		fChunks= new Chunk[] {null};
 		fChunksUsed = fChunksAllocated = fChunks.length;
+		unmapRegions();
 		try {
 			fFile.close();
 		} catch (IOException e) {
@@ -603,7 +782,8 @@ public class Database {
 	}
 
 	/**
-	 * Called from any thread via the cache, protected by {@link #fCache}.
+	 * Called from any thread via the cache, protected by the lock of the cache segment 
+	 * the chunk belongs to.
 	 */
 	void releaseChunk(final Chunk chunk) {
 		if (!chunk.fLocked) {
@@ -636,7 +816,8 @@ public class Database {
 		if (fExclusiveLock) {
 			try {
 				ArrayList<Chunk> dirtyChunks= new ArrayList<Chunk>();
-				synchronized (fCache) {
+				fCache.lockAll();
+				try {
 					for (int i= 1; i < fChunksUsed; i++) {
 						Chunk chunk= fChunks[i];
 						if (chunk != null) {
@@ -666,6 +847,8 @@ public class Database {
 							}
 						}
 					}
+				} finally {
+					fCache.unlockAll();
 				}
 				// also handles header chunk
 				flushAndUnlockChunks(dirtyChunks, flush);
@@ -690,13 +873,16 @@ public class Database {
 
 		// be careful as other readers may access chunks concurrently
 		ArrayList<Chunk> dirtyChunks= new ArrayList<Chunk>();
-		synchronized (fCache) {
+		fCache.lockAll();
+		try {
 			for (int i= 1; i < fChunksUsed ; i++) {
 				Chunk chunk= fChunks[i];
 				if (chunk != null && chunk.fDirty) {
 					dirtyChunks.add(chunk);
 				}
 			}
+		} finally {
+			fCache.unlockAll();
 		}
 
 		// also handles header chunk
@@ -704,7 +890,7 @@ public class Database {
 	}
 
 	private void flushAndUnlockChunks(final ArrayList<Chunk> dirtyChunks, boolean isComplete) throws CoreException {
-		assert !Thread.holdsLock(fCache);
+		assert !fCache.isLockedByCurrentThread();
 		synchronized(fHeaderChunk) {
 			final boolean haveDirtyChunks = !dirtyChunks.isEmpty();
 			if (haveDirtyChunks || fHeaderChunk.fDirty) {
@@ -718,13 +904,16 @@ public class Database {
 				}
 
 				// only after the chunks are flushed we may unlock and release them.
-				synchronized (fCache) {
+				fCache.lockAll();
+				try {
 					for (Chunk chunk : dirtyChunks) {
 						chunk.fLocked= false;
 						if (chunk.fCacheIndex < 0) {
 							fChunks[chunk.fSequenceNumber]= null;
 						}
 					}
+				} finally {
+					fCache.unlockAll();
 				}
 			}
 
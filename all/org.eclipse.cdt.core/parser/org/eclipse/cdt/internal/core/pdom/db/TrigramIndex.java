@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.internal.core.pdom.db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Maps the trigrams (sequences of three characters) of names to the records the names belong to.
+ * The index does not distinguish between upper and lower case and considers the characters
+ * that can be part of an identifier, only. It is used to narrow down the candidates for a
+ * search with an arbitrary regular expression: a name can only match if it contains all
+ * trigrams of the literal text that is required by the expression.
+ * <p>
+ * For each trigram a record with the list of postings is stored. The postings are kept in
+ * a linked list of blocks with growing capacity, the block added last is the head of the list.
+ */
+public class TrigramIndex {
+	private static final int BTREE = 0;
+	private static final int RECORD_SIZE = 4;
+
+	// Record for a trigram
+	private static final int TRIGRAM = 0;
+	private static final int COUNT = 4;
+	private static final int FIRST_BLOCK = 8;
+	private static final int TRIGRAM_RECORD_SIZE = 12;
+
+	// Block of postings
+	private static final int NEXT_BLOCK = 0;
+	private static final int BLOCK_USED = 4;
+	private static final int BLOCK_CAPACITY = 8;
+	private static final int BLOCK_ENTRIES = 12;
+	private static final int MIN_CAPACITY = 4;
+	private static final int MAX_CAPACITY = 512;
+
+	private static final int OTHER_CHAR = 0;
+	private static final int CHAR_BITS = 6;
+
+	private final Database db;
+	private final long record;
+	private final BTree index;
+
+	/**
+	 * Allocates storage for a new trigram index in the specified database.
+	 */
+	public TrigramIndex(Database db) throws CoreException {
+		this(db, db.malloc(RECORD_SIZE));
+	}
+
+	/**
+	 * Creates an object for accessing an existing trigram index at the specified location
+	 * of the database.
+	 */
+	public TrigramIndex(Database db, long record) {
+		this.db= db;
+		this.record= record;
+		this.index= new BTree(db, record + BTREE, new IBTreeComparator() {
+			public int compare(long record1, long record2) throws CoreException {
+				return compareInts(TrigramIndex.this.db.getInt(record1 + TRIGRAM),
+						TrigramIndex.this.db.getInt(record2 + TRIGRAM));
+			}
+		});
+	}
+
+	public long getRecord() {
+		return record;
+	}
+
+	/**
+	 * Adds the trigrams of the given name to the index.
+	 * @param name the name to compute the trigrams for
+	 * @param target the record to be returned for queries matching the name
+	 */
+	public void add(char[] name, long target) throws CoreException {
+		for (int trigram : computeTrigrams(name)) {
+			long trec= findTrigramRecord(trigram);
+			if (trec == 0) {
+				trec= db.malloc(TRIGRAM_RECORD_SIZE);
+				db.putInt(trec + TRIGRAM, trigram);
+				index.insert(trec);
+			}
+			addPosting(trec, target);
+		}
+	}
+
+	private void addPosting(long trec, long target) throws CoreException {
+		long block= db.getRecPtr(trec + FIRST_BLOCK);
+		int used= 0;
+		int capacity= 0;
+		if (block != 0) {
+			used= db.getInt(block + BLOCK_USED);
+			capacity= db.getInt(block + BLOCK_CAPACITY);
+		}
+		if (used == capacity) {
+			capacity= block == 0 ? MIN_CAPACITY : Math.min(2 * capacity, MAX_CAPACITY);
+			long newBlock= db.malloc(BLOCK_ENTRIES + capacity * Database.PTR_SIZE);
+			db.putRecPtr(newBlock + NEXT_BLOCK, block);
+			db.putInt(newBlock + BLOCK_CAPACITY, capacity);
+			db.putRecPtr(trec + FIRST_BLOCK, newBlock);
+			block= newBlock;
+			used= 0;
+		}
+		db.putRecPtr(block + BLOCK_ENTRIES + used * Database.PTR_SIZE, target);
+		db.putInt(block + BLOCK_USED, used + 1);
+		db.putInt(trec + COUNT, db.getInt(trec + COUNT) + 1);
+	}
+
+	private long findTrigramRecord(final int trigram) throws CoreException {
+		final long[] result= {0};
+		index.accept(new IBTreeVisitor() {
+			public int compare(long rec) throws CoreException {
+				return compareInts(db.getInt(rec + TRIGRAM), trigram);
+			}
+			public boolean visit(long rec) throws CoreException {
+				result[0]= rec;
+				return false;
+			}
+		});
+		return result[0];
+	}
+
+	/**
+	 * Returns the records for names that contain all of the given trigrams, sorted and without
+	 * duplicates. The result may contain records for names that do not contain all of the
+	 * trigrams. Lists of postings that are much longer than the shortest one are not used to
+	 * narrow down the result.
+	 * @param trigrams a non-empty array of trigrams as computed by {@link #computeTrigrams(char[])}
+	 *     or {@link #getRequiredTrigrams(Pattern)}.
+	 */
+	public long[] getCandidates(int[] trigrams) throws CoreException {
+		assert trigrams.length > 0;
+		final int n= trigrams.length;
+		long[] trecs= new long[n];
+		int[] counts= new int[n];
+		int shortest= -1;
+		for (int i = 0; i < n; i++) {
+			trecs[i]= findTrigramRecord(trigrams[i]);
+			if (trecs[i] == 0)
+				return new long[0];
+			counts[i]= db.getInt(trecs[i] + COUNT);
+			if (shortest < 0 || counts[i] < counts[shortest])
+				shortest= i;
+		}
+		long[] result= readPostings(trecs[shortest], counts[shortest]);
+		Arrays.sort(result);
+		result= removeDuplicates(result, result.length);
+		for (int i = 0; i < n && result.length > 0; i++) {
+			if (i != shortest && counts[i] <= 8 * counts[shortest]) {
+				result= intersect(result, trecs[i]);
+			}
+		}
+		return result;
+	}
+
+	private long[] readPostings(long trec, int count) throws CoreException {
+		long[] result= new long[count];
+		int j= 0;
+		for (long block= db.getRecPtr(trec + FIRST_BLOCK); block != 0 && j < count;
+				block= db.getRecPtr(block + NEXT_BLOCK)) {
+			final int used= db.getInt(block + BLOCK_USED);
+			for (int i = 0; i < used && j < count; i++) {
+				result[j++]= db.getRecPtr(block + BLOCK_ENTRIES + i * Database.PTR_SIZE);
+			}
+		}
+		if (j < count) {
+			long[] trimmed= new long[j];
+			System.arraycopy(result, 0, trimmed, 0, j);
+			return trimmed;
+		}
+		return result;
+	}
+
+	private long[] intersect(long[] sorted, long trec) throws CoreException {
+		BitSet hits= new BitSet(sorted.length);
+		for (long block= db.getRecPtr(trec + FIRST_BLOCK); block != 0; block= db.getRecPtr(block + NEXT_BLOCK)) {
+			final int used= db.getInt(block + BLOCK_USED);
+			for (int i = 0; i < used; i++) {
+				int idx= Arrays.binarySearch(sorted, db.getRecPtr(block + BLOCK_ENTRIES + i * Database.PTR_SIZE));
+				if (idx >= 0)
+					hits.set(idx);
+			}
+		}
+		long[] result= new long[hits.cardinality()];
+		int j= 0;
+		for (int i= hits.nextSetBit(0); i >= 0; i= hits.nextSetBit(i + 1)) {
+			result[j++]= sorted[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Removes duplicates from the first <code>length</code> elements of a sorted array.
+	 */
+	private static long[] removeDuplicates(long[] sorted, int length) {
+		int j= 0;
+		for (int i = 0; i < length; i++) {
+			if (j == 0 || sorted[i] != sorted[j - 1]) {
+				sorted[j++]= sorted[i];
+			}
+		}
+		if (j == sorted.length)
+			return sorted;
+		long[] result= new long[j];
+		System.arraycopy(sorted, 0, result, 0, j);
+		return result;
+	}
+
+	private static int compareInts(int a, int b) {
+		return a < b ? -1 : (a > b ? 1 : 0);
+	}
+
+	private static int encode(char c) {
+		if (c >= '0' && c <= '9')
+			return 1 + c - '0';
+		if (c >= 'a' && c <= 'z')
+			return 11 + c - 'a';
+		if (c >= 'A' && c <= 'Z')
+			return 11 + c - 'A';
+		if (c == '_')
+			return 37;
+		return OTHER_CHAR;
+	}
+
+	/**
+	 * Computes the distinct trigrams of a name, trigrams with characters that cannot be part of
+	 * an identifier are omitted.
+	 */
+	public static int[] computeTrigrams(char[] name) {
+		int[] result= new int[Math.max(0, name.length - 2)];
+		int count= 0;
+		int c1= OTHER_CHAR;
+		int c2= OTHER_CHAR;
+		for (int i = 0; i < name.length; i++) {
+			final int c3= encode(name[i]);
+			if (i >= 2 && c1 != OTHER_CHAR && c2 != OTHER_CHAR && c3 != OTHER_CHAR) {
+				result[count++]= (((c1 << CHAR_BITS) | c2) << CHAR_BITS) | c3;
+			}
+			c1= c2;
+			c2= c3;
+		}
+		Arrays.sort(result, 0, count);
+		int j= 0;
+		for (int i = 0; i < count; i++) {
+			if (j == 0 || result[i] != result[j - 1]) {
+				result[j++]= result[i];
+			}
+		}
+		if (j == result.length)
+			return result;
+		int[] trimmed= new int[j];
+		System.arraycopy(result, 0, trimmed, 0, j);
+		return trimmed;
+	}
+
+	/**
+	 * Computes trigrams that every string matching the pattern has to contain. Returns
+	 * <code>null</code> if the pattern is not understood or does not require any trigram.
+	 * The analysis is conservative, parts of the expression that may be repeated, are optional
+	 * or contain alternatives do not contribute to the result.
+	 */
+	public static int[] getRequiredTrigrams(Pattern pattern) {
+		if ((pattern.flags() & ~Pattern.CASE_INSENSITIVE) != 0)
+			return null;
+		final String p= pattern.pattern();
+		// Alternatives and embedded flags are not analyzed.
+		if (p.indexOf('|') >= 0 || p.indexOf("(?") >= 0) //$NON-NLS-1$
+			return null;
+
+		final int len= p.length();
+		StringBuilder literals= new StringBuilder();
+		StringBuilder run= new StringBuilder();
+		int i= 0;
+		while (i < len) {
+			final char c= p.charAt(i);
+			int literal= -1;
+			int next= i + 1;
+			switch (c) {
+			case '\\':
+				if (next >= len)
+					return null;
+				final char e= p.charAt(next++);
+				if (Character.isLetterOrDigit(e)) {
+					// Predefined character classes and boundaries, other escapes are not analyzed.
+					if ("wWdDsSbB".indexOf(e) < 0) //$NON-NLS-1$
+						return null;
+				} else {
+					literal= e;
+				}
+				break;
+			case '[':
+				next= skipCharacterClass(p, i);
+				if (next < 0)
+					return null;
+				break;
+			case '(':
+				next= skipGroup(p, i);
+				if (next < 0)
+					return null;
+				break;
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				// Quantifier for a group or a character class.
+				next= skipQuantifier(p, i);
+				if (next < 0)
+					return null;
+				break;
+			case '.':
+			case '^':
+			case '$':
+				break;
+			default:
+				literal= c;
+				break;
+			}
+			i= next;
+			if (literal >= 0 && encode((char) literal) != OTHER_CHAR) {
+				if (i < len && isQuantifier(p.charAt(i))) {
+					// The character is optional or may be repeated.
+					if (getQuantifierMinimum(p, i) > 0)
+						run.append((char) literal);
+					appendRun(literals, run);
+					i= skipQuantifier(p, i);
+					if (i < 0)
+						return null;
+				} else {
+					run.append((char) literal);
+				}
+			} else {
+				appendRun(literals, run);
+			}
+		}
+		appendRun(literals, run);
+		if (literals.length() == 0)
+			return null;
+		int[] result= computeTrigrams(literals.toString().toCharArray());
+		return result.length == 0 ? null : result;
+	}
+
+	/**
+	 * Adds the run to the literals, runs are separated by a character that is not part
+	 * of an identifier.
+	 */
+	private static void appendRun(StringBuilder literals, StringBuilder run) {
+		if (run.length() >= 3) {
+			literals.append(run).append(' ');
+		}
+		run.setLength(0);
+	}
+
+	private static boolean isQuantifier(char c) {
+		return c == '*' || c == '+' || c == '?' || c == '{';
+	}
+
+	/**
+	 * Returns the minimum number of repetitions required by the quantifier at the given
+	 * position.
+	 */
+	private static int getQuantifierMinimum(String p, int i) {
+		switch (p.charAt(i)) {
+		case '*':
+		case '?':
+			return 0;
+		case '{':
+			int j= i + 1;
+			int min= 0;
+			while (j < p.length() && Character.isDigit(p.charAt(j))) {
+				min= Math.min(10, min * 10 + p.charAt(j) - '0');
+				j++;
+			}
+			return min;
+		}
+		return 1;
+	}
+
+	private static int skipQuantifier(String p, int i) {
+		if (p.charAt(i) == '{') {
+			i= p.indexOf('}', i);
+			if (i < 0)
+				return -1;
+		}
+		i++;
+		// Reluctant or possessive quantifier.
+		if (i < p.length() && (p.charAt(i) == '?' || p.charAt(i) == '+'))
+			i++;
+		return i;
+	}
+
+	private static int skipCharacterClass(String p, int i) {
+		int depth= 0;
+		for (; i < p.length(); i++) {
+			switch (p.charAt(i)) {
+			case '\\':
+				i++;
+				break;
+			case '[':
+				depth++;
+				break;
+			case ']':
+				if (--depth == 0)
+					return i + 1;
+				break;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipGroup(String p, int i) {
+		int depth= 0;
+		for (; i < p.length(); i++) {
+			switch (p.charAt(i)) {
+			case '\\':
+				i++;
+				break;
+			case '[':
+				i= skipCharacterClass(p, i);
+				if (i < 0)
+					return -1;
+				i--;
+				break;
+			case '(':
+				depth++;
+				break;
+			case ')':
+				if (--depth == 0)
+					return i + 1;
+				break;
+			}
+		}
+		return -1;
+	}
+}
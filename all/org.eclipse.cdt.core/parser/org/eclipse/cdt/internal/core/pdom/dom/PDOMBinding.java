@@ -35,6 +35,7 @@ import org.eclipse.cdt.internal.core.index.IIndexScope;
 import org.eclipse.cdt.internal.core.pdom.PDOM;
 import org.eclipse.cdt.internal.core.pdom.db.Database;
 import org.eclipse.cdt.internal.core.pdom.db.IString;
+import org.eclipse.cdt.internal.core.pdom.db.TrigramIndex;
 import org.eclipse.core.runtime.CoreException;
 
 /**
@@ -54,6 +55,19 @@ public abstract class PDOMBinding extends PDOMNamedNode implements IPDOMBinding
 	
 	protected PDOMBinding(PDOMLinkage linkage, PDOMNode parent, char[] name) throws CoreException {
 		super(linkage, parent, name);
+		addToTrigramIndex(name);
+	}
+
+	/**
+	 * Makes the binding available for searches via the trigram index, if there is one.
+	 */
+	final void addToTrigramIndex(char[] name) throws CoreException {
+		if (name != null && name.length > 0) {
+			TrigramIndex index= getPDOM().getTrigramIndex();
+			if (index != null) {
+				index.add(name, record);
+			}
+		}
 	}
 	
 	public PDOMBinding(PDOMLinkage linkage, long record) {
@@ -121,6 +121,10 @@ public abstract class PDOMNode implements IInternalPDOMNode {
 	public static int getNodeType(Database db, long record) throws CoreException {
 		return db.getInt(record + TYPE);
 	}
+
+	public static long getParentNodeRec(Database db, long record) throws CoreException {
+		return db.getRecPtr(record + PARENT);
+	}
 	
 	public long getParentNodeRec() throws CoreException {
 		if (cachedParentRecord != 0) {
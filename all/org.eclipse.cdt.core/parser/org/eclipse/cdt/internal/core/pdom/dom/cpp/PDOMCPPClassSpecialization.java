@@ -37,6 +37,7 @@ import org.eclipse.cdt.internal.core.dom.parser.cpp.ClassTypeHelper;
 import org.eclipse.cdt.internal.core.dom.parser.cpp.ICPPClassSpecializationScope;
 import org.eclipse.cdt.internal.core.dom.parser.cpp.semantics.CPPTemplates;
 import org.eclipse.cdt.internal.core.index.IIndexCPPBindingConstants;
+import org.eclipse.cdt.internal.core.pdom.PDOM;
 import org.eclipse.cdt.internal.core.pdom.db.PDOMNodeLinkedList;
 import org.eclipse.cdt.internal.core.pdom.dom.IPDOMMemberOwner;
 import org.eclipse.cdt.internal.core.pdom.dom.PDOMBinding;
@@ -60,8 +61,7 @@ class PDOMCPPClassSpecialization extends PDOMCPPSpecialization implements
 	@SuppressWarnings("hiding")
 	protected static final int RECORD_SIZE = PDOMCPPSpecialization.RECORD_SIZE + 8;
 	
-	private volatile ICPPClassScope fScope;
-	private ObjectMap specializationMap= null; // Obtained from the synchronized PDOM cache
+	private volatile PDOMCPPClassScope fScope;
 	
 	public PDOMCPPClassSpecialization(PDOMLinkage linkage, PDOMNode parent, ICPPClassType classType, PDOMBinding specialized)
 			throws CoreException {
@@ -88,27 +88,25 @@ class PDOMCPPClassSpecialization extends PDOMCPPSpecialization implements
 	}
 	
 	public IBinding specializeMember(IBinding original) {	
+		// The specialized members are not stored in the database, the map is kept in the
+		// transient part of the synchronized PDOM cache.
+		final Object key= getPDOM().createTransientKeyForCache(record, PDOMCPPLinkage.CACHE_INSTANCE_SCOPE);
+		ObjectMap specializationMap= (ObjectMap) getPDOM().getCachedResult(key);
 		if (specializationMap == null) {
-			final Long key= record+PDOMCPPLinkage.CACHE_INSTANCE_SCOPE;
-			Object cached= getPDOM().getCachedResult(key);
-			if (cached != null) {
-				specializationMap= (ObjectMap) cached;
-			} else {
-				final ObjectMap newMap= new ObjectMap(2);
-				try {
-					PDOMClassUtil.NestedClassCollector visitor = new PDOMClassUtil.NestedClassCollector();
-					PDOMCPPClassScope.acceptViaCache(this, visitor, false);
-					final ICPPClassType[] nested= visitor.getNestedClasses();
-					for (ICPPClassType classType : nested) {
-						if (classType instanceof ICPPSpecialization) {
-							newMap.put(((ICPPSpecialization) classType).getSpecializedBinding(), classType);
-						}
+			final ObjectMap newMap= new ObjectMap(2);
+			try {
+				PDOMClassUtil.NestedClassCollector visitor = new PDOMClassUtil.NestedClassCollector();
+				PDOMCPPClassScope.acceptViaCache(this, visitor, false);
+				final ICPPClassType[] nested= visitor.getNestedClasses();
+				for (ICPPClassType classType : nested) {
+					if (classType instanceof ICPPSpecialization) {
+						newMap.put(((ICPPSpecialization) classType).getSpecializedBinding(), classType);
 					}
-				} catch (CoreException e) {
-					CCorePlugin.log(e);
 				}
-				specializationMap= (ObjectMap) getPDOM().putCachedResult(key, newMap, false);
+			} catch (CoreException e) {
+				CCorePlugin.log(e);
 			}
+			specializationMap= (ObjectMap) getPDOM().putCachedResult(key, newMap, false);
 		}
 		synchronized (specializationMap) {
 			IBinding result= (IBinding) specializationMap.get(original);
@@ -127,7 +125,15 @@ class PDOMCPPClassSpecialization extends PDOMCPPSpecialization implements
 	}
 
 	public ICPPClassScope getCompositeScope() {
-		if (fScope == null) {
+		if (fScope != null)
+			return fScope;
+
+		// The scope of an implicit specialization holds on to specialized bases and members,
+		// it is kept in the transient part of the PDOM cache.
+		final PDOM pdom= getPDOM();
+		final Object key= pdom.createTransientKeyForCache(record, PDOMCPPLinkage.CACHE_SPECIALIZATION_SCOPE);
+		ICPPClassScope scope= (ICPPClassScope) pdom.getCachedResult(key);
+		if (scope == null) {
 			try {
 				if (hasDefinition()) {
 					fScope= new PDOMCPPClassScope(this);
@@ -135,9 +141,9 @@ class PDOMCPPClassSpecialization extends PDOMCPPSpecialization implements
 				} 
 			} catch (CoreException e) {
 			}
-			fScope= new PDOMCPPClassSpecializationScope(this);
+			scope= (ICPPClassScope) pdom.putCachedResult(key, new PDOMCPPClassSpecializationScope(this), false);
 		}
-		return fScope;
+		return scope;
 	}
 
 	public PDOMCPPBase getFirstBase() throws CoreException {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2009 Wind River Systems, Inc. and others.
+ * Copyright (c) 2008, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -30,7 +30,8 @@ public class PDOMInstanceCache {
 	public static PDOMInstanceCache getCache(PDOMBinding binding) {
 		final PDOM pdom= binding.getPDOM();
 		final long record= binding.getRecord();
-		final Long key = record+PDOMCPPLinkage.CACHE_INSTANCES;
+		// The instances are not stored in the database, such that the cache is transient.
+		final Object key = pdom.createTransientKeyForCache(record, PDOMCPPLinkage.CACHE_INSTANCES);
 		Object cache= pdom.getCachedResult(key);
 		if (cache instanceof PDOMInstanceCache) {
 			return (PDOMInstanceCache) cache;
@@ -12,6 +12,7 @@
 package org.eclipse.cdt.internal.core.pdom.export;
 
 import java.io.File;
+import java.io.IOException;
 import com.ibm.icu.text.MessageFormat;
 import java.util.Map;
 
@@ -43,6 +44,7 @@ public class GeneratePDOM {
 	protected File targetLocation;
 	protected String indexerID;
 	protected boolean deleteOnExit;
+	protected boolean compress;
 	
 	public GeneratePDOM(IExportProjectProvider pm, String[] applicationArguments, File targetLocation, String indexerID) {
 		this.pm= pm;
@@ -60,6 +62,15 @@ public class GeneratePDOM {
 		this.deleteOnExit= deleteOnExit;
 	}
 
+	/**
+	 * When set, a compressed snapshot of the PDOM is written, which can be used read-only 
+	 * without decompressing it first. By default this is not set.
+	 * @param compress
+	 */
+	public void setCompress(boolean compress) {
+		this.compress= compress;
+	}
+
 	/**
 	 * Executes the PDOM generation 
 	 * @return {@link IStatus#OK} if the generated content is complete, {@link IStatus#ERROR} otherwise.
@@ -107,6 +118,7 @@ public class GeneratePDOM {
 
 				// write properties to exported PDOM
 				WritablePDOM exportedPDOM= new WritablePDOM(targetLocation, converter, LanguageManager.getInstance().getPDOMLinkageFactoryMappings());
+				File compressedLocation= null;
 				exportedPDOM.acquireWriteLock(0);
 				try {
 					Map<String,String> exportProperties= pm.getExportProperties();
@@ -115,13 +127,27 @@ public class GeneratePDOM {
 							exportedPDOM.setProperty(entry.getKey(), entry.getValue());
 						}
 					}
+					if(compress) {
+						exportedPDOM.flush();
+						compressedLocation= new File(targetLocation.getPath() + ".tmp"); //$NON-NLS-1$
+						exportedPDOM.getDB().transferCompressedTo(compressedLocation);
+					}
 					exportedPDOM.close();
 				}
 				finally {
 					exportedPDOM.releaseWriteLock();
 				}
+				if(compressedLocation!=null) {
+					if(!targetLocation.delete() || !compressedLocation.renameTo(targetLocation)) {
+						compressedLocation.delete();
+						throw new IOException(MessageFormat.format(Messages.GeneratePDOM_CannotWriteTarget, new Object[] {targetLocation}));
+					}
+				}
 			}
 			
+		} catch(IOException e) {
+			String msg= MessageFormat.format(Messages.GeneratePDOM_GenericGenerationFailed, new Object[] {e.getMessage()});
+			throw new CoreException(CCorePlugin.createStatus(msg, e));
 		} catch(InterruptedException ie) {
 			String msg= MessageFormat.format(Messages.GeneratePDOM_GenericGenerationFailed, new Object[] {ie.getMessage()});
 			throw new CoreException(CCorePlugin.createStatus(msg, ie));
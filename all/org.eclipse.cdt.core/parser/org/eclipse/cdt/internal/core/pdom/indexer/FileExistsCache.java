@@ -88,7 +88,9 @@ public final class FileExistsCache {
 		if (fCaseInSensitive)
 			name= name.toUpperCase();
 		
-		Content avail= getExistsCache().get(parent); 
+		// the file system is accessed without holding a lock, such that multiple parser threads
+		// can check files concurrently.
+		Content avail= getContent(parent); 
 		if (avail == null) {
 			String[] files = null;
 			try {
@@ -108,7 +110,7 @@ public final class FileExistsCache {
 				Arrays.sort(files);
 				avail= new Content(files);
 			}
-			getExistsCache().put(parent, avail);
+			avail= putContent(parent, avail);
 		}
 		int idx= Arrays.binarySearch(avail.fNames, name);
 		if (idx < 0)
@@ -116,17 +118,36 @@ public final class FileExistsCache {
 		idx *= 2;
 		
 		final BitSet isFileBitset = avail.fIsFile;
-		if (isFileBitset.get(idx))
-			return true;
-		if (isFileBitset.get(idx+1))
-			return false;
+		synchronized (isFileBitset) {
+			if (isFileBitset.get(idx))
+				return true;
+			if (isFileBitset.get(idx+1))
+				return false;
+		}
 		
-		if ((file != null && file.isFile()) || (fileStore != null && !fileStore.fetchInfo().isDirectory())) {
-			isFileBitset.set(idx);
-			return true;
+		final boolean isFile= (file != null && file.isFile()) || (fileStore != null && !fileStore.fetchInfo().isDirectory());
+		synchronized (isFileBitset) {
+			isFileBitset.set(isFile ? idx : idx+1);
+		}
+		return isFile;
+	}
+
+	private synchronized Content getContent(String parent) {
+		return getExistsCache().get(parent);
+	}
+
+	/**
+	 * Stores the content for the parent directory, unless another thread has done so in the meantime.
+	 * Returns the content stored in the cache. 
+	 */
+	private synchronized Content putContent(String parent, Content content) {
+		final Map<String, Content> cache= getExistsCache();
+		Content result= cache.get(parent);
+		if (result == null) {
+			cache.put(parent, content);
+			result= content;
 		}
-		isFileBitset.set(idx+1);
-		return false;
+		return result;
 	}
 
 	private Map<String, Content> getExistsCache() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Wind River Systems, Inc. and others.
+ * Copyright (c) 2006, 2011 Wind River Systems, Inc. and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -32,6 +32,7 @@ import org.eclipse.cdt.core.parser.IScannerInfoProvider;
 import org.eclipse.cdt.core.parser.ScannerInfo;
 import org.eclipse.cdt.internal.core.index.IWritableIndex;
 import org.eclipse.cdt.internal.core.index.IWritableIndexManager;
+import org.eclipse.cdt.internal.core.parser.FileContentCache;
 import org.eclipse.cdt.internal.core.pdom.AbstractIndexerTask;
 import org.eclipse.cdt.internal.core.pdom.ITodoTaskUpdater;
 import org.eclipse.cdt.internal.core.pdom.IndexerProgress;
@@ -52,6 +53,11 @@ import org.eclipse.osgi.util.NLS;
  */
 public abstract class PDOMIndexerTask extends AbstractIndexerTask implements IPDOMIndexerTask {
 	private static final String TRUE = "true"; //$NON-NLS-1$
+	/**
+	 * System property for the number of threads used to parse source files, by default the
+	 * source files are parsed on the thread of the indexer task.
+	 */
+	public static final String PARSER_THREADS_PROPERTY = "org.eclipse.cdt.core.parser.pdom.indexer.parserThreads"; //$NON-NLS-1$
 	
 	private AbstractPDOMIndexer fIndexer;
 	private boolean fWriteInfoToLog;
@@ -65,6 +71,7 @@ public abstract class PDOMIndexerTask extends AbstractIndexerTask implements IPD
 		setShowScannerProblems(checkDebugOption(TRACE_SCANNER_PROBLEMS, TRUE));
 		setShowSyntaxProblems(checkDebugOption(TRACE_SYNTAX_PROBLEMS, TRUE));
 		setShowProblems(checkDebugOption(TRACE_PROBLEMS, TRUE));
+		setParserThreads(Integer.getInteger(PARSER_THREADS_PROPERTY, 1).intValue());
 		final long limit = getIntProperty(IndexerPreferences.KEY_SKIP_FILES_LARGER_THAN_MB, 0);
 		setFileSizeLimit(limit * 1024 * 1024);
 		if (checkProperty(IndexerPreferences.KEY_SKIP_ALL_REFERENCES)) {
@@ -124,7 +131,12 @@ public abstract class PDOMIndexerTask extends AbstractIndexerTask implements IPD
 	
 	public final void run(IProgressMonitor monitor) throws InterruptedException {
 		long start = System.currentTimeMillis();
+		final FileContentCache.Statistics cacheStart= FileContentCache.getInstance().getStatistics();
 		runTask(monitor);
+		final FileContentCache.Statistics cacheEnd= FileContentCache.getInstance().getStatistics();
+		fStatistics.fFileContentCacheHits= (int) (cacheEnd.getHits() - cacheStart.getHits());
+		fStatistics.fFileContentCacheMisses= (int) (cacheEnd.getMisses() - cacheStart.getMisses());
+		fStatistics.fFileContentCacheEvictions= (int) (cacheEnd.getEvictions() - cacheStart.getEvictions());
 		traceEnd(start, fIndex, monitor.isCanceled());
 	}
 	
@@ -314,6 +326,15 @@ public abstract class PDOMIndexerTask extends AbstractIndexerTask implements IPD
 					+ hits + " hits, "      //$NON-NLS-1$
 					+ misses + "(" + nfPercent.format(missPct) + ") misses.");      //$NON-NLS-1$ //$NON-NLS-2$
 
+			final FileContentCache.Statistics contentCache= FileContentCache.getInstance().getStatistics();
+			final long contentTries= fStatistics.fFileContentCacheHits + fStatistics.fFileContentCacheMisses;
+			final double contentHitPct= contentTries == 0 ? 0.0 : (double) fStatistics.fFileContentCacheHits / (double) contentTries;
+			System.out.println(ident + " File contents["    //$NON-NLS-1$
+					+ contentCache.getBytes() / 1024 + "KB of " + contentCache.getSpaceLimit() / 1024 / 1024 + "MB]: "    //$NON-NLS-1$ //$NON-NLS-2$
+					+ fStatistics.fFileContentCacheHits + "(" + nfPercent.format(contentHitPct) + ") hits, "    //$NON-NLS-1$ //$NON-NLS-2$
+					+ fStatistics.fFileContentCacheMisses + " misses, "    //$NON-NLS-1$
+					+ fStatistics.fFileContentCacheEvictions + " evictions.");    //$NON-NLS-1$
+
 			if ("true".equals(System.getProperty("SHOW_COMPRESSED_INDEXER_INFO"))) {    //$NON-NLS-1$ //$NON-NLS-2$
 				Calendar cal = Calendar.getInstance();
 				NumberFormat twoDigits= NumberFormat.getNumberInstance();
@@ -92,14 +92,30 @@ public class ProjectIndexerInputAdapter extends IndexerInputAdapter {
 		if (fIflCache == null) {
 			return doResolveASTPath(astPath);
 		}
-		IIndexFileLocation result= fIflCache.get(astPath);
+		IIndexFileLocation result= getCachedIFL(astPath);
 		if (result == null) {
 			result = doResolveASTPath(astPath);
-			fIflCache.put(astPath, result);
+			cacheIFL(astPath, result);
 		}
 		return result;
 	}
 
+	/*
+	 * The cache is shared by the parser threads of the indexer task, the locations are computed
+	 * without holding the lock. 
+	 */
+	private IIndexFileLocation getCachedIFL(String path) {
+		synchronized (fIflCache) {
+			return fIflCache.get(path);
+		}
+	}
+
+	private void cacheIFL(String path, IIndexFileLocation ifl) {
+		synchronized (fIflCache) {
+			fIflCache.put(path, ifl);
+		}
+	}
+
 	private IIndexFileLocation doResolveASTPath(String astPath) {
 		return IndexLocationFactory.getIFLExpensive(fCProject, astPath);
 	}
@@ -112,7 +128,7 @@ public class ProjectIndexerInputAdapter extends IndexerInputAdapter {
 		if (!fExistsCache.isFile(includePath)) {
 			return null;
 		}
-		IIndexFileLocation result= fIflCache.get(includePath);
+		IIndexFileLocation result= getCachedIFL(includePath);
 		if (result == null) {
 			result = doResolveASTPath(includePath);
 			if (result.getFullPath() == null && !UNCPathConverter.isUNC(includePath)) {
@@ -120,10 +136,10 @@ public class ProjectIndexerInputAdapter extends IndexerInputAdapter {
 				String canonicalPath= PathCanonicalizationStrategy.getCanonicalPath(location);
 				if (!includePath.equals(canonicalPath)) {
 					result= IndexLocationFactory.getExternalIFL(canonicalPath);
-					fIflCache.put(canonicalPath, result);
+					cacheIFL(canonicalPath, result);
 				}
 			}
-			fIflCache.put(includePath, result);
+			cacheIFL(includePath, result);
 		}
 		return result;
 	}
@@ -290,7 +306,7 @@ public class ProjectIndexerInputAdapter extends IndexerInputAdapter {
 		final FileContent reader= FileContent.create(tu);
 		if (reader != null) {
 			IIndexFileLocation ifl= IndexLocationFactory.getIFL(tu);
-			fIflCache.put(reader.getFileLocation(), ifl);
+			cacheIFL(reader.getFileLocation(), ifl);
 		}
 		return reader;
 	}
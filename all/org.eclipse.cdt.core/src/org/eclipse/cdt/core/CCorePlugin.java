@@ -52,6 +52,7 @@ import org.eclipse.cdt.internal.core.cdtvariables.UserVarSupplier;
 import org.eclipse.cdt.internal.core.envvar.EnvironmentVariableManager;
 import org.eclipse.cdt.internal.core.model.CModelManager;
 import org.eclipse.cdt.internal.core.model.Util;
+import org.eclipse.cdt.internal.core.parser.scanner.PreprocessedHeaderCache;
 import org.eclipse.cdt.internal.core.pdom.PDOMManager;
 import org.eclipse.cdt.internal.core.resources.ResourceLookup;
 import org.eclipse.cdt.internal.core.settings.model.CProjectDescriptionManager;
@@ -322,6 +323,7 @@ public class CCorePlugin extends Plugin {
 
             fNewCProjectDescriptionManager.shutdown();
             ResourceLookup.shutdown();
+            PreprocessedHeaderCache.shutdown();
             
             savePluginPreferences();
 		} finally {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2005, 2010 IBM Corporation and others.
+ *  Copyright (c) 2005, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -17,11 +17,20 @@ package org.eclipse.cdt.core;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.cdt.core.errorparsers.ErrorParserNamedWrapper;
 import org.eclipse.cdt.core.resources.ACBuilder;
@@ -65,6 +74,18 @@ public class ErrorParserManager extends OutputStream {
 	 */
 	public final static char ERROR_PARSER_DELIMITER = ';';
 
+	/**
+	 * System property to parse the build output on the thread writing it rather than on a
+	 * separate thread.
+	 * @since 5.3
+	 */
+	public final static String SYNCHRONOUS_PARSING_PROPERTY = CCorePlugin.PLUGIN_ID + ".errorparsers.synchronous"; //$NON-NLS-1$
+	private static final boolean SYNCHRONOUS_PARSING = Boolean.getBoolean(SYNCHRONOUS_PARSING_PROPERTY);
+	private static final int PENDING_LINES_CAPACITY = 4096;
+	private static final long PARSER_THREAD_IDLE_TIMEOUT = 1000;
+	// Marks the end of output for the parser thread, compared by identity.
+	private static final String END_OF_OUTPUT = new String();
+
 	private int nOpens;
 	private int lineCounter=0;
 
@@ -79,11 +100,23 @@ public class ErrorParserManager extends OutputStream {
 
 	private String previousLine;
 	private OutputStream outputStream;
-	private final StringBuilder currentLine = new StringBuilder();
+
+	// Decodes the bytes of the output, the incomplete line is kept in the char buffer.
+	private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private CharBuffer currentLine = CharBuffer.allocate(1024);
+	private int currentLineScanned = 0;
+	private ByteBuffer pendingBytes = ByteBuffer.allocate(16);
+
+	// Complete lines are handed over to the parser thread.
+	private final BlockingQueue<String> pendingLines = new ArrayBlockingQueue<String>(PENDING_LINES_CAPACITY);
+	private final Object parserThreadLock = new Object();
+	private Thread parserThread;
 
 	private final StringBuilder scratchBuffer = new StringBuilder();
 
-	private boolean hasErrors = false;
+	private volatile boolean hasErrors = false;
 
 	private String cachedFileName = null;
 	private URI cachedWorkingDirectory = null;
@@ -348,10 +381,12 @@ outer:
 					String message = "Errorparser " + id + " failed parsing line [" + lineToParse + "]";
 					CCorePlugin.log(message, e);
 				} finally {
-					if (fErrors.size() > 0) {
-						if (marker==null)
-							marker = fErrors.get(0);
-						fErrors.clear();
+					synchronized (fErrors) {
+						if (fErrors.size() > 0) {
+							if (marker==null)
+								marker = fErrors.get(0);
+							fErrors.clear();
+						}
 					}
 				}
 
@@ -564,7 +599,9 @@ outer:
 	 */
 	public void generateExternalMarker(IResource file, int lineNumber, String desc, int severity, String varName, IPath externalPath) {
 		ProblemMarkerInfo problemMarkerInfo = new ProblemMarkerInfo(file, lineNumber, desc, severity, varName, externalPath);
-		fErrors.add(problemMarkerInfo);
+		synchronized (fErrors) {
+			fErrors.add(problemMarkerInfo);
+		}
 		fMarkerGenerator.addMarker(problemMarkerInfo);
 		if (severity == IMarkerGenerator.SEVERITY_ERROR_RESOURCE)
 			hasErrors = true;
@@ -606,10 +643,16 @@ outer:
 	 */
 	@Override
 	public synchronized void close() throws IOException {
-		if (nOpens > 0 && --nOpens == 0) {
+		// Streams like the StreamMonitor of the builders write to this manager and close it
+		// without having called getOutputStream(). Their output has to be parsed, too.
+		if (nOpens > 0)
+			nOpens--;
+		final boolean lastClose = nOpens == 0;
+		if (lastClose)
 			checkLine(true);
+		waitForParserThread();
+		if (lastClose)
 			fDirectoryStack.removeAllElements();
-		}
 	}
 
 	/**
@@ -626,47 +669,210 @@ outer:
 	 */
 	@Override
 	public synchronized void write(int b) throws IOException {
-		currentLine.append((char) b);
-		checkLine(false);
+		write(new byte[] {(byte) b}, 0, 1);
 	}
 
 	@Override
 	public synchronized void write(byte[] b, int off, int len) throws IOException {
 		if (b == null) {
 			throw new NullPointerException();
-		} else if (off != 0 || (len < 0) || (len > b.length)) {
+		} else if (off < 0 || len < 0 || off + len > b.length) {
 			throw new IndexOutOfBoundsException();
 		} else if (len == 0) {
 			return;
 		}
-		currentLine.append(new String(b, 0, len));
+		ByteBuffer in;
+		if (pendingBytes.position() > 0) {
+			// complete the character that was split between the previous and this write
+			pendingBytes.flip();
+			in = ByteBuffer.allocate(pendingBytes.remaining() + len);
+			in.put(pendingBytes).put(b, off, len).flip();
+			pendingBytes.clear();
+		} else {
+			in = ByteBuffer.wrap(b, off, len);
+		}
+		decode(in, false);
 		checkLine(false);
 	}
 
+	/**
+	 * Decodes the bytes into the buffer for the current line. Bytes of an incomplete character
+	 * are kept for the next write.
+	 */
+	private void decode(ByteBuffer in, boolean endOfInput) {
+		while (true) {
+			CoderResult result = decoder.decode(in, currentLine, endOfInput);
+			if (!result.isOverflow())
+				break;
+			checkLine(false);
+			growCurrentLine();
+		}
+		if (in.hasRemaining()) {
+			if (pendingBytes.remaining() < in.remaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(pendingBytes.position() + in.remaining());
+				pendingBytes.flip();
+				larger.put(pendingBytes);
+				pendingBytes = larger;
+			}
+			pendingBytes.put(in);
+		}
+	}
+
+	private void growCurrentLine() {
+		if (currentLine.remaining() < currentLine.capacity() / 4) {
+			CharBuffer larger = CharBuffer.allocate(currentLine.capacity() * 2);
+			currentLine.flip();
+			larger.put(currentLine);
+			currentLine = larger;
+		}
+	}
+
 	// This method examines contents of currentLine buffer
-	// if it contains whole line this line is checked by error
+	// if it contains whole lines they are checked by error
 	// parsers (processLine method).
 	// If flush is true rest of line is checked by error parsers.
 	private void checkLine(boolean flush) {
-		String buffer = currentLine.toString();
-		int i = 0;
-		while ((i = buffer.indexOf('\n')) != -1) {
-			String line = buffer.substring(0, i);
-			// get rid of any trailing '\r'
-			if (line.endsWith("\r"))  //$NON-NLS-1$
-				line=line.substring(0,line.length()-1);
-			processLine(line);
-			previousLine = line;
-			buffer = buffer.substring(i + 1); // skip the \n and advance
-		}
-		currentLine.setLength(0);
 		if (flush) {
-			if (buffer.length() > 0) {
-				processLine(buffer);
-				previousLine = buffer;
+			// malformed input at the end is replaced, such that no bytes are left over
+			pendingBytes.flip();
+			decode(pendingBytes, true);
+			pendingBytes.clear();
+			while (decoder.flush(currentLine).isOverflow()) {
+				growCurrentLine();
 			}
-		} else {
-			currentLine.append(buffer);
+			decoder.reset();
+		}
+
+		final char[] chars = currentLine.array();
+		final int end = currentLine.position();
+		int lineStart = 0;
+		for (int i = currentLineScanned; i < end; i++) {
+			if (chars[i] == '\n') {
+				int lineEnd = i;
+				// get rid of any trailing '\r'
+				if (lineEnd > lineStart && chars[lineEnd - 1] == '\r')
+					lineEnd--;
+				submitLine(new String(chars, lineStart, lineEnd - lineStart));
+				lineStart = i + 1;
+			}
+		}
+		if (flush && lineStart < end) {
+			submitLine(new String(chars, lineStart, end - lineStart));
+			lineStart = end;
+		}
+
+		// keep the incomplete line at the beginning of the buffer
+		if (lineStart > 0) {
+			currentLine.position(lineStart);
+			currentLine.limit(end);
+			currentLine.compact();
+		}
+		currentLineScanned = currentLine.position();
+	}
+
+	/**
+	 * Passes a complete line to the error parsers. Unless parsing is synchronous the
+	 * line is processed on a separate thread, such that the process writing the output
+	 * is not slowed down by the error parsers.
+	 */
+	private void submitLine(String line) {
+		if (SYNCHRONOUS_PARSING) {
+			parseLine(line);
+			return;
+		}
+		// Never block on the queue while holding the lock, the parser thread needs the lock
+		// to terminate. A line queued after an idle thread has terminated is picked up by the
+		// thread started below.
+		final boolean interrupted = putLine(line);
+		synchronized (parserThreadLock) {
+			if (parserThread == null) {
+				parserThread = new Thread("Build Output Parser") { //$NON-NLS-1$
+					@Override
+					public void run() {
+						runParserThread();
+					}
+				};
+				parserThread.setDaemon(true);
+				parserThread.start();
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues the line for the parser thread, returns whether the thread was interrupted
+	 * while waiting for space in the queue.
+	 */
+	private boolean putLine(String line) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				pendingLines.put(line);
+				return interrupted;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+	}
+
+	private void parseLine(String line) {
+		processLine(line);
+		previousLine = line;
+	}
+
+	private void runParserThread() {
+		while (true) {
+			String line;
+			try {
+				line = pendingLines.poll(PARSER_THREAD_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				line = null;
+			}
+			if (line == END_OF_OUTPUT) {
+				return;
+			}
+			if (line == null) {
+				// Terminate an idle thread, a new one is started for further output. A thread
+				// that is waited for keeps running until it receives the end of the output.
+				synchronized (parserThreadLock) {
+					if (parserThread == Thread.currentThread() && pendingLines.isEmpty()) {
+						parserThread = null;
+						return;
+					}
+				}
+				continue;
+			}
+			try {
+				parseLine(line);
+			} catch (RuntimeException e) {
+				CCorePlugin.log(e);
+			}
+		}
+	}
+
+	/**
+	 * Waits until the parser thread has processed all lines submitted so far.
+	 */
+	private void waitForParserThread() {
+		Thread thread;
+		synchronized (parserThreadLock) {
+			thread = parserThread;
+			if (thread == null)
+				return;
+			parserThread = null;
+		}
+		boolean interrupted = putLine(END_OF_OUTPUT);
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
 		}
 	}
 
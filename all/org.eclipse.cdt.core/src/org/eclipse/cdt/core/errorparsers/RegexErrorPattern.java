@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Andrew Gvozdev (Quoin Inc.) and others.
+ * Copyright (c) 2009, 2011 Andrew Gvozdev (Quoin Inc.) and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -59,6 +59,7 @@ public class RegexErrorPattern implements Cloneable {
 	private static final String EMPTY_STR=""; //$NON-NLS-1$
 
 	private Pattern pattern;
+	private String requiredLiteral;
 	private String fileExpression;
 	private String lineExpression;
 	private String descriptionExpression;
@@ -94,6 +95,7 @@ public class RegexErrorPattern implements Cloneable {
 				int severity,
 				boolean eat) {
 		this.pattern = Pattern.compile(pattern!=null ? pattern : EMPTY_STR);
+		this.requiredLiteral = computeRequiredLiteral(this.pattern.pattern());
 		this.fileExpression = fileExpression!=null ? fileExpression : EMPTY_STR;
 		this.lineExpression = lineExpression!=null ? lineExpression : EMPTY_STR;
 		this.descriptionExpression = descriptionExpression!=null ? descriptionExpression : EMPTY_STR;
@@ -160,6 +162,152 @@ public class RegexErrorPattern implements Cloneable {
 	 */
 	public void setPattern(String pattern) {
 		this.pattern = Pattern.compile(pattern);
+		this.requiredLiteral = computeRequiredLiteral(pattern);
+	}
+
+	/**
+	 * Computes a string that is contained in every input matching the regular expression,
+	 * or returns {@code null} if no such string can be determined. The computation is
+	 * conservative, only literal characters outside of groups and character classes are
+	 * considered.
+	 *
+	 * @param regex - regular expression.
+	 * @return the longest sequence of literal characters required by the expression or {@code null}.
+	 */
+	static String computeRequiredLiteral(String regex) {
+		String best = null;
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		boolean lastWasLiteral = false;
+		final int len = regex.length();
+		for (int i = 0; i < len; i++) {
+			char c = regex.charAt(i);
+			boolean literal = false;
+			switch (c) {
+			case '\\':
+				if (++i >= len)
+					return null;
+				c = regex.charAt(i);
+				if (c == 'Q')
+					return null;
+				// escaped letters and digits denote classes, boundaries or back references
+				literal = !Character.isLetterOrDigit(c);
+				if (!literal) {
+					i = skipEscapeOperand(regex, i);
+					if (i >= len)
+						return null;
+				}
+				break;
+			case '[':
+				// skip the character class, it may be nested and contain escapes
+				int nesting = 0;
+				for (; i < len; i++) {
+					char d = regex.charAt(i);
+					if (d == '\\') {
+						i++;
+					} else if (d == '[') {
+						nesting++;
+					} else if (d == ']' && --nesting == 0) {
+						break;
+					}
+				}
+				break;
+			case '(':
+				if (i + 1 < len && regex.charAt(i + 1) == '?' && i + 2 < len
+						&& "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) { //$NON-NLS-1$
+					// embedded flags change the meaning of literals
+					return null;
+				}
+				depth++;
+				break;
+			case ')':
+				depth--;
+				break;
+			case '|':
+				if (depth == 0)
+					return null;
+				break;
+			case '*':
+			case '?':
+			case '{':
+				// the preceding character is optional or repeated
+				if (lastWasLiteral && depth == 0) {
+					run.setLength(run.length() - 1);
+				}
+				if (c == '{') {
+					while (i < len && regex.charAt(i) != '}')
+						i++;
+				}
+				break;
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				break;
+			default:
+				literal = true;
+				break;
+			}
+			if (depth != 0) {
+				literal = false;
+			}
+			if (literal) {
+				run.append(c);
+			} else {
+				best = longer(best, run);
+				run.setLength(0);
+			}
+			lastWasLiteral = literal;
+		}
+		return longer(best, run);
+	}
+
+	/**
+	 * Skips the operand of an escape sequence, e.g. the digits of a hexadecimal escape.
+	 *
+	 * @param regex - regular expression.
+	 * @param i - offset of the character following the backslash.
+	 * @return offset of the last character of the escape sequence.
+	 */
+	private static int skipEscapeOperand(String regex, int i) {
+		final int len = regex.length();
+		switch (regex.charAt(i)) {
+		case 'x':
+			if (i + 1 < len && regex.charAt(i + 1) == '{')
+				return regex.indexOf('}', i) < 0 ? len : regex.indexOf('}', i);
+			return i + 2;
+		case 'u':
+			return i + 4;
+		case '0':
+			// up to three octal digits, the first one of three must not exceed 3
+			int digits = 0;
+			while (digits < 3 && i + digits + 1 < len) {
+				char d = regex.charAt(i + digits + 1);
+				if (d < '0' || d > '7' || (digits == 2 && regex.charAt(i + 1) > '3'))
+					break;
+				digits++;
+			}
+			return i + digits;
+		case 'c':
+			return i + 1;
+		case 'p':
+		case 'P':
+			if (i + 1 < len && regex.charAt(i + 1) == '{')
+				return regex.indexOf('}', i) < 0 ? len : regex.indexOf('}', i);
+			return i + 1;
+		case 'k':
+			if (i + 1 < len && regex.charAt(i + 1) == '<')
+				return regex.indexOf('>', i) < 0 ? len : regex.indexOf('>', i);
+			return i;
+		default:
+			return i;
+		}
+	}
+
+	private static String longer(String best, StringBuilder run) {
+		if (run.length() > 0 && (best == null || run.length() > best.length()))
+			return run.toString();
+		return best;
 	}
 
 	/**
@@ -276,6 +424,10 @@ public class RegexErrorPattern implements Cloneable {
 	 * @return {@code true} if error/warning/info problem was found.
 	 */
 	public boolean processLine(String line, ErrorParserManager eoParser) {
+		// Most lines of the build output do not match, avoid running the matcher on them.
+		if (requiredLiteral != null && line.indexOf(requiredLiteral) < 0)
+			return false;
+
 		Matcher matcher = getMatcher(line);
 		// pattern should cover the whole line
 		if (!(matcher.find() && matcher.group(0).length()==line.length()))
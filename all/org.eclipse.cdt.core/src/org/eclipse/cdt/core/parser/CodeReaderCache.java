@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2010 IBM Corporation and others.
+ * Copyright (c) 2005, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,7 @@ import java.io.IOException;
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.index.IIndexFileLocation;
 import org.eclipse.cdt.internal.core.parser.CodeReaderLRUCache;
+import org.eclipse.cdt.internal.core.parser.FileContentCache;
 import org.eclipse.cdt.internal.core.parser.InternalParserUtil;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
@@ -210,11 +211,13 @@ public class CodeReaderCache implements ICodeReaderCache {
 	}
 	
 	/**
-	 * Sets the max cache size of this cache in terms of MB.
+	 * Sets the max cache size of this cache in terms of MB. The size is also applied to
+	 * the cache used for the file contents of the parser.
 	 * @param size
 	 */
 	public void setCacheSize(int size) {
 		cache.setSpaceLimit(size * MB_TO_KB_FACTOR);
+		FileContentCache.getInstance().setSpaceLimit(size * 1024L * 1024L);
 	}
 	
 	
@@ -27,9 +27,11 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
 import org.eclipse.cdt.make.core.MakeCorePlugin;
+import org.eclipse.cdt.make.core.makefile.IDirective;
 import org.eclipse.cdt.make.core.makefile.IMacroDefinition;
 import org.eclipse.cdt.make.core.makefile.IMakefile;
 import org.eclipse.cdt.make.core.makefile.IMakefileReaderProvider;
+import org.eclipse.cdt.make.core.makefile.IParent;
 import org.eclipse.cdt.make.core.makefile.IRule;
 import org.eclipse.core.filesystem.URIUtil;
 import org.eclipse.core.runtime.FileLocator;
@@ -133,6 +135,44 @@ public class MakefileReaderProviderTests extends TestCase {
 		assertMakefileContents(makefile);
 	}
 	
+	public void testIncludedMakefileIsReparsedOnChange() throws Exception {
+		final String[] inclContent = { "INCLVAR = bar\n" };
+		IMakefileReaderProvider provider = new IMakefileReaderProvider() {
+			public Reader getReader(URI fileURI) throws IOException {
+				String name = new File(fileURI).getName();
+				if (name.equals("Makefile.main"))
+					return new StringReader("include Makefile.incl\n");
+				if (name.equals("Makefile.incl"))
+					return new StringReader(inclContent[0]);
+				throw new FileNotFoundException(fileURI.getPath());
+			}
+		};
+		IMakefile makefile = MakeCorePlugin.createMakefile(
+				URIUtil.toURI("/memory/Makefile.main"), true, inclDirs, provider);
+		IDirective[] directives = makefile.getDirectives(true);
+		assertEquals(2, directives.length);
+		assertEquals("bar", makefile.getMacroDefinitions("INCLVAR")[0].getValue().toString());
+
+		// unchanged include is not parsed again
+		IDirective[] directives2 = makefile.getDirectives(true);
+		assertSame(directives[1], directives2[1]);
+
+		// another makefile shares the parse tree, but does not take it over
+		IMakefile makefile2 = MakeCorePlugin.createMakefile(
+				URIUtil.toURI("/memory/Makefile.main"), true, inclDirs, provider);
+		assertSame(directives[1], makefile2.getDirectives(true)[1]);
+		IDirective included = ((IParent) directives[0]).getDirectives()[0];
+		assertSame(included, directives[1].getParent());
+		assertNull(included.getParent());
+
+		// the same makefile picks up the change of the included file
+		inclContent[0] = "INCLVAR = baz\n";
+		directives2 = makefile.getDirectives(true);
+		assertNotSame(directives[1], directives2[1]);
+		assertEquals("baz", makefile.getMacroDefinitions("INCLVAR")[0].getValue().toString());
+		assertEquals("baz", makefile.expandString("$(INCLVAR)"));
+	}
+
 	public void testReaderIsClosed_Bug338936() throws Exception {
 		final boolean[] streamIsClosed = { false };
 		MakeCorePlugin.createMakefile(
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.make.scannerdiscovery;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.testplugin.CProjectHelper;
+import org.eclipse.cdt.core.testplugin.util.BaseTestCase;
+import org.eclipse.cdt.make.core.MakeCorePlugin;
+import org.eclipse.cdt.make.core.scannerconfig.ScannerInfoTypes;
+import org.eclipse.cdt.make.internal.core.scannerconfig.DiscoveredScannerInfoStore;
+import org.eclipse.cdt.make.internal.core.scannerconfig.util.CCommandDSC;
+import org.eclipse.cdt.make.internal.core.scannerconfig.util.KVStringPair;
+import org.eclipse.cdt.make.internal.core.scannerconfig.util.SCDOptionsEnum;
+import org.eclipse.cdt.make.internal.core.scannerconfig2.PerFileSICollector;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+
+/**
+ * Tests for the binary store of per file discovered scanner info.
+ */
+public class DiscoveredScannerInfoStoreTests extends BaseTestCase {
+	private static class Collector extends PerFileSICollector {
+		void apply() {
+			synchronized (fLock) {
+				applyFileDeltas();
+				removeUnusedCommands();
+				siChangedForFileMap.clear();
+			}
+		}
+
+		void save() throws Exception {
+			DiscoveredScannerInfoStore.getInstance().saveDiscoveredScannerInfoToState(project, sid);
+		}
+
+		CCommandDSC getCommand(IFile file) {
+			synchronized (fLock) {
+				Integer cmdId= sid.fileToCommandIdMap.get(file);
+				return cmdId == null ? null : sid.commandIdCommandMap.get(cmdId);
+			}
+		}
+	}
+
+	public static TestSuite suite() {
+		return suite(DiscoveredScannerInfoStoreTests.class);
+	}
+
+	private ICProject fCProject;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fCProject= CProjectHelper.createCCProject("scstoretest", null);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (fCProject != null) {
+			CProjectHelper.delete(fCProject);
+		}
+		super.tearDown();
+	}
+
+	private CCommandDSC createCommand(IProject project, String define) {
+		CCommandDSC cmd= new CCommandDSC(false, project);
+		cmd.addSCOption(new KVStringPair(SCDOptionsEnum.COMMAND.toString(), "gcc"));
+		cmd.addSCOption(new KVStringPair(SCDOptionsEnum.DEFINE.toString(), define));
+		return cmd;
+	}
+
+	private void addCommand(Collector collector, IFile file, CCommandDSC cmd) {
+		Map<ScannerInfoTypes, List<CCommandDSC>> info= new HashMap<ScannerInfoTypes, List<CCommandDSC>>();
+		info.put(ScannerInfoTypes.COMPILER_COMMAND, Collections.singletonList(cmd));
+		collector.contributeToScannerConfig(file, info);
+	}
+
+	private Collector load(IProject project) {
+		Collector collector= new Collector();
+		collector.setProject(project);
+		return collector;
+	}
+
+	public void testDeltasAreAppended() throws Exception {
+		IProject project= fCProject.getProject();
+		IFile a= project.getFile("a.c");
+		IFile b= project.getFile("sub/b.c");
+		IFile c= project.getFile("sub/c.c");
+		File storeFile= MakeCorePlugin.getWorkingDirectory().append(project.getName() + ".scb").toFile();
+
+		Collector collector= load(project);
+		addCommand(collector, a, createCommand(project, "A"));
+		addCommand(collector, b, createCommand(project, "A"));
+		addCommand(collector, c, createCommand(project, "C"));
+		collector.apply();
+		collector.save();
+		assertTrue(storeFile.exists());
+
+		collector= load(project);
+		assertSame(collector.getCommand(a), collector.getCommand(b));
+		assertEquals("A", collector.getCommand(a).getSymbols().get(0));
+		assertEquals("C", collector.getCommand(c).getSymbols().get(0));
+		assertEquals(2, collector.getCollectedScannerInfo(project, ScannerInfoTypes.COMPILER_COMMAND).size());
+
+		final long length= storeFile.length();
+		addCommand(collector, b, createCommand(project, "B"));
+		collector.apply();
+		collector.save();
+		assertTrue(storeFile.length() > length);
+
+		collector= load(project);
+		assertEquals("A", collector.getCommand(a).getSymbols().get(0));
+		assertEquals("B", collector.getCommand(b).getSymbols().get(0));
+		assertEquals("C", collector.getCommand(c).getSymbols().get(0));
+		assertEquals(3, collector.getCollectedScannerInfo(project, ScannerInfoTypes.COMPILER_COMMAND).size());
+	}
+}
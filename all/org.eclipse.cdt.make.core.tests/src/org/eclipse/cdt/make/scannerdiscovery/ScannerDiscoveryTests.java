@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 Andrew Gvozdev and others.
+ * Copyright (c) 2007, 2011 Andrew Gvozdev and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,5 +25,6 @@ public class ScannerDiscoveryTests extends TestSuite {
         addTest(GCCScannerInfoConsoleParserTests.suite());
         addTest(GCCPerFileBOPConsoleParserTests.suite());
         addTestSuite(ScannerConfigProfileTests.class);
+        addTest(DiscoveredScannerInfoStoreTests.suite());
     }
 }
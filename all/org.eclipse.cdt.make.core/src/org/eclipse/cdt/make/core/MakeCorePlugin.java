@@ -87,6 +87,17 @@ public class MakeCorePlugin extends Plugin {
 				throw new IOException(e.getMessage());
 			}
 		}
+
+		@Override
+		public int hashCode() {
+			return fEncoding.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			// providers with the same encoding read the same content
+			return obj instanceof FileStoreReaderProvider && fEncoding.equals(((FileStoreReaderProvider) obj).fEncoding);
+		}
 	}
 	
 	public static final String PLUGIN_ID = "org.eclipse.cdt.make.core"; //$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 QNX Software Systems and others.
+ * Copyright (c) 2000, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,7 +12,9 @@ package org.eclipse.cdt.make.internal.core.makefile;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.cdt.make.core.makefile.IDirective;
 import org.eclipse.cdt.make.core.makefile.IInferenceRule;
@@ -39,12 +41,46 @@ import org.eclipse.cdt.make.core.makefile.ITargetRule;
 
 public abstract class AbstractMakefile extends Parent implements IMakefile {
 
+	private static final IMacroDefinition[] NO_MACROS = new IMacroDefinition[0];
+
 	private URI filename;
+	/**
+	 * Macro definitions by name including the ones of included makefiles, computed on demand
+	 * and discarded when the directives of this makefile change or its includes are resolved
+	 * to different makefiles.
+	 */
+	private Map<String, IMacroDefinition[]> macroIndex;
 
 	public AbstractMakefile(Directive parent) {
 		super(parent);
 	}
 
+	@Override
+	public void addDirective(Directive directive) {
+		macroIndex = null;
+		super.addDirective(directive);
+	}
+
+	@Override
+	public void addDirectives(Directive[] directives) {
+		macroIndex = null;
+		super.addDirectives(directives);
+	}
+
+	@Override
+	public void clearDirectives() {
+		macroIndex = null;
+		super.clearDirectives();
+	}
+
+	/**
+	 * Called when an include directive of this makefile is resolved to different makefiles,
+	 * discards the macro definitions computed for the previous ones.
+	 */
+	public void includedMakefilesChanged() {
+		macroIndex = null;
+	}
+
 	public abstract IDirective[] getBuiltins();
 
 	public IRule[] getRules() {
@@ -125,14 +161,31 @@ public abstract class AbstractMakefile extends Parent implements IMakefile {
 	}
 
 	public IMacroDefinition[] getMacroDefinitions(String name) {
-		IMacroDefinition[] variables = getMacroDefinitions();
-		List<IMacroDefinition> array = new ArrayList<IMacroDefinition>(variables.length);
+		Map<String, IMacroDefinition[]> index = macroIndex;
+		if (index == null) {
+			index = createMacroIndex(getMacroDefinitions());
+			macroIndex = index;
+		}
+		IMacroDefinition[] result = index.get(name);
+		return result == null ? NO_MACROS : result.clone();
+	}
+
+	private static Map<String, IMacroDefinition[]> createMacroIndex(IMacroDefinition[] variables) {
+		Map<String, List<IMacroDefinition>> lists = new HashMap<String, List<IMacroDefinition>>();
 		for (int i = 0; i < variables.length; i++) {
-			if (variables[i].getName().equals(name)) {
-				array.add(variables[i]);
+			List<IMacroDefinition> list = lists.get(variables[i].getName());
+			if (list == null) {
+				list = new ArrayList<IMacroDefinition>(1);
+				lists.put(variables[i].getName(), list);
 			}
+			list.add(variables[i]);
 		}
-		return array.toArray(new IMacroDefinition[0]);
+		Map<String, IMacroDefinition[]> index = new HashMap<String, IMacroDefinition[]>(lists.size());
+		for (Map.Entry<String, List<IMacroDefinition>> entry : lists.entrySet()) {
+			List<IMacroDefinition> list = entry.getValue();
+			index.put(entry.getKey(), list.toArray(new IMacroDefinition[list.size()]));
+		}
+		return index;
 	}
 
 	public IMacroDefinition[] getBuiltinMacroDefinitions() {
@@ -82,6 +82,11 @@ public class GNUMakefile extends AbstractMakefile implements IGNUMakefile {
 	public GNUMakefile() {
 		super(null);
 	}
+
+	GNUMakefile(IMakefileReaderProvider makefileReaderProvider) {
+		super(null);
+		this.makefileReaderProvider = makefileReaderProvider;
+	}
 	
 	/* (non-Javadoc)
 	 * @see org.eclipse.cdt.make.core.makefile.IMakefile#getMakefileReaderProvider()
@@ -100,24 +105,28 @@ public class GNUMakefile extends AbstractMakefile implements IGNUMakefile {
 	public void parse(URI fileURI,
 			IMakefileReaderProvider makefileReaderProvider) throws IOException {
 		this.makefileReaderProvider = makefileReaderProvider;
-		MakefileReader reader;
-		if (makefileReaderProvider == null) {
-			try {
-				final IFileStore store = EFS.getStore(fileURI);
-				final IFileInfo info = store.fetchInfo();
-				if (!info.exists() || info.isDirectory())
-					throw new IOException();
-				
-				reader = new MakefileReader(new InputStreamReader(
-						store.openInputStream(EFS.NONE, null)));
-			} catch (CoreException e) {
-				MakeCorePlugin.log(e);
-				throw new IOException(e.getMessage());
-			}
-		} else {
-			reader = new MakefileReader(makefileReaderProvider.getReader(fileURI));
+		parse(fileURI, new MakefileReader(openReader(fileURI, makefileReaderProvider)));
+	}
+
+	/**
+	 * Opens a reader for the given file, either via the reader provider or, if there is none,
+	 * via EFS.
+	 */
+	static Reader openReader(URI fileURI, IMakefileReaderProvider makefileReaderProvider) throws IOException {
+		if (makefileReaderProvider != null) {
+			return makefileReaderProvider.getReader(fileURI);
+		}
+		try {
+			final IFileStore store = EFS.getStore(fileURI);
+			final IFileInfo info = store.fetchInfo();
+			if (!info.exists() || info.isDirectory())
+				throw new IOException();
+
+			return new InputStreamReader(store.openInputStream(EFS.NONE, null));
+		} catch (CoreException e) {
+			MakeCorePlugin.log(e);
+			throw new IOException(e.getMessage());
 		}
-		parse(fileURI, reader);
 	}
 	
 	public void parse(URI filePath, Reader reader) throws IOException {
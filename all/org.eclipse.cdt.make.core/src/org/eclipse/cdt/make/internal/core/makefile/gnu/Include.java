@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2010 QNX Software Systems and others.
+ * Copyright (c) 2000, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,11 +13,15 @@ package org.eclipse.cdt.make.internal.core.makefile.gnu;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.eclipse.cdt.make.core.makefile.IDirective;
 import org.eclipse.cdt.make.core.makefile.IMakefile;
 import org.eclipse.cdt.make.core.makefile.IMakefileReaderProvider;
 import org.eclipse.cdt.make.core.makefile.gnu.IInclude;
+import org.eclipse.cdt.make.internal.core.makefile.AbstractMakefile;
 import org.eclipse.cdt.make.internal.core.makefile.Directive;
 import org.eclipse.cdt.make.internal.core.makefile.Parent;
 import org.eclipse.core.filesystem.URIUtil;
@@ -28,6 +32,11 @@ public class Include extends Parent implements IInclude {
 
 	String[] filenames;
 	String[] dirs;
+	/**
+	 * The makefiles the include was last resolved to. They may be shared with other include
+	 * directives, therefore they are not added as children of this directive.
+	 */
+	private IDirective[] includedMakefiles;
 
 	public Include(Directive parent, String[] files, String[] directories) {
 		super(parent);
@@ -64,7 +73,7 @@ public class Include extends Parent implements IInclude {
 		
 	@Override
 	public IDirective[] getDirectives() {
-		clearDirectives();
+		List<IDirective> resolved = new ArrayList<IDirective>(filenames.length);
 		URI uri = getMakefile().getFileURI();
 		IMakefileReaderProvider makefileReaderProvider = getCurrentMakefileReaderProvider();
 		for (int i = 0; i < filenames.length; i++) {
@@ -78,9 +87,8 @@ public class Include extends Parent implements IInclude {
 						includeFilePath = includeFilePath.setDevice(device);
 					}
 					try {
-						GNUMakefile gnu = new GNUMakefile();
-						gnu.parse(URIUtil.toURI(includeFilePath), makefileReaderProvider);
-						addDirective(gnu);
+						GNUMakefile gnu = IncludedMakefileCache.getMakefile(URIUtil.toURI(includeFilePath), makefileReaderProvider);
+						resolved.add(gnu);
 						continue;
 					} catch (IOException e) {
 					}
@@ -94,10 +102,9 @@ public class Include extends Parent implements IInclude {
 							// special case: device prefix is seen as relative path by URI
 							uriPath = '/' + uriPath;
 						}
-						GNUMakefile gnu = new GNUMakefile();
 						URI includeURI = new URI(uri.getScheme(), uri.getUserInfo(), uri.getHost(), uri.getPort(), uriPath, null, null);
-						gnu.parse(includeURI, makefileReaderProvider);
-						addDirective(gnu);
+						GNUMakefile gnu = IncludedMakefileCache.getMakefile(includeURI, makefileReaderProvider);
+						resolved.add(gnu);
 						break;
 					} catch (IOException e) {
 					} catch (URISyntaxException exc) {
@@ -105,6 +112,18 @@ public class Include extends Parent implements IInclude {
 				}
 			}
 		}
-		return super.getDirectives();
+		IDirective[] result = resolved.toArray(new IDirective[resolved.size()]);
+		boolean changed;
+		synchronized (this) {
+			changed = !Arrays.equals(result, includedMakefiles);
+			includedMakefiles = result;
+		}
+		if (changed) {
+			IMakefile makefile = getMakefile();
+			if (makefile instanceof AbstractMakefile) {
+				((AbstractMakefile) makefile).includedMakefilesChanged();
+			}
+		}
+		return result.clone();
 	}
 }
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.make.internal.core.makefile.gnu;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.ref.SoftReference;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.cdt.make.core.makefile.IMakefileReaderProvider;
+
+/**
+ * Caches the parse trees of included makefiles. The include directives are resolved every
+ * time the directives of a makefile are expanded, an included file is parsed again only
+ * when its content has changed.
+ * <p>
+ * The cached makefiles are shared by all include directives referring to the same file
+ * and must not be modified. They are not reparented to the include directives, their
+ * parent stays <code>null</code>.
+ */
+final class IncludedMakefileCache {
+	private static final int MAX_ENTRIES = 64;
+
+	private static final class Entry {
+		final byte[] fHash;
+		final IMakefileReaderProvider fReaderProvider;
+		final SoftReference<GNUMakefile> fMakefile;
+
+		Entry(byte[] hash, IMakefileReaderProvider readerProvider, GNUMakefile makefile) {
+			fHash= hash;
+			fReaderProvider= readerProvider;
+			fMakefile= new SoftReference<GNUMakefile>(makefile);
+		}
+
+		boolean matches(byte[] hash, IMakefileReaderProvider readerProvider) {
+			if (!Arrays.equals(hash, fHash))
+				return false;
+			// nested includes are read with the provider of the makefile
+			return readerProvider == null ? fReaderProvider == null : readerProvider.equals(fReaderProvider);
+		}
+	}
+
+	private static final Map<URI, Entry> fCache= new LinkedHashMap<URI, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<URI, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private IncludedMakefileCache() {
+	}
+
+	/**
+	 * Returns the parsed makefile for the given location. The content of the file is read and
+	 * compared with the content of the cached makefile, the file is parsed only if there is no
+	 * cached makefile for the same content and reader provider. The returned makefile is shared
+	 * and must not be modified.
+	 * @throws IOException if the file cannot be read.
+	 */
+	static GNUMakefile getMakefile(URI uri, IMakefileReaderProvider makefileReaderProvider) throws IOException {
+		final String content= readContent(GNUMakefile.openReader(uri, makefileReaderProvider));
+		final byte[] hash= computeHash(content);
+		synchronized (fCache) {
+			Entry entry= fCache.get(uri);
+			if (entry != null && entry.matches(hash, makefileReaderProvider)) {
+				GNUMakefile makefile= entry.fMakefile.get();
+				if (makefile != null) {
+					return makefile;
+				}
+			}
+		}
+		GNUMakefile makefile= new GNUMakefile(makefileReaderProvider);
+		makefile.parse(uri, new StringReader(content));
+		synchronized (fCache) {
+			fCache.put(uri, new Entry(hash, makefileReaderProvider, makefile));
+		}
+		return makefile;
+	}
+
+	private static String readContent(Reader reader) throws IOException {
+		try {
+			StringBuilder buf= new StringBuilder();
+			char[] chars= new char[4096];
+			int n;
+			while ((n= reader.read(chars)) > 0) {
+				buf.append(chars, 0, n);
+			}
+			return buf.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static byte[] computeHash(String content) throws IOException {
+		try {
+			MessageDigest md= MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			return md.digest(content.getBytes("UTF-8")); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.make.internal.core.scannerconfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.cdt.internal.core.SafeStringInterner;
+
+/**
+ * Reads discovered scanner info written by {@link BinaryScannerInfoOutput}. Strings are
+ * interned, such that the many repetitions of include paths and macros share memory.
+ */
+public final class BinaryScannerInfoInput {
+	private final byte[] fBytes;
+	private int fPos;
+	private final List<String> fStrings= new ArrayList<String>();
+
+	public BinaryScannerInfoInput(byte[] bytes) {
+		fBytes= bytes;
+	}
+
+	private int read() throws IOException {
+		if (fPos >= fBytes.length)
+			throw new EOFException();
+		return fBytes[fPos++] & 0xff;
+	}
+
+	public int readInt() throws IOException {
+		int result= 0;
+		for (int shift= 0; shift < 32; shift+= 7) {
+			final int b= read();
+			result |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+		}
+		throw new IOException("Malformed integer"); //$NON-NLS-1$
+	}
+
+	public boolean readBoolean() throws IOException {
+		return read() != 0;
+	}
+
+	public String readString() throws IOException {
+		final int idx= readInt();
+		if (idx > 0) {
+			if (idx > fStrings.size())
+				throw new IOException("Invalid string reference"); //$NON-NLS-1$
+			return fStrings.get(idx - 1);
+		}
+		final int len= readInt();
+		if (len < 0 || fPos + len > fBytes.length)
+			throw new EOFException();
+		String result= SafeStringInterner.safeIntern(new String(fBytes, fPos, len, "UTF-8")); //$NON-NLS-1$
+		fPos+= len;
+		fStrings.add(result);
+		return result;
+	}
+
+	public List<String> readStringList() throws IOException {
+		final int size= readInt();
+		List<String> result= new ArrayList<String>(Math.min(size, 1024));
+		for (int i = 0; i < size; i++) {
+			result.add(readString());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.make.internal.core.scannerconfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes discovered scanner info in the compact binary format of the
+ * {@link DiscoveredScannerInfoStore}. Integers are written with a variable length, every
+ * string is written once and referenced by its index afterwards.
+ */
+public final class BinaryScannerInfoOutput {
+	private final ByteArrayOutputStream fOut= new ByteArrayOutputStream();
+	private final Map<String, Integer> fStrings= new HashMap<String, Integer>();
+
+	public void writeInt(int value) {
+		while ((value & ~0x7f) != 0) {
+			fOut.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		fOut.write(value);
+	}
+
+	public void writeBoolean(boolean value) {
+		fOut.write(value ? 1 : 0);
+	}
+
+	public void writeString(String value) throws IOException {
+		Integer idx= fStrings.get(value);
+		if (idx != null) {
+			writeInt(idx.intValue() + 1);
+			return;
+		}
+		fStrings.put(value, fStrings.size());
+		byte[] bytes= value.getBytes("UTF-8"); //$NON-NLS-1$
+		writeInt(0);
+		writeInt(bytes.length);
+		fOut.write(bytes);
+	}
+
+	public void writeStringList(List<String> values) throws IOException {
+		writeInt(values.size());
+		for (String value : values) {
+			writeString(value);
+		}
+	}
+
+	/**
+	 * Returns the bytes written so far.
+	 */
+	public byte[] toByteArray() {
+		return fOut.toByteArray();
+	}
+}
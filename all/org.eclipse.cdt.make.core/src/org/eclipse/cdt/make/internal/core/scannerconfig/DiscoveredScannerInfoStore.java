@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2010 IBM Corporation and others.
+ * Copyright (c) 2004, 2011 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,14 +12,22 @@
 package org.eclipse.cdt.make.internal.core.scannerconfig;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -54,6 +62,11 @@ import org.xml.sax.SAXException;
 
 /**
  * Discovered scanner info persistance store
+ * <p>
+ * Info implementing {@link IBinaryScannerInfoSerializable} is kept in a binary file per
+ * project. Changes to such info are appended as deltas, the file is compacted when the
+ * deltas of an info outgrow its full record. All other info is kept in an XML file per
+ * project.
  * 
  * @author vhirsl
  */
@@ -68,6 +81,46 @@ public final class DiscoveredScannerInfoStore {
 	
 	private static final String INSTANCE_ELEM = "instance";  //$NON-NLS-1$
 
+	private static final String BINARY_STORE_EXTENSION = ".scb"; //$NON-NLS-1$
+	private static final int BINARY_STORE_MAGIC = 0x53434231;
+	private static final int BINARY_STORE_VERSION = 1;
+	private static final byte FULL_RECORD = 0;
+	private static final byte DELTA_RECORD = 1;
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * A record in the binary store.
+	 */
+	private static final class Record {
+		final byte fKind;
+		final long fOffset;	// offset of the payload
+		final int fLength;
+
+		Record(byte kind, long offset, int length) {
+			fKind = kind;
+			fOffset = offset;
+			fLength = length;
+		}
+	}
+
+	/**
+	 * Index of the binary store of a project, the payloads of the records are read on demand.
+	 */
+	private static final class BinaryStore {
+		final File fFile;
+		final Map<String, List<Record>> fRecords = new LinkedHashMap<String, List<Record>>();
+		/** The info that was last read from or written to the store, per key */
+		final Map<String, Reference<IBinaryScannerInfoSerializable>> fInSync =
+				new HashMap<String, Reference<IBinaryScannerInfoSerializable>>();
+		/** Keys for which XML data of an earlier version may still exist */
+		final Set<String> fCheckXML = new HashSet<String>();
+		long fLength;
+
+		BinaryStore(File file) {
+			fFile = file;
+		}
+	}
+
 	private static DiscoveredScannerInfoStore instance;
 
 	/**
@@ -75,6 +128,12 @@ public final class DiscoveredScannerInfoStore {
 	 */
 	private final Map<IProject, Reference<Document>> fDocumentCache = new HashMap<IProject, Reference<Document>>();
 
+	/**
+	 * Caches the index of the binary store per project, it is read when the project is first
+	 * accessed.
+	 */
+	private final Map<IProject, BinaryStore> fBinaryStores = new HashMap<IProject, BinaryStore>();
+
 	public static DiscoveredScannerInfoStore getInstance() {
 		if (instance == null) {
 			instance = new DiscoveredScannerInfoStore();
@@ -94,6 +153,10 @@ public final class DiscoveredScannerInfoStore {
 
 	public void loadDiscoveredScannerInfoFromState(IProject project, InfoContext context, IDiscoveredScannerInfoSerializable serializable)
 			throws CoreException {
+		if (serializable instanceof IBinaryScannerInfoSerializable) {
+			if (loadFromBinaryStore(project, context, (IBinaryScannerInfoSerializable) serializable))
+				return;
+		}
 		// Get the document
 		Element rootElem = getRootElement(project, context, serializable);
 	        	
@@ -116,6 +179,13 @@ public final class DiscoveredScannerInfoStore {
 	
 	public boolean hasInfo(IProject project, InfoContext context, IDiscoveredScannerInfoSerializable serializable){
 		try {
+			if (serializable instanceof IBinaryScannerInfoSerializable) {
+				BinaryStore store = getBinaryStore(project);
+				synchronized (store) {
+					if (store.fRecords.containsKey(getBinaryKey(context, serializable)))
+						return true;
+				}
+			}
 			if(getRootElement(project, context, serializable) != null)
 				return true;
 		} catch (CoreException e) {
@@ -281,11 +351,17 @@ public final class DiscoveredScannerInfoStore {
 	}
 	
 	public void saveDiscoveredScannerInfoToState(IProject project, InfoContext context, IDiscoveredScannerInfoSerializable serializable) throws CoreException {
+		if (serializable instanceof IBinaryScannerInfoSerializable) {
+			saveToBinaryStore(project, context, (IBinaryScannerInfoSerializable) serializable);
+			return;
+		}
 		Document document = getDocument(project);
-		// Create document
+		saveDiscoveredScannerInfo(context, serializable, document);
+		writeDocument(project, document);
+	}
+
+	private void writeDocument(IProject project, Document document) throws CoreException {
 		try {
-			saveDiscoveredScannerInfo(context, serializable, document);
-		
 			// Transform the document to something we can save in a file
 			ByteArrayOutputStream stream = new ByteArrayOutputStream();
 			Transformer transformer = TransformerFactory.newInstance().newTransformer();
@@ -320,6 +396,254 @@ public final class DiscoveredScannerInfoStore {
 		}
 	}
 
+	private static String getBinaryKey(InfoContext context, IDiscoveredScannerInfoSerializable serializable) {
+		String instanceId = context.isDefaultContext() ? "" : context.getInstanceId(); //$NON-NLS-1$
+		return instanceId + '/' + serializable.getCollectorId();
+	}
+
+	private static CoreException createFileError(IOException e) {
+		return new CoreException(new Status(IStatus.ERROR, MakeCorePlugin.getUniqueIdentifier(), -1,
+				MakeMessages.getString("DiscoveredPathManager.File_Error_Message"), e)); //$NON-NLS-1$
+	}
+
+	private BinaryStore getBinaryStore(IProject project) throws CoreException {
+		BinaryStore store;
+		synchronized (fBinaryStores) {
+			store = fBinaryStores.get(project);
+			if (store == null) {
+				File file = MakeCorePlugin.getWorkingDirectory().append(project.getName() + BINARY_STORE_EXTENSION).toFile();
+				store = new BinaryStore(file);
+				fBinaryStores.put(project, store);
+				synchronized (store) {
+					try {
+						readIndex(store);
+					} catch (IOException e) {
+						MakeCorePlugin.log(e);
+						store.fRecords.clear();
+						store.fLength = 0;
+					}
+				}
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * Reads the keys and positions of the records, a truncated record at the end of the file
+	 * (from an interrupted write) is ignored and overwritten by the next record.
+	 */
+	private void readIndex(BinaryStore store) throws IOException {
+		if (!store.fFile.exists())
+			return;
+		RandomAccessFile raf = new RandomAccessFile(store.fFile, "r"); //$NON-NLS-1$
+		try {
+			final long length = raf.length();
+			if (length < HEADER_SIZE || raf.readInt() != BINARY_STORE_MAGIC || raf.readInt() != BINARY_STORE_VERSION)
+				return;
+			long pos = HEADER_SIZE;
+			try {
+				while (pos < length) {
+					String key = raf.readUTF();
+					byte kind = raf.readByte();
+					int recordLength = raf.readInt();
+					long offset = raf.getFilePointer();
+					if (recordLength < 0 || offset + recordLength > length)
+						break;
+					List<Record> records = store.fRecords.get(key);
+					if (records == null) {
+						if (kind != FULL_RECORD)
+							break;
+						records = new ArrayList<Record>();
+						store.fRecords.put(key, records);
+					}
+					records.add(new Record(kind, offset, recordLength));
+					pos = offset + recordLength;
+					raf.seek(pos);
+				}
+			} catch (IOException e) {
+				// truncated record
+			}
+			store.fLength = pos;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static byte[] readPayload(RandomAccessFile raf, Record record) throws IOException {
+		byte[] payload = new byte[record.fLength];
+		raf.seek(record.fOffset);
+		raf.readFully(payload);
+		return payload;
+	}
+
+	private boolean loadFromBinaryStore(IProject project, InfoContext context,
+			IBinaryScannerInfoSerializable serializable) throws CoreException {
+		BinaryStore store = getBinaryStore(project);
+		String key = getBinaryKey(context, serializable);
+		synchronized (store) {
+			List<Record> records = store.fRecords.get(key);
+			if (records == null) {
+				store.fCheckXML.add(key);
+				return false;
+			}
+			try {
+				RandomAccessFile raf = new RandomAccessFile(store.fFile, "r"); //$NON-NLS-1$
+				try {
+					for (Record record : records) {
+						serializable.read(new BinaryScannerInfoInput(readPayload(raf, record)), record.fKind == DELTA_RECORD);
+					}
+				} finally {
+					raf.close();
+				}
+			} catch (IOException e) {
+				MakeCorePlugin.log(e);
+				throw createFileError(e);
+			}
+			serializable.readCompleted();
+			store.fInSync.put(key, new WeakReference<IBinaryScannerInfoSerializable>(serializable));
+		}
+		return true;
+	}
+
+	private void saveToBinaryStore(IProject project, InfoContext context,
+			IBinaryScannerInfoSerializable serializable) throws CoreException {
+		BinaryStore store = getBinaryStore(project);
+		String key = getBinaryKey(context, serializable);
+		boolean checkXML;
+		synchronized (store) {
+			List<Record> records = store.fRecords.get(key);
+			Reference<IBinaryScannerInfoSerializable> inSync = store.fInSync.remove(key);
+			try {
+				if (records != null && inSync != null && inSync.get() == serializable && serializable.canWriteDelta()) {
+					BinaryScannerInfoOutput out = new BinaryScannerInfoOutput();
+					serializable.write(out, true);
+					byte[] delta = out.toByteArray();
+					int deltaLength = delta.length;
+					for (int i = 1; i < records.size(); i++) {
+						deltaLength += records.get(i).fLength;
+					}
+					if (deltaLength <= records.get(0).fLength) {
+						appendRecord(store, key, DELTA_RECORD, delta);
+					} else {
+						// the delta is included in the full record
+						compact(store, key, serializable);
+					}
+				} else {
+					compact(store, key, serializable);
+				}
+			} catch (IOException e) {
+				MakeCorePlugin.log(e);
+				throw createFileError(e);
+			}
+			store.fInSync.put(key, new WeakReference<IBinaryScannerInfoSerializable>(serializable));
+			checkXML = store.fCheckXML.remove(key);
+		}
+		if (checkXML) {
+			removeXMLInfo(project, context, serializable);
+		}
+	}
+
+	private static byte[] createRecord(String key, byte kind, byte[] payload) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + key.length() + 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(key);
+		out.writeByte(kind);
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private void appendRecord(BinaryStore store, String key, byte kind, byte[] payload) throws IOException {
+		byte[] record = createRecord(key, kind, payload);
+		RandomAccessFile raf = new RandomAccessFile(store.fFile, "rw"); //$NON-NLS-1$
+		try {
+			raf.seek(store.fLength);
+			raf.write(record);
+			raf.setLength(store.fLength + record.length);
+		} finally {
+			raf.close();
+		}
+		store.fLength += record.length;
+		store.fRecords.get(key).add(new Record(kind, store.fLength - payload.length, payload.length));
+	}
+
+	/**
+	 * Rewrites the store with a full record for the given key, the records of the other keys
+	 * are copied.
+	 */
+	private void compact(BinaryStore store, String key, IBinaryScannerInfoSerializable serializable) throws IOException {
+		BinaryScannerInfoOutput out = new BinaryScannerInfoOutput();
+		serializable.write(out, false);
+		byte[] full = out.toByteArray();
+
+		File parent = store.fFile.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+		File tmpFile = new File(store.fFile.getPath() + ".tmp"); //$NON-NLS-1$
+		Map<String, List<Record>> newRecords = new LinkedHashMap<String, List<Record>>();
+		long pos = HEADER_SIZE;
+		RandomAccessFile in = store.fFile.exists() ? new RandomAccessFile(store.fFile, "r") : null; //$NON-NLS-1$
+		try {
+			DataOutputStream os = new DataOutputStream(new FileOutputStream(tmpFile));
+			try {
+				os.writeInt(BINARY_STORE_MAGIC);
+				os.writeInt(BINARY_STORE_VERSION);
+				for (Map.Entry<String, List<Record>> entry : store.fRecords.entrySet()) {
+					final String otherKey = entry.getKey();
+					if (otherKey.equals(key) || in == null)
+						continue;
+					List<Record> copied = new ArrayList<Record>();
+					for (Record record : entry.getValue()) {
+						byte[] bytes = createRecord(otherKey, record.fKind, readPayload(in, record));
+						os.write(bytes);
+						pos += bytes.length;
+						copied.add(new Record(record.fKind, pos - record.fLength, record.fLength));
+					}
+					newRecords.put(otherKey, copied);
+				}
+				byte[] bytes = createRecord(key, FULL_RECORD, full);
+				os.write(bytes);
+				pos += bytes.length;
+				List<Record> records = new ArrayList<Record>();
+				records.add(new Record(FULL_RECORD, pos - full.length, full.length));
+				newRecords.put(key, records);
+			} finally {
+				os.close();
+			}
+		} finally {
+			if (in != null)
+				in.close();
+		}
+		if (store.fFile.exists() && !store.fFile.delete() || !tmpFile.renameTo(store.fFile)) {
+			tmpFile.delete();
+			throw new IOException("Cannot replace " + store.fFile); //$NON-NLS-1$
+		}
+		store.fRecords.clear();
+		store.fRecords.putAll(newRecords);
+		store.fLength = pos;
+	}
+
+	/**
+	 * Removes the XML data of an earlier version, after it has been written to the binary store.
+	 */
+	private void removeXMLInfo(IProject project, InfoContext context, IDiscoveredScannerInfoSerializable serializable) {
+		try {
+			if (!getDiscoveredScannerConfigStore(project).toFile().exists())
+				return;
+			Element rootElem = getRootElement(project, context, serializable);
+			if (rootElem != null) {
+				Element collectorElem = findChild(rootElem, COLLECTOR_ELEM, ID_ATTR, serializable.getCollectorId());
+				if (collectorElem != null) {
+					collectorElem.getParentNode().removeChild(collectorElem);
+					writeDocument(project, rootElem.getOwnerDocument());
+				}
+			}
+		} catch (CoreException e) {
+			MakeCorePlugin.log(e);
+		}
+	}
+
     public IPath getDiscoveredScannerConfigStore(IProject project) {
         String fileName = project.getName() + ".sc"; //$NON-NLS-1$
         String storedFileName = null;
@@ -365,6 +689,9 @@ public final class DiscoveredScannerInfoStore {
                             }
                             // remove from cache
                             fDocumentCache.remove(project);
+                            synchronized (fBinaryStores) {
+                            	fBinaryStores.remove(project);
+                            }
                         }
                         return false;
                     }
@@ -381,6 +708,7 @@ public final class DiscoveredScannerInfoStore {
     private void scProjectDeleted(IProject project) {
         String scFileName = project.getName() + ".sc"; //$NON-NLS-1$
         deletePluginStateFile(scFileName);
+        deletePluginStateFile(project.getName() + BINARY_STORE_EXTENSION);
     }
 
     private void deletePluginStateFile(String scFileName) {
@@ -395,6 +723,7 @@ public final class DiscoveredScannerInfoStore {
         String scOldFileName = project.getName() + ".sc"; //$NON-NLS-1$
         String scNewFileName = newProject.getName() + ".sc"; //$NON-NLS-1$
         movePluginStateFile(scOldFileName, scNewFileName);
+        movePluginStateFile(project.getName() + BINARY_STORE_EXTENSION, newProject.getName() + BINARY_STORE_EXTENSION);
         try {
             newProject.setPersistentProperty(dscFileNameProperty, scNewFileName);
         }
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.make.internal.core.scannerconfig;
+
+import java.io.IOException;
+
+import org.eclipse.cdt.make.core.scannerconfig.IDiscoveredPathManager.IDiscoveredScannerInfoSerializable;
+
+/**
+ * Discovered scanner info that can be stored in the binary format of the
+ * {@link DiscoveredScannerInfoStore}. Such info is stored as a full record followed by
+ * records with the changes (deltas) made after the full record was written.
+ * <p>
+ * The implementation tracks the changes made since it was last read or written. The XML
+ * methods of {@link IDiscoveredScannerInfoSerializable} are used to read stores written by
+ * earlier versions.
+ */
+public interface IBinaryScannerInfoSerializable extends IDiscoveredScannerInfoSerializable {
+	/**
+	 * Returns whether the changes made since the info was last read or written are small
+	 * enough to be stored as a delta.
+	 */
+	boolean canWriteDelta();
+
+	/**
+	 * Writes the complete info, or the changes made since the info was last read or written.
+	 * Afterwards the changes are no longer tracked.
+	 */
+	void write(BinaryScannerInfoOutput out, boolean delta) throws IOException;
+
+	/**
+	 * Reads a complete record or applies a delta to the info.
+	 */
+	void read(BinaryScannerInfoInput in, boolean delta) throws IOException;
+
+	/**
+	 * Called after the last record of the info has been read.
+	 */
+	void readCompleted();
+}
@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.eclipse.cdt.make.internal.core.scannerconfig.util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -19,6 +20,8 @@ import java.util.List;
 
 import org.eclipse.cdt.internal.core.SafeStringInterner;
 import org.eclipse.cdt.internal.core.resources.ResourceLookup;
+import org.eclipse.cdt.make.internal.core.scannerconfig.BinaryScannerInfoInput;
+import org.eclipse.cdt.make.internal.core.scannerconfig.BinaryScannerInfoOutput;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspaceRoot;
@@ -355,6 +358,42 @@ public class CCommandDSC {
         }
     }
     
+    /**
+     * Writes the command and its scanner info in binary form, including the command id.
+     */
+    public void write(BinaryScannerInfoOutput out) throws IOException {
+        out.writeInt(commandId);
+        out.writeBoolean(cppFileType);
+        out.writeBoolean(discovered);
+        out.writeInt(compilerCommand.size());
+        for (KVStringPair option : compilerCommand) {
+            out.writeString(option.getKey());
+            out.writeString(option.getValue());
+        }
+        out.writeStringList(quoteIncludes);
+        out.writeStringList(includes);
+        out.writeStringList(symbols);
+    }
+
+    /**
+     * Reads a command written by {@link #write(BinaryScannerInfoOutput)}. The options have
+     * been translated when the command was written, they are not translated again.
+     */
+    public static CCommandDSC read(BinaryScannerInfoInput in, IProject project) throws IOException {
+        final int commandId = in.readInt();
+        CCommandDSC command = new CCommandDSC(in.readBoolean(), project);
+        command.setCommandId(commandId);
+        command.setDiscovered(in.readBoolean());
+        for (int i = in.readInt(); i > 0; i--) {
+            String key = in.readString();
+            command.compilerCommand.add(new KVStringPair(key, in.readString()));
+        }
+        command.quoteIncludes = in.readStringList();
+        command.includes = in.readStringList();
+        command.symbols = in.readStringList();
+        return command;
+    }
+
     public void resolveOptions(IProject project) {
     	if (!isDiscovered()) {
     		// that's wrong for sure, options cannot be resolved fron the optionPairs??
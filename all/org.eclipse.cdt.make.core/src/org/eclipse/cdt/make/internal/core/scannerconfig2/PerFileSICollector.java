@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.eclipse.cdt.make.internal.core.scannerconfig2;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -37,7 +38,10 @@ import org.eclipse.cdt.make.core.scannerconfig.IDiscoveredPathManager.IDiscovere
 import org.eclipse.cdt.make.core.scannerconfig.IDiscoveredPathManager.IPerFileDiscoveredPathInfo;
 import org.eclipse.cdt.make.core.scannerconfig.IDiscoveredPathManager.IPerFileDiscoveredPathInfo2;
 import org.eclipse.cdt.make.internal.core.MakeMessages;
+import org.eclipse.cdt.make.internal.core.scannerconfig.BinaryScannerInfoInput;
+import org.eclipse.cdt.make.internal.core.scannerconfig.BinaryScannerInfoOutput;
 import org.eclipse.cdt.make.internal.core.scannerconfig.DiscoveredScannerInfoStore;
+import org.eclipse.cdt.make.internal.core.scannerconfig.IBinaryScannerInfoSerializable;
 import org.eclipse.cdt.make.internal.core.scannerconfig.ScannerConfigUtil;
 import org.eclipse.cdt.make.internal.core.scannerconfig.util.CCommandDSC;
 import org.eclipse.cdt.make.internal.core.scannerconfig.util.CygpathTranslator;
@@ -66,15 +70,190 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
 	protected static final int INCLUDE_FILE		= 3;
 	protected static final int MACROS_FILE		= 4;
 	
-    protected class ScannerInfoData implements IDiscoveredScannerInfoSerializable {
+    protected class ScannerInfoData implements IBinaryScannerInfoSerializable {
         protected final Map<Integer, Set<IFile>> commandIdToFilesMap; // command id and set of files it applies to
         protected final Map<IFile, Integer> fileToCommandIdMap;  // maps each file to the corresponding command id
         protected final Map<Integer, CCommandDSC> commandIdCommandMap; // map of all commands
+        protected final Map<CCommandDSC, CCommandDSC> commandIndex; // interned commands
+
+        // changes since the data was last read or written in binary form
+        private final Set<Integer> changedCommandIds = new HashSet<Integer>();
+        private final Set<Integer> removedCommandIds = new HashSet<Integer>();
+        private final Map<IFile, Integer> changedFiles = new HashMap<IFile, Integer>();
 
         public ScannerInfoData() {
             commandIdCommandMap = new LinkedHashMap<Integer, CCommandDSC>();  // [commandId, command]
             fileToCommandIdMap = new HashMap<IFile, Integer>();         // [file, commandId]
             commandIdToFilesMap = new HashMap<Integer, Set<IFile>>();        // [commandId, set of files]
+            commandIndex = new HashMap<CCommandDSC, CCommandDSC>();
+        }
+
+        /**
+         * Returns the stored command that is equal to the given one, or <code>null</code>.
+         */
+        protected CCommandDSC getCommand(CCommandDSC cmd) {
+            return commandIndex.get(cmd);
+        }
+
+        protected void addCommand(CCommandDSC cmd) {
+            putCommand(cmd);
+            commandChanged(cmd.getCommandIdAsInteger());
+        }
+
+        private void putCommand(CCommandDSC cmd) {
+            CCommandDSC old = commandIdCommandMap.put(cmd.getCommandIdAsInteger(), cmd);
+            if (old != null && commandIndex.get(old) == old) {
+                commandIndex.remove(old);
+            }
+            if (!commandIndex.containsKey(cmd)) {
+                commandIndex.put(cmd, cmd);
+            }
+        }
+
+        protected void removeCommand(Integer cmdId) {
+            CCommandDSC cmd = commandIdCommandMap.remove(cmdId);
+            commandIdToFilesMap.remove(cmdId);
+            if (cmd != null) {
+                if (commandIndex.get(cmd) == cmd) {
+                    commandIndex.remove(cmd);
+                }
+                changedCommandIds.remove(cmdId);
+                removedCommandIds.add(cmdId);
+            }
+        }
+
+        protected void commandChanged(Integer cmdId) {
+            changedCommandIds.add(cmdId);
+        }
+
+        protected void setCommandId(IFile file, Integer cmdId) {
+            fileToCommandIdMap.put(file, cmdId);
+            changedFiles.put(file, cmdId);
+        }
+
+        public boolean canWriteDelta() {
+            synchronized (PerFileSICollector.this.fLock) {
+                int changes = changedCommandIds.size() + removedCommandIds.size() + changedFiles.size();
+                return changes < (commandIdCommandMap.size() + fileToCommandIdMap.size()) / 2;
+            }
+        }
+
+        public void write(BinaryScannerInfoOutput out, boolean delta) throws IOException {
+            synchronized (PerFileSICollector.this.fLock) {
+                if (delta) {
+                    out.writeInt(removedCommandIds.size());
+                    for (Integer commandId : removedCommandIds) {
+                        out.writeInt(commandId.intValue());
+                    }
+                    out.writeInt(changedCommandIds.size());
+                    for (Integer commandId : changedCommandIds) {
+                        commandIdCommandMap.get(commandId).write(out);
+                    }
+                    out.writeInt(changedFiles.size());
+                    for (Entry<IFile, Integer> entry : changedFiles.entrySet()) {
+                        writeFile(out, entry.getKey());
+                        out.writeInt(entry.getValue().intValue());
+                    }
+                } else {
+                    List<Integer> commandIds = new ArrayList<Integer>(commandIdCommandMap.keySet());
+                    Collections.sort(commandIds);
+                    out.writeInt(commandIds.size());
+                    for (Integer commandId : commandIds) {
+                        commandIdCommandMap.get(commandId).write(out);
+                        Set<IFile> files = commandIdToFilesMap.get(commandId);
+                        if (files == null) {
+                            files = Collections.emptySet();
+                        }
+                        out.writeInt(files.size());
+                        for (IFile file : files) {
+                            writeFile(out, file);
+                        }
+                    }
+                }
+                changedCommandIds.clear();
+                removedCommandIds.clear();
+                changedFiles.clear();
+            }
+        }
+
+        private void writeFile(BinaryScannerInfoOutput out, IFile file) throws IOException {
+            // the folders are shared by many files
+            IPath path = file.getProjectRelativePath();
+            out.writeString(path.removeLastSegments(1).toString());
+            out.writeString(path.lastSegment());
+        }
+
+        private IFile readFile(BinaryScannerInfoInput in) throws IOException {
+            String folder = in.readString();
+            String name = in.readString();
+            return project.getFile(folder.length() == 0 ? new Path(name) : new Path(folder).append(name));
+        }
+
+        public void read(BinaryScannerInfoInput in, boolean delta) throws IOException {
+            synchronized (PerFileSICollector.this.fLock) {
+                if (delta) {
+                    for (int i = in.readInt(); i > 0; i--) {
+                        removeCommand(Integer.valueOf(in.readInt()));
+                    }
+                    for (int i = in.readInt(); i > 0; i--) {
+                        putCommand(CCommandDSC.read(in, project));
+                    }
+                    for (int i = in.readInt(); i > 0; i--) {
+                        IFile file = readFile(in);
+                        Integer commandId = Integer.valueOf(in.readInt());
+                        Integer oldCommandId = fileToCommandIdMap.put(file, commandId);
+                        if (oldCommandId != null && !oldCommandId.equals(commandId)) {
+                            Set<IFile> oldFileSet = commandIdToFilesMap.get(oldCommandId);
+                            if (oldFileSet != null) {
+                                oldFileSet.remove(file);
+                            }
+                        }
+                        Set<IFile> fileSet = commandIdToFilesMap.get(commandId);
+                        if (fileSet == null) {
+                            fileSet = new HashSet<IFile>();
+                            commandIdToFilesMap.put(commandId, fileSet);
+                        }
+                        fileSet.add(file);
+                    }
+                } else {
+                    for (int i = in.readInt(); i > 0; i--) {
+                        CCommandDSC command = CCommandDSC.read(in, project);
+                        Integer commandId = command.getCommandIdAsInteger();
+                        putCommand(command);
+                        final int fileCount = in.readInt();
+                        Set<IFile> fileSet = new HashSet<IFile>(Math.max(16, fileCount * 4 / 3 + 1));
+                        for (int j = 0; j < fileCount; j++) {
+                            IFile file = readFile(in);
+                            fileSet.add(file);
+                            fileToCommandIdMap.put(file, commandId);
+                        }
+                        commandIdToFilesMap.put(commandId, fileSet);
+                    }
+                }
+                changedCommandIds.clear();
+                removedCommandIds.clear();
+                changedFiles.clear();
+            }
+        }
+
+        public void readCompleted() {
+            synchronized (PerFileSICollector.this.fLock) {
+                // the command ids are kept, such that later deltas can refer to them
+                commandIdCounter = 0;
+                for (Integer commandId : commandIdCommandMap.keySet()) {
+                    commandIdCounter = Math.max(commandIdCounter, commandId.intValue());
+                }
+                freeCommandIdPool.clear();
+                for (int i = 1; i < commandIdCounter; i++) {
+                    Integer commandId = Integer.valueOf(i);
+                    if (!commandIdCommandMap.containsKey(commandId)) {
+                        freeCommandIdPool.add(commandId);
+                    }
+                }
+                // report all files as changed, as the deserialization from XML does
+                siChangedForFileMap.putAll(fileToCommandIdMap);
+                generateProjectScannerInfo();
+            }
         }
 
         /* (non-Javadoc)
@@ -135,10 +314,10 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
 	                            IFile file = project.getFile(fileName);
 	                            addCompilerCommand(file, command);
 	                        }
-							applyFileDeltas();
 	                    }
 	                }
 	            }
+	            applyFileDeltas();
         	}
         }
 
@@ -294,15 +473,15 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
             cmd.setQuoteIncludes(siItem);
             
             cmd.setDiscovered(true);
+            sid.commandChanged(commandId);
         }
     }
 
     protected void addCompilerCommand(IFile file, CCommandDSC cmd) {
 		assert Thread.holdsLock(fLock);
-        List<CCommandDSC> existingCommands = new ArrayList<CCommandDSC>(sid.commandIdCommandMap.values());
-        int index = existingCommands.indexOf(cmd);
-        if (index != -1) {
-            cmd = existingCommands.get(index);
+        CCommandDSC existingCommand = sid.getCommand(cmd);
+        if (existingCommand != null) {
+            cmd = existingCommand;
         }
         else {
             int commandId = -1;
@@ -315,7 +494,7 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
                 commandId = ++commandIdCounter;
             }
             cmd.setCommandId(commandId);
-            sid.commandIdCommandMap.put(cmd.getCommandIdAsInteger(), cmd);
+            sid.addCommand(cmd);
         }
 		
 		generateFileDelta(file, cmd);
@@ -351,6 +530,7 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
 		            CCommandDSC cmd = sid.commandIdCommandMap.get(commandId);
 		            if (cmd != null) {
 		            	cmd.resolveOptions(project);
+		            	sid.commandChanged(commandId);
 		            }
 		        }
 		        if (fileSet.add(file)) {
@@ -369,7 +549,7 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
 		                }
 		            }
 		            if (change) {
-		                sid.fileToCommandIdMap.put(file, commandId);
+		                sid.setCommandId(file, commandId);
 		                // TODO generate change event for this resource
 //			                IPath path = file.getFullPath();
 //			                if (!siChangedForFileList.contains(path)) {
@@ -405,8 +585,7 @@ public class PerFileSICollector implements IScannerInfoCollector3, IScannerInfoC
         }
         for (Integer cmdId : freeCommandIdPool) {
             // the command does not have any files associated; remove
-            sid.commandIdCommandMap.remove(cmdId);
-            sid.commandIdToFilesMap.remove(cmdId);
+            sid.removeCommand(cmdId);
         }
         while (!freeCommandIdPool.isEmpty()) { 
             Integer last = freeCommandIdPool.last(); 
@@ -22,7 +22,9 @@ import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.dom.IPDOMManager;
 import org.eclipse.cdt.managedbuilder.core.regressions.RegressionTests;
 import org.eclipse.cdt.managedbuilder.core.tests.BuildDescriptionModelTests;
+import org.eclipse.cdt.managedbuilder.core.tests.BuildOutputCacheTests;
 import org.eclipse.cdt.managedbuilder.core.tests.BuildSystem40Tests;
+import org.eclipse.cdt.managedbuilder.core.tests.ContentHashBuildStateTests;
 import org.eclipse.cdt.managedbuilder.core.tests.ManagedBuildCoreTests;
 import org.eclipse.cdt.managedbuilder.core.tests.ManagedBuildCoreTests20;
 import org.eclipse.cdt.managedbuilder.core.tests.ManagedBuildCoreTests_SharedToolOptions;
@@ -37,6 +39,8 @@ import org.eclipse.cdt.managedbuilder.core.tests.ManagedProjectUpdateTests;
 import org.eclipse.cdt.managedbuilder.core.tests.MultiVersionSupportTests;
 import org.eclipse.cdt.managedbuilder.core.tests.OptionCategoryEnablementTests;
 import org.eclipse.cdt.managedbuilder.core.tests.OptionEnablementTests;
+import org.eclipse.cdt.managedbuilder.core.tests.PDOMDependencyCalculatorTests;
+import org.eclipse.cdt.managedbuilder.core.tests.ParallelBuilderTests;
 import org.eclipse.cdt.managedbuilder.core.tests.PathConverterTest;
 import org.eclipse.cdt.managedbuilder.core.tests.ResourceBuildCoreTests;
 import org.eclipse.cdt.managedbuilder.templateengine.tests.AllTemplateEngineTests;
@@ -80,6 +84,10 @@ public class AllManagedBuildTests {
 		suite.addTest(OptionCategoryEnablementTests.suite());
 		suite.addTest(ManagedBuildDependencyCalculatorTests.suite());
 		suite.addTest(BuildDescriptionModelTests.suite());
+		suite.addTest(ParallelBuilderTests.suite());
+		suite.addTest(ContentHashBuildStateTests.suite());
+		suite.addTest(BuildOutputCacheTests.suite());
+		suite.addTest(PDOMDependencyCalculatorTests.suite());
 		suite.addTest(PathConverterTest.suite());
 
 		// managedbuilder.templateengine.tests
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 Andrew Gvozdev and others.
+ * Copyright (c) 2009, 2011 Andrew Gvozdev and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
  package org.eclipse.cdt.build.core.scannerconfig.tests;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -32,6 +34,7 @@ import org.eclipse.cdt.core.settings.model.ICSettingEntry;
 import org.eclipse.cdt.core.testplugin.ResourceHelper;
 import org.eclipse.cdt.internal.core.XmlUtil;
 import org.eclipse.cdt.managedbuilder.internal.scannerconfig.AbstractBuiltinSpecsDetector;
+import org.eclipse.cdt.managedbuilder.internal.scannerconfig.BuiltinSpecsCache;
 import org.eclipse.cdt.managedbuilder.internal.scannerconfig.GCCBuiltinSpecsDetector;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.runtime.CoreException;
@@ -504,6 +507,44 @@ public class GCCBuiltinSpecsDetectorTest extends TestCase {
 		}
 	}
 	
+	public void testGCCBuiltinSpecsDetector_ConcurrentClones() throws Exception {
+		final int COUNT = 2000;
+		GCCBuiltinSpecsDetector detector = new GCCBuiltinSpecsDetector();
+		final GCCBuiltinSpecsDetector[] clones = new GCCBuiltinSpecsDetector[] {
+				detector.cloneShallow(), detector.cloneShallow(), detector.clone()
+		};
+		Thread[] threads = new Thread[clones.length];
+		for (int i = 0; i < clones.length; i++) {
+			final int n = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					clones[n].startup(null);
+					for (int j = 0; j < COUNT; j++) {
+						clones[n].processLine("#define MACRO_" + n + "_" + j + " " + j);
+					}
+					clones[n].shutdown();
+				}
+			};
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// each copy has its own parsers and must not pick up results of the others
+		for (int i = 0; i < clones.length; i++) {
+			List<ICLanguageSettingEntry> entries = clones[i].getSettingEntries(null, null, null);
+			assertEquals(COUNT, entries.size());
+			for (int j = 0; j < COUNT; j++) {
+				ICLanguageSettingEntry expected = new CMacroEntry("MACRO_" + i + "_" + j, Integer.toString(j), ICSettingEntry.BUILTIN | ICSettingEntry.READONLY);
+				assertEquals(expected, entries.get(j));
+			}
+		}
+	}
+
 	public void testGCCBuiltinSpecsDetector_Macro_NoArgs() throws Exception {
 		AbstractBuiltinSpecsDetector detector = new GCCBuiltinSpecsDetector();
 		
@@ -656,4 +697,58 @@ public class GCCBuiltinSpecsDetectorTest extends TestCase {
 		assertEquals(1, entries.size());
 	}
 
+	public void testBuiltinSpecsCache() throws Exception {
+		BuiltinSpecsCache cache = BuiltinSpecsCache.getDefault();
+		if (cache==null)
+			return;
+
+		File compiler = File.createTempFile("gcc", ".exe");
+		try {
+			FileOutputStream out = new FileOutputStream(compiler);
+			out.write(new byte[] {1, 2, 3});
+			out.close();
+			String compilerPath = new Path(compiler.getAbsolutePath()).toString();
+			String[] env = new String[] {"PATH=/usr/bin"};
+
+			// the key does not depend on the name of the spec file
+			String key1 = cache.computeKey(PROVIDER_ID, LANGUAGE_ID, compilerPath + " -E -dD /tmp/spec.c", "/tmp/spec.c", env);
+			String key2 = cache.computeKey(PROVIDER_ID, LANGUAGE_ID, compilerPath + " -E -dD /tmp/spec123.c", "/tmp/spec123.c", env);
+			assertNotNull(key1);
+			assertEquals(key1, key2);
+			assertFalse(key1.equals(cache.computeKey(PROVIDER_ID, LANGUAGE_ID_C, compilerPath + " -E -dD /tmp/spec.c", "/tmp/spec.c", env)));
+			assertFalse(key1.equals(cache.computeKey(PROVIDER_ID, LANGUAGE_ID, compilerPath + " -E -dD -m32 /tmp/spec.c", "/tmp/spec.c", env)));
+			assertNull(cache.computeKey(PROVIDER_ID, LANGUAGE_ID, "no-such-compiler -E", null, env));
+
+			List<ICLanguageSettingEntry> entries = new ArrayList<ICLanguageSettingEntry>();
+			entries.add(new CMacroEntry("MACRO", "VALUE", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY));
+			String includePath = new Path(compiler.getParentFile().getAbsolutePath()).toString();
+			entries.add(new CIncludePathEntry(includePath, ICSettingEntry.BUILTIN | ICSettingEntry.READONLY));
+			cache.put(key1, entries);
+			assertEquals(entries, cache.get(key1));
+
+			// entries with include paths that no longer exist are discarded
+			String key4 = cache.computeKey(PROVIDER_ID, LANGUAGE_ID, compilerPath + " -E -dD -m64 /tmp/spec.c", "/tmp/spec.c", env);
+			List<ICLanguageSettingEntry> missing = new ArrayList<ICLanguageSettingEntry>();
+			missing.add(new CIncludePathEntry(includePath + "/no-such-folder", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY));
+			cache.put(key4, missing);
+			assertNull(cache.get(key4));
+
+			// a different compiler binary does not share the entries
+			out = new FileOutputStream(compiler);
+			out.write(new byte[] {1, 2, 3, 4});
+			out.close();
+			String key3 = cache.computeKey(PROVIDER_ID, LANGUAGE_ID, compilerPath + " -E -dD /tmp/spec.c", "/tmp/spec.c", env);
+			assertFalse(key1.equals(key3));
+			assertNull(cache.get(key3));
+
+			// clearing a detector discards the cached entries
+			cache.put(key3, entries);
+			MockBuiltinSpecsDetector detector = new MockBuiltinSpecsDetector();
+			detector.clear();
+			assertNull(cache.get(key3));
+		} finally {
+			compiler.delete();
+		}
+	}
+
 }
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.core.regressions;
+
+import org.eclipse.cdt.managedbuilder.testplugin.AbstractBuilderTest;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Tests that generated makefiles are not rewritten when their content does not change.
+ */
+public class MakefileRegenerationTests extends AbstractBuilderTest {
+
+	public void testUnchangedMakefilesAreNotWritten() throws CoreException {
+		setWorkspace("regressions");
+		final IProject app = loadProject("helloworldC");
+		setActiveConfigurationByName(app, "Debug");
+		app.build(IncrementalProjectBuilder.FULL_BUILD, null);
+
+		IFile[] makefiles = {
+				app.getFile("Debug/makefile"),
+				app.getFile("Debug/sources.mk"),
+				app.getFile("Debug/src/subdir.mk")};
+		long[] stamps = new long[makefiles.length];
+		for (int i = 0; i < makefiles.length; i++) {
+			assertTrue(makefiles[i].getName(), makefiles[i].exists());
+			stamps[i] = makefiles[i].getModificationStamp();
+		}
+
+		// Modify the source and build again
+		IFile srcFile = app.getFile("src/helloworldC.c");
+		srcFile.setContents(srcFile.getContents(), IResource.NONE, null);
+		app.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, null);
+
+		for (int i = 0; i < makefiles.length; i++) {
+			assertEquals(makefiles[i].getName(), stamps[i], makefiles[i].getModificationStamp());
+		}
+	}
+}
@@ -11,6 +11,7 @@
 package org.eclipse.cdt.managedbuilder.core.regressions;
 
 import org.eclipse.cdt.managedbuilder.core.regressions.Bug_303953;
+import org.eclipse.cdt.managedbuilder.core.regressions.MakefileRegenerationTests;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -26,6 +27,7 @@ public class RegressionTests extends TestCase {
 
 		// Test that common builder does the correct amount of work.
 		suite.addTestSuite(Bug_303953.class);
+		suite.addTestSuite(MakefileRegenerationTests.class);
 
 		return suite;
 	}
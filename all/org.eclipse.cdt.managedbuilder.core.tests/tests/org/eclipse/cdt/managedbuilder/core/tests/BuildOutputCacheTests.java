@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.core.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildDescription;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildIOType;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.core.IConfiguration;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.BuildOutputCache;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Tests for the local cache of the outputs of build steps.
+ */
+public class BuildOutputCacheTests extends TestCase {
+	private File fDir;
+	private File fCacheDir;
+	private File fCompiler;
+	private IPath fCWD;
+	private String fPreprocessed;
+
+	public static Test suite() {
+		return new TestSuite(BuildOutputCacheTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fDir = File.createTempFile("outputCache", "");
+		fDir.delete();
+		assertTrue(fDir.mkdirs());
+		fCacheDir = new File(fDir, "cache");
+		fCompiler = writeFile("gcc", "compiler");
+		fCWD = new Path(fDir.getAbsolutePath());
+		fPreprocessed = "int a;";
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		deleteAll(fDir);
+		super.tearDown();
+	}
+
+	private static void deleteAll(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteAll(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Uses the field fPreprocessed as the output of the preprocessor
+	 */
+	private class TestCache extends BuildOutputCache {
+		String[] fPreprocessorArgs;
+
+		TestCache(long sizeLimit) {
+			super(fCacheDir, sizeLimit);
+		}
+
+		@Override
+		protected byte[] preprocess(IBuildCommand cmd, String[] args, IPath cwd) {
+			fPreprocessorArgs = args;
+			if (fPreprocessed == null)
+				return null;
+			try {
+				return MessageDigest.getInstance("MD5").digest(fPreprocessed.getBytes());
+			} catch (Exception e) {
+				fail(e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	private static class FakeDescription implements IBuildDescription {
+		final IBuildStep fInputStep = new FakeStep(null, new IBuildCommand[0], new IBuildResource[0]);
+
+		public IBuildStep getInputStep() {
+			return fInputStep;
+		}
+		public IBuildStep getOutputStep() {
+			return null;
+		}
+		public IBuildResource getBuildResource(IPath location) {
+			return null;
+		}
+		public IBuildResource getBuildResource(IResource resource) {
+			return null;
+		}
+		public IBuildResource[] getResources() {
+			return new IBuildResource[0];
+		}
+		public IBuildStep[] getSteps() {
+			return new IBuildStep[0];
+		}
+		public IConfiguration getConfiguration() {
+			return null;
+		}
+		public IPath getDefaultBuildDirLocation() {
+			return null;
+		}
+		public URI getDefaultBuildDirLocationURI() {
+			return null;
+		}
+		public IPath getDefaultBuildDirFullPath() {
+			return null;
+		}
+	}
+
+	private static class FakeResource implements IBuildResource {
+		final IPath fLocation;
+
+		FakeResource(File file) {
+			fLocation = new Path(file.getAbsolutePath());
+		}
+
+		public IPath getLocation() {
+			return fLocation;
+		}
+		public IPath getFullPath() {
+			return null;
+		}
+		public URI getLocationURI() {
+			return null;
+		}
+		public IBuildIOType getProducerIOType() {
+			return null;
+		}
+		public IBuildIOType[] getDependentIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildStep getProducerStep() {
+			return null;
+		}
+		public IBuildStep[] getDependentSteps() {
+			return new IBuildStep[0];
+		}
+		public boolean needsRebuild() {
+			return true;
+		}
+		public boolean isProjectResource() {
+			return false;
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return null;
+		}
+	}
+
+	private static class FakeStep implements IBuildStep {
+		final IBuildDescription fDescription;
+		final IBuildCommand[] fCommands;
+		final IBuildResource[] fOutputs;
+
+		FakeStep(IBuildDescription des, IBuildCommand[] commands, IBuildResource[] outputs) {
+			fDescription = des;
+			fCommands = commands;
+			fOutputs = outputs;
+		}
+
+		public IBuildIOType[] getInputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildIOType[] getOutputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public boolean needsRebuild() {
+			return true;
+		}
+		public IBuildResource[] getInputResources() {
+			return new IBuildResource[0];
+		}
+		public IBuildResource[] getOutputResources() {
+			return fOutputs;
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return fDescription;
+		}
+		public IBuildCommand[] getCommands(IPath cwd, Map inStepMap, Map outStepMap, boolean resolveAll) {
+			return fCommands;
+		}
+	}
+
+	private class FakeCommand implements IBuildCommand {
+		final String[] fArgs;
+
+		FakeCommand(String... args) {
+			fArgs = args;
+		}
+
+		public IPath getCommand() {
+			return new Path(fCompiler.getAbsolutePath());
+		}
+		public String[] getArgs() {
+			return fArgs;
+		}
+		public Map<String, String> getEnvironment() {
+			return null;
+		}
+		public IPath getCWD() {
+			return fCWD;
+		}
+	}
+
+	private File writeFile(String name, String content) throws IOException {
+		File file = new File(fDir, name);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static String readFile(File file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toString();
+	}
+
+	private IBuildStep createStep(File output, IBuildCommand... cmds) {
+		return new FakeStep(new FakeDescription(), cmds, new IBuildResource[] {new FakeResource(output)});
+	}
+
+	private String computeKey(BuildOutputCache cache, IBuildStep step) {
+		return cache.computeKey(step, step.getCommands(fCWD, null, null, true), fCWD);
+	}
+
+	public void testPreprocessorArgs() throws Exception {
+		String[] args = BuildOutputCache.getPreprocessorArgs(new String[] {"-O2", "-c", "-MMD", "-MP",
+				"-MF", "a.d", "-MT", "a.d", "-o", "a.o", "../a.c"});
+		assertTrue(Arrays.asList(args).toString(), Arrays.equals(new String[] {"-O2", "-E", "../a.c"}, args));
+		args = BuildOutputCache.getPreprocessorArgs(new String[] {"-c", "-MFa.d", "-oa.o", "a.c"});
+		assertTrue(Arrays.asList(args).toString(), Arrays.equals(new String[] {"-E", "a.c"}, args));
+
+		// linking, assembler output and dependency output are not cached
+		assertNull(BuildOutputCache.getPreprocessorArgs(new String[] {"-o", "app", "a.o"}));
+		assertNull(BuildOutputCache.getPreprocessorArgs(new String[] {"-S", "-c", "a.c"}));
+		assertNull(BuildOutputCache.getPreprocessorArgs(new String[] {"-MM", "-c", "a.c"}));
+		assertNull(BuildOutputCache.getPreprocessorArgs(new String[] {"-c", "a.c", "-c", "b.c"}));
+	}
+
+	public void testKeyStability() throws Exception {
+		TestCache cache = new TestCache(1024 * 1024);
+		File out1 = new File(fDir, "a.o");
+		File out2 = new File(fDir, "b.o");
+		IBuildStep step = createStep(out1, new FakeCommand("-O2", "-c", "-o", out1.getPath(), "a.c"));
+
+		String key = computeKey(cache, step);
+		assertNotNull(key);
+		assertTrue(Arrays.equals(new String[] {"-O2", "-E", "a.c"}, cache.fPreprocessorArgs));
+		assertEquals(key, computeKey(cache, step));
+		// the location of the output is not part of the key
+		assertEquals(key, computeKey(cache, createStep(out2, new FakeCommand("-O2", "-c", "-o", out2.getPath(), "a.c"))));
+
+		// options, the compiler and the preprocessed source are part of the key
+		assertFalse(key.equals(computeKey(cache, createStep(out1, new FakeCommand("-O0", "-c", "-o", out1.getPath(), "a.c")))));
+		fPreprocessed = "int b;";
+		assertFalse(key.equals(computeKey(cache, step)));
+		fPreprocessed = "int a;";
+		assertEquals(key, computeKey(cache, step));
+		assertTrue(fCompiler.setLastModified(fCompiler.lastModified() - 10000));
+		assertFalse(key.equals(computeKey(cache, step)));
+	}
+
+	public void testUnverifiableStepsAreNotCached() throws Exception {
+		TestCache cache = new TestCache(1024 * 1024);
+		File out = new File(fDir, "a.o");
+		// the preprocessor fails
+		fPreprocessed = null;
+		assertNull(computeKey(cache, createStep(out, new FakeCommand("-c", "-o", out.getPath(), "a.c"))));
+		fPreprocessed = "int a;";
+		// no compile command
+		assertNull(computeKey(cache, createStep(out, new FakeCommand("-o", out.getPath(), "a.o"))));
+		// multiple commands
+		assertNull(computeKey(cache, createStep(out, new FakeCommand("-c", "-o", out.getPath(), "a.c"),
+				new FakeCommand("-c", "-o", out.getPath(), "a.c"))));
+		// unknown compiler
+		assertTrue(fCompiler.delete());
+		assertNull(computeKey(cache, createStep(out, new FakeCommand("-c", "-o", out.getPath(), "a.c"))));
+	}
+
+	private File[] getCachedFiles(BuildOutputCache cache, IBuildStep step) {
+		return cache.getCachedFiles(step, step.getCommands(fCWD, null, null, true), fCWD);
+	}
+
+	public void testHitAndMissAccounting() throws Exception {
+		BuildOutputCache cache = new BuildOutputCache(fCacheDir, 1024 * 1024);
+		File output = writeFile("a.o", "object code");
+		IBuildStep step = createStep(output, new FakeCommand("-c", "a.c"));
+		File[] files = getCachedFiles(cache, step);
+		String key = "0123456789abcdef0123456789abcdef";
+
+		assertFalse(cache.restore(key, files, step, null));
+		assertEquals(0, cache.getStatistics().getHits());
+		assertEquals(1, cache.getStatistics().getMisses());
+
+		BuildOutputCache.Capture capture = new BuildOutputCache.Capture();
+		capture.wrap(new ByteArrayOutputStream()).write("a.c:1: warning: unused".getBytes());
+		cache.store(key, files, capture);
+
+		assertTrue(output.delete());
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		assertTrue(cache.restore(key, files, step, console));
+		assertEquals("object code", readFile(output));
+		assertTrue(console.toString(), console.toString().startsWith("a.c:1: warning: unused"));
+		assertEquals(1, cache.getStatistics().getHits());
+		assertEquals(1, cache.getStatistics().getMisses());
+		assertEquals(0, cache.getStatistics().getEvictions());
+	}
+
+	public void testDependencyFilesAreCached() throws Exception {
+		TestCache cache = new TestCache(1024 * 1024);
+		File output = writeFile("a.o", "object code");
+		File dependencies = writeFile("a.d", "a.o: a.c a.h");
+		IBuildStep step = createStep(output, new FakeCommand("-c", "-MMD", "-MP", "-MF", "a.d", "-o", "a.o", "a.c"));
+		File[] files = getCachedFiles(cache, step);
+		assertEquals(2, files.length);
+		assertEquals(output.getAbsoluteFile(), files[0].getAbsoluteFile());
+		assertEquals(dependencies.getAbsoluteFile(), files[1].getAbsoluteFile());
+
+		// without -MF the compiler derives the name from the output
+		step = createStep(output, new FakeCommand("-c", "-MD", "-o", "a.o", "a.c"));
+		files = getCachedFiles(cache, step);
+		assertEquals(2, files.length);
+		assertEquals(dependencies.getAbsoluteFile(), files[1].getAbsoluteFile());
+		assertNull(getCachedFiles(cache, createStep(output, new FakeCommand("-c", "-MD", "a.c"))));
+
+		// the dependency file names the output, its location is part of the key
+		File output2 = new File(fDir, "b.o");
+		String key = computeKey(cache, step);
+		assertFalse(key.equals(computeKey(cache, createStep(output2, new FakeCommand("-c", "-MD", "-o", "b.o", "a.c")))));
+
+		cache.store(key, files, null);
+		assertTrue(output.delete());
+		assertTrue(dependencies.delete());
+		assertTrue(cache.restore(key, files, step, null));
+		assertEquals("object code", readFile(output));
+		assertEquals("a.o: a.c a.h", readFile(dependencies));
+	}
+
+	public void testIncompleteEntryIsNotRestored() throws Exception {
+		BuildOutputCache cache = new BuildOutputCache(fCacheDir, 1024 * 1024);
+		File output = writeFile("a.o", "object code");
+		File dependencies = writeFile("a.d", "a.o: a.c");
+		IBuildStep step = createStep(output, new FakeCommand("-c", "-MMD", "-MF", "a.d", "-o", "a.o", "a.c"));
+		File[] files = getCachedFiles(cache, step);
+		String key = "0123456789abcdef0123456789abcdef";
+		cache.store(key, files, null);
+
+		// a file of the entry is missing, the outputs are left alone
+		File entry = new File(new File(fCacheDir, key.substring(0, 2)), key);
+		assertTrue(new File(entry, "1").delete());
+		writeFile("a.o", "newer object code");
+		assertFalse(cache.restore(key, files, step, null));
+		assertEquals("newer object code", readFile(output));
+		assertEquals("a.o: a.c", readFile(dependencies));
+		String[] names = fDir.list();
+		for (String name : names) {
+			assertTrue(name, name.indexOf(".tmp") < 0);
+		}
+	}
+
+	public void testEviction() throws Exception {
+		final long limit = 4000;
+		BuildOutputCache cache = new BuildOutputCache(fCacheDir, limit);
+		char[] content = new char[600];
+		Arrays.fill(content, 'x');
+		File output = writeFile("a.o", new String(content));
+		IBuildStep step = createStep(output, new FakeCommand("-c", "a.c"));
+		File[] files = getCachedFiles(cache, step);
+
+		final long time = System.currentTimeMillis() - 3600 * 1000;
+		String[] keys = new String[10];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i + "0123456789abcdef0123456789abcde";
+			cache.store(keys[i], files, null);
+			// make the order of the entries independent of the resolution of the timestamps
+			File entry = new File(new File(fCacheDir, keys[i].substring(0, 2)), keys[i]);
+			if (entry.exists())
+				assertTrue(entry.setLastModified(time + i * 10000));
+		}
+
+		BuildOutputCache.Statistics stats = cache.getStatistics();
+		assertTrue(stats.getEvictions() > 0);
+		assertTrue(stats.getBytes() <= limit);
+		// the least recently used entries are evicted
+		assertFalse(cache.restore(keys[0], files, step, null));
+		assertTrue(cache.restore(keys[keys.length - 1], files, step, null));
+		assertEquals(1, cache.getStatistics().getHits());
+		assertEquals(1, cache.getStatistics().getMisses());
+	}
+}
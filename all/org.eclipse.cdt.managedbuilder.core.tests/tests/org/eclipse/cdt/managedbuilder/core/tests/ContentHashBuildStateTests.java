@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.core.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildDescription;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildIOType;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.ContentHashBuildState;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.StepDurationHistory;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Tests for the content hash based decision whether a build step can be skipped.
+ */
+public class ContentHashBuildStateTests extends TestCase {
+	private static final long OLD = 60000;
+
+	private File fDir;
+	private File fStateFile;
+	private FakeStep fInputStep;
+
+	public static Test suite() {
+		return new TestSuite(ContentHashBuildStateTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fDir = File.createTempFile("contentHash", "");
+		fDir.delete();
+		assertTrue(fDir.mkdirs());
+		fStateFile = new File(fDir, "state.properties");
+		fInputStep = new FakeStep(new IBuildResource[0], new IBuildResource[0], "");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = fDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		fDir.delete();
+		super.tearDown();
+	}
+
+	private static class FakeResource implements IBuildResource {
+		final IPath fLocation;
+		final IBuildStep fProducer;
+
+		FakeResource(File file, IBuildStep producer) {
+			fLocation = new Path(file.getAbsolutePath());
+			fProducer = producer;
+		}
+
+		public IPath getLocation() {
+			return fLocation;
+		}
+		public IPath getFullPath() {
+			return null;
+		}
+		public URI getLocationURI() {
+			return null;
+		}
+		public IBuildIOType getProducerIOType() {
+			return null;
+		}
+		public IBuildIOType[] getDependentIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildStep getProducerStep() {
+			return fProducer;
+		}
+		public IBuildStep[] getDependentSteps() {
+			return new IBuildStep[0];
+		}
+		public boolean needsRebuild() {
+			return false;
+		}
+		public boolean isProjectResource() {
+			return false;
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return null;
+		}
+	}
+
+	private static class FakeStep implements IBuildStep {
+		final IBuildResource[] fInputs;
+		final IBuildResource[] fOutputs;
+		String fArgs;
+
+		FakeStep(IBuildResource[] inputs, IBuildResource[] outputs, String args) {
+			fInputs = inputs;
+			fOutputs = outputs;
+			fArgs = args;
+		}
+
+		public IBuildIOType[] getInputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildIOType[] getOutputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public boolean needsRebuild() {
+			return true;
+		}
+		public IBuildResource[] getInputResources() {
+			return fInputs;
+		}
+		public IBuildResource[] getOutputResources() {
+			return fOutputs;
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return null;
+		}
+		public IBuildCommand[] getCommands(IPath cwd, Map inStepMap, Map outStepMap, boolean resolveAll) {
+			return new IBuildCommand[] {new IBuildCommand() {
+				public IPath getCommand() {
+					return new Path("gcc");
+				}
+				public String[] getArgs() {
+					return fArgs.split(" ");
+				}
+				public Map<String, String> getEnvironment() {
+					return null;
+				}
+				public IPath getCWD() {
+					return null;
+				}
+			}};
+		}
+	}
+
+	private File writeFile(String name, String content, long age) throws IOException {
+		File file = new File(fDir, name);
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes());
+		} finally {
+			out.close();
+		}
+		if (age > 0)
+			assertTrue(file.setLastModified(System.currentTimeMillis() - age));
+		return file;
+	}
+
+	private FakeStep createStep(File input, File output) {
+		return new FakeStep(new IBuildResource[] {new FakeResource(input, fInputStep)},
+				new IBuildResource[] {new FakeResource(output, null)}, "-c -O2");
+	}
+
+	/**
+	 * Records a successful build of the step and returns a new state read from the file.
+	 */
+	private ContentHashBuildState recordBuild(FakeStep step) {
+		ContentHashBuildState state = new ContentHashBuildState(fStateFile, null);
+		state.stepStarted(step);
+		state.stepBuilt(step);
+		state.store();
+		return new ContentHashBuildState(fStateFile, null);
+	}
+
+	public void testStepWithoutRecordIsRebuilt() throws Exception {
+		FakeStep step = createStep(writeFile("a.c", "int a;", OLD), writeFile("a.o", "obj", OLD));
+		ContentHashBuildState state = new ContentHashBuildState(fStateFile, null);
+		assertEquals("no record of a previous build", state.checkStep(step, fInputStep));
+	}
+
+	public void testUnchangedStepIsSkipped() throws Exception {
+		File input = writeFile("a.c", "int a;", OLD);
+		FakeStep step = createStep(input, writeFile("a.o", "obj", OLD));
+		recordBuild(step);
+
+		// a touched input with the same content does not cause a rebuild
+		assertTrue(input.setLastModified(System.currentTimeMillis() - OLD / 2));
+		ContentHashBuildState state = new ContentHashBuildState(fStateFile, null);
+		assertNull(state.checkStep(step, fInputStep));
+		assertTrue(state.getRebuildReasons().isEmpty());
+	}
+
+	public void testChangedInputIsRebuilt() throws Exception {
+		File input = writeFile("a.c", "int a;", OLD);
+		FakeStep step = createStep(input, writeFile("a.o", "obj", OLD));
+		ContentHashBuildState state = recordBuild(step);
+
+		writeFile("a.c", "int b;", 0);
+		String reason = state.checkStep(step, fInputStep);
+		assertNotNull(reason);
+		assertTrue(reason, reason.startsWith("content of input"));
+	}
+
+	public void testRecentlyModifiedInputIsHashedAgain() throws Exception {
+		// the input is modified twice within the resolution of the timestamps
+		File input = writeFile("a.c", "int a;", 0);
+		final long lastModified = input.lastModified();
+		FakeStep step = createStep(input, writeFile("a.o", "obj", OLD));
+		recordBuild(step);
+
+		writeFile("a.c", "int b;", 0);
+		assertTrue(input.setLastModified(lastModified));
+		ContentHashBuildState state = new ContentHashBuildState(fStateFile, null);
+		String reason = state.checkStep(step, fInputStep);
+		assertNotNull(reason);
+		assertTrue(reason, reason.startsWith("content of input"));
+	}
+
+	public void testChangedCommandIsRebuilt() throws Exception {
+		FakeStep step = createStep(writeFile("a.c", "int a;", OLD), writeFile("a.o", "obj", OLD));
+		ContentHashBuildState state = recordBuild(step);
+
+		step.fArgs = "-c -O0";
+		assertEquals("command line changed", state.checkStep(step, fInputStep));
+	}
+
+	public void testMissingOutputIsRebuilt() throws Exception {
+		File output = writeFile("a.o", "obj", OLD);
+		FakeStep step = createStep(writeFile("a.c", "int a;", OLD), output);
+		ContentHashBuildState state = recordBuild(step);
+
+		assertTrue(output.delete());
+		String reason = state.checkStep(step, fInputStep);
+		assertNotNull(reason);
+		assertTrue(reason, reason.endsWith("does not exist"));
+	}
+
+	public void testStartedStepIsRebuilt() throws Exception {
+		FakeStep step = createStep(writeFile("a.c", "int a;", OLD), writeFile("a.o", "obj", OLD));
+		ContentHashBuildState state = recordBuild(step);
+
+		// a step that was interrupted has no record
+		state.stepStarted(step);
+		state.store();
+		state = new ContentHashBuildState(fStateFile, null);
+		assertEquals("no record of a previous build", state.checkStep(step, fInputStep));
+	}
+
+	public void testExplainRebuild() throws Exception {
+		FakeStep step1 = createStep(writeFile("a.c", "int a;", OLD), writeFile("a.o", "obj", OLD));
+		FakeStep step2 = createStep(writeFile("b.c", "int b;", OLD), writeFile("b.o", "obj", OLD));
+		recordBuild(step1);
+		ContentHashBuildState state = recordBuild(step2);
+
+		writeFile("a.c", "int x;", 0);
+		assertNotNull(state.checkStep(step1, fInputStep));
+		assertNull(state.checkStep(step2, fInputStep));
+		state.setRebuildReason(step2, "forced");
+		// a reason found by the check is not replaced
+		state.setRebuildReason(step1, "forced");
+
+		Map<String, String> reasons = state.getRebuildReasons();
+		assertEquals(2, reasons.size());
+		assertTrue(reasons.get(StepDurationHistory.getKey(step1)).startsWith("content of input"));
+		assertEquals("forced", reasons.get(StepDurationHistory.getKey(step2)));
+	}
+}
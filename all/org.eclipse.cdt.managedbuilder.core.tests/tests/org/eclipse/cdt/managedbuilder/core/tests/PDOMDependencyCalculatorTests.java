@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.core.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.core.dom.IPDOMManager;
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.testplugin.CProjectHelper;
+import org.eclipse.cdt.core.testplugin.util.TestSourceReader;
+import org.eclipse.cdt.managedbuilder.pdomdepgen.PDOMDependencyCalculator;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+/**
+ * Tests for the include closures computed from the index.
+ */
+public class PDOMDependencyCalculatorTests extends TestCase {
+	private ICProject fProject;
+
+	public static Test suite() {
+		return new TestSuite(PDOMDependencyCalculatorTests.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		fProject = CProjectHelper.createCCProject("PDOMDependencies" + System.currentTimeMillis(), "bin", IPDOMManager.ID_FAST_INDEXER);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (fProject != null) {
+			CProjectHelper.delete(fProject);
+		}
+		super.tearDown();
+	}
+
+	private IFile createFile(String name, String content) throws Exception {
+		return TestSourceReader.createFile(fProject.getProject(), name, content);
+	}
+
+	private void waitForIndexer() {
+		assertTrue(CCorePlugin.getIndexManager().joinIndexer(10000, new NullProgressMonitor()));
+	}
+
+	private static Set<IPath> getDependencies(IFile source) {
+		return new HashSet<IPath>(Arrays.asList(new PDOMDependencyCalculator(null, source, null, null, null).getDependencies()));
+	}
+
+	private static Set<IPath> locations(IFile... files) {
+		Set<IPath> result = new HashSet<IPath>();
+		for (IFile file : files) {
+			result.add(file.getLocation());
+		}
+		return result;
+	}
+
+	public void testIncludeClosure() throws Exception {
+		IFile d = createFile("d.h", "int d;\n");
+		IFile b = createFile("b.h", "#include \"d.h\"\n");
+		IFile c = createFile("c.h", "#include \"d.h\"\n");
+		IFile e = createFile("e.h", "#include \"e.h\"\n");
+		IFile source1 = createFile("source1.cpp", "#include \"b.h\"\n#include \"c.h\"\n");
+		IFile source2 = createFile("source2.cpp", "#include \"c.h\"\n#include \"e.h\"\n");
+		IFile source3 = createFile("source3.cpp", "int x;\n");
+		waitForIndexer();
+
+		// a header shared by several includes is reported once
+		assertEquals(locations(b, c, d), getDependencies(source1));
+		// the walk terminates on recursive includes
+		assertEquals(locations(c, d, e), getDependencies(source2));
+		assertEquals(locations(), getDependencies(source3));
+	}
+
+	private static void modifyBehindWorkspace(IFile file, String content) throws Exception {
+		// change the file behind the back of the workspace, such that the indexer is not notified
+		File localFile = file.getLocation().toFile();
+		long lastModified = localFile.lastModified();
+		OutputStream out = new FileOutputStream(localFile);
+		try {
+			out.write(content.getBytes());
+		} finally {
+			out.close();
+		}
+		assertTrue(localFile.setLastModified(lastModified + 10000));
+	}
+
+	public void testChangedHeaderIsIndexed() throws Exception {
+		IFile b = createFile("b.h", "int b;\n");
+		IFile c = createFile("c.h", "int c;\n");
+		IFile source = createFile("source.cpp", "#include \"b.h\"\n");
+		waitForIndexer();
+
+		modifyBehindWorkspace(b, "#include \"c.h\"\n");
+
+		assertEquals(locations(b, c), getDependencies(source));
+	}
+
+	public void testChangedHeaderIsScannedWhileIndexerIsBusy() throws Exception {
+		IFile b = createFile("b.h", "int b;\n");
+		IFile c = createFile("c.h", "#include \"d.h\"\n");
+		IFile d = createFile("d.h", "int d;\n");
+		IFile source = createFile("source.cpp", "#include \"b.h\"\n");
+		waitForIndexer();
+
+		// keep the indexer busy
+		final CountDownLatch release = new CountDownLatch(1);
+		Job busy = new Job("Busy Indexer") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				return Status.OK_STATUS;
+			}
+			@Override
+			public boolean belongsTo(Object family) {
+				return family == CCorePlugin.getIndexManager();
+			}
+		};
+		busy.schedule();
+		try {
+			assertFalse(CCorePlugin.getIndexManager().isIndexerIdle());
+			modifyBehindWorkspace(b, "#include \"c.h\"\n#include \"missing.h\"\n");
+
+			// the includes of the changed header and of the newly included files are read from disk
+			assertEquals(locations(b, c, d), getDependencies(source));
+		} finally {
+			release.countDown();
+			busy.join();
+		}
+	}
+}
@@ -0,0 +1,565 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.core.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildDescription;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildIOType;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.core.IConfiguration;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.BuildProcessManager;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.GenDirInfo;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.ParallelBuilder;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.ProcessLauncher;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.StepDurationHistory;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Tests the scheduling of the parallel internal builder on a fake graph of build steps,
+ * the commands of the steps are simulated by threads.
+ */
+public class ParallelBuilderTests extends TestCase {
+	private final AtomicInteger fEvents = new AtomicInteger();
+	private File fHistoryFile;
+
+	public static Test suite() {
+		return new TestSuite(ParallelBuilderTests.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (fHistoryFile != null)
+			fHistoryFile.delete();
+		super.tearDown();
+	}
+
+	private class FakeDescription implements IBuildDescription {
+		final FakeStep fInput = new FakeStep(this, "input", 0, 0);
+		final FakeStep fOutput = new FakeStep(this, "output", 0, 0);
+
+		FakeResource source(String name) {
+			FakeResource rc = new FakeResource(this, name, fInput);
+			fInput.fOutputs.add(rc);
+			return rc;
+		}
+
+		FakeStep step(String name, long duration, FakeResource... inputs) {
+			FakeStep step = new FakeStep(this, name, duration, 1);
+			for (FakeResource input : inputs) {
+				step.fInputs.add(input);
+				input.fDependents.add(step);
+			}
+			step.fOutputs.add(new FakeResource(this, name, step));
+			return step;
+		}
+
+		void finish(FakeStep... steps) {
+			for (FakeStep step : steps) {
+				FakeResource rc = step.fOutputs.get(0);
+				fOutput.fInputs.add(rc);
+				rc.fDependents.add(fOutput);
+			}
+		}
+
+		public IBuildStep getInputStep() {
+			return fInput;
+		}
+		public IBuildStep getOutputStep() {
+			return fOutput;
+		}
+		public IBuildResource getBuildResource(IPath location) {
+			return null;
+		}
+		public IBuildResource getBuildResource(IResource resource) {
+			return null;
+		}
+		public IBuildResource[] getResources() {
+			return new IBuildResource[0];
+		}
+		public IBuildStep[] getSteps() {
+			return new IBuildStep[0];
+		}
+		public IConfiguration getConfiguration() {
+			return null;
+		}
+		public IPath getDefaultBuildDirLocation() {
+			return null;
+		}
+		public URI getDefaultBuildDirLocationURI() {
+			return null;
+		}
+		public IPath getDefaultBuildDirFullPath() {
+			return null;
+		}
+	}
+
+	private class FakeResource implements IBuildResource {
+		final FakeDescription fDescription;
+		final IPath fPath;
+		final FakeStep fProducer;
+		final List<FakeStep> fDependents = new ArrayList<FakeStep>();
+
+		FakeResource(FakeDescription des, String name, FakeStep producer) {
+			fDescription = des;
+			fPath = new Path("/ParallelBuilderTests/out/" + name);
+			fProducer = producer;
+		}
+
+		public IPath getLocation() {
+			return fPath;
+		}
+		public IPath getFullPath() {
+			return fPath;
+		}
+		public URI getLocationURI() {
+			return null;
+		}
+		public IBuildIOType getProducerIOType() {
+			return null;
+		}
+		public IBuildIOType[] getDependentIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildStep getProducerStep() {
+			return fProducer;
+		}
+		public IBuildStep[] getDependentSteps() {
+			return fDependents.toArray(new IBuildStep[fDependents.size()]);
+		}
+		public boolean needsRebuild() {
+			return true;
+		}
+		public boolean isProjectResource() {
+			return false;
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return fDescription;
+		}
+	}
+
+	private class FakeStep implements IBuildStep {
+		final FakeDescription fDescription;
+		final String fName;
+		final long fDuration;
+		final List<FakeResource> fInputs = new ArrayList<FakeResource>();
+		final List<FakeResource> fOutputs = new ArrayList<FakeResource>();
+		int fCommands;
+		int fExitCode = 0;
+		boolean fNeedsRebuild = true;
+		// recorded by the fake launcher
+		int fLaunches = 0;
+		int fStartEvent = -1;
+		int fEndEvent = -1;
+
+		FakeStep(FakeDescription des, String name, long duration, int commands) {
+			fDescription = des;
+			fName = name;
+			fDuration = duration;
+			fCommands = commands;
+		}
+
+		public IBuildIOType[] getInputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public IBuildIOType[] getOutputIOTypes() {
+			return new IBuildIOType[0];
+		}
+		public boolean needsRebuild() {
+			return fNeedsRebuild;
+		}
+		public IBuildResource[] getInputResources() {
+			return fInputs.toArray(new IBuildResource[fInputs.size()]);
+		}
+		public IBuildResource[] getOutputResources() {
+			return fOutputs.toArray(new IBuildResource[fOutputs.size()]);
+		}
+		public boolean isRemoved() {
+			return false;
+		}
+		public IBuildDescription getBuildDescription() {
+			return fDescription;
+		}
+		public IBuildCommand[] getCommands(IPath cwd, Map inStepMap, Map outStepMap, boolean resolveAll) {
+			IBuildCommand[] cmds = new IBuildCommand[fCommands];
+			for (int i = 0; i < cmds.length; i++) {
+				cmds[i] = new FakeCommand(this);
+			}
+			return cmds;
+		}
+		@Override
+		public String toString() {
+			return fName;
+		}
+	}
+
+	private static class FakeCommand implements IBuildCommand {
+		final FakeStep fStep;
+
+		FakeCommand(FakeStep step) {
+			fStep = step;
+		}
+
+		public IPath getCommand() {
+			return new Path(fStep.fName);
+		}
+		public String[] getArgs() {
+			return new String[0];
+		}
+		public Map<String, String> getEnvironment() {
+			return null;
+		}
+		public IPath getCWD() {
+			return null;
+		}
+	}
+
+	/**
+	 * Runs the commands of the fake steps in threads, instead of launching processes
+	 */
+	private class FakeProcessManager extends BuildProcessManager {
+		final List<FakeStep> fLaunched = Collections.synchronizedList(new ArrayList<FakeStep>());
+		int fRunning = 0;
+		int fRefusals = 0;
+
+		FakeProcessManager(int procNumber) {
+			super(null, null, false, procNumber);
+		}
+
+		@Override
+		public synchronized ProcessLauncher launchProcess(IBuildCommand cmd, IPath cwd, IProgressMonitor monitor, OutputStream out, OutputStream err) {
+			if (fRefusals > 0) {
+				fRefusals--;
+				return null;
+			}
+			if (fRunning >= getMaxProcesses())
+				return null;
+			fRunning++;
+			FakeLauncher launcher = new FakeLauncher(((FakeCommand) cmd).fStep, cwd, monitor);
+			launcher.launch();
+			return launcher;
+		}
+
+		synchronized void terminated(FakeLauncher launcher) {
+			fRunning--;
+		}
+
+		private class FakeLauncher extends ProcessLauncher {
+			final FakeStep fStep;
+			volatile int fState = STATE_RUNNING;
+
+			FakeLauncher(FakeStep step, IPath cwd, IProgressMonitor monitor) {
+				super(new Path(step.fName), new String[0], null, cwd, null, null, monitor, false);
+				fStep = step;
+			}
+
+			@Override
+			public void launch() {
+				fLaunched.add(fStep);
+				fStep.fLaunches++;
+				if (fStep.fStartEvent < 0)
+					fStep.fStartEvent = fEvents.incrementAndGet();
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							Thread.sleep(fStep.fDuration);
+						} catch (InterruptedException e) {
+						}
+						fStep.fEndEvent = fEvents.incrementAndGet();
+						terminated(FakeLauncher.this);
+						fState = STATE_DONE;
+						processTerminated(FakeLauncher.this);
+					}
+				}.start();
+			}
+
+			@Override
+			public int queryState() {
+				return fState;
+			}
+
+			@Override
+			public int getExitCode() {
+				return fStep.fExitCode;
+			}
+		}
+	}
+
+	private class TestBuilder extends ParallelBuilder {
+		final List<IBuildStep> fCompleted = new ArrayList<IBuildStep>();
+
+		TestBuilder(OutputStream out, boolean resumeOnErrors, boolean buildIncrementally) {
+			super(new Path(System.getProperty("java.io.tmpdir")),
+					new GenDirInfo(ResourcesPlugin.getWorkspace().getRoot().getProject("ParallelBuilderTests")),
+					out, out, new NullProgressMonitor(), resumeOnErrors, buildIncrementally);
+			history = new StepDurationHistory(null);
+		}
+
+		int build(FakeDescription des, FakeProcessManager mgr) {
+			enqueueAll(des);
+			sortQueue();
+			int status = dispatch(mgr);
+			recordDurations();
+			return status;
+		}
+
+		void setDuration(FakeStep step, long millis) {
+			history.setDuration(step, millis);
+		}
+
+		@Override
+		protected void stepCompleted(BuildQueueElement elem, PriorityQueue<BuildQueueElement> ready) {
+			fCompleted.add(elem.getStep());
+			super.stepCompleted(elem, ready);
+		}
+
+		@Override
+		protected void refreshOutputs(IBuildStep step) {
+			// the outputs of the fake steps are not in the workspace
+		}
+
+		@Override
+		public void printDurations() {
+			super.printDurations();
+		}
+	}
+
+	private void assertBuiltAfter(FakeStep step, FakeStep... predecessors) {
+		assertTrue(step.fName + " was not built", step.fStartEvent > 0);
+		for (FakeStep pred : predecessors) {
+			assertTrue(pred.fName + " was not completed", pred.fEndEvent > 0);
+			assertTrue(step.fName + " started before " + pred.fName + " was completed",
+					step.fStartEvent > pred.fEndEvent);
+		}
+	}
+
+	public void testStepsWaitForTheirInputs() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 40, des.source("a.c"));
+		FakeStep b = des.step("b.o", 20, des.source("b.c"));
+		FakeStep c = des.step("c.o", 30, des.source("c.c"));
+		FakeStep lib = des.step("lib.a", 10, b.fOutputs.get(0), c.fOutputs.get(0));
+		FakeStep app = des.step("app", 10, a.fOutputs.get(0), lib.fOutputs.get(0));
+		des.finish(app);
+
+		FakeProcessManager mgr = new FakeProcessManager(2);
+		TestBuilder builder = new TestBuilder(null, false, false);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+
+		assertEquals(5, mgr.fLaunched.size());
+		assertEquals(5, builder.fCompleted.size());
+		assertBuiltAfter(lib, b, c);
+		assertBuiltAfter(app, a, lib);
+		assertEquals(1, app.fLaunches);
+	}
+
+	public void testLongestPathIsStartedFirst() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep s1 = des.step("s1.o", 5, des.source("s1.c"));
+		FakeStep s2 = des.step("s2.o", 5, des.source("s2.c"));
+		FakeStep x1 = des.step("x1.o", 5, des.source("x.c"));
+		FakeStep x2 = des.step("x2.o", 5, x1.fOutputs.get(0));
+		FakeStep x3 = des.step("x3.o", 5, x2.fOutputs.get(0));
+		des.finish(s1, s2, x3);
+
+		TestBuilder builder = new TestBuilder(null, false, false);
+		builder.setDuration(s1, 10);
+		builder.setDuration(s2, 10);
+		builder.setDuration(x1, 100);
+		builder.setDuration(x2, 100);
+		builder.setDuration(x3, 100);
+		FakeProcessManager mgr = new FakeProcessManager(1);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+
+		assertEquals(5, mgr.fLaunched.size());
+		assertSame(x1, mgr.fLaunched.get(0));
+		assertSame(x2, mgr.fLaunched.get(1));
+		assertSame(x3, mgr.fLaunched.get(2));
+	}
+
+	public void testStepsWithoutHistoryUseAverage() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep known = des.step("known.o", 5, des.source("known.c"));
+		FakeStep unknown1 = des.step("unknown1.o", 5, des.source("unknown.c"));
+		FakeStep unknown2 = des.step("unknown2.o", 5, unknown1.fOutputs.get(0));
+		des.finish(known, unknown2);
+
+		TestBuilder builder = new TestBuilder(null, false, false);
+		// the chain of two unknown steps is estimated longer than the single known one
+		builder.setDuration(known, 50);
+		FakeProcessManager mgr = new FakeProcessManager(1);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+		assertSame(unknown1, mgr.fLaunched.get(0));
+	}
+
+	public void testStepsNotRebuiltAreLookedThrough() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 40, des.source("a.c"));
+		FakeStep b = des.step("b.o", 5, a.fOutputs.get(0));
+		FakeStep c = des.step("c.o", 5, b.fOutputs.get(0));
+		FakeStep d = des.step("d.o", 5, des.source("d.c"));
+		b.fNeedsRebuild = false;
+		des.finish(c, d);
+
+		FakeProcessManager mgr = new FakeProcessManager(3);
+		TestBuilder builder = new TestBuilder(null, false, true);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+
+		assertEquals(3, mgr.fLaunched.size());
+		assertEquals(0, b.fLaunches);
+		assertBuiltAfter(c, a);
+		assertBuiltAfter(d);
+	}
+
+	public void testFullPoolDoesNotCompleteStep() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 20, des.source("a.c"));
+		FakeStep b = des.step("b.o", 20, des.source("b.c"));
+		FakeStep app = des.step("app", 5, a.fOutputs.get(0), b.fOutputs.get(0));
+		a.fCommands = 2;
+		des.finish(app);
+
+		FakeProcessManager mgr = new FakeProcessManager(2);
+		// the first launches find the pool full
+		mgr.fRefusals = 3;
+		TestBuilder builder = new TestBuilder(null, false, false);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+
+		assertEquals(2, a.fLaunches);
+		assertEquals(1, b.fLaunches);
+		assertEquals(1, app.fLaunches);
+		assertBuiltAfter(app, a, b);
+		assertEquals(3, builder.fCompleted.size());
+		assertSame(app, builder.fCompleted.get(2));
+	}
+
+	public void testFailedStepStopsBuild() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 5, des.source("a.c"));
+		FakeStep app = des.step("app", 5, a.fOutputs.get(0));
+		des.finish(app);
+		a.fExitCode = 1;
+
+		FakeProcessManager mgr = new FakeProcessManager(2);
+		TestBuilder builder = new TestBuilder(null, false, false);
+		assertEquals(ParallelBuilder.STATUS_ERROR, builder.build(des, mgr));
+		assertEquals(0, app.fLaunches);
+	}
+
+	public void testFailedStepWithResumeOnErrors() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 5, des.source("a.c"));
+		FakeStep b = des.step("b.o", 5, des.source("b.c"));
+		des.finish(a, b);
+		a.fExitCode = 1;
+
+		FakeProcessManager mgr = new FakeProcessManager(1);
+		TestBuilder builder = new TestBuilder(null, true, false);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, mgr));
+		assertEquals(1, a.fLaunches);
+		assertEquals(1, b.fLaunches);
+	}
+
+	public void testDurationsArePrintedToConsole() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 30, des.source("a.c"));
+		FakeStep b = des.step("b.o", 5, des.source("b.c"));
+		des.finish(a, b);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		TestBuilder builder = new TestBuilder(out, false, false);
+		assertEquals(ParallelBuilder.STATUS_OK, builder.build(des, new FakeProcessManager(2)));
+		builder.printDurations();
+
+		String console = out.toString();
+		int posA = console.indexOf(StepDurationHistory.getKey(a));
+		int posB = console.indexOf(StepDurationHistory.getKey(b));
+		assertTrue(console, posA >= 0);
+		assertTrue(console, posB >= 0);
+		// the slowest step comes first
+		assertTrue(console, posA < posB);
+		assertEquals(2, ParallelBuilder.lastStepDurations.size());
+	}
+
+	public void testDurationHistory() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 5, des.source("a.c"));
+		FakeStep noOutput = new FakeStep(des, "none", 5, 1);
+
+		fHistoryFile = File.createTempFile("durations", ".properties");
+		fHistoryFile.delete();
+		StepDurationHistory history = new StepDurationHistory(fHistoryFile);
+		assertEquals(-1, history.getDuration(a));
+		history.setDuration(a, 100);
+		assertEquals(100, history.getDuration(a));
+		// variations are evened out
+		history.setDuration(a, 200);
+		assertEquals(150, history.getDuration(a));
+
+		// steps without outputs cannot be identified
+		assertNull(StepDurationHistory.getKey(noOutput));
+		history.setDuration(noOutput, 100);
+		assertEquals(-1, history.getDuration(noOutput));
+
+		history.store();
+		assertTrue(fHistoryFile.exists());
+		assertEquals(150, new StepDurationHistory(fHistoryFile).getDuration(a));
+		assertEquals(-1, new StepDurationHistory(null).getDuration(a));
+	}
+
+	public void testWaitForTermination() throws Exception {
+		FakeDescription des = new FakeDescription();
+		FakeStep a = des.step("a.o", 50, des.source("a.c"));
+		FakeProcessManager mgr = new FakeProcessManager(1);
+		int terminated = mgr.getTerminatedCount();
+
+		// returns immediately if a process has terminated in the meantime
+		long time = System.currentTimeMillis();
+		mgr.waitForTermination(terminated - 1, 10000);
+		assertTrue(System.currentTimeMillis() - time < 5000);
+
+		// times out if no process terminates
+		time = System.currentTimeMillis();
+		mgr.waitForTermination(terminated, 100);
+		assertTrue(System.currentTimeMillis() - time >= 90);
+
+		// wakes up when a process terminates
+		assertNotNull(mgr.launchProcess(new FakeCommand(a), new Path("."), new NullProgressMonitor(), null, null));
+		time = System.currentTimeMillis();
+		mgr.waitForTermination(terminated, 10000);
+		assertTrue(System.currentTimeMillis() - time < 5000);
+		assertEquals(terminated + 1, mgr.getTerminatedCount());
+	}
+}
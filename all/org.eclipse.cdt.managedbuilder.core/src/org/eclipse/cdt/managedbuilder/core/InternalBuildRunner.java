@@ -33,7 +33,9 @@ import org.eclipse.cdt.make.core.scannerconfig.ILanguageSettingsBuildOutputScann
 import org.eclipse.cdt.managedbuilder.buildmodel.BuildDescriptionManager;
 import org.eclipse.cdt.managedbuilder.buildmodel.IBuildDescription;
 import org.eclipse.cdt.managedbuilder.internal.buildmodel.BuildDescription;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.BuildOutputCache;
 import org.eclipse.cdt.managedbuilder.internal.buildmodel.BuildStateManager;
+import org.eclipse.cdt.managedbuilder.internal.buildmodel.ContentHashBuildState;
 import org.eclipse.cdt.managedbuilder.internal.buildmodel.DescriptionBuilder;
 import org.eclipse.cdt.managedbuilder.internal.buildmodel.IBuildModelBuilder;
 import org.eclipse.cdt.managedbuilder.internal.buildmodel.IConfigurationBuildState;
@@ -73,6 +75,8 @@ public class InternalBuildRunner extends AbstractBuildRunner {
 	private static final String MARKERS = "ManagedMakeBuilder.message.creating.markers";	//$NON-NLS-1$
 	private static final String NOTHING_BUILT = "ManagedMakeBuilder.message.no.build";	//$NON-NLS-1$
 	private static final String BUILD_ERROR = "ManagedMakeBuilder.message.error";	//$NON-NLS-1$
+	private static final String REBUILD_REASON = "InternalBuilder.rebuild.reason";	//$NON-NLS-1$
+	private static final String CACHE_STATISTICS = "InternalBuilder.cache.statistics";	//$NON-NLS-1$
 
 
 	// TODO: same function is present in CommandBuilder and BuildProcessManager
@@ -200,6 +204,8 @@ public class InternalBuildRunner extends AbstractBuildRunner {
 
 				int status = 0;
 
+				BuildOutputCache outputCache = BuildOutputCache.getDefault();
+				BuildOutputCache.Statistics cacheStats = outputCache != null ? outputCache.getStatistics() : null;
 				long t1 = System.currentTimeMillis();
 				if (isParallel)
 					status = ParallelBuilder.build(des, null, null, epmOutputStream, epmOutputStream, monitor, resumeOnErr, buildIncrementaly);
@@ -243,6 +249,22 @@ public class InternalBuildRunner extends AbstractBuildRunner {
 //					buf.append(ParallelBuilder.lastThreadsUsed);
 				}
 				buf.append(System.getProperty("line.separator", "\n")); //$NON-NLS-1$ //$NON-NLS-2$
+				if (cacheStats != null) {
+					BuildOutputCache.Statistics newStats = outputCache.getStatistics();
+					buf.append(ManagedMakeMessages.getFormattedString(CACHE_STATISTICS, new String[] {
+							Long.toString(newStats.getHits() - cacheStats.getHits()),
+							Long.toString(newStats.getMisses() - cacheStats.getMisses())}));
+					buf.append(System.getProperty("line.separator", "\n")); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				if (des instanceof BuildDescription && ContentHashBuildState.isExplainEnabled()) {
+					ContentHashBuildState hashState = ((BuildDescription)des).getContentHashState();
+					if (hashState != null) {
+						for (Entry<String, String> reason : hashState.getRebuildReasons().entrySet()) {
+							buf.append(ManagedMakeMessages.getFormattedString(REBUILD_REASON, new String[] {reason.getKey(), reason.getValue()}));
+							buf.append(System.getProperty("line.separator", "\n")); //$NON-NLS-1$ //$NON-NLS-2$
+						}
+					}
+				}
 				// Write message on the console
 				consoleOutStream.write(buf.toString().getBytes());
 				consoleOutStream.flush();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2003, 2010 IBM Corporation and others.
+ *  Copyright (c) 2003, 2011 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -33,6 +33,8 @@ import java.util.Random;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -108,6 +110,7 @@ import org.eclipse.cdt.managedbuilder.internal.dataprovider.BuildConfigurationDa
 import org.eclipse.cdt.managedbuilder.internal.dataprovider.ConfigurationDataProvider;
 import org.eclipse.cdt.managedbuilder.internal.envvar.EnvironmentVariableProvider;
 import org.eclipse.cdt.managedbuilder.internal.macros.BuildMacroProvider;
+import org.eclipse.cdt.managedbuilder.internal.scannerconfig.AbstractBuiltinSpecsDetector;
 import org.eclipse.cdt.managedbuilder.internal.tcmodification.ToolChainModificationManager;
 import org.eclipse.cdt.managedbuilder.macros.IBuildMacroProvider;
 import org.eclipse.cdt.managedbuilder.makegen.IManagedBuilderMakefileGenerator;
@@ -4822,6 +4825,38 @@ public class ManagedBuildManager extends AbstractCExtension {
 			}
 		}
 
+		// Run the detectors for all languages concurrently, the loop below picks up the results from the cache
+		List<Future<?>> prefetches = new ArrayList<Future<?>>();
+		for (ILanguageSettingsProvider provider : cfgDescription.getLanguageSettingProviders()) {
+			ILanguageSettingsProvider rawProvider = LanguageSettingsManager.getRawProvider(provider);
+			if (rawProvider instanceof AbstractBuiltinSpecsDetector) {
+				AbstractBuiltinSpecsDetector detector = (AbstractBuiltinSpecsDetector)rawProvider;
+				ICConfigurationDescription cfg = LanguageSettingsManager.isWorkspaceProvider(provider) ? null : cfgDescription;
+				for (String languageId : languageIds) {
+					if (detector.getLanguageScope()==null || detector.getLanguageScope().contains(languageId)) {
+						Future<?> prefetch = detector.prefetch(cfg, project, languageId, workingDirectory, env);
+						if (prefetch!=null) {
+							prefetches.add(prefetch);
+						}
+					}
+				}
+			}
+		}
+		for (Future<?> prefetch : prefetches) {
+			try {
+				if (monitor!=null && monitor.isCanceled()) {
+					prefetch.cancel(true);
+				} else {
+					prefetch.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				ManagedBuilderCorePlugin.log(e);
+			}
+		}
+
 		for (ILanguageSettingsProvider provider : cfgDescription.getLanguageSettingProviders()) {
 			ILanguageSettingsProvider rawProvider = LanguageSettingsManager.getRawProvider(provider);
 			if (rawProvider instanceof ILanguageSettingsBuiltinSpecsDetector) {
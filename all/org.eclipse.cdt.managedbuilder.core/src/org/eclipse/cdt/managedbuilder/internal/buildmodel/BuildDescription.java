@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -98,6 +98,7 @@ public class BuildDescription implements IBuildDescription {
 	private Configuration fCfg;
 	private IResourceDelta fDelta;
 	private IConfigurationBuildState fBuildState;
+	private ContentHashBuildState fContentHashState;
 
 	private Map<ITool, BuildStep> fToolToMultiStepMap = new HashMap<ITool, BuildStep>();
 	private BuildStep fOrderedMultiActions[];
@@ -350,6 +351,22 @@ public class BuildDescription implements IBuildDescription {
 				}
 			}
 
+			if(!removed && rebuild && fContentHashState != null
+					&& action != fInputStep && action != fOutputStep){
+				// skip the step if its effective inputs are unchanged
+				action.setRebuildState(false);
+				if(action.needsRebuild()){
+					fContentHashState.setRebuildReason(action, "tool settings changed");	//$NON-NLS-1$
+					action.setRebuildState(true);
+				} else if(fContentHashState.checkStep(action, fInputStep) == null){
+					if(DbgUtil.DEBUG)
+						DbgUtil.trace("content of inputs unchanged, skipping step");	//$NON-NLS-1$
+					rebuild = false;
+				} else {
+					action.setRebuildState(true);
+				}
+			}
+
 			if(removed){
 				if(DbgUtil.DEBUG)
 					DbgUtil.trace("action to be removed");	//$NON-NLS-1$
@@ -711,6 +728,14 @@ public class BuildDescription implements IBuildDescription {
 		return fOutputStep;
 	}
 
+	/**
+	 * Returns the content hashes of the build steps, or <code>null</code> if the
+	 * content hash based incremental build is not enabled.
+	 */
+	public ContentHashBuildState getContentHashState(){
+		return fContentHashState;
+	}
+
 	public boolean checkFlags(int flags){
 		return (fFlags & flags) == flags;
 	}
@@ -741,6 +766,9 @@ public class BuildDescription implements IBuildDescription {
 		if(fBuildState != null && fBuildState.getState() == IRebuildState.NEED_REBUILD)
 			fInputStep.setRebuildState(true);
 
+		if(fBuildState != null && ContentHashBuildState.isEnabled())
+			fContentHashState = BuildStateManager.getInstance().getContentHashBuildState(fProject, fCfg.getId(), getDefaultBuildDirLocation());
+
 		initToolInfos();
 
 		initMultiSteps();
@@ -0,0 +1,649 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.internal.buildmodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.cdt.internal.core.ProcessClosure;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.cdt.managedbuilder.internal.core.ManagedMakeMessages;
+import org.eclipse.cdt.utils.PathUtil;
+import org.eclipse.cdt.utils.spawner.ProcessFactory;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Local cache for the outputs of build steps. The outputs are stored under a key computed
+ * from the command line, the executable of the compiler and the output of the preprocessor
+ * for the step. When a step with the same key is built again, its outputs are restored from
+ * the cache rather than running the compiler. The cache is shared by all projects and
+ * configurations, its size is limited, the least recently used entries are evicted.
+ * <p>
+ * The headers found by the dependency calculation of a step may be incomplete, therefore
+ * the key is not computed from the contents of the inputs. Only steps consisting of a single
+ * compile command (<code>-c</code>) that can be turned into a preprocessor command
+ * (<code>-E</code>) are cached. Dependency files written by the compiler (<code>-MD</code>,
+ * <code>-MMD</code>, <code>-MF</code>) are cached together with the outputs of the step.
+ * <p>
+ * The cache is enabled via the system property {@link #OUTPUT_CACHE_PROPERTY}.
+ */
+public class BuildOutputCache {
+	/**
+	 * System property to enable the cache, <code>false</code> by default.
+	 */
+	public static final String OUTPUT_CACHE_PROPERTY = "org.eclipse.cdt.managedbuilder.core.outputCache"; //$NON-NLS-1$
+	/**
+	 * System property for the maximum size of the cache in megabytes, the default is 1024.
+	 */
+	public static final String OUTPUT_CACHE_SIZE_PROPERTY = "org.eclipse.cdt.managedbuilder.core.outputCacheSize"; //$NON-NLS-1$
+
+	private static final String CACHE_LOCATION = "outputCache"; //$NON-NLS-1$
+	private static final String LOG_FILE = "output.log"; //$NON-NLS-1$
+	private static final String DEPENDENCY_SUFFIX = ".d"; //$NON-NLS-1$
+	private static final String TMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+	private static final String RESTORED_MSG = "InternalBuilder.restored.from.cache"; //$NON-NLS-1$
+	private static final String BUILDER_MSG_HEADER = "InternalBuilder.msg.header"; //$NON-NLS-1$
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+	private static final int MAX_CAPTURED_OUTPUT = 256 * 1024;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+	private static BuildOutputCache fDefault;
+
+	/**
+	 * Hit and miss counts of the cache.
+	 */
+	public static final class Statistics {
+		private final long fHits;
+		private final long fMisses;
+		private final long fEvictions;
+		private final long fBytes;
+
+		Statistics(long hits, long misses, long evictions, long bytes) {
+			fHits = hits;
+			fMisses = misses;
+			fEvictions = evictions;
+			fBytes = bytes;
+		}
+
+		public long getHits() {
+			return fHits;
+		}
+
+		public long getMisses() {
+			return fMisses;
+		}
+
+		public long getEvictions() {
+			return fEvictions;
+		}
+
+		/**
+		 * Returns the space used by the cache, or <code>-1</code> if it has not been computed, yet.
+		 */
+		public long getBytes() {
+			return fBytes;
+		}
+	}
+
+	/**
+	 * Collects the output of the tools of a step, such that it can be replayed when the step
+	 * is restored from the cache.
+	 */
+	public static final class Capture {
+		private final ByteArrayOutputStream fBuffer = new ByteArrayOutputStream();
+		private boolean fOverflow;
+
+		/**
+		 * Returns a stream that writes to the given stream and to this capture.
+		 */
+		public OutputStream wrap(final OutputStream out) {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					out.write(b);
+					append(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					out.write(b, off, len);
+					append(b, off, len);
+				}
+
+				@Override
+				public void flush() throws IOException {
+					out.flush();
+				}
+
+				@Override
+				public void close() throws IOException {
+					// the underlying stream is shared
+				}
+			};
+		}
+
+		synchronized void append(byte[] b, int off, int len) {
+			if (fOverflow)
+				return;
+			if (fBuffer.size() + len > MAX_CAPTURED_OUTPUT) {
+				fOverflow = true;
+				fBuffer.reset();
+			} else {
+				fBuffer.write(b, off, len);
+			}
+		}
+
+		synchronized byte[] getBytes() {
+			return fOverflow ? null : fBuffer.toByteArray();
+		}
+	}
+
+	private final File fRoot;
+	private final long fSizeLimit;
+	private long fBytes = -1;
+	private long fHits;
+	private long fMisses;
+	private long fEvictions;
+
+	/**
+	 * Returns the cache shared by all builds, or <code>null</code> if it is not enabled.
+	 */
+	public static synchronized BuildOutputCache getDefault() {
+		if (!Boolean.getBoolean(OUTPUT_CACHE_PROPERTY))
+			return null;
+		if (fDefault == null) {
+			long limit = Long.getLong(OUTPUT_CACHE_SIZE_PROPERTY, 1024).longValue() * 1024 * 1024;
+			File root = ManagedBuilderCorePlugin.getDefault().getStateLocation().append(CACHE_LOCATION).toFile();
+			fDefault = new BuildOutputCache(root, limit);
+		}
+		return fDefault;
+	}
+
+	public BuildOutputCache(File root, long sizeLimit) {
+		fRoot = root;
+		fSizeLimit = sizeLimit;
+	}
+
+	/**
+	 * Returns the files written by the given step that are stored in the cache, i.e. the
+	 * outputs of the step followed by the dependency files written by the compiler. Returns
+	 * <code>null</code> if the files cannot be determined.
+	 */
+	public File[] getCachedFiles(IBuildStep step, IBuildCommand[] cmds, IPath cwd) {
+		if (cmds == null || cmds.length != 1 || step == step.getBuildDescription().getInputStep())
+			return null;
+		IBuildResource[] outputs = step.getOutputResources();
+		if (outputs.length == 0)
+			return null;
+		List<IPath> locations = new ArrayList<IPath>();
+		for (IBuildResource rc : outputs) {
+			if (rc.getLocation() == null)
+				return null;
+			locations.add(rc.getLocation());
+		}
+		List<IPath> dependencyFiles = getDependencyFiles(cmds[0].getArgs(), cwd);
+		if (dependencyFiles == null)
+			return null;
+		for (IPath location : dependencyFiles) {
+			if (!locations.contains(location))
+				locations.add(location);
+		}
+		File[] result = new File[locations.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = locations.get(i).toFile();
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the locations of the dependency files written by a compile command with the given
+	 * arguments, or <code>null</code> if they cannot be determined.
+	 */
+	static List<IPath> getDependencyFiles(String[] args, IPath cwd) {
+		List<IPath> result = new ArrayList<IPath>();
+		if (args == null)
+			return result;
+		boolean writesDependencies = false;
+		String dependencyFile = null;
+		String output = null;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-MD") || arg.equals("-MMD")) { //$NON-NLS-1$ //$NON-NLS-2$
+				writesDependencies = true;
+			} else if (arg.equals("-MF") || arg.equals("-o")) { //$NON-NLS-1$ //$NON-NLS-2$
+				if (++i >= args.length)
+					return null;
+				if (arg.equals("-MF")) //$NON-NLS-1$
+					dependencyFile = args[i];
+				else
+					output = args[i];
+			} else if (arg.startsWith("-MF")) { //$NON-NLS-1$
+				dependencyFile = arg.substring(3);
+			} else if (arg.startsWith("-o")) { //$NON-NLS-1$
+				output = arg.substring(2);
+			}
+		}
+		if (dependencyFile == null && writesDependencies) {
+			// the compiler replaces the suffix of the output with '.d'
+			if (output == null)
+				return null;
+			IPath path = new Path(output);
+			if (path.getFileExtension() != null)
+				path = path.removeFileExtension();
+			dependencyFile = path.toString() + DEPENDENCY_SUFFIX;
+		}
+		if (dependencyFile != null)
+			result.add(makeAbsolute(dependencyFile, cwd));
+		return result;
+	}
+
+	/**
+	 * Computes the key for the given step, or returns <code>null</code> if its outputs cannot
+	 * be cached. The preprocessor is run for the step, such that all headers read by the 
+	 * compiler are part of the key. The preprocessor is terminated when the calling thread
+	 * is interrupted.
+	 */
+	public String computeKey(IBuildStep step, IBuildCommand[] cmds, IPath cwd) {
+		File[] files = getCachedFiles(step, cmds, cwd);
+		if (files == null)
+			return null;
+		List<IPath> outputLocations = new ArrayList<IPath>();
+		for (IBuildResource rc : step.getOutputResources()) {
+			outputLocations.add(rc.getLocation());
+		}
+
+		final IBuildCommand cmd = cmds[0];
+		final String[] args = cmd.getArgs();
+		final String[] preprocessorArgs = getPreprocessorArgs(args);
+		if (preprocessorArgs == null)
+			return null;
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			update(md, cmd.getCommand().toString());
+			if (!updateExecutable(md, cmd))
+				return null;
+			// the working directory may end up in the debug information
+			update(md, String.valueOf(cwd));
+			// dependency files name the outputs, the locations are part of the key then
+			final boolean anonymizeOutputs = getDependencyFiles(args, cwd).isEmpty();
+			for (String arg : args) {
+				// the locations of the outputs are not part of the key
+				int idx = anonymizeOutputs ? outputLocations.indexOf(makeAbsolute(arg, cwd)) : -1;
+				update(md, idx >= 0 ? "\0out" + idx : arg); //$NON-NLS-1$
+			}
+			update(md, ""); //$NON-NLS-1$
+			byte[] preprocessed = preprocess(cmd, preprocessorArgs, cwd);
+			if (preprocessed == null)
+				return null;
+			md.update(preprocessed);
+			return toHex(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			ManagedBuilderCorePlugin.log(e);
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Turns the arguments of a compile command into the ones for running the preprocessor
+	 * only, with the output written to stdout. Returns <code>null</code> if the command is not 
+	 * recognized as a compile command.
+	 */
+	public static String[] getPreprocessorArgs(String[] args) {
+		if (args == null)
+			return null;
+		List<String> result = new ArrayList<String>(args.length);
+		boolean compile = false;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-c")) { //$NON-NLS-1$
+				if (compile)
+					return null;
+				compile = true;
+				result.add("-E"); //$NON-NLS-1$
+			} else if (arg.equals("-E") || arg.equals("-S") || arg.equals("-M") || arg.equals("-MM") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					|| arg.startsWith("-save-temps")) { //$NON-NLS-1$
+				return null;
+			} else if (arg.equals("-o") || arg.equals("-MF") || arg.equals("-MT") || arg.equals("-MQ")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				// skip the option and its value
+				i++;
+			} else if (arg.startsWith("-o") || arg.startsWith("-MF") || arg.startsWith("-MT") || arg.startsWith("-MQ") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					|| arg.equals("-MD") || arg.equals("-MMD") || arg.equals("-MP")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				// dependency files are not written by the preprocessor run
+			} else {
+				result.add(arg);
+			}
+		}
+		return compile ? result.toArray(new String[result.size()]) : null;
+	}
+
+	/**
+	 * Runs the preprocessor and returns the hash of its output, or <code>null</code> if it
+	 * fails.
+	 */
+	protected byte[] preprocess(IBuildCommand cmd, String[] args, IPath cwd) {
+		String[] cmdArray = new String[args.length + 1];
+		cmdArray[0] = cmd.getCommand().toOSString();
+		System.arraycopy(args, 0, cmdArray, 1, args.length);
+		String[] env = null;
+		Map<String, String> envMap = cmd.getEnvironment();
+		if (envMap != null) {
+			List<String> list = new ArrayList<String>();
+			for (Entry<String, String> entry : envMap.entrySet()) {
+				list.add(entry.getKey() + '=' + entry.getValue());
+			}
+			env = list.toArray(new String[list.size()]);
+		}
+		try {
+			final MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			OutputStream out = new OutputStream() {
+				@Override
+				public void write(int b) {
+					md.update((byte) b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) {
+					md.update(b, off, len);
+				}
+			};
+			Process process = ProcessFactory.getFactory().exec(cmdArray, env, cwd == null ? null : cwd.toFile());
+			try {
+				process.getOutputStream().close();
+			} catch (IOException e) {
+				// do nothing
+			}
+			ProcessClosure closure = new ProcessClosure(process, out, new ByteArrayOutputStream());
+			closure.runNonBlocking();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				// the build was canceled
+				closure.terminate();
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			// waits for the output of the terminated process
+			closure.terminate();
+			if (process.exitValue() != 0)
+				return null;
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			ManagedBuilderCorePlugin.log(e);
+		} catch (IOException e) {
+			if (DbgUtil.DEBUG)
+				DbgUtil.trace("failed to run the preprocessor: " + e.getMessage()); //$NON-NLS-1$
+		}
+		return null;
+	}
+
+	private static IPath makeAbsolute(String arg, IPath cwd) {
+		IPath path = new Path(arg);
+		if (!path.isAbsolute() && cwd != null)
+			path = cwd.append(path);
+		return path;
+	}
+
+	private static void update(MessageDigest md, String str) throws IOException {
+		md.update(str.getBytes("UTF-8")); //$NON-NLS-1$
+		md.update((byte) 0);
+	}
+
+	/**
+	 * The executable of a tool is identified by its location, timestamp and length.
+	 */
+	private boolean updateExecutable(MessageDigest md, IBuildCommand cmd) throws IOException {
+		IPath command = cmd.getCommand();
+		IPath location = command;
+		if (!command.isAbsolute()) {
+			Map<String, String> env = cmd.getEnvironment();
+			String envPath = env == null ? null : env.get("PATH"); //$NON-NLS-1$
+			location = PathUtil.findProgramLocation(command.toOSString(), envPath);
+			if (location == null)
+				return false;
+		}
+		File file = location.toFile();
+		if (!file.isFile())
+			return false;
+		update(md, location.toString());
+		update(md, file.lastModified() + "," + file.length()); //$NON-NLS-1$
+		return true;
+	}
+
+	private File getEntry(String key) {
+		return new File(new File(fRoot, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Restores the files of the step from the cache and replays the output of the tools.
+	 * Returns whether the files were restored. The files are copied next to their targets
+	 * first and renamed when all of them are complete, such that a failure does not leave
+	 * truncated outputs behind.
+	 * 
+	 * @param files the files of the step as returned by {@link #getCachedFiles(IBuildStep, IBuildCommand[], IPath)}
+	 */
+	public boolean restore(String key, File[] files, IBuildStep step, OutputStream out) {
+		File entry = getEntry(key);
+		boolean restored = entry.isDirectory() && new File(entry, LOG_FILE).isFile();
+		for (int i = 0; restored && i < files.length; i++) {
+			restored = new File(entry, Integer.toString(i)).isFile();
+		}
+		if (restored) {
+			File[] tmpFiles = new File[files.length];
+			try {
+				for (int i = 0; i < files.length; i++) {
+					tmpFiles[i] = new File(files[i].getPath() + TMP_SUFFIX + Thread.currentThread().getId());
+					copy(new File(entry, Integer.toString(i)), tmpFiles[i]);
+				}
+				for (int i = 0; i < files.length; i++) {
+					files[i].delete();
+					if (!tmpFiles[i].renameTo(files[i]))
+						throw new IOException("cannot rename " + tmpFiles[i]); //$NON-NLS-1$
+					tmpFiles[i] = null;
+					files[i].setLastModified(System.currentTimeMillis());
+				}
+				entry.setLastModified(System.currentTimeMillis());
+				if (out != null) {
+					File log = new File(entry, LOG_FILE);
+					if (log.length() > 0)
+						copy(log, out);
+					String msg = ManagedMakeMessages.getFormattedString(RESTORED_MSG, StepDurationHistory.getKey(step));
+					out.write((ManagedMakeMessages.getFormattedString(BUILDER_MSG_HEADER, msg) + LINE_SEPARATOR).getBytes());
+					out.flush();
+				}
+			} catch (IOException e) {
+				if (DbgUtil.DEBUG)
+					DbgUtil.trace("failed to restore outputs from cache: " + e.getMessage()); //$NON-NLS-1$
+				restored = false;
+			} finally {
+				for (File tmp : tmpFiles) {
+					if (tmp != null)
+						tmp.delete();
+				}
+			}
+		}
+		synchronized (this) {
+			if (restored)
+				fHits++;
+			else
+				fMisses++;
+		}
+		return restored;
+	}
+
+	/**
+	 * Stores the files of a step that was built successfully.
+	 * 
+	 * @param files the files of the step as returned by {@link #getCachedFiles(IBuildStep, IBuildCommand[], IPath)}
+	 */
+	public void store(String key, File[] files, Capture capture) {
+		byte[] log = capture == null ? new byte[0] : capture.getBytes();
+		if (log == null)
+			return;
+		File entry = getEntry(key);
+		if (entry.exists())
+			return;
+		File tmp = new File(entry.getParentFile(), key + TMP_SUFFIX + Thread.currentThread().getId());
+		if (!tmp.mkdirs())
+			return;
+		long size = log.length;
+		try {
+			for (int i = 0; i < files.length; i++) {
+				File source = files[i];
+				if (!source.isFile() || source.length() > fSizeLimit / 4) {
+					deleteAll(tmp);
+					return;
+				}
+				copy(source, new File(tmp, Integer.toString(i)));
+				size += source.length();
+			}
+			OutputStream os = new FileOutputStream(new File(tmp, LOG_FILE));
+			try {
+				os.write(log);
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			deleteAll(tmp);
+			return;
+		}
+		if (!tmp.renameTo(entry)) {
+			deleteAll(tmp);
+			return;
+		}
+		synchronized (this) {
+			if (fBytes >= 0)
+				fBytes += size;
+		}
+		trim();
+	}
+
+	/**
+	 * Evicts the least recently used entries until the cache is within its size limit.
+	 */
+	private synchronized void trim() {
+		if (fBytes >= 0 && fBytes <= fSizeLimit)
+			return;
+
+		List<File> entries = new ArrayList<File>();
+		final Map<File, Long> timestamps = new HashMap<File, Long>();
+		long total = 0;
+		File[] dirs = fRoot.listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				File[] files = dir.listFiles();
+				if (files == null)
+					continue;
+				for (File entry : files) {
+					if (entry.getName().indexOf(TMP_SUFFIX) >= 0)
+						continue;
+					entries.add(entry);
+					timestamps.put(entry, new Long(entry.lastModified()));
+					total += sizeOf(entry);
+				}
+			}
+		}
+		fBytes = total;
+		if (fBytes <= fSizeLimit)
+			return;
+
+		Collections.sort(entries, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return timestamps.get(f1).compareTo(timestamps.get(f2));
+			}
+		});
+		// make room for further entries
+		final long target = fSizeLimit - fSizeLimit / 10;
+		for (File entry : entries) {
+			if (fBytes <= target)
+				break;
+			long size = sizeOf(entry);
+			deleteAll(entry);
+			fBytes -= size;
+			fEvictions++;
+		}
+	}
+
+	public synchronized Statistics getStatistics() {
+		return new Statistics(fHits, fMisses, fEvictions, fBytes);
+	}
+
+	private static long sizeOf(File dir) {
+		long size = 0;
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	private static void deleteAll(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static void copy(File source, File target) throws IOException {
+		OutputStream out = new FileOutputStream(target);
+		try {
+			copy(source, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void copy(File source, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(source);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static String toHex(byte[] digest) {
+		char[] result = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+			result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
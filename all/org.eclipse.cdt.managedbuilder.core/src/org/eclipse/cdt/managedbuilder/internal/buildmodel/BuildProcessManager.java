@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2007 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -41,6 +41,9 @@ public class BuildProcessManager {
 	protected boolean show;
 	protected ProcessLauncher[] processes;
 	protected int maxProcesses;  
+	// Notified when a process terminates.
+	private final Object terminationLock = new Object();
+	private int terminatedCount = 0;
 	
 //	 Number of CPUs is not dependent of object instance.
 //   But user can change UI settings for processes number.
@@ -79,6 +82,15 @@ public class BuildProcessManager {
 	 * @param monitor Progress monitor for this task 
 	 */
 	public ProcessLauncher launchProcess(IBuildCommand cmd, IPath cwd, IProgressMonitor monitor) {
+		return launchProcess(cmd, cwd, monitor, out, err);
+	}
+
+	/**
+	 * Performs an attempt to launch new process, writing its output to the given streams. 
+	 * 
+	 * @see #launchProcess(IBuildCommand, IPath, IProgressMonitor)
+	 */
+	public ProcessLauncher launchProcess(IBuildCommand cmd, IPath cwd, IProgressMonitor monitor, OutputStream out, OutputStream err) {
 		if (hasEmpty()) {
 			int i = 0;
 			for (; i < maxProcesses; i++) {
@@ -89,6 +101,7 @@ public class BuildProcessManager {
 			
 			if (i < maxProcesses) {
 				processes[i] = new ProcessLauncher(cmd.getCommand(), cmd.getArgs(), mapToStringArray(cmd.getEnvironment()), cwd, out, err, monitor, show);
+				processes[i].processManager = this;
 				processes[i].launch();
 				return processes[i];
 			}
@@ -117,6 +130,49 @@ public class BuildProcessManager {
 		return result;
 	}
 
+	/**
+	 * Called by a launcher when its process has terminated.
+	 */
+	protected void processTerminated(ProcessLauncher launcher) {
+		synchronized (terminationLock) {
+			terminatedCount++;
+			terminationLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Returns the number of processes that have terminated so far. 
+	 */
+	public int getTerminatedCount() {
+		synchronized (terminationLock) {
+			return terminatedCount;
+		}
+	}
+
+	/**
+	 * Blocks until the number of terminated processes differs from the given one, or
+	 * the timeout expires.
+	 * 
+	 * @param terminated Number of terminated processes as returned by {@link #getTerminatedCount()}
+	 * @param timeout Maximum time to wait in milliseconds
+	 */
+	public void waitForTermination(int terminated, long timeout) {
+		final long end = System.currentTimeMillis() + timeout;
+		synchronized (terminationLock) {
+			while (terminatedCount == terminated) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					break;
+				try {
+					terminationLock.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+	}
+
 	/**
 	 * Checks states of all currently running processes. 
 	 */
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2008 Intel Corporation and others.
+ * Copyright (c) 2007, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -27,6 +27,8 @@ import org.eclipse.core.runtime.IPath;
 
 public class BuildStateManager {
 	private static final String PREFS_LOCATION = "buildState"; //$NON-NLS-1$
+	private static final String DURATIONS_FILE_PREFIX = "durations."; //$NON-NLS-1$
+	private static final String HASHES_FILE_PREFIX = "hashes."; //$NON-NLS-1$
 
 	private static BuildStateManager fInstance;
 	
@@ -167,6 +169,24 @@ public class BuildStateManager {
 	public void setProjectBuildState(IProject project, IProjectBuildState state){
 		((ProjectBuildState)state).serialize();
 	}
+
+	/**
+	 * Returns the durations of the build steps measured in earlier builds of the configuration.
+	 * Changes to the history are persisted via {@link StepDurationHistory#store()}.
+	 */
+	public StepDurationHistory getStepDurationHistory(IProject project, String cfgId){
+		IPath path = getPrefsDirPath(project).append(DURATIONS_FILE_PREFIX + cfgId);
+		return new StepDurationHistory(path.toFile());
+	}
+
+	/**
+	 * Returns the content hashes recorded for the build steps of the configuration.
+	 * Changes to the state are persisted via {@link ContentHashBuildState#store()}.
+	 */
+	public ContentHashBuildState getContentHashBuildState(IProject project, String cfgId, IPath cwd){
+		IPath path = getPrefsDirPath(project).append(HASHES_FILE_PREFIX + cfgId);
+		return new ContentHashBuildState(path.toFile(), cwd);
+	}
 	
 	private IPath getPrefsDirPath(){
 		IPath path = ManagedBuilderCorePlugin.getDefault().getStateLocation();
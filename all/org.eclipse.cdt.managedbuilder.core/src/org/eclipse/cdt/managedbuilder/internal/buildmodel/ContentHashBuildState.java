@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.internal.buildmodel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Records the content hashes of the inputs and the command lines of the build steps of a
+ * configuration. A step that is marked for rebuild because of a changed timestamp can be
+ * skipped when the contents of its inputs (including the headers found by the dependency
+ * calculation) and its commands are the same as in the last successful build.
+ * <p>
+ * The mode is enabled via the system property {@link #CONTENT_HASH_PROPERTY}. The
+ * reasons for rebuilding the steps are available via {@link #getRebuildReasons()}.
+ */
+public class ContentHashBuildState {
+	/**
+	 * System property to enable the content hash based incremental build,
+	 * <code>false</code> by default.
+	 */
+	public static final String CONTENT_HASH_PROPERTY = "org.eclipse.cdt.managedbuilder.core.contentHashBuild"; //$NON-NLS-1$
+	/**
+	 * System property to print the reasons for rebuilding the steps to the build console,
+	 * <code>false</code> by default.
+	 */
+	public static final String EXPLAIN_REBUILD_PROPERTY = "org.eclipse.cdt.managedbuilder.core.explainRebuild"; //$NON-NLS-1$
+
+	private static final String FILE_PREFIX = "file."; //$NON-NLS-1$
+	private static final String COMMAND_PREFIX = "cmd."; //$NON-NLS-1$
+	private static final String INPUTS_PREFIX = "in."; //$NON-NLS-1$
+	private static final String OUTPUTS_PREFIX = "out."; //$NON-NLS-1$
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	/**
+	 * Coarsest resolution of file timestamps, a file modified within this time before its hash was
+	 * computed may be modified again without changing its timestamp.
+	 */
+	static final long TIMESTAMP_GRANULARITY = 2000;
+
+	private final File fFile;
+	private final IPath fCWD;
+	private final Properties fProps = new Properties();
+	private final Map<String, String> fCurrentHashes = new HashMap<String, String>();
+	private final Map<String, String> fRebuildReasons = Collections.synchronizedMap(new LinkedHashMap<String, String>());
+	private boolean fDirty;
+
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(CONTENT_HASH_PROPERTY);
+	}
+
+	public static boolean isExplainEnabled() {
+		return Boolean.getBoolean(EXPLAIN_REBUILD_PROPERTY);
+	}
+
+	/**
+	 * Creates the state stored in the given file, the file may not exist.
+	 * @param cwd the working directory used to compute the commands of the steps.
+	 */
+	public ContentHashBuildState(File file, IPath cwd) {
+		fFile = file;
+		fCWD = cwd;
+		if (file != null && file.exists()) {
+			try {
+				InputStream iStream = new FileInputStream(file);
+				try {
+					fProps.load(iStream);
+				} finally {
+					iStream.close();
+				}
+			} catch (IOException e) {
+				ManagedBuilderCorePlugin.log(e);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the given step, which is marked for rebuild, can be skipped because
+	 * its effective inputs did not change since its last successful build.
+	 * @return <code>null</code> if the step can be skipped, or the reason for rebuilding it.
+	 */
+	public synchronized String checkStep(IBuildStep step, IBuildStep inputStep) {
+		String reason = computeRebuildReason(step, inputStep);
+		String key = StepDurationHistory.getKey(step);
+		if (key != null && reason != null) {
+			fRebuildReasons.put(key, reason);
+			if (DbgUtil.DEBUG)
+				DbgUtil.trace("step " + DbgUtil.stepName(step) + " needs rebuild: " + reason); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return reason;
+	}
+
+	private String computeRebuildReason(IBuildStep step, IBuildStep inputStep) {
+		String key = StepDurationHistory.getKey(step);
+		if (key == null)
+			return "step has no outputs"; //$NON-NLS-1$
+		String cmdHash = fProps.getProperty(COMMAND_PREFIX + key);
+		String inputs = fProps.getProperty(INPUTS_PREFIX + key);
+		String outputs = fProps.getProperty(OUTPUTS_PREFIX + key);
+		if (cmdHash == null || inputs == null || outputs == null)
+			return "no record of a previous build"; //$NON-NLS-1$
+
+		Map<String, String> previous = parseHashes(outputs);
+		for (IBuildResource rc : step.getOutputResources()) {
+			String path = getPath(rc);
+			String hash = getContentHash(rc);
+			if (hash == null)
+				return "output " + path + " does not exist"; //$NON-NLS-1$ //$NON-NLS-2$
+			if (!hash.equals(previous.get(path)))
+				return "output " + path + " was modified"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		previous = parseHashes(inputs);
+		IBuildResource[] rcs = step.getInputResources();
+		for (IBuildResource rc : rcs) {
+			String path = getPath(rc);
+			if (rc.isRemoved())
+				return "input " + path + " was removed"; //$NON-NLS-1$ //$NON-NLS-2$
+			IBuildStep producer = rc.getProducerStep();
+			if (producer != null && producer != inputStep && producer.needsRebuild())
+				return "input " + path + " is regenerated"; //$NON-NLS-1$ //$NON-NLS-2$
+			String old = previous.remove(path);
+			if (old == null)
+				return "input " + path + " was added"; //$NON-NLS-1$ //$NON-NLS-2$
+			String hash = getContentHash(rc);
+			if (hash == null)
+				return "input " + path + " cannot be read"; //$NON-NLS-1$ //$NON-NLS-2$
+			if (!hash.equals(old))
+				return "content of input " + path + " changed"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		if (!previous.isEmpty())
+			return "input " + previous.keySet().iterator().next() + " is no longer used"; //$NON-NLS-1$ //$NON-NLS-2$
+
+		if (!cmdHash.equals(getCommandHash(step)))
+			return "command line changed"; //$NON-NLS-1$
+		return null;
+	}
+
+	/**
+	 * Records the reason for rebuilding a step that was not checked by {@link #checkStep}.
+	 */
+	public void setRebuildReason(IBuildStep step, String reason) {
+		String key = StepDurationHistory.getKey(step);
+		if (key != null && !fRebuildReasons.containsKey(key))
+			fRebuildReasons.put(key, reason);
+	}
+
+	/**
+	 * Returns the reasons for rebuilding steps, keyed by the path of the first output of the step.
+	 */
+	public Map<String, String> getRebuildReasons() {
+		synchronized (fRebuildReasons) {
+			return new LinkedHashMap<String, String>(fRebuildReasons);
+		}
+	}
+
+	/**
+	 * Discards the record of the step, must be called before the step is executed.
+	 */
+	public synchronized void stepStarted(IBuildStep step) {
+		String key = StepDurationHistory.getKey(step);
+		if (key == null)
+			return;
+		if (fProps.remove(COMMAND_PREFIX + key) != null)
+			fDirty = true;
+		fProps.remove(INPUTS_PREFIX + key);
+		fProps.remove(OUTPUTS_PREFIX + key);
+		for (IBuildResource rc : step.getOutputResources()) {
+			fCurrentHashes.remove(getPath(rc));
+		}
+	}
+
+	/**
+	 * Records the hashes of the inputs and the commands of a step that was executed successfully.
+	 */
+	public synchronized void stepBuilt(IBuildStep step) {
+		String key = StepDurationHistory.getKey(step);
+		if (key == null)
+			return;
+		String inputs = formatHashes(step.getInputResources());
+		String outputs = formatHashes(step.getOutputResources());
+		if (inputs == null || outputs == null)
+			return;
+		fProps.setProperty(COMMAND_PREFIX + key, getCommandHash(step));
+		fProps.setProperty(INPUTS_PREFIX + key, inputs);
+		fProps.setProperty(OUTPUTS_PREFIX + key, outputs);
+		fDirty = true;
+	}
+
+	/**
+	 * Writes the state to its file, if it was changed.
+	 */
+	public synchronized void store() {
+		if (!fDirty || fFile == null)
+			return;
+		File parent = fFile.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+		try {
+			OutputStream oStream = new FileOutputStream(fFile);
+			try {
+				fProps.store(oStream, ""); //$NON-NLS-1$
+			} finally {
+				oStream.close();
+			}
+			fDirty = false;
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+	}
+
+	/**
+	 * Formats the hashes of the resources as lines of hash and path, returns <code>null</code>
+	 * if one of the resources cannot be read.
+	 */
+	private String formatHashes(IBuildResource[] rcs) {
+		StringBuilder buf = new StringBuilder();
+		for (IBuildResource rc : rcs) {
+			String hash = getContentHash(rc);
+			if (hash == null)
+				return null;
+			buf.append(hash).append(' ').append(getPath(rc)).append('\n');
+		}
+		return buf.toString();
+	}
+
+	private static Map<String, String> parseHashes(String hashes) {
+		Map<String, String> result = new HashMap<String, String>();
+		int start = 0;
+		while (start < hashes.length()) {
+			int end = hashes.indexOf('\n', start);
+			if (end < 0)
+				end = hashes.length();
+			int sep = hashes.indexOf(' ', start);
+			if (sep > start && sep < end)
+				result.put(hashes.substring(sep + 1, end), hashes.substring(start, sep));
+			start = end + 1;
+		}
+		return result;
+	}
+
+	private static String getPath(IBuildResource rc) {
+		IPath location = rc.getLocation();
+		return location == null ? String.valueOf(rc.getFullPath()) : location.toString();
+	}
+
+	/**
+	 * Returns the hash of the content of the resource. The hash stored for the file is
+	 * reused as long as the timestamp and the length of the file are unchanged. The hash 
+	 * of a file that was modified shortly before it was read is not stored, because a 
+	 * later modification may not change the timestamp.
+	 */
+	private String getContentHash(IBuildResource rc) {
+		String path = getPath(rc);
+		String hash = fCurrentHashes.get(path);
+		if (hash != null)
+			return hash;
+
+		IPath location = rc.getLocation();
+		if (location == null)
+			return null;
+		File file = location.toFile();
+		if (!file.isFile())
+			return null;
+		final long now = System.currentTimeMillis();
+		final long lastModified = file.lastModified();
+		final String stamp = lastModified + "," + file.length() + ","; //$NON-NLS-1$ //$NON-NLS-2$
+		String stored = fProps.getProperty(FILE_PREFIX + path);
+		if (stored != null && stored.startsWith(stamp)) {
+			hash = stored.substring(stamp.length());
+		} else {
+			hash = computeFileHash(file);
+			if (hash == null)
+				return null;
+			if (lastModified < now - TIMESTAMP_GRANULARITY) {
+				fProps.setProperty(FILE_PREFIX + path, stamp + hash);
+				fDirty = true;
+			} else if (fProps.remove(FILE_PREFIX + path) != null) {
+				fDirty = true;
+			}
+		}
+		fCurrentHashes.put(path, hash);
+		return hash;
+	}
+
+	private static String computeFileHash(File file) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0) {
+					md.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+			return toHex(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			ManagedBuilderCorePlugin.log(e);
+		} catch (IOException e) {
+			// treat as unreadable
+		}
+		return null;
+	}
+
+	/**
+	 * Computes the hash of the commands of the step. The environment is not part of the
+	 * hash, it typically contains values that vary between builds.
+	 */
+	String getCommandHash(IBuildStep step) {
+		List<String> parts = new ArrayList<String>();
+		IBuildCommand[] cmds = step.getCommands(fCWD, null, null, true);
+		if (cmds != null) {
+			for (IBuildCommand cmd : cmds) {
+				parts.add(String.valueOf(cmd.getCommand()));
+				String[] args = cmd.getArgs();
+				if (args != null) {
+					for (String arg : args) {
+						parts.add(arg);
+					}
+				}
+				parts.add(""); //$NON-NLS-1$
+			}
+		}
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			for (String part : parts) {
+				md.update(part.getBytes("UTF-8")); //$NON-NLS-1$
+				md.update((byte) 0);
+			}
+			return toHex(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			ManagedBuilderCorePlugin.log(e);
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+		return ""; //$NON-NLS-1$
+	}
+
+	private static String toHex(byte[] digest) {
+		char[] result = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+			result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
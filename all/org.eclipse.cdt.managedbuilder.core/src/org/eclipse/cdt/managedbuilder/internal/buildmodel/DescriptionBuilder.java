@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2007 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -52,6 +52,7 @@ public class DescriptionBuilder implements IBuildModelBuilder {
 	private int fNumCommands = -1;
 	private GenDirInfo fDir;
 	private IResourceRebuildStateContainer fRebuildStateContainer;
+	private ContentHashBuildState fContentHashState;
 	
 	private class BuildStepVisitor implements IStepVisitor{
 		private OutputStream fOut;
@@ -88,8 +89,12 @@ public class DescriptionBuilder implements IBuildModelBuilder {
 				StepBuilder builder = getStepBuilder(action);//new StepBuilder(action, fCWD, fResumeOnErrs, fDir);
 				
 				if(fBuild){
+					if(fContentHashState != null)
+						fContentHashState.stepStarted(action);
 					switch(builder.build(fOut, fErr, new SubProgressMonitor(fMonitor, builder.getNumCommands()))){
 					case STATUS_OK:
+						if(fContentHashState != null)
+							fContentHashState.stepBuilt(action);
 						break;
 					case STATUS_CANCELLED:
 						fStatus = STATUS_CANCELLED;
@@ -136,6 +141,8 @@ public class DescriptionBuilder implements IBuildModelBuilder {
 			fCWD = fDes.getDefaultBuildDirLocation();
 		
 		fRebuildStateContainer = rs;
+		if(fDes instanceof BuildDescription)
+			fContentHashState = ((BuildDescription)fDes).getContentHashState();
 	}
 
 	/* (non-Javadoc)
@@ -174,6 +181,8 @@ public class DescriptionBuilder implements IBuildModelBuilder {
 
 		if(status == STATUS_OK)
 			clearRebuildStates();
+		if(fContentHashState != null)
+			fContentHashState.store();
 		
 		return status;
 	}
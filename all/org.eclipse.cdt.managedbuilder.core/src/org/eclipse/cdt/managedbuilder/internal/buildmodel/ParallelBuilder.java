@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,13 +10,23 @@
  *******************************************************************************/
 package org.eclipse.cdt.managedbuilder.internal.buildmodel;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.managedbuilder.buildmodel.IBuildCommand;
@@ -26,6 +36,8 @@ import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
 import org.eclipse.cdt.managedbuilder.core.IConfiguration;
 import org.eclipse.cdt.managedbuilder.internal.core.Configuration;
 import org.eclipse.cdt.managedbuilder.internal.core.ManagedMakeMessages;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspaceRoot;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
@@ -34,7 +46,12 @@ import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 
 /**
- * This is the main class for parallel internal builder implementation 
+ * This is the main class for parallel internal builder implementation.
+ * 
+ * The build steps form a dependency graph, a step is released for execution as soon as
+ * all steps producing its inputs have completed. Among the released steps the ones on the
+ * longest remaining path are launched first, the durations of the steps are taken from
+ * earlier builds (see {@link StepDurationHistory}). 
  *
  * NOTE: This class is subject to change and discuss, 
  * and is currently available in experimental mode only
@@ -46,10 +63,21 @@ public class ParallelBuilder {
 	public static final int STATUS_INVALID = -1;
 	public static final long MAIN_LOOP_DELAY = 50L;
 	
+	// Results of ActiveBuildStep.launchNextCmd()
+	protected static final int CMD_LAUNCHED = 0;
+	protected static final int STEP_COMPLETE = 1;
+	protected static final int POOL_FULL = 2;
+	
+	/** Maximum number of steps listed in the timing report on the console */
+	public static final int MAX_REPORTED_STEPS = 10;
+	
 	private static final String BUILDER_MSG_HEADER = "InternalBuilder.msg.header"; //$NON-NLS-1$ 
+	private static final String STEP_DURATIONS_MSG = "InternalBuilder.step.durations"; //$NON-NLS-1$ 
+	private static final String STEP_DURATION_MSG = "InternalBuilder.step.duration"; //$NON-NLS-1$ 
 	private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n"); //$NON-NLS-1$ //$NON-NLS-2$
 	
 	public static int lastThreadsUsed = 0; // use externally for report purposes only
+	public static Map<String, Long> lastStepDurations = Collections.emptyMap(); // use externally for report purposes only
 	
 	protected IPath cwd;
 	protected GenDirInfo dirs;
@@ -61,6 +89,9 @@ public class ParallelBuilder {
 	protected HashSet<BuildQueueElement> unsorted = new HashSet<BuildQueueElement>();
 	protected HashMap<IBuildStep, BuildQueueElement> queueHash = new HashMap<IBuildStep, BuildQueueElement>();
 	protected LinkedList<BuildQueueElement> queue = new LinkedList<BuildQueueElement>();
+	protected StepDurationHistory history;
+	protected ContentHashBuildState contentHashState;
+	protected BuildOutputCache outputCache;
 
 	/**
 	 * This class implements queue element
@@ -68,6 +99,12 @@ public class ParallelBuilder {
 	protected class BuildQueueElement implements Comparable<BuildQueueElement> {
 		protected IBuildStep step;
 		protected int level;
+		protected List<BuildQueueElement> successors = new ArrayList<BuildQueueElement>();
+		protected int pendingPredecessors = 0;
+		protected long priority = -1;
+		protected long startTime = 0;
+		protected long endTime = 0;
+		protected boolean failed = false;
 		
 		public BuildQueueElement(IBuildStep _step, int _level) {
 			step = _step;
@@ -112,12 +149,41 @@ public class ParallelBuilder {
 			} else { return false; }
 		}
 		
+		/**
+		 * Returns the estimated time needed to build this step and all steps depending on it.
+		 */
+		public long getPriority() {
+			return priority;
+		}
+		
+		/**
+		 * Returns the time in milliseconds it took to build the step, or -1 if it was not built.
+		 */
+		public long getDuration() {
+			if (startTime == 0 || endTime == 0)
+				return -1;
+			return endTime - startTime;
+		}
+		
 		@Override
 		public String toString() {
 			return"[BuildQueueElement] " + DbgUtil.stepName(step) + " @ " + level; //$NON-NLS-1$ //$NON-NLS-2$
 		}
  	}
 	
+	/**
+	 * Orders queue elements such that the one with the highest priority comes first
+	 */
+	private static final Comparator<BuildQueueElement> PRIORITY_COMPARATOR = new Comparator<BuildQueueElement>() {
+		public int compare(BuildQueueElement e1, BuildQueueElement e2) {
+			if (e1.getPriority() > e2.getPriority())
+				return -1;
+			if (e1.getPriority() < e2.getPriority())
+				return 1;
+			return e1.compareTo(e2);
+		}
+	};
+	
 	/**
 	 * This class stores information about step being built
 	 */
@@ -129,6 +195,12 @@ public class ParallelBuilder {
 		protected int activeCmd;
 		protected boolean done;
 		protected ProcessLauncher launcher;
+		protected String cacheKey;
+		protected File[] cachedFiles;
+		protected BuildOutputCache.Capture capture;
+		protected volatile boolean lookupPending;
+		protected OutputStream stepOut = out;
+		protected OutputStream stepErr = err;
 		
 		public ActiveBuildStep(IBuildStep _step) {
 			step = _step;
@@ -147,23 +219,88 @@ public class ParallelBuilder {
 			createOutDirs();
 		}
 		
-		public boolean launchNextCmd(BuildProcessManager mgr) {
-			if (monitor.isCanceled()) {
-				done = true;
-				return false;
+		/**
+		 * Looks up the outputs of the step in the cache on the given executor, such that 
+		 * running the preprocessor for the key does not hold up the dispatching of other
+		 * steps. The dispatcher is woken up via the process manager when the lookup is done.
+		 */
+		public void startCacheLookup(ExecutorService executor, final BuildProcessManager mgr) {
+			lookupPending = true;
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							restoreFromCache();
+						} finally {
+							lookupPending = false;
+							mgr.processTerminated(null);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				lookupPending = false;
 			}
-			if (activeCmd + 1 >= cmds.length)
+		}
+		
+		/**
+		 * Returns whether the lookup in the cache has not completed, yet
+		 */
+		public boolean isLookupPending() {
+			return lookupPending;
+		}
+		
+		/**
+		 * Attempts to restore the outputs of the step from the cache, otherwise prepares
+		 * capturing the output of the commands
+		 */
+		public boolean restoreFromCache() {
+			if (monitor.isCanceled())
+				return false;
+			cacheKey = outputCache.computeKey(step, cmds, stepCwd);
+			if (cacheKey == null)
+				return false;
+			cachedFiles = outputCache.getCachedFiles(step, cmds, stepCwd);
+			if (outputCache.restore(cacheKey, cachedFiles, step, out)) {
 				done = true;
-			else {
-				IBuildCommand cmd = cmds[++activeCmd];
-				launcher = mgr.launchProcess(cmd, stepCwd, monitor); 
-				if (launcher != null) return true;
-				activeCmd--;
-				done = true; // temporary
+				return true;
 			}
+			capture = new BuildOutputCache.Capture();
+			stepOut = capture.wrap(out);
+			stepErr = capture.wrap(err);
 			return false;
 		}
 		
+		/**
+		 * Stores the outputs in the cache, after all commands have completed successfully 
+		 */
+		public void storeInCache() {
+			if (cacheKey != null && capture != null && activeCmd == cmds.length - 1)
+				outputCache.store(cacheKey, cachedFiles, capture);
+		}
+		
+		/**
+		 * Attempts to launch the next command of the step. Returns {@link #CMD_LAUNCHED} if
+		 * a process was started, {@link #STEP_COMPLETE} if there are no more commands to run 
+		 * and {@link #POOL_FULL} if there is no room for the process, yet. In the latter case 
+		 * the launcher is reset and the command is attempted again with the next call.
+		 */
+		public int launchNextCmd(BuildProcessManager mgr) {
+			if (done || monitor.isCanceled()) {
+				done = true;
+				return STEP_COMPLETE;
+			}
+			if (activeCmd + 1 >= cmds.length) {
+				done = true;
+				return STEP_COMPLETE;
+			}
+			IBuildCommand cmd = cmds[++activeCmd];
+			launcher = mgr.launchProcess(cmd, stepCwd, monitor, stepOut, stepErr); 
+			if (launcher != null) 
+				return CMD_LAUNCHED;
+			activeCmd--;
+			return POOL_FULL;
+		}
+		
 		public boolean isDone() {
 			return done;
 		}
@@ -187,7 +324,7 @@ public class ParallelBuilder {
 	/**
 	 * Build process is divided into following steps:
 	 * 1. Resources enqueueing & levelling
-	 * 2. Queue sorting
+	 * 2. Queue sorting, computing dependencies and priorities
 	 * 3. Queue dispatching
 	 * 
 	 * @param des Build description
@@ -211,11 +348,23 @@ public class ParallelBuilder {
 				threads = ((Configuration)cfg).getParallelNumber();  
 		}
 		ParallelBuilder builder = new ParallelBuilder(cwd, dirs, out, err, monitor, resumeOnErrors, buildIncrementally);
+		IResource owner = cfg.getOwner();
+		if (owner instanceof IProject)
+			builder.history = BuildStateManager.getInstance().getStepDurationHistory((IProject) owner, cfg.getId());
+		else
+			builder.history = new StepDurationHistory(null);
+		if (des instanceof BuildDescription)
+			builder.contentHashState = ((BuildDescription) des).getContentHashState();
+		builder.outputCache = BuildOutputCache.getDefault();
 		builder.enqueueAll(des);
 		builder.sortQueue();
 		monitor.beginTask("", builder.queue.size()); //$NON-NLS-1$
 		builder.dispatch(new BuildProcessManager(out, err, true, threads));
 		monitor.done();
+		builder.recordDurations();
+		builder.printDurations();
+		if (builder.contentHashState != null)
+			builder.contentHashState.store();
 		lastThreadsUsed = threads;
 		return IBuildModelBuilder.STATUS_OK;
 	}
@@ -241,7 +390,7 @@ public class ParallelBuilder {
 	}
 	
 	/**
-	 * Sorts the queue
+	 * Sorts the queue, computes the dependencies between its elements and their priorities
 	 */
 	protected void sortQueue() {
 		for (BuildQueueElement elem : unsorted) {
@@ -249,10 +398,78 @@ public class ParallelBuilder {
 		}
 		unsorted.clear();
 		unsorted = null;
-		queueHash.clear();
-		queueHash = null;
 
 		Collections.sort(queue);
+		
+		for (BuildQueueElement elem : queue) {
+			HashSet<BuildQueueElement> predecessors = new HashSet<BuildQueueElement>();
+			collectPredecessors(elem.getStep(), predecessors, new HashSet<IBuildStep>());
+			predecessors.remove(elem);
+			for (BuildQueueElement pred : predecessors) {
+				pred.successors.add(elem);
+			}
+			elem.pendingPredecessors = predecessors.size();
+		}
+		queueHash.clear();
+		queueHash = null;
+		
+		computePriorities();
+	}
+	
+	/**
+	 * Collects the queued steps producing the inputs of the given step. Steps that are not
+	 * built are skipped, their predecessors are collected instead.
+	 */
+	protected void collectPredecessors(IBuildStep step, HashSet<BuildQueueElement> result, HashSet<IBuildStep> visited) {
+		IBuildResource[] res = step.getInputResources();
+		for (int i = 0; i < res.length; i++) {
+			IBuildStep producer = res[i].getProducerStep(); 
+			if (producer == null || producer == producer.getBuildDescription().getInputStep())
+				continue;
+			if (!visited.add(producer))
+				continue;
+			BuildQueueElement elem = queueHash.get(producer);
+			if (elem != null)
+				result.add(elem);
+			else
+				collectPredecessors(producer, result, visited);
+		}
+	}
+	
+	/**
+	 * Computes the priority of each queued element as the estimated duration of the longest
+	 * path of steps starting with it. Steps without a recorded duration are estimated with 
+	 * the average of the known durations.
+	 */
+	protected void computePriorities() {
+		long total = 0;
+		int known = 0;
+		HashMap<BuildQueueElement, Long> durations = new HashMap<BuildQueueElement, Long>();
+		for (BuildQueueElement elem : queue) {
+			long duration = history == null ? -1 : history.getDuration(elem.getStep());
+			if (duration >= 0) {
+				durations.put(elem, new Long(duration));
+				total += duration;
+				known++;
+			}
+		}
+		long average = known == 0 ? 1 : Math.max(1, total / known);
+		for (BuildQueueElement elem : queue) {
+			computePriority(elem, durations, average);
+		}
+	}
+	
+	private long computePriority(BuildQueueElement elem, HashMap<BuildQueueElement, Long> durations, long average) {
+		if (elem.priority >= 0)
+			return elem.priority;
+		elem.priority = 0; // guard against cycles
+		long max = 0;
+		for (BuildQueueElement succ : elem.successors) {
+			max = Math.max(max, computePriority(succ, durations, average));
+		}
+		Long duration = durations.get(elem);
+		elem.priority = (duration == null ? average : duration.longValue()) + max;
+		return elem.priority;
 	}
 
 	/**
@@ -292,22 +509,29 @@ public class ParallelBuilder {
 	}
 	
 	/**
-	 * Dispatches the build queue and returns build status
+	 * Dispatches the build queue and returns build status. Instead of polling the
+	 * process states, the main loop blocks until one of the processes has terminated.
 	 */
 	protected int dispatch(BuildProcessManager mgr) {
 		ActiveBuildStep[] active = new ActiveBuildStep[mgr.getMaxProcesses()];
-		for (int i = 0; i < active.length; i++) {
-			active[i] = null; // new ActiveBuildStep();
+		BuildQueueElement[] activeElements = new BuildQueueElement[active.length];
+		PriorityQueue<BuildQueueElement> ready = new PriorityQueue<BuildQueueElement>(Math.max(1, queue.size()), PRIORITY_COMPARATOR);
+		ExecutorService cacheLookups = outputCache == null ? null : createCacheLookupExecutor(active.length);
+		for (BuildQueueElement elem : queue) {
+			if (elem.pendingPredecessors == 0)
+				ready.add(elem);
 		}
 		
 		int activeCount = 0;
-		int maxLevel = 0;
+		int remaining = queue.size();
 		int status = STATUS_OK;
 		String errorMsg = null;
 		
 		// Going into "infinite" main loop
 		main_loop:
 		while (true) {
+			// Obtain the count before checking the states, such that no termination is missed
+			int terminated = mgr.getTerminatedCount();
 			if (monitor.isCanceled()) {
 				status = STATUS_CANCELED;
 				errorMsg = CCorePlugin.getResourceString("CommandLauncher.error.commandCanceled"); //$NON-NLS-1$
@@ -324,126 +548,215 @@ public class ParallelBuilder {
 				errorMsg = launcher.getErrorMessage();
 				break main_loop;
 			}
-			// Everything goes OK.
-			boolean proceed = true;
 			
-			// Check if there is room for new process
-			if (!mgr.hasEmpty()) {
-				proceed = false;
-			} else {
-				// Check "active steps" list for completed ones
-				for (int i = 0; i < active.length; i++) {
-					if (active[i] == null) continue;
-					ProcessLauncher pl = active[i].getLauncher();
-					if (pl == null) continue; 
-					if (pl.queryState() == ProcessLauncher.STATE_DONE) {
-						// If process has terminated with error, break loop
-						// (except resumeOnErrors == true)
-						
-						if (!resumeOnErrors && pl.getExitCode() != 0) {
+			// Check "active steps" list for completed processes
+			boolean progress = false;
+			boolean poolFull = false;
+			for (int i = 0; i < active.length; i++) {
+				if (active[i] == null || active[i].isLookupPending()) continue;
+				ProcessLauncher pl = active[i].getLauncher();
+				if (pl != null) {
+					if (pl.queryState() != ProcessLauncher.STATE_DONE) continue;
+					
+					// If process has terminated with error, break loop
+					// (except resumeOnErrors == true)
+					if (pl.getExitCode() != 0) {
+						if (!resumeOnErrors) {
 							status = STATUS_ERROR;
 							break main_loop;
 						}
-						// Try to launch next command for the current active step
-						if (active[i].isDone()) continue;
-						if (active[i].launchNextCmd(mgr)) {
-							// Command has been launched. Check if process pool is not maximized yet
-							if (!mgr.hasEmpty()) {
-								proceed = false;
-								break;
-							}
-						} else {
-							// Command has not been launched: step complete
-							refreshOutputs(active[i].getStep());
-							activeCount--;
-							monitor.worked(1);
-						}
+						activeElements[i].failed = true;
 					}
+				} else if (poolFull) {
+					// Still waiting for room in the process pool
+					continue;
 				}
-			}
-			
-			// If nothing to do, then sleep and continue main loop
-			if (!proceed) {
-				try {
-					Thread.sleep(MAIN_LOOP_DELAY);
-				} catch (InterruptedException e) {
-					// do nothing
+				// Try to launch next command for the current active step
+				switch (active[i].launchNextCmd(mgr)) {
+				case CMD_LAUNCHED:
+					progress = true;
+					break;
+				case POOL_FULL:
+					// Try again after the next process has terminated
+					poolFull = true;
+					break;
+				case STEP_COMPLETE:
+					if (!activeElements[i].failed && !monitor.isCanceled())
+						active[i].storeInCache();
+					stepCompleted(activeElements[i], ready);
+					active[i] = null;
+					activeElements[i] = null;
+					activeCount--;
+					remaining--;
+					progress = true;
+					break;
 				}
-				continue main_loop;
 			}
 			
-			// Check if we need to schedule another process
-			if (queue.size() != 0 && activeCount < active.length) {
-				// Need to schedule another process 
-				Iterator<BuildQueueElement> iter = queue.iterator();
-
-				// Iterate over build queue
-				while (iter.hasNext()) {
-					BuildQueueElement elem = iter.next();
-					
-					// If "active steps" list is full, then break loop
-					if (activeCount == active.length)
+			// Launch released steps, most important ones first
+			while (activeCount < active.length && !poolFull) {
+				BuildQueueElement elem = ready.poll();
+				if (elem == null) {
+					if (activeCount > 0 || remaining == 0)
 						break;
-					
-					// If current element's level exceeds maximum level of currently built
-					// resources, then stop iteration (we can not build it anyway)
-					if (elem.getLevel() > maxLevel + 1)
-						break;
-
-					//Check if all prerequisites are built
-					IBuildResource[] res = elem.getStep().getInputResources();
-					boolean prereqBuilt = true;
-					for (int j = 0; j < res.length; j++) {
-						IBuildStep stp = res[j].getProducerStep(); // step which produces input for curr
-						boolean built = true;
-						if (stp != stp.getBuildDescription().getInputStep()) {
-							for (int k = 0; k < active.length; k++) {
-								if (active[k] != null && active[k].getStep().equals(stp) && !active[k].isDone()) {
-									built = false;
-									break;
-								}
-							}
-						}
-						if (!built) {
-							prereqBuilt = false;
+					// Dependencies cannot be satisfied, fall back to the order of the queue
+					for (BuildQueueElement e : queue) {
+						if (e.pendingPredecessors > 0) {
+							e.pendingPredecessors = 0;
+							ready.add(e);
 							break;
 						}
 					}
-
-					if (prereqBuilt) {
-						// All prereqs are built
-						IBuildStep step = elem.getStep();
-						
-						// Remove element from the build queue and add it to the
-						// "active steps" list.
-						iter.remove();
-						for (int i = 0; i < active.length; i++) {
-							if (active[i] == null || active[i].isDone()) {
-								active[i] = new ActiveBuildStep(step);
-								if (active[i].launchNextCmd(mgr)) activeCount++;
-								break;
-							}
-						}
-						
-						// Update maxLevel
-						if (elem.getLevel() > maxLevel)
-							maxLevel = elem.getLevel();
-						// We don't need to start new process immediately since
-						// it will be done on the next main loop iteration
-					}
+					if (ready.isEmpty())
+						break;
+					continue;
+				}
+				int i = 0;
+				while (active[i] != null)
+					i++;
+				elem.startTime = System.currentTimeMillis();
+				if (contentHashState != null)
+					contentHashState.stepStarted(elem.getStep());
+				active[i] = createActiveBuildStep(elem.getStep());
+				int result;
+				if (cacheLookups != null) {
+					// The step keeps its slot until the lookup is done, then it is handled like
+					// a step whose process has terminated
+					active[i].startCacheLookup(cacheLookups, mgr);
+					result = CMD_LAUNCHED;
+				} else {
+					result = active[i].launchNextCmd(mgr);
+				}
+				if (result == STEP_COMPLETE) {
+					// Nothing to launch for the step
+					active[i] = null;
+					stepCompleted(elem, ready);
+					remaining--;
+				} else {
+					// The step keeps its slot, if the pool is full its command is launched later
+					activeElements[i] = elem;
+					activeCount++;
+					poolFull = result == POOL_FULL;
 				}
+				progress = true;
 			}
 			
 			// Now finally, check if we're done
-			if (activeCount <= 0 && queue.size() == 0) 
+			if (activeCount <= 0 && ready.isEmpty()) 
 				break main_loop;
+			
+			// Wait for a process to terminate, wake up periodically to check for cancellation
+			if (!progress)
+				mgr.waitForTermination(terminated, MAIN_LOOP_DELAY);
 		}
 
+		if (cacheLookups != null) {
+			// Terminates the preprocessors of pending lookups when the build was canceled
+			cacheLookups.shutdownNow();
+		}
 		if (status != STATUS_OK && errorMsg != null) 
 			printMessage(errorMsg, out);
 		return status;
 	}
 	
+	/**
+	 * Creates the executor for the lookups in the output cache, it runs as many lookups
+	 * in parallel as there are processes.
+	 */
+	protected ExecutorService createCacheLookupExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Build Output Cache Lookup"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Creates the object tracking the execution of the commands of a step
+	 */
+	protected ActiveBuildStep createActiveBuildStep(IBuildStep step) {
+		return new ActiveBuildStep(step);
+	}
+	
+	/**
+	 * Marks a step as complete and releases the steps depending on it 
+	 */
+	protected void stepCompleted(BuildQueueElement elem, PriorityQueue<BuildQueueElement> ready) {
+		elem.endTime = System.currentTimeMillis();
+		elem.pendingPredecessors = -1;
+		refreshOutputs(elem.getStep());
+		monitor.worked(1);
+		if (contentHashState != null && !elem.failed && !monitor.isCanceled())
+			contentHashState.stepBuilt(elem.getStep());
+		if (DbgUtil.DEBUG)
+			DbgUtil.trace("step " + DbgUtil.stepName(elem.getStep()) + " completed in " + elem.getDuration() + " ms"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		for (BuildQueueElement succ : elem.successors) {
+			if (succ.pendingPredecessors > 0 && --succ.pendingPredecessors == 0)
+				ready.add(succ);
+		}
+	}
+	
+	/**
+	 * Stores the durations of the completed steps for the next build and makes them 
+	 * available via {@link #lastStepDurations}.
+	 */
+	protected void recordDurations() {
+		Map<String, Long> report = new LinkedHashMap<String, Long>();
+		for (BuildQueueElement elem : queue) {
+			long duration = elem.getDuration();
+			if (duration < 0)
+				continue;
+			String key = StepDurationHistory.getKey(elem.getStep());
+			if (key != null)
+				report.put(key, new Long(duration));
+			if (history != null)
+				history.setDuration(elem.getStep(), duration);
+		}
+		if (history != null)
+			history.store();
+		lastStepDurations = Collections.unmodifiableMap(report);
+	}
+	
+	/**
+	 * Prints the durations of the slowest steps of this build to the console
+	 */
+	protected void printDurations() {
+		List<BuildQueueElement> built = new ArrayList<BuildQueueElement>();
+		for (BuildQueueElement elem : queue) {
+			if (elem.getDuration() >= 0)
+				built.add(elem);
+		}
+		if (built.isEmpty() || out == null)
+			return;
+		Collections.sort(built, new Comparator<BuildQueueElement>() {
+			public int compare(BuildQueueElement e1, BuildQueueElement e2) {
+				long d1 = e1.getDuration();
+				long d2 = e2.getDuration();
+				return d1 > d2 ? -1 : d1 < d2 ? 1 : 0;
+			}
+		});
+		int count = Math.min(built.size(), MAX_REPORTED_STEPS);
+		printMessage(ManagedMakeMessages.getFormattedString(STEP_DURATIONS_MSG, Integer.toString(count)), out);
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			BuildQueueElement elem = built.get(i);
+			String name = StepDurationHistory.getKey(elem.getStep());
+			if (name == null)
+				name = DbgUtil.stepName(elem.getStep());
+			buf.append(ManagedMakeMessages.getFormattedString(STEP_DURATION_MSG, 
+					new String[] {name, Long.toString(elem.getDuration())}));
+			buf.append(LINE_SEPARATOR);
+		}
+		try {
+			out.write(buf.toString().getBytes());
+			out.flush();
+		} catch (IOException e) {
+			// do nothing
+		}
+	}
+	
 	/**
 	 * Prints output to the console 
 	 */
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -42,6 +42,38 @@ public class ProcessLauncher {
 	protected Process process;
 	protected ProcessClosure closure = null;
 	protected int state;
+	protected BuildProcessManager processManager;
+
+	/**
+	 * Process closure that notifies the process manager as soon as the process has terminated
+	 * and its output has been read.
+	 */
+	private class NotifyingProcessClosure extends ProcessClosure {
+		public NotifyingProcessClosure(Process process, OutputStream outputStream, OutputStream errorStream) {
+			super(process, outputStream, errorStream);
+		}
+
+		@Override
+		public void runNonBlocking() {
+			super.runNonBlocking();
+			final Thread outputReader = fOutputReader;
+			final Thread errorReader = fErrorReader;
+			Thread watcher = new Thread("Build Process Watcher") { //$NON-NLS-1$
+				@Override
+				public void run() {
+					try {
+						outputReader.join();
+						errorReader.join();
+					} catch (InterruptedException e) {
+						// notify anyway, the state is checked by the process manager
+					}
+					processManager.processTerminated(ProcessLauncher.this);
+				}
+			};
+			watcher.setDaemon(true);
+			watcher.start();
+		}
+	}
 
 	/**
 	 * Returns command line as a string array
@@ -128,7 +160,10 @@ public class ProcessLauncher {
 				printCommandLine();
 			state = STATE_RUNNING;
 			process = ProcessFactory.getFactory().exec(cmd, env, cwd); 
-			closure = new ProcessClosure(process, out, err);
+			if (processManager != null)
+				closure = new NotifyingProcessClosure(process, out, err);
+			else
+				closure = new ProcessClosure(process, out, err);
 			// Close the input of the process since we will never write to it
 			try {
 				process.getOutputStream().close();
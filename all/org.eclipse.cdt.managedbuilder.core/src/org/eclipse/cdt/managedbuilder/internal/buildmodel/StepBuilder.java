@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2007 Intel Corporation and others.
+ * Copyright (c) 2006, 2011 Intel Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.cdt.managedbuilder.internal.buildmodel;
 
+import java.io.File;
 import java.io.OutputStream;
 
 import org.eclipse.cdt.managedbuilder.buildmodel.BuildDescriptionManager;
@@ -43,6 +44,7 @@ public class StepBuilder implements IBuildModelBuilder {
 	private GenDirInfo fDirs;
 	private boolean fResumeOnErrs;
 	private int fNumCommands = -1;
+	private IBuildCommand fCommands[];
 	private CommandBuilder fCommandBuilders[];
 	private IResourceRebuildStateContainer fRebuildStateContainer;
 	
@@ -84,6 +86,25 @@ public class StepBuilder implements IBuildModelBuilder {
 			//TODO: monitor
 			createOutDirs(new NullProgressMonitor());
 			
+			BuildOutputCache cache = BuildOutputCache.getDefault();
+			String cacheKey = null;
+			File[] cachedFiles = null;
+			BuildOutputCache.Capture capture = null;
+			if(cache != null){
+				cacheKey = cache.computeKey(fStep, fCommands, fCWD);
+				if(cacheKey != null){
+					cachedFiles = cache.getCachedFiles(fStep, fCommands, fCWD);
+					if(cache.restore(cacheKey, cachedFiles, fStep, out)){
+						status = postProcess(STATUS_OK, new NullProgressMonitor());
+						monitor.done();
+						return status;
+					}
+					capture = new BuildOutputCache.Capture();
+					out = capture.wrap(out);
+					err = capture.wrap(err);
+				}
+			}
+			
 			for(int i = 0; 
 					i < bs.length 
 						&& status != STATUS_CANCELLED
@@ -105,6 +126,8 @@ public class StepBuilder implements IBuildModelBuilder {
 					break;
 				}
 			}
+			if(status == STATUS_OK && cacheKey != null)
+				cache.store(cacheKey, cachedFiles, capture);
 			//TODO: monitor
 			status = postProcess(status, new NullProgressMonitor());
 		}
@@ -219,12 +242,11 @@ public class StepBuilder implements IBuildModelBuilder {
 		if(fCommandBuilders == null){
 			IBuildCommand cmds[] = fStep.getCommands(fCWD, null, null, true);
 			if(cmds == null)
-				fCommandBuilders = new CommandBuilder[0];
-			else {
-				fCommandBuilders = new CommandBuilder[cmds.length];
-				for(int i = 0; i < cmds.length; i++){
-					fCommandBuilders[i] = new CommandBuilder(cmds[i], fRebuildStateContainer);
-				}
+				cmds = new IBuildCommand[0];
+			fCommands = cmds;
+			fCommandBuilders = new CommandBuilder[cmds.length];
+			for(int i = 0; i < cmds.length; i++){
+				fCommandBuilders[i] = new CommandBuilder(cmds[i], fRebuildStateContainer);
 			}
 		}
 		return fCommandBuilders;
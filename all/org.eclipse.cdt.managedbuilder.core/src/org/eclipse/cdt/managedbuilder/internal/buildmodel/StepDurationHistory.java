@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.internal.buildmodel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildResource;
+import org.eclipse.cdt.managedbuilder.buildmodel.IBuildStep;
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Durations of the build steps of a configuration measured in earlier builds. A step is
+ * identified by the path of its first output resource. The history is stored in the
+ * state location of the {@link BuildStateManager}.
+ */
+public class StepDurationHistory {
+	private final File fFile;
+	private final Properties fDurations = new Properties();
+	private boolean fDirty;
+
+	/**
+	 * Creates a history that is stored in the given file, the file may not exist.
+	 */
+	public StepDurationHistory(File file) {
+		fFile = file;
+		if (file != null && file.exists()) {
+			try {
+				InputStream iStream = new FileInputStream(file);
+				try {
+					fDurations.load(iStream);
+				} finally {
+					iStream.close();
+				}
+			} catch (IOException e) {
+				ManagedBuilderCorePlugin.log(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the key for the given step, or <code>null</code> if the step cannot be identified
+	 * across builds.
+	 */
+	public static String getKey(IBuildStep step) {
+		IBuildResource[] outputs = step.getOutputResources();
+		if (outputs.length == 0)
+			return null;
+		IPath path = outputs[0].getFullPath();
+		if (path == null)
+			path = outputs[0].getLocation();
+		return path == null ? null : path.toString();
+	}
+
+	/**
+	 * Returns the duration of the step in milliseconds or <code>-1</code> if it is unknown.
+	 */
+	public long getDuration(IBuildStep step) {
+		String key = getKey(step);
+		if (key != null) {
+			String value = fDurations.getProperty(key);
+			if (value != null) {
+				try {
+					return Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					// treat as unknown
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Records the duration of a step, the average with the previous duration is kept to even
+	 * out variations.
+	 */
+	public void setDuration(IBuildStep step, long millis) {
+		String key = getKey(step);
+		if (key == null)
+			return;
+		long previous = getDuration(step);
+		if (previous >= 0)
+			millis = (previous + millis) / 2;
+		fDurations.setProperty(key, Long.toString(millis));
+		fDirty = true;
+	}
+
+	/**
+	 * Writes the history to its file, if it was changed.
+	 */
+	public void store() {
+		if (!fDirty || fFile == null)
+			return;
+		File parent = fFile.getParentFile();
+		if (parent != null && !parent.exists())
+			parent.mkdirs();
+		try {
+			OutputStream oStream = new FileOutputStream(fFile);
+			try {
+				fDurations.store(oStream, ""); //$NON-NLS-1$
+			} finally {
+				oStream.close();
+			}
+			fDirty = false;
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+	}
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.eclipse.cdt.core.CCorePlugin;
 import org.eclipse.cdt.core.CommandLauncher;
@@ -78,6 +79,8 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 	private boolean isConsoleEnabled = false;
 	protected java.io.File specFile = null;
 	protected boolean preserveSpecFile = false;
+	private boolean isPrefetch = false;
+	private String cacheKey = null;
 
 	/**
 	 * TODO
@@ -177,6 +180,10 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 					+ " collected " + detectedSettingEntries.size() + " entries" + " for language " + currentLanguageId);
 			ManagedBuilderCorePlugin.log(status);
 		}
+		if (cacheKey!=null && detectedSettingEntries!=null && detectedSettingEntries.size()>0) {
+			BuiltinSpecsCache.getDefault().put(cacheKey, detectedSettingEntries);
+		}
+		cacheKey = null;
 		detectedSettingEntries = null;
 
 		if (specFile!=null && !preserveSpecFile) {
@@ -248,6 +255,22 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 	private void run(IPath workingDirectory, String[] env, IProgressMonitor monitor)
 			throws CoreException, IOException {
 
+		BuiltinSpecsCache cache = BuiltinSpecsCache.getDefault();
+		if (cache!=null) {
+			String specFileLocation = specFile!=null ? new Path(specFile.getPath()).toString() : null;
+			cacheKey = cache.computeKey(getClass().getName() + '/' + getId(), currentLanguageId, currentCommandResolved, specFileLocation, env);
+			if (cacheKey!=null) {
+				List<ICLanguageSettingEntry> entries = cache.get(cacheKey);
+				if (entries!=null) {
+					// the same compiler has been run with the same arguments before
+					cacheKey = null;
+					detectedSettingEntries.addAll(entries);
+					shutdown();
+					return;
+				}
+			}
+		}
+
 		IConsole console;
 		if (isConsoleEnabled) {
 			console = startProviderConsole();
@@ -299,6 +322,51 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 		}
 	}
 
+	/**
+	 * Starts running the detector for the language on a copy of this detector, such that the result
+	 * is available in the workspace-wide cache when this detector is run for the language. The copies
+	 * for different languages and toolchains run concurrently.
+	 *
+	 * @param cfgDescription the configuration to run for, or {@code null} to run for the project.
+	 * @return the future for the run or {@code null} if there is nothing to run.
+	 */
+	public Future<?> prefetch(ICConfigurationDescription cfgDescription, IProject project, String languageId,
+			final IPath workingDirectory, final String[] env) {
+		final BuiltinSpecsCache cache = BuiltinSpecsCache.getDefault();
+		if (cache==null || (isRunOnce() && !isEmpty())) {
+			return null;
+		}
+		final AbstractBuiltinSpecsDetector detector;
+		try {
+			detector = (AbstractBuiltinSpecsDetector) cloneShallow();
+			detector.isPrefetch = true;
+			detector.currentProject = project;
+			detector.currentLanguageId = languageId;
+			detector.startup(cfgDescription);
+		} catch (CloneNotSupportedException e) {
+			ManagedBuilderCorePlugin.log(e);
+			return null;
+		} catch (CoreException e) {
+			ManagedBuilderCorePlugin.log(e);
+			return null;
+		}
+		String specFileLocation = detector.specFile!=null ? new Path(detector.specFile.getPath()).toString() : null;
+		String key = cache.computeKey(getClass().getName() + '/' + getId(), languageId, detector.currentCommandResolved, specFileLocation, env);
+		if (key==null || cache.get(key)!=null) {
+			detector.shutdown();
+			return null;
+		}
+		return cache.submit(new Runnable() {
+			public void run() {
+				try {
+					detector.run(workingDirectory, env, new NullProgressMonitor());
+				} catch (Exception e) {
+					ManagedBuilderCorePlugin.log(e);
+				}
+			}
+		});
+	}
+
 	protected boolean runProgram(String command, String[] env, IPath workingDirectory, IProgressMonitor monitor,
 			OutputStream consoleOut, OutputStream consoleErr) throws CoreException, IOException {
 		
@@ -369,6 +437,19 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 			detectedSettingEntries.addAll(entries);
 	}
 
+	/**
+	 * Clears the entries of the provider and the workspace-wide cache of detected entries,
+	 * such that the next run executes the compiler.
+	 */
+	@Override
+	public void clear() {
+		super.clear();
+		BuiltinSpecsCache cache = BuiltinSpecsCache.getDefault();
+		if (cache!=null) {
+			cache.clear();
+		}
+	}
+
 	private IConsole startProviderConsole() {
 		ILanguageDescriptor ld = LanguageManager.getInstance().getLanguageDescriptor(currentLanguageId);
 		
@@ -430,6 +511,16 @@ public abstract class AbstractBuiltinSpecsDetector extends AbstractLanguageSetti
 		IPath fileLocation = workingLocation.append(specFileName);
 
 		specFile = new java.io.File(fileLocation.toOSString());
+		if (isPrefetch) {
+			// copies running concurrently need their own spec files
+			try {
+				specFile = java.io.File.createTempFile(SPEC_FILE_BASE, '.' + ext, workingLocation.toFile());
+				preserveSpecFile = false;
+				return new Path(specFile.getPath()).toString();
+			} catch (IOException e) {
+				ManagedBuilderCorePlugin.log(e);
+			}
+		}
 		// will preserve spec file if it was already there otherwise will delete upon finishing
 		preserveSpecFile = specFile.exists();
 		if (!preserveSpecFile) {
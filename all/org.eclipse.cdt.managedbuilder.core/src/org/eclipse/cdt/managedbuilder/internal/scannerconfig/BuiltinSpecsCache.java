@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.internal.scannerconfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.core.settings.model.ICLanguageSettingEntry;
+import org.eclipse.cdt.core.settings.model.ICSettingEntry;
+import org.eclipse.cdt.core.settings.model.util.CDataUtil;
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.cdt.utils.CommandLineUtil;
+import org.eclipse.cdt.utils.PathUtil;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Workspace-wide cache for the entries detected by builtin specs detectors. The entries are
+ * shared by all projects that run the same compiler with the same command line. The compiler
+ * is identified by its location, size, timestamp and the hash of its content.
+ * <p>
+ * The cache is stored in the state location of the plugin, such that the compiler does not
+ * need to be run after a restart of the workbench.
+ */
+public final class BuiltinSpecsCache {
+	/**
+	 * System property to disable the cache, set it to <code>false</code> to run the detectors
+	 * for every project and configuration.
+	 */
+	public static final String CACHE_PROPERTY = "org.eclipse.cdt.managedbuilder.core.builtinSpecsCache"; //$NON-NLS-1$
+
+	private static final String CACHE_FILE = "builtinSpecs.cache"; //$NON-NLS-1$
+	private static final int CACHE_VERSION = 1;
+	private static final int MAX_ENTRIES = 256;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+	private static final String PATH_ENV = "PATH"; //$NON-NLS-1$
+	/** Environment variables that change the built-in settings of gcc */
+	private static final String[] RELEVANT_ENV = {
+		"CPATH", "C_INCLUDE_PATH", "CPLUS_INCLUDE_PATH", "OBJC_INCLUDE_PATH", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		"GCC_EXEC_PREFIX", "COMPILER_PATH", "LANG", "LC_ALL" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	};
+
+	private static BuiltinSpecsCache fDefault;
+
+	private static final class FileHash {
+		final long fModified;
+		final long fLength;
+		final String fHash;
+
+		FileHash(long modified, long length, String hash) {
+			fModified = modified;
+			fLength = length;
+			fHash = hash;
+		}
+	}
+
+	private final File fFile;
+	private final Map<String, List<ICLanguageSettingEntry>> fEntries =
+			new LinkedHashMap<String, List<ICLanguageSettingEntry>>(16, 0.75f, true);
+	private final Map<String, FileHash> fCompilerHashes = new HashMap<String, FileHash>();
+	private ThreadPoolExecutor fExecutor;
+	private boolean fLoaded;
+
+	private BuiltinSpecsCache(File file) {
+		fFile = file;
+	}
+
+	/**
+	 * Returns the cache, or <code>null</code> if it is disabled.
+	 */
+	public static synchronized BuiltinSpecsCache getDefault() {
+		if (fDefault == null) {
+			if ("false".equals(System.getProperty(CACHE_PROPERTY))) //$NON-NLS-1$
+				return null;
+			ManagedBuilderCorePlugin plugin = ManagedBuilderCorePlugin.getDefault();
+			File file = plugin == null ? null : plugin.getStateLocation().append(CACHE_FILE).toFile();
+			fDefault = new BuiltinSpecsCache(file);
+		}
+		return fDefault;
+	}
+
+	/**
+	 * Computes the key for running the given command, or returns <code>null</code> if the
+	 * compiler cannot be found.
+	 * @param detectorId id of the detector parsing the output
+	 * @param languageId the language the detector runs for
+	 * @param command the resolved command
+	 * @param specFile the location of the input file in the command, or <code>null</code>
+	 * @param env the environment for the command, or <code>null</code> for the environment of the workbench
+	 */
+	public String computeKey(String detectorId, String languageId, String command, String specFile, String[] env) {
+		if (command == null || command.trim().length() == 0)
+			return null;
+		String[] args = CommandLineUtil.argumentsToArray(command);
+		if (args.length == 0)
+			return null;
+		IPath program = new Path(args[0]);
+		if (!program.isAbsolute()) {
+			program = PathUtil.findProgramLocation(args[0], getEnvVar(env, PATH_ENV));
+			if (program == null)
+				return null;
+		}
+		File compiler = program.toFile();
+		if (!compiler.isFile())
+			return null;
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+			update(md, detectorId);
+			update(md, languageId);
+			update(md, compiler.getAbsolutePath());
+			update(md, getCompilerHash(compiler));
+			// the input file may be different for each run
+			for (int i = 1; i < args.length; i++) {
+				String arg = args[i];
+				if (specFile != null && arg.equals(specFile))
+					arg = AbstractBuiltinSpecsDetector.SPEC_FILE_MACRO;
+				update(md, arg);
+			}
+			for (String var : RELEVANT_ENV) {
+				String value = getEnvVar(env, var);
+				if (value != null)
+					update(md, var + '=' + value);
+			}
+			return toHex(md.digest());
+		} catch (NoSuchAlgorithmException e) {
+			ManagedBuilderCorePlugin.log(e);
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entries stored for the key, or <code>null</code>. Entries referring to
+	 * files or folders that no longer exist are discarded, e.g. after the compiler was
+	 * reinstalled at a different location.
+	 */
+	public synchronized List<ICLanguageSettingEntry> get(String key) {
+		load();
+		List<ICLanguageSettingEntry> entries = fEntries.get(key);
+		if (entries != null && !isValid(entries)) {
+			fEntries.remove(key);
+			store();
+			return null;
+		}
+		return entries;
+	}
+
+	/**
+	 * Stores the entries for the key, the cache is written to disk.
+	 */
+	public synchronized void put(String key, List<ICLanguageSettingEntry> entries) {
+		load();
+		List<ICLanguageSettingEntry> stored = Collections.unmodifiableList(new ArrayList<ICLanguageSettingEntry>(entries));
+		if (stored.equals(fEntries.put(key, stored)))
+			return;
+		if (fEntries.size() > MAX_ENTRIES) {
+			fEntries.remove(fEntries.keySet().iterator().next());
+		}
+		store();
+	}
+
+	/**
+	 * Discards all cached entries.
+	 */
+	public synchronized void clear() {
+		fLoaded = true;
+		fEntries.clear();
+		fCompilerHashes.clear();
+		if (fFile != null)
+			fFile.delete();
+	}
+
+	/**
+	 * Runs the task in a thread of a pool that is shared by all detectors.
+	 */
+	public synchronized Future<?> submit(Runnable task) {
+		if (fExecutor == null) {
+			final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			fExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Builtin Specs Detector"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return fExecutor.submit(task);
+	}
+
+	private String getCompilerHash(File compiler) throws IOException, NoSuchAlgorithmException {
+		final String path = compiler.getAbsolutePath();
+		final long modified = compiler.lastModified();
+		final long length = compiler.length();
+		synchronized (this) {
+			FileHash hash = fCompilerHashes.get(path);
+			if (hash != null && hash.fModified == modified && hash.fLength == length)
+				return hash.fHash;
+		}
+		MessageDigest md = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+		InputStream in = new FileInputStream(compiler);
+		try {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				md.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		String result = length + "," + modified + "," + toHex(md.digest()); //$NON-NLS-1$ //$NON-NLS-2$
+		synchronized (this) {
+			fCompilerHashes.put(path, new FileHash(modified, length, result));
+		}
+		return result;
+	}
+
+	private static boolean isValid(List<ICLanguageSettingEntry> entries) {
+		for (ICLanguageSettingEntry entry : entries) {
+			switch (entry.getKind()) {
+			case ICSettingEntry.INCLUDE_PATH:
+			case ICSettingEntry.INCLUDE_FILE:
+			case ICSettingEntry.MACRO_FILE:
+				if ((entry.getFlags() & ICSettingEntry.VALUE_WORKSPACE_PATH) == 0
+						&& !new File(entry.getName()).exists())
+					return false;
+				break;
+			}
+		}
+		return true;
+	}
+
+	private void load() {
+		if (fLoaded)
+			return;
+		fLoaded = true;
+		if (fFile == null || !fFile.exists())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fFile)));
+			try {
+				if (in.readInt() != CACHE_VERSION)
+					return;
+				for (int i = in.readInt(); i > 0; i--) {
+					String key = in.readUTF();
+					int count = in.readInt();
+					List<ICLanguageSettingEntry> entries = new ArrayList<ICLanguageSettingEntry>(count);
+					for (int j = 0; j < count; j++) {
+						int kind = in.readInt();
+						int flags = in.readInt();
+						String name = in.readUTF();
+						String value = in.readBoolean() ? in.readUTF() : null;
+						entries.add((ICLanguageSettingEntry) CDataUtil.createEntry(kind, name, value, null, flags));
+					}
+					fEntries.put(key, Collections.unmodifiableList(entries));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+			fEntries.clear();
+		}
+	}
+
+	private void store() {
+		if (fFile == null)
+			return;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fFile)));
+			try {
+				out.writeInt(CACHE_VERSION);
+				out.writeInt(fEntries.size());
+				for (Map.Entry<String, List<ICLanguageSettingEntry>> entry : fEntries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeInt(entry.getValue().size());
+					for (ICLanguageSettingEntry setting : entry.getValue()) {
+						out.writeInt(setting.getKind());
+						out.writeInt(setting.getFlags());
+						out.writeUTF(setting.getName());
+						String value = setting.getValue();
+						out.writeBoolean(value != null);
+						if (value != null)
+							out.writeUTF(value);
+					}
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+	}
+
+	private static String getEnvVar(String[] env, String var) {
+		if (env == null)
+			return System.getenv(var);
+		String prefix = var + '=';
+		for (String envStr : env) {
+			if (envStr.startsWith(prefix))
+				return envStr.substring(prefix.length());
+		}
+		return null;
+	}
+
+	private static void update(MessageDigest md, String str) throws IOException {
+		md.update(str.getBytes("UTF-8")); //$NON-NLS-1$
+		md.update((byte) 0);
+	}
+
+	private static String toHex(byte[] digest) {
+		char[] result = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			result[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+			result[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+		}
+		return new String(result);
+	}
+}
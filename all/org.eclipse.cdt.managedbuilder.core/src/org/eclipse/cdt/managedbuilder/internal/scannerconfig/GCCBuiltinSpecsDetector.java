@@ -31,14 +31,20 @@ public class GCCBuiltinSpecsDetector extends AbstractBuiltinSpecsDetector implem
 	private enum State {NONE, EXPECTING_LOCAL_INCLUDE, EXPECTING_SYSTEM_INCLUDE, EXPECTING_FRAMEWORKS}
 	State state = State.NONE;
 	
+	// The parsers keep the result of the last match. Copies of the detector run concurrently
+	// when prefetching, therefore each one gets parsers of its own.
+	private AbstractOptionParser[] optionParsers = createOptionParsers();
+
 	@SuppressWarnings("nls")
-	static final AbstractOptionParser[] optionParsers = {
-			new IncludePathOptionParser("#include \"(\\S.*)\"", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY | ICSettingEntry.LOCAL),
-			new IncludePathOptionParser("#include <(\\S.*)>", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
-			new IncludePathOptionParser("#framework <(\\S.*)>", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY | ICSettingEntry.FRAMEWORKS_MAC),
-			new MacroOptionParser("#define (\\S*\\(.*?\\)) *(.*)", "$1", "$2", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
-			new MacroOptionParser("#define (\\S*) *(.*)", "$1", "$2", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
-	};
+	private static AbstractOptionParser[] createOptionParsers() {
+		return new AbstractOptionParser[] {
+				new IncludePathOptionParser("#include \"(\\S.*)\"", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY | ICSettingEntry.LOCAL),
+				new IncludePathOptionParser("#include <(\\S.*)>", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
+				new IncludePathOptionParser("#framework <(\\S.*)>", "$1", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY | ICSettingEntry.FRAMEWORKS_MAC),
+				new MacroOptionParser("#define (\\S*\\(.*?\\)) *(.*)", "$1", "$2", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
+				new MacroOptionParser("#define (\\S*) *(.*)", "$1", "$2", ICSettingEntry.BUILTIN | ICSettingEntry.READONLY),
+		};
+	}
 
 	@Override
 	protected String getToolchainId() {
@@ -123,12 +129,16 @@ End of framework search list.
 
 	@Override
 	public GCCBuiltinSpecsDetector cloneShallow() throws CloneNotSupportedException {
-		return (GCCBuiltinSpecsDetector) super.cloneShallow();
+		GCCBuiltinSpecsDetector clone = (GCCBuiltinSpecsDetector) super.cloneShallow();
+		clone.optionParsers = createOptionParsers();
+		return clone;
 	}
 
 	@Override
 	public GCCBuiltinSpecsDetector clone() throws CloneNotSupportedException {
-		return (GCCBuiltinSpecsDetector) super.clone();
+		GCCBuiltinSpecsDetector clone = (GCCBuiltinSpecsDetector) super.clone();
+		clone.optionParsers = createOptionParsers();
+		return clone;
 	}
 
 	
@@ -0,0 +1,295 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.makegen.gnu;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+
+/**
+ * Writes the makefiles generated by the {@link GnuMakefileGenerator}. A file is written only
+ * if its content has changed, such that make does not consider the targets depending on the
+ * makefile out of date.
+ * <p>
+ * Between {@link #beginBatch()} and {@link #endBatch()} the comparison of the generated content
+ * with the content on disk runs in a pool of threads while the generator continues with the
+ * next folder. The changed files are written by the thread calling {@link #endBatch()}, because
+ * that thread holds the scheduling rule of the build.
+ */
+final class GeneratedMakefileWriter {
+	/**
+	 * System property to disable the comparison, set it to <code>false</code> to write all
+	 * generated makefiles.
+	 */
+	public static final String SKIP_UNCHANGED_PROPERTY = "org.eclipse.cdt.managedbuilder.core.skipUnchangedMakefiles"; //$NON-NLS-1$
+
+	private static final boolean SKIP_UNCHANGED = !"false".equals(System.getProperty(SKIP_UNCHANGED_PROPERTY)); //$NON-NLS-1$
+
+	/**
+	 * Coarsest resolution of modification times among the file systems we care about (FAT).
+	 * A file modified within this interval after it was stamped may keep its modification time.
+	 */
+	private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+
+	/** Hash of the content written to a file, together with the attributes of the file after writing it. */
+	private static final class ContentStamp {
+		final long fModified;
+		final long fLength;
+		final byte[] fHash;
+		final long fRecorded;
+
+		ContentStamp(long modified, long length, byte[] hash) {
+			fModified = modified;
+			fLength = length;
+			fHash = hash;
+			fRecorded = System.currentTimeMillis();
+		}
+
+		/**
+		 * Checks whether the file still has the stamped content. This can be told from the
+		 * attributes only, if the stamp was recorded later than the resolution of the modification
+		 * time after the last modification. Otherwise the file may have been changed again without
+		 * changing its attributes.
+		 */
+		boolean isValid(long modified, long length) {
+			return fModified == modified && fLength == length
+					&& fRecorded - fModified > MODIFICATION_TIME_RESOLUTION;
+		}
+	}
+
+	private static final class PendingWrite {
+		final IFile fFile;
+		final byte[] fContent;
+		final byte[] fHash;
+		final Future<Boolean> fChanged;
+
+		PendingWrite(IFile file, byte[] content, byte[] hash, Future<Boolean> changed) {
+			fFile = file;
+			fContent = content;
+			fHash = hash;
+			fChanged = changed;
+		}
+	}
+
+	private static final Map<IPath, ContentStamp> fStamps = new HashMap<IPath, ContentStamp>();
+	private static ThreadPoolExecutor fExecutor;
+
+	private List<PendingWrite> fPending;
+
+	/**
+	 * Defers writing the files saved until {@link #endBatch()} is called.
+	 */
+	void beginBatch() {
+		if (fPending == null)
+			fPending = new ArrayList<PendingWrite>();
+	}
+
+	/**
+	 * Writes the changed files saved since {@link #beginBatch()}.
+	 */
+	void endBatch() throws CoreException {
+		List<PendingWrite> pending = fPending;
+		fPending = null;
+		if (pending == null)
+			return;
+
+		CoreException error = null;
+		for (PendingWrite write : pending) {
+			try {
+				if (isChanged(write.fChanged))
+					write(write.fFile, write.fContent, write.fHash);
+			} catch (CoreException e) {
+				if (error == null)
+					error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Writes the changed files saved since {@link #beginBatch()} after the generation of the
+	 * makefiles has failed. Errors are logged rather than thrown, such that they do not hide
+	 * the original failure.
+	 */
+	void endBatchAfterFailure() {
+		try {
+			endBatch();
+		} catch (CoreException e) {
+			ManagedBuilderCorePlugin.log(e);
+		}
+	}
+
+	/**
+	 * Saves the buffer to the file, unless the file already has this content.
+	 */
+	void save(StringBuffer buffer, final IFile file) throws CoreException {
+		final byte[] content = getBytes(buffer, file);
+		final byte[] hash = computeHash(content);
+		if (!SKIP_UNCHANGED) {
+			write(file, content, hash);
+			return;
+		}
+		Callable<Boolean> compare = new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return Boolean.valueOf(!hasContent(file, content, hash));
+			}
+		};
+		if (fPending == null) {
+			boolean changed = true;
+			try {
+				changed = compare.call().booleanValue();
+			} catch (Exception e) {
+				// write the file
+			}
+			if (changed)
+				write(file, content, hash);
+		} else {
+			fPending.add(new PendingWrite(file, content, hash, getExecutor().submit(compare)));
+		}
+	}
+
+	private static boolean isChanged(Future<Boolean> changed) {
+		try {
+			return changed.get().booleanValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// write the file
+		}
+		return true;
+	}
+
+	private static void write(IFile file, byte[] content, byte[] hash) throws CoreException {
+		// use a platform operation to update the resource contents
+		file.setContents(new ByteArrayInputStream(content), true, true, null);
+		if (hash == null)
+			return;
+		File localFile = getLocalFile(file);
+		synchronized (fStamps) {
+			if (localFile != null) {
+				fStamps.put(file.getFullPath(), new ContentStamp(localFile.lastModified(), localFile.length(), hash));
+			} else {
+				fStamps.remove(file.getFullPath());
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the file on disk has the given content. The content is read from disk only
+	 * if the file has been modified since it was last written, or if it was written too recently
+	 * to tell from its modification time.
+	 */
+	private static boolean hasContent(IFile file, byte[] content, byte[] hash) throws IOException {
+		File localFile = getLocalFile(file);
+		if (localFile == null || hash == null)
+			return false;
+		final long modified = localFile.lastModified();
+		final long length = localFile.length();
+		if (length != content.length)
+			return false;
+		synchronized (fStamps) {
+			ContentStamp stamp = fStamps.get(file.getFullPath());
+			if (stamp != null && stamp.isValid(modified, length))
+				return Arrays.equals(hash, stamp.fHash);
+		}
+		byte[] buffer = new byte[content.length];
+		InputStream in = new BufferedInputStream(new FileInputStream(localFile));
+		try {
+			int pos = 0;
+			int n;
+			while (pos < buffer.length && (n = in.read(buffer, pos, buffer.length - pos)) > 0) {
+				pos += n;
+			}
+			if (pos != buffer.length || in.read() != -1)
+				return false;
+		} finally {
+			in.close();
+		}
+		if (!Arrays.equals(content, buffer))
+			return false;
+		synchronized (fStamps) {
+			fStamps.put(file.getFullPath(), new ContentStamp(modified, length, hash));
+		}
+		return true;
+	}
+
+	private static File getLocalFile(IFile file) {
+		IPath location = file.getLocation();
+		return location == null ? null : location.toFile();
+	}
+
+	private static byte[] getBytes(StringBuffer buffer, IFile file) throws CoreException {
+		String encoding = null;
+		try {
+			encoding = file.getCharset();
+		} catch (CoreException ce) {
+			// use no encoding
+		}
+		if (encoding != null) {
+			try {
+				return buffer.toString().getBytes(encoding);
+			} catch (UnsupportedEncodingException e) {
+				throw new CoreException(new Status(IStatus.ERROR, ManagedBuilderCorePlugin.getUniqueIdentifier(), e.getMessage(), e));
+			}
+		}
+		return buffer.toString().getBytes();
+	}
+
+	private static byte[] computeHash(byte[] content) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(content); //$NON-NLS-1$
+		} catch (NoSuchAlgorithmException e) {
+			// files are always written
+			return null;
+		}
+	}
+
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (fExecutor == null) {
+			final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			fExecutor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Makefile Generator"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return fExecutor;
+	}
+}
@@ -377,6 +377,7 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 //	private Vector dependencyMakefiles;		//  IPath's - relative to the top build directory or absolute
 
 	private ICSourceEntry srcEntries[];
+	private final GeneratedMakefileWriter makefileWriter = new GeneratedMakefileWriter();
 
 
 	public GnuMakefileGenerator() {
@@ -665,73 +666,83 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		buildOutVars.clear();
 		buildDepVars.clear();
 		topBuildOutVars.clear();
-		populateSourcesMakefile(srcsFileHandle);
-		checkCancel();
+		makefileWriter.beginBatch();
+		boolean batchEnded = false;
+		try {
+			populateSourcesMakefile(srcsFileHandle);
+			checkCancel();
 
-		// Regenerate any fragments that are missing for the exisiting directories NOT modified
-		for (IResource res : getSubdirList()) {
-			IContainer subdirectory = (IContainer)res;
-			if (!getModifiedList().contains(subdirectory)) {
-				// Make sure the directory exists (it may have been deleted)
-				if (!subdirectory.exists()) {
-					appendDeletedSubdirectory(subdirectory);
-					continue;
-				}
-				// Make sure a fragment makefile exists
-				IPath fragmentPath = getBuildWorkingDir().append(subdirectory.getProjectRelativePath()).append(MODFILE_NAME);
-				IFile makeFragment = project.getFile(fragmentPath);
-				if (!makeFragment.exists()) {
-					// If one or both are missing, then add it to the list to be generated
-					getModifiedList().add(subdirectory);
+			// Regenerate any fragments that are missing for the exisiting directories NOT modified
+			for (IResource res : getSubdirList()) {
+				IContainer subdirectory = (IContainer)res;
+				if (!getModifiedList().contains(subdirectory)) {
+					// Make sure the directory exists (it may have been deleted)
+					if (!subdirectory.exists()) {
+						appendDeletedSubdirectory(subdirectory);
+						continue;
+					}
+					// Make sure a fragment makefile exists
+					IPath fragmentPath = getBuildWorkingDir().append(subdirectory.getProjectRelativePath()).append(MODFILE_NAME);
+					IFile makeFragment = project.getFile(fragmentPath);
+					if (!makeFragment.exists()) {
+						// If one or both are missing, then add it to the list to be generated
+						getModifiedList().add(subdirectory);
+					}
 				}
 			}
-		}
 
-		// Delete the old dependency files for any deleted resources
-		for (IResource deletedFile : getDeletedFileList()) {
-			deleteDepFile(deletedFile);
-			deleteBuildTarget(deletedFile);
-		}
+			// Delete the old dependency files for any deleted resources
+			for (IResource deletedFile : getDeletedFileList()) {
+				deleteDepFile(deletedFile);
+				deleteBuildTarget(deletedFile);
+			}
 
-		// Regenerate any fragments for modified directories
-		for (IResource res : getModifiedList()) {
-			IContainer subDir = (IContainer)res;
-			// Make sure the directory exists (it may have been deleted)
-			if (!subDir.exists()) {
-				appendDeletedSubdirectory(subDir);
-				continue;
+			// Regenerate any fragments for modified directories
+			for (IResource res : getModifiedList()) {
+				IContainer subDir = (IContainer)res;
+				// Make sure the directory exists (it may have been deleted)
+				if (!subDir.exists()) {
+					appendDeletedSubdirectory(subDir);
+					continue;
+				}
+				//populateFragmentMakefile(subDir);    //  See below
+				checkCancel();
 			}
-			//populateFragmentMakefile(subDir);    //  See below
-			checkCancel();
-		}
 
-		// Recreate all module makefiles
-		// NOTE WELL: For now, always recreate all of the fragment makefile.  This is necessary
-		//     in order to re-populate the buildVariable lists.  In the future, the list could
-		//     possibly segmented by subdir so that all fragments didn't need to be
-		//     regenerated
-		for (IResource res : getSubdirList()) {
-			IContainer subDir = (IContainer)res;
-			try {
-				populateFragmentMakefile(subDir);
-			} catch (CoreException e) {
-				// Probably should ask user if they want to continue
+			// Recreate all module makefiles
+			// NOTE WELL: For now, always recreate all of the fragment makefile.  This is necessary
+			//     in order to re-populate the buildVariable lists.  In the future, the list could
+			//     possibly segmented by subdir so that all fragments didn't need to be
+			//     regenerated
+			for (IResource res : getSubdirList()) {
+				IContainer subDir = (IContainer)res;
+				try {
+					populateFragmentMakefile(subDir);
+				} catch (CoreException e) {
+					// Probably should ask user if they want to continue
+					checkCancel();
+					continue;
+				}
 				checkCancel();
-				continue;
 			}
-			checkCancel();
-		}
 
 
-		// Calculate the inputs and outputs of the Tools to be generated in the main makefile
-		calculateToolInputsOutputs();
-		checkCancel();
+			// Calculate the inputs and outputs of the Tools to be generated in the main makefile
+			calculateToolInputsOutputs();
+			checkCancel();
 
-		// Re-create the top-level makefile
-		IPath makefilePath = topBuildDir.append(MAKEFILE_NAME);
-		IFile makefileHandle = createFile(makefilePath);
-		populateTopMakefile(makefileHandle, false);
-		checkCancel();
+			// Re-create the top-level makefile
+			IPath makefilePath = topBuildDir.append(MAKEFILE_NAME);
+			IFile makefileHandle = createFile(makefilePath);
+			populateTopMakefile(makefileHandle, false);
+			checkCancel();
+
+			batchEnded = true;
+			makefileWriter.endBatch();
+		} finally {
+			if (!batchEnded)
+				makefileWriter.endBatchAfterFailure();
+		}
 
 		// Remove deleted folders from generated build directory
 		for (IResource res : getDeletedDirList()) {
@@ -890,37 +901,47 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		buildOutVars.clear();
 		buildDepVars.clear();
 		topBuildOutVars.clear();
-		populateSourcesMakefile(srcsFileHandle);
-		checkCancel();
+		makefileWriter.beginBatch();
+		boolean batchEnded = false;
+		try {
+			populateSourcesMakefile(srcsFileHandle);
+			checkCancel();
 
-		// Now populate the module makefiles
-		for (IResource res : getSubdirList()) {
-			IContainer subDir = (IContainer)res;
-			try {
-				populateFragmentMakefile(subDir);
-			} catch (CoreException e) {
-				// Probably should ask user if they want to continue
+			// Now populate the module makefiles
+			for (IResource res : getSubdirList()) {
+				IContainer subDir = (IContainer)res;
+				try {
+					populateFragmentMakefile(subDir);
+				} catch (CoreException e) {
+					// Probably should ask user if they want to continue
+					checkCancel();
+					continue;
+				}
 				checkCancel();
-				continue;
 			}
+
+			// Calculate the inputs and outputs of the Tools to be generated in the main makefile
+			calculateToolInputsOutputs();
 			checkCancel();
-		}
 
-		// Calculate the inputs and outputs of the Tools to be generated in the main makefile
-		calculateToolInputsOutputs();
-		checkCancel();
+			// Create the top-level makefile
+			IPath makefilePath = topBuildDir.append(MAKEFILE_NAME);
+			IFile makefileHandle = createFile(makefilePath);
+			populateTopMakefile(makefileHandle, true);
+			checkCancel();
 
-		// Create the top-level makefile
-		IPath makefilePath = topBuildDir.append(MAKEFILE_NAME);
-		IFile makefileHandle = createFile(makefilePath);
-		populateTopMakefile(makefileHandle, true);
-		checkCancel();
+			// Now finish up by adding all the object files
+			IPath objFilePath = topBuildDir.append(OBJECTS_MAKFILE);
+			IFile objsFileHandle = createFile(objFilePath);
+			populateObjectsMakefile(objsFileHandle);
+			checkCancel();
 
-		// Now finish up by adding all the object files
-		IPath objFilePath = topBuildDir.append(OBJECTS_MAKFILE);
-		IFile objsFileHandle = createFile(objFilePath);
-		populateObjectsMakefile(objsFileHandle);
-		checkCancel();
+			batchEnded = true;
+			makefileWriter.endBatch();
+		} finally {
+			if (!batchEnded)
+				makefileWriter.endBatchAfterFailure();
+		}
 
 		// How did we do
 		if (!getInvalidDirList().isEmpty()) {
@@ -980,7 +1001,15 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		makeBuf.append(addSources(module));
 
 		// Save the files
-		Util.save(makeBuf, modMakefile);
+		save(makeBuf, modMakefile);
+	}
+
+	/**
+	 * Saves the generated makefile text, the file is not touched if it already has this content.
+	 * While the makefiles of a build are generated, the files are written at the end.
+	 */
+	private void save(StringBuffer buffer, IFile file) throws CoreException {
+		makefileWriter.save(buffer, file);
 	}
 
 	/**
@@ -1040,7 +1069,7 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		}
 
  		// For now, just save the buffer that was populated when the rules were created
-		Util.save(macroBuffer, fileHandle);
+		save(macroBuffer, fileHandle);
 
 	}
 
@@ -1125,7 +1154,7 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		buffer.append(NEWLINE + addSubdirectories());
 
 		// Save the file
-		Util.save(buffer, fileHandle);
+		save(buffer, fileHandle);
 	}
 
 	/**
@@ -1156,7 +1185,7 @@ public class GnuMakefileGenerator implements IManagedBuilderMakefileGenerator2 {
 		buffer.append(targetRules);
 
 		// Save the file
-		Util.save(buffer, fileHandle);
+		save(buffer, fileHandle);
 	}
 
 
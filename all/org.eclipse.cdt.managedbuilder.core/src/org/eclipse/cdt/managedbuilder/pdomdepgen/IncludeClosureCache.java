@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.managedbuilder.pdomdepgen;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.cdt.core.CCorePlugin;
+import org.eclipse.cdt.core.index.IIndex;
+import org.eclipse.cdt.core.index.IIndexChangeEvent;
+import org.eclipse.cdt.core.index.IIndexChangeListener;
+import org.eclipse.cdt.core.index.IIndexFile;
+import org.eclipse.cdt.core.index.IIndexFileLocation;
+import org.eclipse.cdt.core.index.IIndexInclude;
+import org.eclipse.cdt.core.index.IIndexManager;
+import org.eclipse.cdt.core.index.IndexLocationFactory;
+import org.eclipse.cdt.core.model.CoreModel;
+import org.eclipse.cdt.core.model.ICElement;
+import org.eclipse.cdt.core.model.ICProject;
+import org.eclipse.cdt.core.parser.ExtendedScannerInfo;
+import org.eclipse.cdt.core.parser.IExtendedScannerInfo;
+import org.eclipse.cdt.core.parser.IScannerInfo;
+import org.eclipse.cdt.core.parser.IScannerInfoProvider;
+import org.eclipse.cdt.managedbuilder.core.ManagedBuilderCorePlugin;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Path;
+
+/**
+ * Computes the include closures of source files from the index. The direct includes of every
+ * file are read from the index once and kept until the index is written, such that the headers
+ * shared by many sources are not visited again for each of them.
+ * <p>
+ * The index may not yet reflect the latest changes of a header. The files of a closure are
+ * compared with the file system, the result of the comparison is reused for a short time.
+ * When a file of the project has changed after it was indexed, the indexer is asked to update
+ * it. If the indexer is idle, the closure is computed again once the indexer has written the
+ * file. Otherwise the build does not wait, the include directives of the changed files are
+ * read from disk instead.
+ */
+final class IncludeClosureCache {
+	/** Maximum time in milliseconds to wait for an idle indexer to catch up with changed files. */
+	private static final int WAIT_FOR_INDEXER = 2000;
+	/** Time in milliseconds for which the comparison of a file with the file system is reused. */
+	private static final int CHECK_INTERVAL = 2000;
+	private static final IPath[] NO_PATHS = {};
+	@SuppressWarnings("nls")
+	private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*(?:include|include_next|import)\\s*([\"<])([^\">]+)[\">]");
+
+	private static final class Node {
+		final IPath[] fLocations;
+		final IIndexFile[] fTargets;
+
+		Node(IPath[] locations, IIndexFile[] targets) {
+			fLocations = locations;
+			fTargets = targets;
+		}
+	}
+
+	private static final Map<IProject, IncludeClosureCache> fCaches = new HashMap<IProject, IncludeClosureCache>();
+
+	private final ICProject fProject;
+	private long fLastWriteAccess = -1;
+	private final Map<IIndexFile, Node> fNodes = new HashMap<IIndexFile, Node>();
+	private final Map<IIndexFile, Boolean> fUpToDate = new HashMap<IIndexFile, Boolean>();
+	private long fUpToDateTime;
+	/** Changed files the indexer was asked to update, with the modification time seen on disk. */
+	private final Map<IIndexFileLocation, Long> fRequested = new HashMap<IIndexFileLocation, Long>();
+
+	private IncludeClosureCache(ICProject project) {
+		fProject = project;
+	}
+
+	/**
+	 * Returns the cache for the given project. The caches of closed or deleted projects
+	 * are discarded.
+	 */
+	static synchronized IncludeClosureCache getCache(IProject project) {
+		IncludeClosureCache cache = fCaches.get(project);
+		if (cache == null) {
+			for (Iterator<IProject> it = fCaches.keySet().iterator(); it.hasNext();) {
+				if (!it.next().isAccessible())
+					it.remove();
+			}
+			cache = new IncludeClosureCache(CoreModel.getDefault().create(project));
+			fCaches.put(project, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the locations of all files included by the given file, directly or indirectly.
+	 */
+	IPath[] getDependencies(IFile file) throws CoreException, InterruptedException {
+		Collection<IPath> result = new LinkedHashSet<IPath>();
+		Map<IIndexFileLocation, Long> changed = new HashMap<IIndexFileLocation, Long>();
+		Set<IIndexFileLocation> request = new HashSet<IIndexFileLocation>();
+		synchronized (this) {
+			computeDependencies(file, result, changed);
+			// Do not ask again for files the indexer has already been asked to update.
+			for (Map.Entry<IIndexFileLocation, Long> entry : changed.entrySet()) {
+				if (!entry.getValue().equals(fRequested.get(entry.getKey()))) {
+					fRequested.put(entry.getKey(), entry.getValue());
+					request.add(entry.getKey());
+				}
+			}
+		}
+		// Let an idle indexer catch up with the changed files, without blocking other callers.
+		// A busy indexer may take long to get to them, the build does not wait for it.
+		if (!request.isEmpty() && waitForIndexer(request, CCorePlugin.getIndexManager().isIndexerIdle())) {
+			changed.clear();
+			synchronized (this) {
+				result.clear();
+				computeDependencies(file, result, changed);
+			}
+		}
+		if (!changed.isEmpty())
+			addScannedIncludes(file, changed.keySet(), result);
+		return result.isEmpty() ? NO_PATHS : result.toArray(new IPath[result.size()]);
+	}
+
+	/**
+	 * Adds the include closure of the file to the result. The files of the project that have
+	 * changed since they were indexed are added to <code>changed</code>, if it is not
+	 * <code>null</code>.
+	 */
+	private void computeDependencies(IFile file, Collection<IPath> result, Map<IIndexFileLocation, Long> changed)
+			throws CoreException, InterruptedException {
+		IIndex index = CCorePlugin.getIndexManager().getIndex(fProject, IIndexManager.ADD_DEPENDENCIES);
+		index.acquireReadLock();
+		try {
+			final long lastWriteAccess = index.getLastWriteAccess();
+			if (lastWriteAccess != fLastWriteAccess) {
+				fLastWriteAccess = lastWriteAccess;
+				fNodes.clear();
+				fUpToDate.clear();
+			}
+			final long now = System.currentTimeMillis();
+			if (now - fUpToDateTime > CHECK_INTERVAL) {
+				fUpToDateTime = now;
+				fUpToDate.clear();
+			}
+			IIndexFile[] files = index.getFiles(IndexLocationFactory.getWorkspaceIFL(file));
+			if (files.length == 0)
+				return;
+
+			Set<IIndexFile> visited = new HashSet<IIndexFile>();
+			LinkedList<IIndexFile> queue = new LinkedList<IIndexFile>();
+			visited.add(files[0]);
+			queue.add(files[0]);
+			while (!queue.isEmpty()) {
+				IIndexFile current = queue.poll();
+				if (changed != null && !isUpToDate(current))
+					addChangedFile(current, changed);
+				Node node = getNode(index, current);
+				for (IPath location : node.fLocations) {
+					result.add(location);
+				}
+				for (IIndexFile target : node.fTargets) {
+					if (visited.add(target))
+						queue.add(target);
+				}
+			}
+		} finally {
+			index.releaseReadLock();
+		}
+	}
+
+	/**
+	 * Adds the file to the map of changed files, if the indexer updates it for the project.
+	 */
+	private void addChangedFile(IIndexFile file, Map<IIndexFileLocation, Long> changed) throws CoreException {
+		IIndexFileLocation ifl = file.getLocation();
+		String fullPath = ifl.getFullPath();
+		if (fullPath == null)
+			return;
+		IResource resource = ResourcesPlugin.getWorkspace().getRoot().findMember(new Path(fullPath));
+		if (resource == null || !resource.getProject().equals(fProject.getProject()))
+			return;
+		File localFile = resource.getLocation() == null ? null : resource.getLocation().toFile();
+		if (localFile != null && localFile.isFile())
+			changed.put(ifl, new Long(localFile.lastModified()));
+	}
+
+	/**
+	 * Asks the indexer to update the given files and, if <code>wait</code> is <code>true</code>,
+	 * waits until it has written all of them. Returns <code>false</code> if the indexer did not
+	 * update the files in time.
+	 */
+	private boolean waitForIndexer(Set<IIndexFileLocation> files, boolean wait) throws CoreException, InterruptedException {
+		final Set<IIndexFileLocation> pending = new HashSet<IIndexFileLocation>(files);
+		List<ICElement> elements = new ArrayList<ICElement>(files.size());
+		for (IIndexFileLocation ifl : files) {
+			IFile file = ResourcesPlugin.getWorkspace().getRoot().getFile(new Path(ifl.getFullPath()));
+			ICElement element = CoreModel.getDefault().create(file);
+			if (element != null)
+				elements.add(element);
+		}
+		if (elements.isEmpty())
+			return false;
+
+		IIndexChangeListener listener = new IIndexChangeListener() {
+			public void indexChanged(IIndexChangeEvent event) {
+				if (!fProject.equals(event.getAffectedProject()))
+					return;
+				synchronized (pending) {
+					pending.removeAll(event.getFilesWritten());
+					if (pending.isEmpty())
+						pending.notifyAll();
+				}
+			}
+		};
+		IIndexManager manager = CCorePlugin.getIndexManager();
+		if (!wait) {
+			manager.update(elements.toArray(new ICElement[elements.size()]), IIndexManager.UPDATE_CHECK_TIMESTAMPS);
+			return false;
+		}
+		manager.addIndexChangeListener(listener);
+		try {
+			manager.update(elements.toArray(new ICElement[elements.size()]), IIndexManager.UPDATE_CHECK_TIMESTAMPS);
+			final long deadline = System.currentTimeMillis() + WAIT_FOR_INDEXER;
+			synchronized (pending) {
+				while (!pending.isEmpty()) {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0)
+						return false;
+					pending.wait(wait);
+				}
+			}
+			return true;
+		} finally {
+			manager.removeIndexChangeListener(listener);
+		}
+	}
+
+	/**
+	 * Adds the files included by the changed files according to their content on disk, such
+	 * that includes the indexer has not yet seen are part of the dependencies. Included files
+	 * that are not already part of the closure are read the same way. The includes are resolved
+	 * with the include paths of the given source file, conditional compilation is not taken
+	 * into account.
+	 */
+	private void addScannedIncludes(IFile file, Set<IIndexFileLocation> changed, Collection<IPath> result) {
+		IExtendedScannerInfo info = getScannerInfo(file);
+		LinkedList<IPath> queue = new LinkedList<IPath>();
+		for (IIndexFileLocation ifl : changed) {
+			IPath location = IndexLocationFactory.getAbsolutePath(ifl);
+			if (location != null)
+				queue.add(location);
+		}
+		Set<IPath> visited = new HashSet<IPath>(queue);
+		while (!queue.isEmpty()) {
+			IPath current = queue.poll();
+			for (IPath included : scanIncludes(current, info)) {
+				if (result.add(included) && visited.add(included))
+					queue.add(included);
+			}
+		}
+	}
+
+	private IExtendedScannerInfo getScannerInfo(IFile file) {
+		IScannerInfoProvider provider = CCorePlugin.getDefault().getScannerInfoProvider(fProject.getProject());
+		if (provider == null)
+			return null;
+		IScannerInfo info = provider.getScannerInformation(file);
+		return info == null ? null : new ExtendedScannerInfo(info);
+	}
+
+	/**
+	 * Returns the locations of the files included by the given file, as far as they can be found.
+	 */
+	private static List<IPath> scanIncludes(IPath location, IExtendedScannerInfo info) {
+		List<IPath> result = new ArrayList<IPath>();
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(location.toFile())));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					Matcher matcher = INCLUDE.matcher(line);
+					if (!matcher.find())
+						continue;
+					String name = matcher.group(2).trim();
+					IPath included = null;
+					if (matcher.group(1).equals("\"")) { //$NON-NLS-1$
+						included = findInclude(new String[] { location.removeLastSegments(1).toOSString() }, name);
+						if (included == null && info != null)
+							included = findInclude(info.getLocalIncludePath(), name);
+					}
+					if (included == null && info != null)
+						included = findInclude(info.getIncludePaths(), name);
+					if (included != null)
+						result.add(included);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// the file is gone, its includes do not matter
+		}
+		return result;
+	}
+
+	private static IPath findInclude(String[] directories, String name) {
+		if (directories == null)
+			return null;
+		for (String directory : directories) {
+			File file = new File(directory, name);
+			if (file.isFile())
+				return new Path(file.getAbsolutePath());
+		}
+		return null;
+	}
+
+	private Node getNode(IIndex index, IIndexFile file) throws CoreException {
+		Node node = fNodes.get(file);
+		if (node == null) {
+			List<IPath> locations = new ArrayList<IPath>();
+			List<IIndexFile> targets = new ArrayList<IIndexFile>();
+			for (IIndexInclude include : file.getIncludes()) {
+				if (include.isResolved()) {
+					IPath location = IndexLocationFactory.getAbsolutePath(include.getIncludesLocation());
+					if (location != null)
+						locations.add(location);
+					IIndexFile target = index.resolveInclude(include);
+					if (target != null)
+						targets.add(target);
+				}
+			}
+			node = new Node(locations.toArray(new IPath[locations.size()]),
+					targets.toArray(new IIndexFile[targets.size()]));
+			fNodes.put(file, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Checks whether the file on disk has not been modified since the file was indexed.
+	 */
+	private boolean isUpToDate(IIndexFile file) {
+		Boolean result = fUpToDate.get(file);
+		if (result == null) {
+			result = Boolean.TRUE;
+			try {
+				IIndexFileLocation ifl = file.getLocation();
+				IPath path = IndexLocationFactory.getAbsolutePath(ifl);
+				if (path != null) {
+					File localFile = path.toFile();
+					if (!localFile.isFile() || localFile.lastModified() != file.getTimestamp())
+						result = Boolean.FALSE;
+				}
+			} catch (CoreException e) {
+				ManagedBuilderCorePlugin.log(e);
+			}
+			fUpToDate.put(file, result);
+		}
+		return result.booleanValue();
+	}
+}
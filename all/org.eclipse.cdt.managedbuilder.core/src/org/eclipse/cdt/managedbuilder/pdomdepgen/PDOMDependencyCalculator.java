@@ -1,5 +1,5 @@
 /**********************************************************************
- * Copyright (c) 2006, 2010 QNX Software Systems and others.
+ * Copyright (c) 2006, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,17 +13,6 @@
 
 package org.eclipse.cdt.managedbuilder.pdomdepgen;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import org.eclipse.cdt.core.CCorePlugin;
-import org.eclipse.cdt.core.index.IIndex;
-import org.eclipse.cdt.core.index.IIndexFile;
-import org.eclipse.cdt.core.index.IIndexInclude;
-import org.eclipse.cdt.core.index.IIndexManager;
-import org.eclipse.cdt.core.index.IndexLocationFactory;
-import org.eclipse.cdt.core.model.CoreModel;
-import org.eclipse.cdt.core.model.ICProject;
 import org.eclipse.cdt.managedbuilder.core.IBuildObject;
 import org.eclipse.cdt.managedbuilder.core.ITool;
 import org.eclipse.cdt.managedbuilder.makegen.IManagedDependencyCalculator;
@@ -61,33 +50,14 @@ public class PDOMDependencyCalculator implements IManagedDependencyCalculator {
 
 	public IPath[] getDependencies() {
 		if (dependencies == null) {
-			if (resource != null) {
-				ICProject project = CoreModel.getDefault().create(resource.getProject());
+			if (resource instanceof IFile) {
 				try {
-					IIndex index = CCorePlugin.getIndexManager().getIndex(project, IIndexManager.ADD_DEPENDENCIES);
-					index.acquireReadLock();
-					try {
-						IIndexFile[] files = index.getFiles(IndexLocationFactory.getWorkspaceIFL((IFile)resource));
-						if (files.length > 0) {
-							IIndexInclude[] includes = index.findIncludes(files[0], IIndex.DEPTH_INFINITE);
-
-							List<IPath> list = new ArrayList<IPath>();
-							for (IIndexInclude inc : includes) {
-								if (inc.isResolved()) {
-									list.add(IndexLocationFactory.getAbsolutePath(inc.getIncludesLocation()));
-								}
-							}
-							dependencies = list.toArray(new IPath[list.size()]);
-						} else
-							dependencies = new IPath[0];
-					}
-					finally {
-						index.releaseReadLock();
-					}
+					dependencies = IncludeClosureCache.getCache(resource.getProject()).getDependencies((IFile) resource);
 				} catch (CoreException e) {
 //					Activator.getDefault().getLog().log(e.getStatus());
 					dependencies = new IPath[0];
 				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
 					dependencies = new IPath[0];
 				}
 			} else
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 Wind River Systems and others.
+ * Copyright (c) 2007, 2011 Wind River Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,15 +14,20 @@
  *******************************************************************************/
 package org.eclipse.cdt.dsf.mi.service;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.eclipse.cdt.core.IAddress;
 import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
 import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
 import org.eclipse.cdt.dsf.concurrent.ImmediateExecutor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
@@ -90,7 +95,7 @@ public class MIMemory extends AbstractDsfService implements IMemory, ICachingSer
     private MIMemoryCache getMemoryCache(IMemoryDMContext memoryDMC) {
     	MIMemoryCache cache = fMemoryCaches.get(memoryDMC);
     	if (cache == null) {
-    		cache = new MIMemoryCache();
+    		cache = new MIMemoryCache(memoryDMC);
     		fMemoryCaches.put(memoryDMC, cache);
     	}
     	return cache;
@@ -509,388 +514,333 @@ public class MIMemory extends AbstractDsfService implements IMemory, ICachingSer
 	}
 
 	///////////////////////////////////////////////////////////////////////////
-	// SortedLinkedlist
+	// MIMemoryCache
 	///////////////////////////////////////////////////////////////////////////
 
-	// This class is really the equivalent of a C struct (old habits die hard...)
-   	// For simplicity, everything is public.
-   	private class MemoryBlock {
-		public IAddress fAddress;
-		public long fLength;
-		public MemoryByte[] fBlock;
-		public MemoryBlock(IAddress address, long length, MemoryByte[] block) {
+	// The memory is cached in aligned pages of PAGE_SIZE bytes
+	private static final int PAGE_BITS = 8;
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	// The maximum number of pages cached for a memory context
+	private static final int MAX_CACHED_PAGES = 1024;
+	// The maximum number of pages read ahead of sequential requests
+	private static final int MAX_READ_AHEAD_PAGES = 64;
+
+	// A request waiting for the next round of reads
+	private class PendingRead {
+		public final IAddress fAddress;
+		public final int fCount;
+		public final DataRequestMonitor<MemoryByte[]> fDrm;
+		// The pages to read for the request, including the read-ahead
+		public final BigInteger fFirstPage;
+		public final BigInteger fLastPage;
+		public PendingRead(IAddress address, int count, DataRequestMonitor<MemoryByte[]> drm, BigInteger firstPage, BigInteger lastPage) {
 			fAddress = address;
-			fLength = length;
-			fBlock = block;
+			fCount = count;
+			fDrm = drm;
+			fFirstPage = firstPage;
+			fLastPage = lastPage;
 		}
 	}
 
-   	// Address-ordered data structure to cache the memory blocks.
-   	// Contiguous blocks are merged if possible.
-	@SuppressWarnings("serial")
-	private class SortedMemoryBlockList extends LinkedList<MemoryBlock> {
+	private class MIMemoryCache {
+		private final IMemoryDMContext fContext;
+
+		// The cached pages indexed by page number, least recently used first
+		@SuppressWarnings("serial")
+		private final Map<BigInteger, MemoryByte[]> fPages = new LinkedHashMap<BigInteger, MemoryByte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<BigInteger, MemoryByte[]> eldest) {
+				return size() > MAX_CACHED_PAGES;
+			}
+		};
+		// Changed on every reset, such that the results of older reads are not cached
+		private int fGeneration;
+
+		// The requests that missed the cache are read together in rounds. The requests
+		// arriving while a round is in progress are read in the next one.
+		private List<PendingRead> fPendingReads = new ArrayList<PendingRead>();
+		private boolean fRoundInProgress;
+
+		// The pages of the previous request and the read-ahead for sequential requests
+		private BigInteger fPreviousFirstPage;
+		private BigInteger fPreviousLastPage;
+		private int fReadAheadDirection;
+		private int fReadAheadPages;
+
+		// Statistics
+		private long fHitCount;
+		private long fMissCount;
+		private long fReadCount;
+		private long fBytesRead;
+
+		public MIMemoryCache(IMemoryDMContext context) {
+			fContext = context;
+		}
 
-		public SortedMemoryBlockList() {
-			super();
+		public void reset() {
+		    // Clear the memory cache
+			fPages.clear();
+			fGeneration++;
+			fPreviousFirstPage = null;
+			fPreviousLastPage = null;
+			fReadAheadDirection = 0;
+			fReadAheadPages = 0;
 		}
 
-		// Insert the block in the sorted linked list and merge contiguous
-		// blocks if necessary
-		@Override
-		public boolean add(MemoryBlock block) {
+		private BigInteger getPage(IAddress address) {
+			return address.getValue().shiftRight(PAGE_BITS);
+		}
 
-			// If the list is empty, just store the block
-			if (isEmpty()) {
-				addFirst(block);
-				return true;
-			}
+		private IAddress getPageAddress(IAddress reference, BigInteger page) {
+			return reference.add(page.shiftLeft(PAGE_BITS).subtract(reference.getValue()));
+		}
 
-			// Insert the block at the correct location and then
-			// merge the blocks if possible
-			ListIterator<MemoryBlock> it = listIterator();
-			while (it.hasNext()) {
-				int index = it.nextIndex();
-				MemoryBlock item = it.next();
-				if (block.fAddress.compareTo(item.fAddress) < 0) {
-					add(index, block);
-					compact(index);
-					return true;
-				}
+		/**
+		 * Copies the bytes that a page and a block starting at the given address have in common,
+		 * from the page to the block or from the block to the page.
+		 *
+		 * @return Whether the value of a copied byte differs between the page and the block
+		 */
+		private boolean copyOverlap(BigInteger page, MemoryByte[] pageBytes, IAddress address, MemoryByte[] block, boolean toBlock) {
+			long offset = page.shiftLeft(PAGE_BITS).subtract(address.getValue()).longValue();
+			int pagePos = (int) Math.max(0, -offset);
+			int blockPos = (int) Math.max(0, offset);
+			int length = Math.min(PAGE_SIZE - pagePos, block.length - blockPos);
+			if (length <= 0) {
+				return false;
 			}
-
-			// Put at the end of the list and merge if necessary 
-			addLast(block);
-			compact(size() - 1);
-			return true;
+			if (toBlock) {
+				System.arraycopy(pageBytes, pagePos, block, blockPos, length);
+				return false;
+			}
+			boolean differ = false;
+			for (int i = 0; i < length && !differ; i++) {
+				differ = pageBytes[pagePos + i].getValue() != block[blockPos + i].getValue();
+			}
+			System.arraycopy(block, blockPos, pageBytes, pagePos, length);
+			return differ;
 		}
 
-		// Merge this block with its contiguous neighbors (if any)
-		// Note: Merge is not performed if resulting block size would exceed MAXINT
-		private void compact(int index) {
-
-			MemoryBlock newBlock = get(index); 
-
-			// Case where the block is to be merged with the previous block
-			if (index > 0) {
-				MemoryBlock prevBlock = get(index - 1);
-				IAddress endOfPreviousBlock = prevBlock.fAddress.add(prevBlock.fLength);
-				if (endOfPreviousBlock.distanceTo(newBlock.fAddress).longValue() == 0) {
-					long newLength = prevBlock.fLength + newBlock.fLength;
-					if (newLength <= Integer.MAX_VALUE) {
-						MemoryByte[] block = new MemoryByte[(int) newLength] ;
-						System.arraycopy(prevBlock.fBlock, 0, block, 0, (int) prevBlock.fLength);
-						System.arraycopy(newBlock.fBlock, 0, block, (int) prevBlock.fLength, (int) newBlock.fLength);
-						newBlock = new MemoryBlock(prevBlock.fAddress, newLength, block);
-						remove(index);
-						index -= 1;
-						set(index, newBlock);
+		/**
+		 * Returns the cached content of a memory block, or <code>null</code> if
+		 * some of its pages are not cached.
+		 *
+		 * @param address The address of the requested block
+		 * @param count Its length
+		 * @param readPages Pages just read from the target, used in preference to the cache
+		 */
+		private MemoryByte[] getMemoryBlockFromCache(IAddress address, int count, Map<BigInteger, MemoryByte[]> readPages) {
+			MemoryByte[] resultBlock = new MemoryByte[count];
+			BigInteger lastPage = getPage(address.add(count - 1));
+			for (BigInteger page = getPage(address); page.compareTo(lastPage) <= 0; page = page.add(BigInteger.ONE)) {
+				MemoryByte[] pageBytes = readPages != null ? readPages.get(page) : null;
+				if (pageBytes == null) {
+					pageBytes = fPages.get(page);
+					if (pageBytes == null) {
+						return null;
 					}
 				}
+				copyOverlap(page, pageBytes, address, resultBlock, true);
 			}
+			return resultBlock;
+		}
 
-			// Case where the block is to be merged with the following block
-			int lastIndex = size() - 1;
-			if (index < lastIndex) {
-				MemoryBlock nextBlock = get(index + 1);
-				IAddress endOfNewBlock = newBlock.fAddress.add(newBlock.fLength);
-				if (endOfNewBlock.distanceTo(nextBlock.fAddress).longValue() == 0) {
-					long newLength = newBlock.fLength + nextBlock.fLength;
-					if (newLength <= Integer.MAX_VALUE) {
-						MemoryByte[] block = new MemoryByte[(int) newLength] ;
-						System.arraycopy(newBlock.fBlock, 0, block, 0, (int) newBlock.fLength);
-						System.arraycopy(nextBlock.fBlock, 0, block, (int) newBlock.fLength, (int) nextBlock.fLength);
-						newBlock = new MemoryBlock(newBlock.fAddress, newLength, block);
-						set(index, newBlock);
-						remove(index + 1);
-					}
+		/**
+		 * Updates the cached pages with memory just read from the target.
+		 * Pages that are not cached are left alone.
+		 *
+		 * @return Whether the value of a cached byte changed
+		 */
+		private boolean updateMemoryCache(IAddress modBlockStart, int count, MemoryByte[] modBlock) {
+			boolean changed = false;
+			BigInteger lastPage = getPage(modBlockStart.add(count - 1));
+			for (BigInteger page = getPage(modBlockStart); page.compareTo(lastPage) <= 0; page = page.add(BigInteger.ONE)) {
+				MemoryByte[] pageBytes = fPages.get(page);
+				if (pageBytes != null) {
+					changed |= copyOverlap(page, pageBytes, modBlockStart, modBlock, false);
 				}
 			}
+			return changed;
 		}
-	}
 
-	///////////////////////////////////////////////////////////////////////////
-	// MIMemoryCache
-	///////////////////////////////////////////////////////////////////////////
-
-	private class MIMemoryCache {
-		// The memory cache data structure
-		private SortedMemoryBlockList fMemoryBlockList;
-
-		public MIMemoryCache() {
-	    	// Create the memory block cache
-	    	fMemoryBlockList = new SortedMemoryBlockList();
+		/**
+		 * Detects sequential requests, e.g. from a memory view being scrolled, and
+		 * adjusts the number of pages to read ahead of them. The read-ahead doubles
+		 * with every request that continues in the same direction.
+		 */
+		private void updateReadAhead(BigInteger firstPage, BigInteger lastPage) {
+			int direction = 0;
+			if (fPreviousFirstPage != null) {
+				if (firstPage.compareTo(fPreviousFirstPage) > 0 && firstPage.compareTo(fPreviousLastPage.add(BigInteger.ONE)) <= 0) {
+					direction = 1;
+				} else if (lastPage.compareTo(fPreviousLastPage) < 0 && lastPage.compareTo(fPreviousFirstPage.subtract(BigInteger.ONE)) >= 0) {
+					direction = -1;
+				}
+			}
+			if (direction == 0) {
+				fReadAheadPages = 0;
+			} else if (direction == fReadAheadDirection) {
+				fReadAheadPages = Math.min(Math.max(1, fReadAheadPages * 2), MAX_READ_AHEAD_PAGES);
+			} else {
+				fReadAheadPages = 1;
+			}
+			fReadAheadDirection = direction;
+			fPreviousFirstPage = firstPage;
+			fPreviousLastPage = lastPage;
 		}
 
-		public void reset() {
-	    	// Clear the memory cache
-	    	fMemoryBlockList.clear();
+		/**
+		 * Returns whether the block contains at least one readable byte.
+		 */
+		private boolean isReadable(MemoryByte[] block) {
+			for (MemoryByte memoryByte : block) {
+				if (memoryByte.isReadable()) {
+					return true;
+				}
+			}
+			return false;
 		}
 
-	    /**
- 	     *  This function walks the address-sorted memory block list to identify
-	     *  the 'missing' blocks (i.e. the holes) that need to be fetched on the target.
-	     * 
-	     *  The idea is fairly simple but an illustration could perhaps help.
-	     *  Assume the cache holds a number of cached memory blocks with gaps i.e.
-	     *  there is un-cached memory areas between blocks A, B and C:
-	     * 
-	     *        +---------+      +---------+      +---------+
-	     *        +    A    +      +    B    +      +    C    +
-	     *        +---------+      +---------+      +---------+
-	     *        :         :      :         :      :         :
-	     *   [a]  :         :  [b] :         :  [c] :         :  [d]
-	     *        :         :      :         :      :         :
-	     *   [e---+--]      :  [f--+---------+--]   :         :
-	     *   [g---+---------+------+---------+------+---------+----]
-	     *        :         :      :         :      :         :
-	     *        :   [h]   :      :   [i----+--]   :         :
-	     * 
-	     * 
-	     *  We have the following cases to consider.The requested block [a-i] either:
-	     * 
-	     *  [1] Fits entirely before A, in one of the gaps, or after C
-	     *      with no overlap and no contiguousness (e.g. [a], [b], [c] and [d])
-	     *      -> Add the requested block to the list of blocks to fetch
-	     * 
-	     *  [2] Starts before an existing block but overlaps part of it, possibly
-	     *      spilling in the gap following the cached block (e.g. [e], [f] and [g])
-	     *      -> Determine the length of the missing part (< count)
-	     *      -> Add a request to fill the gap before the existing block
-	     *      -> Update the requested block for the next iteration:
-	     *         - Start address to point just after the end of the cached block
-	     *         - Count reduced by cached block length (possibly becoming negative, e.g. [e])
-	     *      At this point, the updated requested block starts just beyond the cached block
-	     *      for the next iteration.
-	     * 
-	     *  [3] Starts at or into an existing block and overlaps part of it ([h] and [i])
-	     *      -> Update the requested block for the next iteration:
-	     *         - Start address to point just after the end of the cached block
-	     *         - Count reduced by length to end of cached block (possibly becoming negative, e.g. [h])
-	     *      At this point, the updated requested block starts just beyond the cached block
-	     *      for the next iteration.
-	     * 
-	     *  We iterate over the cached blocks list until there is no entry left or until
-	     *  the remaining requested block count is <= 0, meaning the result list contains
-	     *  only the sub-blocks needed to fill the gap(s), if any.
-	     * 
-	     *  (As is often the case, it takes much more typing to explain it than to just do it :-)
-	     *
-	     *  What is missing is a parameter that indicates the minimal block size that is worth fetching.
-	     *  This is target-specific and straight in the realm of the coalescing function... 
-	     *  
-	     * @param reqBlockStart The address of the requested block
-	     * @param count Its length
-	     * @return A list of the sub-blocks to fetch in order to fill enough gaps in the memory cache
-	     * to service the request
-	     */
-	    private LinkedList<MemoryBlock> getListOfMissingBlocks(IAddress reqBlockStart, int count) {
-
-			LinkedList<MemoryBlock> list = new LinkedList<MemoryBlock>();
-			ListIterator<MemoryBlock> it = fMemoryBlockList.listIterator();
-
-			// Look for holes in the list of memory blocks
-			while (it.hasNext() && count > 0) {
-				MemoryBlock cachedBlock = it.next();
-				IAddress cachedBlockStart = cachedBlock.fAddress;
-				IAddress cachedBlockEnd   = cachedBlock.fAddress.add(cachedBlock.fLength);
-
-				// Case where we miss a block before the cached block
-				if (reqBlockStart.distanceTo(cachedBlockStart).longValue() >= 0) {
-					int length = (int) Math.min(reqBlockStart.distanceTo(cachedBlockStart).longValue(), count);
-					// If both blocks start at the same location, no need to create a new cached block
-					if (length > 0) {
-						MemoryBlock newBlock = new MemoryBlock(reqBlockStart, length, new MemoryByte[0]);
-						list.add(newBlock);
-					}
-					// Adjust request block start and length for the next iteration
-					reqBlockStart = cachedBlockEnd;
-					count -= length + cachedBlock.fLength;
-				}
+		/**
+		 * @param memoryDMC
+		 * @param address	the memory block address (on the target)
+		 * @param word_size	the size, in bytes, of an addressable item
+		 * @param count		the number of bytes to read
+		 * @param drm		the asynchronous data request monitor
+		 */
+		public void getMemory(IMemoryDMContext memoryDMC, final IAddress address, final int word_size, 
+				final int count, final DataRequestMonitor<MemoryByte[]> drm)
+		{
+			if (count == 0) {
+				drm.setData(new MemoryByte[0]);
+				drm.done();
+				return;
+			}
 
-				// Case where the requested block starts somewhere in the cached block
-				else if (cachedBlockStart.distanceTo(reqBlockStart).longValue() > 0
-					&&  reqBlockStart.distanceTo(cachedBlockEnd).longValue() >= 0)
-				{
-					// Start of the requested block already in cache
-					// Adjust request block start and length for the next iteration
-					count -= reqBlockStart.distanceTo(cachedBlockEnd).longValue();
-					reqBlockStart = cachedBlockEnd;
+			BigInteger firstPage = getPage(address);
+			BigInteger lastPage = getPage(address.add(count - 1));
+			updateReadAhead(firstPage, lastPage);
+
+			boolean missed = false;
+			for (BigInteger page = firstPage; page.compareTo(lastPage) <= 0; page = page.add(BigInteger.ONE)) {
+				if (fPages.get(page) != null) {
+					fHitCount++;
+				} else {
+					fMissCount++;
+					missed = true;
 				}
 			}
 
-			// Case where we miss a block at the end of the cache
-			if (count > 0) {
-				MemoryBlock newBlock = new MemoryBlock(reqBlockStart, count, new MemoryByte[0]);
-				list.add(newBlock);
+			// Everything is cached
+			if (!missed) {
+				drm.setData(getMemoryBlockFromCache(address, count, null));
+				drm.done();
+				return;
 			}
-			
-			return list;
-		}
-
-	    /**
-	     *  This function walks the address-sorted memory block list to get the
-	     *  cached memory bytes (possibly from multiple contiguous blocks).
-	     *  This function is called *after* the missing blocks have been read from
-	     *  the back end i.e. the requested memory is all cached. 
-	     *
-	     *  Again, this is fairly simple. As we loop over the address-ordered list,
-	     *  There are really only 2 cases:
-	     *
-	     *  [1] The requested block fits entirely in the cached block ([a] or [b])
-	     *  [2] The requested block starts in a cached block and ends in the
-	     *      following (contiguous) one ([c]) in which case it is treated
-	     *      as 2 contiguous requests ([c'] and [c"])
-	     *
-	     *       +--------------+--------------+
-	     *       +       A      +      B       +
-	     *       +--------------+--------------+
-	     *       :  [a----]     :   [b-----]   :
-	     *       :              :              :
-	     *       :       [c-----+------]       :
-	     *       :       [c'---]+[c"---]       :
-		 *
-	     * @param reqBlockStart The address of the requested block
-	     * @param count Its length
-	     * @return The cached memory content
-	     */
-	    private MemoryByte[] getMemoryBlockFromCache(IAddress reqBlockStart, int count) {
 
-			IAddress reqBlockEnd = reqBlockStart.add(count);
-			MemoryByte[] resultBlock = new MemoryByte[count];
-			ListIterator<MemoryBlock> iter = fMemoryBlockList.listIterator();
-
-			while (iter.hasNext()) {
-				MemoryBlock cachedBlock = iter.next();
-				IAddress cachedBlockStart = cachedBlock.fAddress;
-				IAddress cachedBlockEnd   = cachedBlock.fAddress.add(cachedBlock.fLength);
-
-				// Case where the cached block overlaps completely the requested memory block  
-				if (cachedBlockStart.distanceTo(reqBlockStart).longValue() >= 0
-					&& reqBlockEnd.distanceTo(cachedBlockEnd).longValue() >= 0)
-				{
-					int pos = (int) cachedBlockStart.distanceTo(reqBlockStart).longValue();
-					System.arraycopy(cachedBlock.fBlock, pos, resultBlock, 0, count);
-				}
-				
-				// Case where the beginning of the cached block is within the requested memory block  
-				else if (reqBlockStart.distanceTo(cachedBlockStart).longValue() >= 0
-					&& cachedBlockStart.distanceTo(reqBlockEnd).longValue() > 0)
-				{
-					int pos = (int) reqBlockStart.distanceTo(cachedBlockStart).longValue();
-					int length = (int) Math.min(cachedBlock.fLength, count - pos);
-					System.arraycopy(cachedBlock.fBlock, 0, resultBlock, pos, length);
-				}
-				
-				// Case where the end of the cached block is within the requested memory block  
-				else if (cachedBlockStart.distanceTo(reqBlockStart).longValue() >= 0
-					&& reqBlockStart.distanceTo(cachedBlockEnd).longValue() > 0)
-				{
-					int pos = (int) cachedBlockStart.distanceTo(reqBlockStart).longValue();
-					int length = (int) Math.min(cachedBlock.fLength - pos, count);
-					System.arraycopy(cachedBlock.fBlock, pos, resultBlock, 0, length);
-				}
- 			}
-			return resultBlock;
+			// Extend the read in the direction of a sequential scroll
+			if (fReadAheadDirection > 0) {
+				BigInteger maxPage = address.getMaxOffset().shiftRight(PAGE_BITS);
+				lastPage = lastPage.add(BigInteger.valueOf(fReadAheadPages)).min(maxPage);
+			} else if (fReadAheadDirection < 0) {
+				firstPage = firstPage.subtract(BigInteger.valueOf(fReadAheadPages)).max(BigInteger.ZERO);
+			}
+			fPendingReads.add(new PendingRead(address, count, drm, firstPage, lastPage));
+
+			// Let the requests of the current dispatch cycle join the round
+			if (!fRoundInProgress) {
+				fRoundInProgress = true;
+				getExecutor().execute(new DsfRunnable() {
+					public void run() {
+						readPendingRequests();
+					}
+				});
+			}
 		}
 
 		/**
-	     *  This function walks the address-sorted memory block list and updates
-	     *  the content with the actual memory just read from the target.
-	     * 
-		 * @param modBlockStart
-		 * @param count
-		 * @param modBlock
+		 * Reads the missing pages of all pending requests. Adjacent pages are
+		 * coalesced, such that one command is sent for every contiguous range.
 		 */
-		private void updateMemoryCache(IAddress modBlockStart, int count, MemoryByte[] modBlock) {
-			
-			IAddress modBlockEnd = modBlockStart.add(count);
-			ListIterator<MemoryBlock> iter = fMemoryBlockList.listIterator();
-
-			while (iter.hasNext()) {
-				MemoryBlock cachedBlock = iter.next();
-				IAddress cachedBlockStart = cachedBlock.fAddress;
-				IAddress cachedBlockEnd   = cachedBlock.fAddress.add(cachedBlock.fLength);
-				
-				// For now, we only bother to update bytes already cached.
-				// Note: In a better implementation (v1.1), we would augment
-				// the cache with the missing memory blocks since we went 
-				// through the pains of reading them in the first place.
-				// (this is left as an exercise to the reader :-)
-
-				// Case where the modified block is completely included in the cached block  
-				if (cachedBlockStart.distanceTo(modBlockStart).longValue() >= 0
-					&& modBlockEnd.distanceTo(cachedBlockEnd).longValue() >= 0)
-				{
-					int pos = (int) cachedBlockStart.distanceTo(modBlockStart).longValue();
-					System.arraycopy(modBlock, 0, cachedBlock.fBlock, pos, count);
+		private void readPendingRequests() {
+			final List<PendingRead> requests = fPendingReads;
+			fPendingReads = new ArrayList<PendingRead>();
+
+			SortedSet<BigInteger> missingPages = new TreeSet<BigInteger>();
+			for (PendingRead request : requests) {
+				for (BigInteger page = request.fFirstPage; page.compareTo(request.fLastPage) <= 0; page = page.add(BigInteger.ONE)) {
+					if (!fPages.containsKey(page)) {
+						missingPages.add(page);
+					}
 				}
-				
-				// Case where the beginning of the modified block is within the cached block  
-				else if (cachedBlockStart.distanceTo(modBlockStart).longValue() >= 0
-					&& modBlockStart.distanceTo(cachedBlockEnd).longValue() > 0)
-				{
-					int pos = (int) cachedBlockStart.distanceTo(modBlockStart).longValue();
-					int length = (int) cachedBlockStart.distanceTo(modBlockEnd).longValue();
-					System.arraycopy(modBlock, 0, cachedBlock.fBlock, pos, length);
+			}
+
+			final Map<BigInteger, MemoryByte[]> readPages = new HashMap<BigInteger, MemoryByte[]>();
+			final int generation = fGeneration;
+			final IAddress reference = requests.get(0).fAddress;
+
+			final CountingRequestMonitor countingRM = new CountingRequestMonitor(getExecutor(), null) {
+				@Override
+				protected void handleCompleted() {
+					completeRequests(requests, readPages);
+					if (fPendingReads.isEmpty()) {
+						fRoundInProgress = false;
+					} else {
+						readPendingRequests();
+					}
 				}
-				
-				// Case where the end of the modified block is within the cached block  
-				else if (cachedBlockStart.distanceTo(modBlockEnd).longValue() > 0
-					&& modBlockEnd.distanceTo(cachedBlockEnd).longValue() >= 0)
-				{
-					int pos = (int) modBlockStart.distanceTo(cachedBlockStart).longValue();
-					int length = (int) cachedBlockStart.distanceTo(modBlockEnd).longValue();
-					System.arraycopy(modBlock, pos, cachedBlock.fBlock, 0, length);
+			};
+
+			int numberOfRequests = 0;
+			while (!missingPages.isEmpty()) {
+				// Collect the next range of contiguous pages
+				final BigInteger firstPage = missingPages.first();
+				BigInteger nextPage = firstPage;
+				while (missingPages.remove(nextPage)) {
+					nextPage = nextPage.add(BigInteger.ONE);
 				}
- 			}
-			return;
+				final int pageCount = nextPage.subtract(firstPage).intValue();
+				final int length = pageCount * PAGE_SIZE;
+
+				fReadCount++;
+				fBytesRead += length;
+				numberOfRequests++;
+				readMemoryBlock(fContext, getPageAddress(reference, firstPage), 0, 1, length,
+						new DataRequestMonitor<MemoryByte[]>(getExecutor(), countingRM) {
+							@Override
+							protected void handleSuccess() {
+								MemoryByte[] block = getData();
+								// A failed read is not cached, the requests read their
+								// exact range instead
+								if (block.length == length && isReadable(block)) {
+									for (int i = 0; i < pageCount; i++) {
+										MemoryByte[] pageBytes = new MemoryByte[PAGE_SIZE];
+										System.arraycopy(block, i * PAGE_SIZE, pageBytes, 0, PAGE_SIZE);
+										BigInteger page = firstPage.add(BigInteger.valueOf(i));
+										readPages.put(page, pageBytes);
+										if (generation == fGeneration) {
+											fPages.put(page, pageBytes);
+										}
+									}
+								}
+								countingRM.done();
+							}
+						});
+			}
+			countingRM.setDoneCount(numberOfRequests);
 		}
 
-	    /**
-		 * @param memoryDMC
-	     * @param address	the memory block address (on the target)
-	     * @param word_size	the size, in bytes, of an addressable item
-	     * @param count		the number of bytes to read
-	     * @param drm		the asynchronous data request monitor
-	     */
-	    public void getMemory(IMemoryDMContext memoryDMC, final IAddress address, final int word_size, 
-	    		final int count, final DataRequestMonitor<MemoryByte[]> drm)
-	    {
-	    	// Determine the number of read requests to issue 
-	    	LinkedList<MemoryBlock> missingBlocks = getListOfMissingBlocks(address, count);
-	    	int numberOfRequests = missingBlocks.size();
-
-	    	// A read request will be issued for each block needed
-	    	// so we need to keep track of the count
-	        final CountingRequestMonitor countingRM =
-	        	new CountingRequestMonitor(getExecutor(), drm) { 
-	                @Override
-	                protected void handleSuccess() {
-	                	// We received everything so read the result from the memory cache
-	                	drm.setData(getMemoryBlockFromCache(address, count));
-	                    drm.done();
-	                }
-	            };
-	       	countingRM.setDoneCount(numberOfRequests);
-
-	        // Issue the read requests
-	        for (int i = 0; i < numberOfRequests; i++) {
-	        	MemoryBlock block = missingBlocks.get(i);
-	        	final IAddress startAddress = block.fAddress;
-	        	final int length = (int) block.fLength;
-		        readMemoryBlock(memoryDMC, startAddress, 0, word_size, length,
-					    new DataRequestMonitor<MemoryByte[]>(getSession().getExecutor(), drm) {
-					    	@Override
-					    	protected void handleSuccess() {
-					    		MemoryByte[] block = new MemoryByte[count];
-					    		block = getData();
-					    		MemoryBlock memoryBlock = new MemoryBlock(startAddress, length, block);
-					    		fMemoryBlockList.add(memoryBlock);
-					    		countingRM.done();
-					    	}
-					    });
-	        }
-	    }
+		private void completeRequests(List<PendingRead> requests, Map<BigInteger, MemoryByte[]> readPages) {
+			for (PendingRead request : requests) {
+				MemoryByte[] block = getMemoryBlockFromCache(request.fAddress, request.fCount, readPages);
+				if (block != null) {
+					request.fDrm.setData(block);
+					request.fDrm.done();
+				} else {
+					readMemoryBlock(fContext, request.fAddress, 0, 1, request.fCount, request.fDrm);
+				}
+			}
+		}
 
 	    /**
 		 * @param memoryDMC
@@ -947,14 +897,19 @@ public class MIMemory extends AbstractDsfService implements IMemory, ICachingSer
 	   {
 		   // Check if we already cache part of this memory area (which means it
 		   // is used by a memory service client that will have to be updated)
-		   LinkedList<MemoryBlock> list = getListOfMissingBlocks(address, count);
-		   int sizeToRead = 0;
-		   for (MemoryBlock block : list) {
-			   sizeToRead += block.fLength;
+		   boolean cached = false;
+		   if (count > 0) {
+			   BigInteger lastPage = getPage(address.add(count - 1));
+			   for (BigInteger page = getPage(address); page.compareTo(lastPage) <= 0; page = page.add(BigInteger.ONE)) {
+				   if (fPages.containsKey(page)) {
+					   cached = true;
+					   break;
+				   }
+			   }
 		   }
 
 		   // If none of the requested memory is in cache, just get out
-		   if (sizeToRead == count) {
+		   if (!cached) {
 			   rm.done();
 			   return;
 		   }
@@ -971,17 +926,7 @@ public class MIMemory extends AbstractDsfService implements IMemory, ICachingSer
 				   new DataRequestMonitor<MemoryByte[]>(getExecutor(), rm) {
 					   @Override
 					   protected void handleSuccess() {
-						   MemoryByte[] oldBlock = getMemoryBlockFromCache(address, count);
-						   MemoryByte[] newBlock = getData();
-						   boolean blocksDiffer = false;
-						   for (int i = 0; i < oldBlock.length; i++) {
-						       if (oldBlock[i].getValue() != newBlock[i].getValue()) {
-						          blocksDiffer = true;
-						          break;
-						       }
-						   }
-						   if (blocksDiffer) {
-							   updateMemoryCache(address, count, newBlock);
+						   if (updateMemoryCache(address, count, getData())) {
 							   getSession().dispatchEvent(new MemoryChangedEvent(memoryDMC, addresses), getProperties());
 						   }
 						   rm.done();
@@ -1008,4 +953,60 @@ public class MIMemory extends AbstractDsfService implements IMemory, ICachingSer
     		fMemoryCaches.get(memoryDMC).reset();
     	}
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Memory cache statistics
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the number of requested pages of memory that were found in the cache
+     * of the given memory context. Must be called on the session executor.
+     * @since 4.0
+     */
+    public long getCacheHitCount(IMemoryDMContext memoryDMC) {
+    	MIMemoryCache cache = fMemoryCaches.get(memoryDMC);
+    	return cache != null ? cache.fHitCount : 0;
+    }
+
+    /**
+     * Returns the number of requested pages of memory that had to be read from the
+     * target for the given memory context. Must be called on the session executor.
+     * @since 4.0
+     */
+    public long getCacheMissCount(IMemoryDMContext memoryDMC) {
+    	MIMemoryCache cache = fMemoryCaches.get(memoryDMC);
+    	return cache != null ? cache.fMissCount : 0;
+    }
+
+    /**
+     * Returns the fraction of requested pages of memory that were found in the cache
+     * of the given memory context, or 0 if no memory was requested.
+     * Must be called on the session executor.
+     * @since 4.0
+     */
+    public double getCacheHitRate(IMemoryDMContext memoryDMC) {
+    	long hits = getCacheHitCount(memoryDMC);
+    	long requests = hits + getCacheMissCount(memoryDMC);
+    	return requests > 0 ? (double) hits / requests : 0;
+    }
+
+    /**
+     * Returns the number of commands sent to read memory into the cache of the given
+     * memory context. Must be called on the session executor.
+     * @since 4.0
+     */
+    public long getCacheReadCount(IMemoryDMContext memoryDMC) {
+    	MIMemoryCache cache = fMemoryCaches.get(memoryDMC);
+    	return cache != null ? cache.fReadCount : 0;
+    }
+
+    /**
+     * Returns the number of bytes read into the cache of the given memory context,
+     * including the read-ahead. Must be called on the session executor.
+     * @since 4.0
+     */
+    public long getCacheBytesRead(IMemoryDMContext memoryDMC) {
+    	MIMemoryCache cache = fMemoryCaches.get(memoryDMC);
+    	return cache != null ? cache.fBytesRead : 0;
+    }
 }
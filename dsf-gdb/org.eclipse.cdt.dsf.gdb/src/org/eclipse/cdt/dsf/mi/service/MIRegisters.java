@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Wind River Systems and others.
+ * Copyright (c) 2006, 2011 Wind River Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,11 +11,17 @@
  *******************************************************************************/
 package org.eclipse.cdt.dsf.mi.service;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
 import org.eclipse.cdt.dsf.concurrent.ImmediateExecutor;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.datamodel.AbstractDMContext;
@@ -28,11 +34,11 @@ import org.eclipse.cdt.dsf.debug.service.IRunControl;
 import org.eclipse.cdt.dsf.debug.service.IExpressions.IExpressionDMContext;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.IContainerDMContext;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StateChangeReason;
-import org.eclipse.cdt.dsf.debug.service.command.BufferedCommandControl;
 import org.eclipse.cdt.dsf.debug.service.command.CommandCache;
 import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
 import org.eclipse.cdt.dsf.gdb.internal.GdbPlugin;
 import org.eclipse.cdt.dsf.mi.service.command.CommandFactory;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListChangedRegistersInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListRegisterNamesInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListRegisterValuesInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
@@ -55,6 +61,12 @@ import org.osgi.framework.BundleContext;
  * events being issued.  Doing this in the handlers as opposed to when 
  * the events are generated, guarantees that the state of the service will
  * always be consistent with the events.
+ * <p>
+ * The register values are cached per execution context.  When a context
+ * stops, only the registers reported by -data-list-changed-registers are
+ * fetched again.  The values are fetched in hex format; the octal and binary
+ * formats are computed from the hex value, so switching between these
+ * formats does not go to the back-end.
  */
 
 public class MIRegisters extends AbstractDsfService implements IRegisters, ICachingService {
@@ -146,10 +158,18 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
      */
     
 	private CommandFactory fCommandFactory;
+	private ICommandControlService fCommandControl;
 
     private MIRegisterGroupDMC fGeneralRegistersGroupDMC; 
     private CommandCache fRegisterNameCache;	 // Cache for holding the Register Names in the single Group
-    private CommandCache fRegisterValueCache;  // Cache for holding the Register Values
+
+    // Caches for holding the Register Values, one per execution context
+    private final Map<IMIExecutionDMContext, RegisterValueCache> fRegisterValueCaches =
+        new HashMap<IMIExecutionDMContext, RegisterValueCache>();
+
+    // The context of the last -data-list-changed-registers.  GDB reports the
+    // registers that changed since that command, whatever the context was.
+    private IMIExecutionDMContext fChangedRegistersContext;
 
     public MIRegisters(DsfSession session) 
     {
@@ -176,25 +196,17 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
         /*
          * Create the lower level register cache.
          */
-    	ICommandControlService commandControl = getServicesTracker().getService(ICommandControlService.class);
-		BufferedCommandControl bufferedCommandControl = new BufferedCommandControl(commandControl, getExecutor(), 2);
+    	fCommandControl = getServicesTracker().getService(ICommandControlService.class);
 		
 		fCommandFactory = getServicesTracker().getService(IMICommandControl.class).getCommandFactory();
 
-		// This cache stores the result of a command when received; also, this cache
-		// is manipulated when receiving events.  Currently, events are received after
-		// three scheduling of the executor, while command results after only one.  This
-		// can cause problems because command results might be processed before an event
-		// that actually arrived before the command result.
-		// To solve this, we use a bufferedCommandControl that will delay the command
-		// result by two scheduling of the executor.
-		// See bug 280461
-        fRegisterValueCache = new CommandCache(getSession(), bufferedCommandControl);
-        fRegisterValueCache.setContextAvailable(commandControl.getContext(), true);
-
-        // This cache is not affected by events so does not need the bufferedCommandControl
-        fRegisterNameCache  = new CommandCache(getSession(), commandControl);
-        fRegisterNameCache.setContextAvailable(commandControl.getContext(), true);
+		// The register values are cached in a RegisterValueCache for each execution
+		// context.  Events are received a few schedulings of the executor after the
+		// command results that followed them, see bug 280461.  The value caches
+		// therefore only store the results of the commands sent since the last event.
+
+        fRegisterNameCache  = new CommandCache(getSession(), fCommandControl);
+        fRegisterNameCache.setContextAvailable(fCommandControl.getContext(), true);
                
         /*
          * Sign up so we see events. We use these events to decide how to manage
@@ -265,32 +277,16 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
                 return;
             }
             
-            int[] regnos = {miRegDmc.getRegNo()};
-            fRegisterValueCache.execute(
-            	fCommandFactory.createMIDataListRegisterValues(execDmc, MIFormat.HEXADECIMAL, regnos),
-                new DataRequestMonitor<MIDataListRegisterValuesInfo>(getExecutor(), rm) {
+            getRegisterValueCache(execDmc).getValue(
+            	miRegDmc.getRegNo(), MIFormat.HEXADECIMAL,
+                new DataRequestMonitor<String>(getExecutor(), rm) {
                     @Override
                     protected void handleSuccess() {
-                        // Retrieve the register value.
-                        MIRegisterValue[] regValue = getData().getMIRegisterValues();
-    
-                        // If the list is empty just return empty handed.
-                        if (regValue.length == 0) {
-                            assert false : "Backend protocol error"; //$NON-NLS-1$
-                            //done.setStatus(new Status(IStatus.ERROR, IDsfStatusConstants.INTERNAL_ERROR ,));
-                            rm.done();
-                            return;
-                        }
-                        
-                        // the request was for only one register
-                        assert regValue.length == 1;
-                        
                         // We can determine if the register is floating point because
                         // GDB returns this additional information as part of the value.
-                        MIRegisterValue reg = regValue[0];
                         boolean isFloat = false;
                         
-                        if ( reg.getValue().contains("float")) { //$NON-NLS-1$
+                        if ( getData().contains("float")) { //$NON-NLS-1$
                             isFloat = true;
                         }
     
@@ -323,30 +319,345 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
         if ( BINARY_FORMAT.equals ( formatId ) ) { NumberFormat = MIFormat.BINARY; }
         if ( DECIMAL_FORMAT.equals( formatId ) ) { NumberFormat = MIFormat.DECIMAL; }
         
-        int[] regnos = {regDmc.getRegNo()};
-        fRegisterValueCache.execute(
-        	fCommandFactory.createMIDataListRegisterValues(miExecDmc, NumberFormat, regnos),
-            new DataRequestMonitor<MIDataListRegisterValuesInfo>(getExecutor(), rm) {
+        getRegisterValueCache(miExecDmc).getValue(
+        	regDmc.getRegNo(), NumberFormat,
+            new DataRequestMonitor<String>(getExecutor(), rm) {
                 @Override
                 protected void handleSuccess() {
-                    // Retrieve the register value.
-                    MIRegisterValue[] regValue = getData().getMIRegisterValues();
+                    // Return the new register value.
+                    rm.setData( new FormattedValueDMData( getData() ) );
+                    rm.done();
+                }
+            });
+    }
 
-                    // If the list is empty just return empty handed.
-                    if (regValue.length == 0) {
-                        assert false : "Backend protocol error"; //$NON-NLS-1$
-                        //done.setStatus(new Status(IStatus.ERROR, IDsfStatusConstants.INTERNAL_ERROR ,));
+    /*
+     * A request for the value of a register in a given format.
+     */
+    private static class ValueRequest {
+        final int fRegNo;
+        final int fFormat;
+        final DataRequestMonitor<String> fRm;
+
+        ValueRequest(int regNo, int format, DataRequestMonitor<String> rm) {
+            fRegNo = regNo;
+            fFormat = format;
+            fRm = rm;
+        }
+    }
+
+    /*
+     * Cache for the register values of one execution context.  The requests
+     * made during the same dispatch cycle of the executor are served by a
+     * single round of commands, with one -data-list-register-values per format.
+     */
+    private class RegisterValueCache {
+        private final IMIExecutionDMContext fExecDmc;
+
+        // The values by register number and format
+        private final Map<Integer, Map<Integer, String>> fValues = new HashMap<Integer, Map<Integer, String>>();
+
+        private List<ValueRequest> fPendingRequests = new ArrayList<ValueRequest>();
+        private boolean fRoundInProgress = false;
+
+        private boolean fSuspended;
+        // The cached values are still returned while the context is stepping
+        private boolean fStepping = false;
+        // Whether -data-list-changed-registers must be asked before using the cached values
+        private boolean fCheckChanges = true;
+        // Incremented on every event, the results of older commands are not cached
+        private int fGeneration = 0;
+
+        RegisterValueCache(IMIExecutionDMContext execDmc, boolean suspended) {
+            fExecDmc = execDmc;
+            fSuspended = suspended;
+        }
+
+        void getValue(int regNo, int format, DataRequestMonitor<String> rm) {
+            if (!fSuspended) {
+                String value = fStepping ? getRegisterValue(fValues, regNo, format) : null;
+                if (value != null) {
+                    rm.setData(value);
+                } else {
+                    rm.setStatus(new Status(IStatus.ERROR, GdbPlugin.PLUGIN_ID, INVALID_STATE, "Context is running", null)); //$NON-NLS-1$
+                }
+                rm.done();
+                return;
+            }
+
+            if (!fCheckChanges) {
+                String value = getRegisterValue(fValues, regNo, format);
+                if (value != null) {
+                    rm.setData(value);
+                    rm.done();
+                    return;
+                }
+            }
+
+            fPendingRequests.add(new ValueRequest(regNo, format, rm));
+            if (!fRoundInProgress && fPendingRequests.size() == 1) {
+                getExecutor().execute(new DsfRunnable() {
+                    public void run() {
+                        fetchPendingValues();
+                    }
+                });
+            }
+        }
+
+        /*
+         * Called when the context stopped.
+         */
+        void suspended() {
+            fSuspended = true;
+            fStepping = false;
+            fCheckChanges = true;
+            fGeneration++;
+        }
+
+        /*
+         * Called when the context resumed.
+         */
+        void resumed(boolean stepping) {
+            fSuspended = false;
+            fStepping = stepping;
+            fGeneration++;
+        }
+
+        /*
+         * Drops all the values, e.g. after a register was written.
+         */
+        void reset() {
+            fValues.clear();
+            fGeneration++;
+        }
+
+        private void fetchPendingValues() {
+            if (fRoundInProgress || fPendingRequests.isEmpty()) {
+                return;
+            }
+            fRoundInProgress = true;
+
+            final List<ValueRequest> requests = fPendingRequests;
+            fPendingRequests = new ArrayList<ValueRequest>();
+            final int generation = fGeneration;
+
+            if (fCheckChanges) {
+                checkChanges(new RequestMonitor(ImmediateExecutor.getInstance(), null) {
+                    @Override
+                    protected void handleCompleted() {
+                        fetchValues(requests, generation);
+                    }
+                });
+            } else {
+                fetchValues(requests, generation);
+            }
+        }
+
+        /*
+         * Drops the values of the registers that changed since they were fetched.
+         */
+        private void checkChanges(final RequestMonitor rm) {
+            fCommandControl.queueCommand(
+                fCommandFactory.createMIDataListChangedRegisters(fExecDmc),
+                new DataRequestMonitor<MIDataListChangedRegistersInfo>(getExecutor(), null) {
+                    @Override
+                    protected void handleCompleted() {
+                        if (isSuccess() && fExecDmc.equals(fChangedRegistersContext)) {
+                            for (int regNo : getData().getRegisterNumbers()) {
+                                fValues.remove(regNo);
+                            }
+                        } else {
+                            // The changes are relative to another context
+                            fValues.clear();
+                        }
+                        fChangedRegistersContext = isSuccess() ? fExecDmc : null;
+                        fCheckChanges = false;
                         rm.done();
-                        return;
                     }
+                });
+        }
 
-                    MIRegisterValue reg = regValue[0];
+        private void fetchValues(final List<ValueRequest> requests, final int generation) {
+            final Map<Integer, Map<Integer, String>> fetched = new HashMap<Integer, Map<Integer, String>>();
+            final Map<Integer, IStatus> failures = new HashMap<Integer, IStatus>();
 
-                    // Return the new register value.
-                    rm.setData( new FormattedValueDMData( reg.getValue() ) );
-                    rm.done();
+            // First fetch the hex values, the octal and binary values are computed from them
+            List<Integer> hexRegNos = new ArrayList<Integer>();
+            for (ValueRequest request : requests) {
+                if (isComputedFormat(request.fFormat) && !hexRegNos.contains(request.fRegNo) &&
+                    getRegisterValue(fValues, request.fRegNo, MIFormat.HEXADECIMAL) == null) {
+                    hexRegNos.add(request.fRegNo);
                 }
-            });
+            }
+
+            listRegisterValues(MIFormat.HEXADECIMAL, hexRegNos, fetched, failures, 
+                new RequestMonitor(ImmediateExecutor.getInstance(), null) {
+                    @Override
+                    protected void handleCompleted() {
+                        // Then fetch the values that cannot be computed, in their own format
+                        Map<Integer, List<Integer>> regNosByFormat = new HashMap<Integer, List<Integer>>();
+                        for (ValueRequest request : requests) {
+                            if (getRegisterValue(fetched, request.fRegNo, request.fFormat) == null &&
+                                getRegisterValue(fValues, request.fRegNo, request.fFormat) == null) {
+                                List<Integer> regNos = regNosByFormat.get(request.fFormat);
+                                if (regNos == null) {
+                                    regNos = new ArrayList<Integer>();
+                                    regNosByFormat.put(request.fFormat, regNos);
+                                }
+                                if (!regNos.contains(request.fRegNo)) {
+                                    regNos.add(request.fRegNo);
+                                }
+                            }
+                        }
+
+                        CountingRequestMonitor countingRm = new CountingRequestMonitor(ImmediateExecutor.getInstance(), null) {
+                            @Override
+                            protected void handleCompleted() {
+                                valuesFetched(requests, generation, fetched, failures);
+                            }
+                        };
+                        countingRm.setDoneCount(regNosByFormat.size());
+                        for (Map.Entry<Integer, List<Integer>> entry : regNosByFormat.entrySet()) {
+                            listRegisterValues(entry.getKey(), entry.getValue(), fetched, failures, countingRm);
+                        }
+                    }
+                });
+        }
+
+        private void listRegisterValues(final int format, List<Integer> regNos, 
+            final Map<Integer, Map<Integer, String>> fetched, final Map<Integer, IStatus> failures, final RequestMonitor rm) 
+        {
+            if (regNos.isEmpty()) {
+                rm.done();
+                return;
+            }
+
+            int[] regnos = new int[regNos.size()];
+            for (int i = 0; i < regnos.length; i++) {
+                regnos[i] = regNos.get(i);
+            }
+            fCommandControl.queueCommand(
+                fCommandFactory.createMIDataListRegisterValues(fExecDmc, format, regnos),
+                new DataRequestMonitor<MIDataListRegisterValuesInfo>(getExecutor(), null) {
+                    @Override
+                    protected void handleCompleted() {
+                        if (isSuccess()) {
+                            for (MIRegisterValue reg : getData().getMIRegisterValues()) {
+                                putRegisterValue(fetched, reg.getNumber(), format, reg.getValue());
+                            }
+                        } else {
+                            failures.put(format, getStatus());
+                        }
+                        rm.done();
+                    }
+                });
+        }
+
+        private void valuesFetched(List<ValueRequest> requests, int generation, 
+            Map<Integer, Map<Integer, String>> fetched, Map<Integer, IStatus> failures) 
+        {
+            // Only keep the values if no event was received since the commands were sent
+            if (generation == fGeneration) {
+                for (Map.Entry<Integer, Map<Integer, String>> entry : fetched.entrySet()) {
+                    for (Map.Entry<Integer, String> value : entry.getValue().entrySet()) {
+                        putRegisterValue(fValues, entry.getKey(), value.getKey(), value.getValue());
+                    }
+                }
+            }
+
+            for (ValueRequest request : requests) {
+                String value = getRegisterValue(fetched, request.fRegNo, request.fFormat);
+                if (value == null) {
+                    value = getRegisterValue(fValues, request.fRegNo, request.fFormat);
+                }
+                if (value != null) {
+                    request.fRm.setData(value);
+                } else {
+                    IStatus status = failures.get(request.fFormat);
+                    if (status == null) {
+                        status = failures.get(MIFormat.HEXADECIMAL);
+                    }
+                    if (status == null) {
+                        assert false : "Backend protocol error"; //$NON-NLS-1$
+                        status = new Status(IStatus.ERROR, GdbPlugin.PLUGIN_ID, REQUEST_FAILED, "No value for register " + request.fRegNo, null); //$NON-NLS-1$
+                    }
+                    request.fRm.setStatus(status);
+                }
+                request.fRm.done();
+            }
+
+            fRoundInProgress = false;
+            fetchPendingValues();
+        }
+    }
+
+    private RegisterValueCache getRegisterValueCache(IMIExecutionDMContext execDmc) {
+        RegisterValueCache cache = fRegisterValueCaches.get(execDmc);
+        if (cache == null) {
+            IRunControl runControl = getServicesTracker().getService(IRunControl.class);
+            cache = new RegisterValueCache(execDmc, runControl == null || runControl.isSuspended(execDmc));
+            fRegisterValueCaches.put(execDmc, cache);
+        }
+        return cache;
+    }
+
+    /*
+     * Returns the caches of the execution contexts that are the given context
+     * or its descendants.
+     */
+    private List<RegisterValueCache> getRegisterValueCaches(IDMContext dmc) {
+        List<RegisterValueCache> caches = new ArrayList<RegisterValueCache>();
+        for (Map.Entry<IMIExecutionDMContext, RegisterValueCache> entry : fRegisterValueCaches.entrySet()) {
+            if (dmc == null || entry.getKey().equals(dmc) || DMContexts.isAncestorOf(entry.getKey(), dmc)) {
+                caches.add(entry.getValue());
+            }
+        }
+        return caches;
+    }
+
+    /*
+     * The formats that are computed from the hex value of a register.
+     */
+    private static boolean isComputedFormat(int format) {
+        return format == MIFormat.HEXADECIMAL || format == MIFormat.OCTAL || format == MIFormat.BINARY;
+    }
+
+    private static void putRegisterValue(Map<Integer, Map<Integer, String>> values, int regNo, int format, String value) {
+        Map<Integer, String> formats = values.get(regNo);
+        if (formats == null) {
+            formats = new HashMap<Integer, String>();
+            values.put(regNo, formats);
+        }
+        formats.put(format, value);
+    }
+
+    /*
+     * Returns the value of a register in the given format, computing it from
+     * the hex value when possible, or null if the value is not known.
+     */
+    private static String getRegisterValue(Map<Integer, Map<Integer, String>> values, int regNo, int format) {
+        Map<Integer, String> formats = values.get(regNo);
+        if (formats == null) {
+            return null;
+        }
+        String value = formats.get(format);
+        if (value == null && isComputedFormat(format)) {
+            String hexValue = formats.get(MIFormat.HEXADECIMAL);
+            // Vector and some floating point registers are not a single number
+            if (hexValue != null && hexValue.startsWith("0x")) { //$NON-NLS-1$
+                try {
+                    BigInteger number = new BigInteger(hexValue.substring(2), 16);
+                    if (format == MIFormat.OCTAL) {
+                        // GDB prints the octal values with a leading 0, except for 0 itself
+                        value = number.signum() == 0 ? "0" : "0" + number.toString(8); //$NON-NLS-1$ //$NON-NLS-2$
+                    } else if (format == MIFormat.BINARY) {
+                        value = number.toString(2);
+                    }
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+        return value;
     }
         
     static class RegisterData implements IRegisterDMData {
@@ -407,9 +718,8 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
      */
     @DsfServiceEventHandler 
     public void eventDispatched(IRunControl.IResumedDMEvent e) {
-        fRegisterValueCache.setContextAvailable(e.getDMContext(), false);
-        if (e.getReason() != StateChangeReason.STEP) {
-            fRegisterValueCache.reset();
+        for (RegisterValueCache cache : getRegisterValueCaches(e.getDMContext())) {
+            cache.resumed(e.getReason() == StateChangeReason.STEP);
         }
     }
     
@@ -420,8 +730,24 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
     @DsfServiceEventHandler 
     public void eventDispatched(
     IRunControl.ISuspendedDMEvent e) {
-        fRegisterValueCache.setContextAvailable(e.getDMContext(), true);
-        fRegisterValueCache.reset();
+        for (RegisterValueCache cache : getRegisterValueCaches(e.getDMContext())) {
+            cache.suspended();
+        }
+    }
+
+    /**
+     * @nooverride This method is not intended to be re-implemented or extended by clients.
+     * @noreference This method is not intended to be referenced by clients.
+     * @since 4.0
+     */
+    @DsfServiceEventHandler 
+    public void eventDispatched(IRunControl.IExitedDMEvent e) {
+        for (Iterator<IMIExecutionDMContext> it = fRegisterValueCaches.keySet().iterator(); it.hasNext();) {
+            IMIExecutionDMContext execDmc = it.next();
+            if (execDmc.equals(e.getDMContext()) || DMContexts.isAncestorOf(execDmc, e.getDMContext())) {
+                it.remove();
+            }
+        }
     }
 
     /**
@@ -430,7 +756,11 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
      */
     @DsfServiceEventHandler 
     public void eventDispatched(final IRegisters.IRegisterChangedDMEvent e) {
-    	fRegisterValueCache.reset();
+        // Writing a register can change others, e.g. the ones that overlap with it
+        IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(e.getDMContext(), IMIExecutionDMContext.class);
+        for (RegisterValueCache cache : getRegisterValueCaches(execDmc)) {
+            cache.reset();
+        }
     }
     
     private void generateRegisterChangedEvent(IRegisterDMContext dmc ) {
@@ -638,6 +968,8 @@ public class MIRegisters extends AbstractDsfService implements IRegisters, ICach
      */
     public void flushCache(IDMContext context) {
         fRegisterNameCache.reset(context);
-        fRegisterValueCache.reset(context);
+        for (RegisterValueCache cache : getRegisterValueCaches(context)) {
+            cache.reset();
+        }
     }
 }
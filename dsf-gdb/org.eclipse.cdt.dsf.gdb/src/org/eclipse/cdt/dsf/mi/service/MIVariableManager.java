@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Monta Vista and others.
+ * Copyright (c) 2008, 2011 Monta Vista and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,6 +25,7 @@ import java.util.Map;
 
 import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.DsfRunnable;
 import org.eclipse.cdt.dsf.concurrent.IDsfStatusConstants;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.datamodel.DMContexts;
@@ -133,7 +134,9 @@ import org.eclipse.core.runtime.Status;
  *   accessed using the gdb-given name to allow quick updates from the -var-update 
  *   result (see below.)
  * 
- * - we do not use -var-list-children for arrays, but create them manually
+ * - we do not use -var-list-children for arrays, but create them manually.
+ * Only the children in the window requested by the client are created, and
+ * their variable objects are only created in GDB when they are accessed.
  *  
  * - when the program stops, we should mark all roots as needing to be updated. 
  * To achieve this efficiently, we have a dedicated list of roots that are updated.
@@ -147,6 +150,10 @@ import org.eclipse.core.runtime.Status;
  * descendants of the root, we can quickly update the changed ones to invalidate their buffered
  * values and store the new current format value.
  * 
+ * - the roots that need to be updated during the same executor round are
+ * updated together.  If more than one root of a suspended context is out-of-date,
+ * a single '-var-update *' is sent and its changes are dispatched to each root.
+ * 
  * - all values of non-modifiable varObjects (except arrays) will be set to {...}
  * without going to the back-end
  * 
@@ -160,6 +167,8 @@ import org.eclipse.core.runtime.Status;
  * object from the LRU cleanup will be done if the maximum size has been reached.
  * The LRU will not delete a parent varObject until all its children are deleted; this is
  * achieved by touching each of the parents of an object whenever that object is put or get
+ * The number of roots is also bounded: when a new root is added, the least recently
+ * used roots are deleted together with their descendants, since they are no longer shown.
  *
  * - It may happen that when accessing a varObject we find its root to be
  * out-of-scope.  The expression for which we are trying to access a varObject
@@ -253,10 +262,28 @@ public class MIVariableManager implements ICommandControl {
 	protected static class ChildrenInfo {
 		private final ExpressionInfo[] children;
 		private final boolean hasMore;
+		private final int startIndex;
 		
 		public ChildrenInfo(ExpressionInfo[] children, boolean hasMore) {
+			this(children, hasMore, 0);
+		}
+
+		/**
+		 * @since 4.0
+		 */
+		public ChildrenInfo(ExpressionInfo[] children, boolean hasMore, int startIndex) {
 			this.children = children;
 			this.hasMore = hasMore;
+			this.startIndex = startIndex;
+		}
+
+		/**
+		 * @return The index of the first child returned by {@link #getChildren()}
+		 *         within all children.  Only differs from 0 for arrays.
+		 * @since 4.0
+		 */
+		public int getStartIndex() {
+			return startIndex;
 		}
 
 		/**
@@ -364,6 +391,9 @@ public class MIVariableManager implements ICommandControl {
 		// The children of this variable, if any.  
 		// Null means we didn't fetch them yet, while an empty array means no children
         private ExpressionInfo[] children = null; 
+        // The children of an array that were requested so far, by their index.
+        // Only the windows of the array the client asks for are created.
+        private Map<Integer, ExpressionInfo> arrayChildren = null;
 		private boolean hasMore = false;
 		private MIDisplayHint displayHint = MIDisplayHint.NONE;
 		
@@ -588,6 +618,8 @@ public class MIVariableManager implements ICommandControl {
         	children = c;
         	if (children != null) {
         		numChildrenHint = children.length;
+        	} else {
+        		arrayChildren = null;
         	}
 
         	if (children != null) {
@@ -821,7 +853,8 @@ public class MIVariableManager implements ICommandControl {
 							}
 						}
 						
-						assert((children == null) || (children.length == numChildrenHint));
+						// Only a window of the children of an array is known
+						assert((children == null) || (children.length == numChildrenHint) || isArray());
 
 						hasMore = update.hasMore();
 
@@ -1156,7 +1189,40 @@ public class MIVariableManager implements ICommandControl {
 		 */
 		private void getChildren(final MIExpressionDMC exprDmc,
 				final int clientNumChildrenLimit, final DataRequestMonitor<ChildrenInfo> rm) {
+			getChildren(exprDmc, 0, clientNumChildrenLimit, rm);
+		}
+
+		/**
+		 * This method returns the list of children of the variable object
+		 * passed as a parameter.  For arrays only the children from the
+		 * start index up to the limit are returned, for other variables
+		 * the children from the first one.
+		 * 
+		 * @param exprDmc
+		 * 
+		 * @param startIndex
+		 *            The index of the first child the client asks for.
+		 * @param clientNumChildrenLimit
+		 *            If the current limit for the given expression is smaller,
+		 *            this limit will be applied.
+		 * @param rm
+		 *            The data request monitor that will hold the children
+		 *            returned
+		 */
+		private void getChildren(final MIExpressionDMC exprDmc, final int startIndex,
+				final int clientNumChildrenLimit, final DataRequestMonitor<ChildrenInfo> rm) {
 			
+	        // For arrays (which could be very large), we create the children ourselves.  This is
+	        // to avoid creating an enormous amount of children variable objects that the view may
+	        // never need.  Using -var-list-children will create a variable object for every child
+	        // immediately, that is why we don't want to use it for arrays.
+	        // Only the children in the window asked for by the client are created.  The variable
+	        // objects of the children are only created when the client accesses them.
+	        if (isArray()) {
+	        	fetchArrayChildren(exprDmc, startIndex, clientNumChildrenLimit, rm);
+	        	return;
+	        }
+
 			if (fetchingChildren) {
 				// Only one request monitor can fetch children at a time.
 				fetchChildrenPending.add(new DataRequestMonitor<ChildrenInfo>(fSession.getExecutor(), rm) {
@@ -1171,7 +1237,7 @@ public class MIVariableManager implements ICommandControl {
 							rm.done();
 						} else {
 							// Need to retry.
-							getChildren(exprDmc, clientNumChildrenLimit, rm);
+							getChildren(exprDmc, startIndex, clientNumChildrenLimit, rm);
 						}
 					}
 					
@@ -1247,37 +1313,6 @@ public class MIVariableManager implements ICommandControl {
 				return;
 			}
 	        
-	        // For arrays (which could be very large), we create the children ourselves.  This is
-	        // to avoid creating an enormous amount of children variable objects that the view may
-	        // never need.  Using -var-list-children will create a variable object for every child
-	        // immediately, that is why we don't want to use it for arrays.
-	        if (isArray()) {
-	        	ExpressionInfo[] childrenOfArray = new ExpressionInfo[getNumChildrenHint()];
-	        	String exprName = exprDmc.getExpression();
-	        	
-        		int castingIndex = 0;
-	        	// in case of casts, need to resolve that before dereferencing, to be safe
-	        	if (exprDmc instanceof ICastedExpressionDMContext) {
-	        		// When casting, if we are dealing with a resulting array, we should surround
-	        		// it with parenthesis before we subscript it.
-	        		exprName = '(' + exprName + ')';
-	        		castingIndex = ((ICastedExpressionDMContext)exprDmc).getCastInfo().getArrayStartIndex();
-	        	}
-	        	for (int i= 0; i < childrenOfArray.length; i++) {
-	        		String fullExpr = exprName + "[" + i + "]";//$NON-NLS-1$//$NON-NLS-2$
-	        		String relExpr = exprDmc.getRelativeExpression() + "[" + (castingIndex + i) + "]";//$NON-NLS-1$//$NON-NLS-2$
-
-	        		childrenOfArray[i] = new ExpressionInfo(fullExpr, relExpr, false, exprInfo, i);
-	        	}
-
-	        	// First store these children, for the next time
-				setChildren(childrenOfArray);
-				hasMore = false;
-				rm.setData(new ChildrenInfo(getChildren(), hasMore));
-	        	rm.done();
-	        	return;
-	        }
-	        
 	        // No need to wait for the object to be ready since listing children can be performed
 	        // at any time, as long as the object is created, which we know it is, since we can only
 	        // be called here with a fully created object.
@@ -1477,6 +1512,59 @@ public class MIVariableManager implements ICommandControl {
 	        		});
 		}
 		
+		/**
+		 * Returns the number of children of this array that must be known to
+		 * serve a client asking for the given number of children.
+		 */
+		private int getArrayChildrenLimit(int clientNumChildrenLimit) {
+			if (clientNumChildrenLimit == IMIExpressions.CHILD_COUNT_LIMIT_UNSPECIFIED) {
+				return getNumChildrenHint();
+			}
+			return Math.min(clientNumChildrenLimit, getNumChildrenHint());
+		}
+
+		/**
+		 * Creates the children of this array from the start index up to the
+		 * limit of the client, without going to the back-end.  Children that
+		 * were created for an earlier window are reused.
+		 */
+		private void fetchArrayChildren(final MIExpressionDMC exprDmc, int startIndex,
+				int clientNumChildrenLimit, final DataRequestMonitor<ChildrenInfo> rm) {
+			int numChildren = getArrayChildrenLimit(clientNumChildrenLimit);
+			int from = Math.max(0, Math.min(startIndex, numChildren));
+			ExpressionInfo[] window = new ExpressionInfo[numChildren - from];
+			if (window.length > 0) {
+				if (arrayChildren == null) {
+					arrayChildren = new HashMap<Integer, ExpressionInfo>();
+				}
+
+				String exprName = exprDmc.getExpression();
+
+				int castingIndex = 0;
+				// in case of casts, need to resolve that before dereferencing, to be safe
+				if (exprDmc instanceof ICastedExpressionDMContext) {
+					// When casting, if we are dealing with a resulting array, we should surround
+					// it with parenthesis before we subscript it.
+					exprName = '(' + exprName + ')';
+					castingIndex = ((ICastedExpressionDMContext)exprDmc).getCastInfo().getArrayStartIndex();
+				}
+				for (int i = from; i < numChildren; i++) {
+					ExpressionInfo child = arrayChildren.get(i);
+					if (child == null) {
+						String fullExpr = exprName + "[" + i + "]";//$NON-NLS-1$//$NON-NLS-2$
+						String relExpr = exprDmc.getRelativeExpression() + "[" + (castingIndex + i) + "]";//$NON-NLS-1$//$NON-NLS-2$
+
+						child = new ExpressionInfo(fullExpr, relExpr, false, exprInfo, i);
+						arrayChildren.put(i, child);
+					}
+					window[i - from] = child;
+				}
+			}
+			hasMore = false;
+			rm.setData(new ChildrenInfo(window, numChildren < getNumChildrenHint(), from));
+			rm.done();
+		}
+
 		/**
 		 * Create a child variable of this MIVariableObject and initialize
 		 * it from the given MIVar data.
@@ -1861,6 +1949,10 @@ public class MIVariableManager implements ICommandControl {
 	    private ICommandControlDMContext fControlContext = null;
 	    
 		private boolean fOutOfDate = false;
+
+		// The resume count of the variable manager when this root or one of its
+		// descendants was last accessed
+		private int fLastAccess;
 		
 		/**
 	     * A modifiable descendant is any variable object that is a descendant and
@@ -1994,100 +2086,121 @@ public class MIVariableManager implements ICommandControl {
 				// Object needs to be updated in the back-end
 				currentState = STATE_UPDATING;
 
-				// In GDB, var-update will only report a change if -var-evaluate-expression has
-				// changed -- in the current format--.  This means that situations like
-				// double z = 1.2;
-				// z = 1.4;
-				// Will not report a change if the format is anything else than natural.
-				// This is because 1.2 and 1.4 are both printed as 1, 0x1, etc
-				// Since we cache the values of every format, we must know if -any- format has
-				// changed, not just the current one.
-				// To solve this, we always do an update in the natural format; I am not aware
-				// of any case where the natural format would stay the same, but another format
-				// would change.  However, since a var-update update all children as well,
-			    // we must make sure these children are also in the natural format
-				// The simplest way to do this is that whenever we change the format
-				// of a variable object, we immediately set it back to natural with a second
-				// var-set-format command.  This is done in the getValue() method
-				fCommandControl.queueCommand(
-						fCommandFactory.createMIVarUpdate(getRootToUpdate().getControlDMContext(), getGdbName()),
-						new DataRequestMonitor<MIVarUpdateInfo>(fSession.getExecutor(), rm) {
-							@Override
-							protected void handleCompleted() {
-								if (isSuccess()) {
-									setOutOfDate(false);
-									
-									MIVarChange[] changes = getData().getMIVarChanges();
-									if (changes.length > 0 && changes[0].isInScope() == false) {
-										// Object is out-of-scope
-										currentState = STATE_READY;
+				// The roots that need an update are updated together, see updateRoots()
+				updateRoot(this, rm);
+		    }
+		}
 
-										outOfScope = true;
-										
-										// We can delete this root in GDB right away.  This is safe, even
-									 	// if the root has children, because they are also out-of-scope.
-										// We -must- also remove this entry from our LRU.  If we don't
-										// we can end-up with a race condition that create this object
-										// twice, or have an infinite loop while never re-creating the object.
-										// The can happen if we update a child first then we request 
-										// the root later,
-										lruVariableList.remove(getInternalId());
-
-										rm.setData(true);
-										rm.done();
-										
-										while (updatesPending.size() > 0) {
-											DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
-											pendingRm.setData(false);
-											pendingRm.done();
-										}
-									} else {
-										// The root object is now up-to-date, we must parse the changes, if any.
-										processChanges(changes, new RequestMonitor(fSession.getExecutor(), rm) {
-											@Override
-											protected void handleCompleted() {
-												currentState = STATE_READY;
-
-												// We only mark this root as updated in our list if it is in-scope.
-												// For out-of-scope object, we don't ever need to re-update them so
-												// we don't need to add them to this list.
-												rootVariableUpdated(MIRootVariableObject.this);
-
-												if (isSuccess()) {
-													rm.setData(false);
-												} else {
-													rm.setStatus(getStatus());
-												}
-												rm.done();
-
-												while (updatesPending.size() > 0) {
-													DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
-													if (isSuccess()) {
-														pendingRm.setData(false);
-													} else {
-														pendingRm.setStatus(getStatus());
-													}
-													pendingRm.done();
-												}
-											};
-										});
-									}									
-								} else {
-									// We were not able to update for some reason
-									currentState = STATE_READY;
+		/**
+		 * Sends a -var-update for this root only.
+		 */
+		private void sendUpdate(final DataRequestMonitor<Boolean> rm) {
+			// In GDB, var-update will only report a change if -var-evaluate-expression has
+			// changed -- in the current format--.  This means that situations like
+			// double z = 1.2;
+			// z = 1.4;
+			// Will not report a change if the format is anything else than natural.
+			// This is because 1.2 and 1.4 are both printed as 1, 0x1, etc
+			// Since we cache the values of every format, we must know if -any- format has
+			// changed, not just the current one.
+			// To solve this, we always do an update in the natural format; I am not aware
+			// of any case where the natural format would stay the same, but another format
+			// would change.  However, since a var-update update all children as well,
+		    // we must make sure these children are also in the natural format
+			// The simplest way to do this is that whenever we change the format
+			// of a variable object, we immediately set it back to natural with a second
+			// var-set-format command.  This is done in the getValue() method
+			fCommandControl.queueCommand(
+					fCommandFactory.createMIVarUpdate(getRootToUpdate().getControlDMContext(), getGdbName()),
+					new DataRequestMonitor<MIVarUpdateInfo>(fSession.getExecutor(), rm) {
+						@Override
+						protected void handleCompleted() {
+							if (isSuccess()) {
+								updateCompleted(getData().getMIVarChanges(), rm);
+							} else {
+								updateFailed(getStatus(), rm);
+							}
+						}
+					});
+		}
 
-									rm.setData(false);
-									rm.done();
+		/**
+		 * Processes the changes reported by -var-update for this root and its descendants.
+		 */
+		private void updateCompleted(MIVarChange[] changes, final DataRequestMonitor<Boolean> rm) {
+			setOutOfDate(false);
 
-									while (updatesPending.size() > 0) {
-										DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
-										pendingRm.setStatus(getStatus());
-										pendingRm.done();
-									}
-								}
+			if (changes.length > 0 && changes[0].isInScope() == false) {
+				// Object is out-of-scope
+				currentState = STATE_READY;
+
+				outOfScope = true;
+
+				// We can delete this root in GDB right away.  This is safe, even
+			 	// if the root has children, because they are also out-of-scope.
+				// We -must- also remove this entry from our LRU.  If we don't
+				// we can end-up with a race condition that create this object
+				// twice, or have an infinite loop while never re-creating the object.
+				// The can happen if we update a child first then we request 
+				// the root later,
+				lruVariableList.remove(getInternalId());
+
+				rm.setData(true);
+				rm.done();
+
+				while (updatesPending.size() > 0) {
+					DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
+					pendingRm.setData(false);
+					pendingRm.done();
+				}
+			} else {
+				// The root object is now up-to-date, we must parse the changes, if any.
+				processChanges(changes, new RequestMonitor(fSession.getExecutor(), rm) {
+					@Override
+					protected void handleCompleted() {
+						currentState = STATE_READY;
+
+						// We only mark this root as updated in our list if it is in-scope.
+						// For out-of-scope object, we don't ever need to re-update them so
+						// we don't need to add them to this list.
+						rootVariableUpdated(MIRootVariableObject.this);
+
+						if (isSuccess()) {
+							rm.setData(false);
+						} else {
+							rm.setStatus(getStatus());
+						}
+						rm.done();
+
+						while (updatesPending.size() > 0) {
+							DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
+							if (isSuccess()) {
+								pendingRm.setData(false);
+							} else {
+								pendingRm.setStatus(getStatus());
 							}
-						});
-		    }
+							pendingRm.done();
+						}
+					};
+				});
+			}
+		}
+
+		/**
+		 * Completes the update of this root when -var-update failed.
+		 */
+		private void updateFailed(IStatus status, DataRequestMonitor<Boolean> rm) {
+			// We were not able to update for some reason
+			currentState = STATE_READY;
+
+			rm.setData(false);
+			rm.done();
+
+			while (updatesPending.size() > 0) {
+				DataRequestMonitor<Boolean> pendingRm = updatesPending.poll();
+				pendingRm.setStatus(status);
+				pendingRm.done();
+			}
 		}
 
 		/**
@@ -2236,7 +2349,7 @@ public class MIVariableManager implements ICommandControl {
 
 		// Maximum allowed concurrent variables
 		private static final int MAX_VARIABLE_LIST = 1000;
-		
+
 		public LRUVariableCache() {
 			super(0,     // Initial load capacity
 				  0.75f, // Load factor as defined in JAVA 1.5
@@ -2254,6 +2367,7 @@ public class MIVariableManager implements ICommandControl {
 		public MIVariableObject get(Object key) {
 			MIVariableObject varObj = super.get(key);
 		    touchAncestors(varObj);
+		    touchRoot(varObj);
 		    
 		    // If we're over our max size, attempt to remove eldest entry.
 		    if (size() > MAX_VARIABLE_LIST) {
@@ -2268,6 +2382,16 @@ public class MIVariableManager implements ICommandControl {
 		    return varObj;
 		}
 		
+		/**
+		 * Records that the root of the variable was accessed since the last time
+		 * the target resumed, which means that it is shown.
+		 */
+		private void touchRoot(MIVariableObject varObj) {
+			if (varObj != null && varObj.getRootToUpdate() != null) {
+				varObj.getRootToUpdate().fLastAccess = fResumeCount;
+			}
+		}
+
 		private void touchAncestors(MIVariableObject varObj) {
 			while (varObj != null) {
 				varObj = varObj.getParent();
@@ -2283,10 +2407,64 @@ public class MIVariableManager implements ICommandControl {
             // Touch all parents of this element so as
             // to guarantee they are not deleted before their children.
             touchAncestors(varObj);
+            touchRoot(varObj);
+
+            if (varObj instanceof MIRootVariableObject) {
+            	removeEldestRoots(varObj);
+            }
 
             return retVal;
         }
 
+		/**
+		 * Deletes the least recently used roots, together with their descendants,
+		 * when there are more than MAX_ROOT_VARIABLES roots.  Roots that are
+		 * being created or updated, or that have descendants being created or
+		 * updated, are kept.  So are the roots accessed during the current or
+		 * the previous suspension of the target, which are probably still shown;
+		 * deleting them would only have them created again.
+		 */
+		private void removeEldestRoots(MIVariableObject newRoot) {
+			// Iterating over the values does not change the access order
+			List<MIRootVariableObject> roots = new ArrayList<MIRootVariableObject>();
+			for (MIVariableObject varObj : values()) {
+				if (varObj instanceof MIRootVariableObject) {
+					roots.add((MIRootVariableObject)varObj);
+				}
+			}
+
+			int excess = roots.size() - MAX_ROOT_VARIABLES;
+			for (int i = 0; i < roots.size() && excess > 0; i++) {
+				MIRootVariableObject root = roots.get(i);
+				if (root == newRoot || root.currentState != MIVariableObject.STATE_READY ||
+					fResumeCount - root.fLastAccess <= 1) {
+					continue;
+				}
+
+				List<VariableObjectId> descendants = new ArrayList<VariableObjectId>();
+				boolean ready = true;
+				for (MIVariableObject varObj : values()) {
+					if (varObj != root && varObj.getRootToUpdate() == root) {
+						if (varObj.currentState != MIVariableObject.STATE_READY) {
+							ready = false;
+							break;
+						}
+						descendants.add(varObj.getInternalId());
+					}
+				}
+				if (!ready) {
+					continue;
+				}
+
+				// GDB deletes the descendants together with the root
+				for (VariableObjectId id : descendants) {
+					remove(id);
+				}
+				remove(root.getInternalId());
+				excess--;
+			}
+		}
+
 		@Override
 		public MIVariableObject remove(Object key) {
 			MIVariableObject varObj = super.remove(key);
@@ -2297,6 +2475,17 @@ public class MIVariableManager implements ICommandControl {
 		}
 	}
 
+    /**
+     * System property for the maximum number of root variable objects kept in GDB
+     * when they were not shown recently, 200 by default.
+     * @since 4.0
+     */
+    public static final String MAX_ROOT_VARIABLES_PROPERTY = "org.eclipse.cdt.dsf.gdb.maxRootVariables"; //$NON-NLS-1$
+
+    // Maximum allowed concurrent root variables.  Roots that were not accessed
+    // recently are not shown anymore, deleting them keeps -var-update cheap.
+    private static final int MAX_ROOT_VARIABLES = Math.max(1, Integer.getInteger(MAX_ROOT_VARIABLES_PROPERTY, 200).intValue());
+
     /**
      * @since 3.0
      */
@@ -2313,6 +2502,7 @@ public class MIVariableManager implements ICommandControl {
 	// same name but refer to a different context
 	private final IStack fStackService;
 	private IExpressions fExpressionService;
+	private final IRunControl fRunControl;
 
 	// Typically, there will only be one listener, since only the ExpressionService will use this class
     private final List<ICommandListener> fCommandProcessors = new ArrayList<ICommandListener>();
@@ -2323,6 +2513,13 @@ public class MIVariableManager implements ICommandControl {
 	/** The list of root variable objects that have been updated */
 	private final LinkedList<MIRootVariableObject> updatedRootList = new LinkedList<MIRootVariableObject>();
 
+	/** The number of times the target resumed, tells which roots were accessed recently */
+	private int fResumeCount = 0;
+
+	/** The roots waiting for the next -var-update round, with their request monitors */
+	private final Map<MIRootVariableObject, DataRequestMonitor<Boolean>> fRootsToUpdate =
+		new LinkedHashMap<MIRootVariableObject, DataRequestMonitor<Boolean>>();
+
 	/**
 	 * MIVariableManager constructor
 	 * 
@@ -2337,6 +2534,7 @@ public class MIVariableManager implements ICommandControl {
 		fCommandControl = tracker.getService(ICommandControl.class);
 		fStackService  = tracker.getService(IStack.class);
 		fExpressionService = tracker.getService(IExpressions.class);
+		fRunControl = tracker.getService(IRunControl.class);
 		fCommandFactory = tracker.getService(IMICommandControl.class).getCommandFactory();
 
 		// Register to receive service events for this session.
@@ -2374,6 +2572,140 @@ public class MIVariableManager implements ICommandControl {
 	protected Map<VariableObjectId, MIVariableObject> getLRUCache() {
 		return lruVariableList;
 	}
+
+	/**
+	 * Queues the update of the specified root.  All the roots that need an update
+	 * when the executor gets to the queued round are updated with a single
+	 * -var-update.
+	 */
+	private void updateRoot(MIRootVariableObject root, DataRequestMonitor<Boolean> rm) {
+		fRootsToUpdate.put(root, rm);
+		if (fRootsToUpdate.size() == 1) {
+			fSession.getExecutor().execute(new DsfRunnable() {
+				public void run() {
+					updateRoots();
+				}
+			});
+		}
+	}
+
+	private boolean isSuspended(MIRootVariableObject root) {
+		IExecutionDMContext execCtx = root.getInternalId().fExecContext;
+		return execCtx != null && fRunControl != null && fRunControl.isSuspended(execCtx);
+	}
+
+	/**
+	 * Updates the queued roots.  When more than one root is out-of-date, the
+	 * out-of-date roots of suspended contexts are updated with '-var-update *',
+	 * which is a single round-trip to GDB; the others are updated one by one.
+	 */
+	private void updateRoots() {
+		final Map<MIRootVariableObject, DataRequestMonitor<Boolean>> requested =
+			new LinkedHashMap<MIRootVariableObject, DataRequestMonitor<Boolean>>(fRootsToUpdate);
+		fRootsToUpdate.clear();
+		if (requested.isEmpty()) {
+			return;
+		}
+
+		ICommandControlDMContext controlCtx = requested.keySet().iterator().next().getControlDMContext();
+
+		// The roots known to GDB, by name
+		final Map<String, MIRootVariableObject> liveRoots = new HashMap<String, MIRootVariableObject>();
+		final List<MIRootVariableObject> candidates = new ArrayList<MIRootVariableObject>();
+		for (MIVariableObject varObj : lruVariableList.values()) {
+			if (varObj instanceof MIRootVariableObject && varObj.getGdbName() != null) {
+				MIRootVariableObject root = (MIRootVariableObject)varObj;
+				liveRoots.put(root.getGdbName(), root);
+
+				boolean needsUpdate = requested.containsKey(root) ||
+					(root.currentState == MIVariableObject.STATE_READY && root.getOutOfDate() && !root.isOutOfScope());
+				if (needsUpdate && isSuspended(root) && controlCtx != null &&
+					controlCtx.equals(root.getControlDMContext())) {
+					candidates.add(root);
+				}
+			}
+		}
+
+		// Roots that cannot be part of the batch are updated on their own
+		for (Map.Entry<MIRootVariableObject, DataRequestMonitor<Boolean>> entry : requested.entrySet()) {
+			if (!candidates.contains(entry.getKey())) {
+				entry.getKey().sendUpdate(entry.getValue());
+			}
+		}
+
+		if (candidates.size() <= 1) {
+			for (MIRootVariableObject root : candidates) {
+				root.sendUpdate(getUpdateRequestMonitor(requested, root));
+			}
+			return;
+		}
+
+		for (MIRootVariableObject root : candidates) {
+			root.currentState = MIVariableObject.STATE_UPDATING;
+		}
+
+		fCommandControl.queueCommand(
+				fCommandFactory.createMIVarUpdate(controlCtx, "*"), //$NON-NLS-1$
+				new DataRequestMonitor<MIVarUpdateInfo>(fSession.getExecutor(), null) {
+					@Override
+					protected void handleCompleted() {
+						if (!isSuccess()) {
+							// Fall back to updating the roots one by one
+							for (MIRootVariableObject root : candidates) {
+								root.sendUpdate(getUpdateRequestMonitor(requested, root));
+							}
+							return;
+						}
+
+						// Group the changes by root; the name of a child starts with the name of its root
+						Map<String, List<MIVarChange>> changesByRoot = new HashMap<String, List<MIVarChange>>();
+						for (MIVarChange change : getData().getMIVarChanges()) {
+							String name = change.getVarName();
+							int dot = name.indexOf('.');
+							String rootName = dot == -1 ? name : name.substring(0, dot);
+							List<MIVarChange> changes = changesByRoot.get(rootName);
+							if (changes == null) {
+								changes = new ArrayList<MIVarChange>();
+								changesByRoot.put(rootName, changes);
+							}
+							// The entry of the root itself comes first, it tells if the root is in scope
+							if (name.equals(rootName)) {
+								changes.add(0, change);
+							} else {
+								changes.add(change);
+							}
+						}
+
+						for (MIRootVariableObject root : candidates) {
+							List<MIVarChange> changes = changesByRoot.remove(root.getGdbName());
+							root.updateCompleted(
+									changes == null ? new MIVarChange[0] : changes.toArray(new MIVarChange[changes.size()]),
+									getUpdateRequestMonitor(requested, root));
+						}
+
+						// GDB also reports the changes of roots that were already up-to-date
+						for (Map.Entry<String, List<MIVarChange>> entry : changesByRoot.entrySet()) {
+							MIRootVariableObject root = liveRoots.get(entry.getKey());
+							List<MIVarChange> changes = entry.getValue();
+							if (root != null && root.currentState == MIVariableObject.STATE_READY &&
+								changes.get(0).isInScope()) {
+								root.processChanges(changes.toArray(new MIVarChange[changes.size()]),
+										new RequestMonitor(fSession.getExecutor(), null));
+							}
+						}
+					}
+				});
+	}
+
+	private DataRequestMonitor<Boolean> getUpdateRequestMonitor(
+			Map<MIRootVariableObject, DataRequestMonitor<Boolean>> requested, MIRootVariableObject root) {
+		DataRequestMonitor<Boolean> rm = requested.get(root);
+		if (rm == null) {
+			// Nobody asked for this root, it is updated because it is on the way
+			rm = new DataRequestMonitor<Boolean>(fSession.getExecutor(), null);
+		}
+		return rm;
+	}
 	
 	/** 
 	 * This method returns a variable object based on the specified
@@ -2753,12 +3085,13 @@ public class MIVariableManager implements ICommandControl {
     				new DataRequestMonitor<MIVariableObject>(fSession.getExecutor(), drm) {
     					@Override
     					protected void handleSuccess() {
-    						getData().getChildren(exprCtx, ((ExprMetaGetChildren)command).getNumChildLimit(),
+    						ExprMetaGetChildren getChildren = (ExprMetaGetChildren)command;
+    						getData().getChildren(exprCtx, getChildren.getStartIndex(), getChildren.getNumChildLimit(),
     								new DataRequestMonitor<ChildrenInfo>(fSession.getExecutor(), drm) {
     									@Override
     									protected void handleSuccess() {
     										drm.setData(new ExprMetaGetChildrenInfo(
-    												getData().getChildren()));
+    												getData().getChildren(), getData().getStartIndex()));
     										drm.done();
     										processCommandDone(token, drm.getData());
     									}
@@ -2861,6 +3194,7 @@ public class MIVariableManager implements ICommandControl {
     	// to deal with those.  Also, to optimize this operation, we have
     	// a list of all roots that have been updated, so we only have to
     	// set those to needing to be updated.
+    	fResumeCount++;
     	markAllOutOfDate();
     }
     
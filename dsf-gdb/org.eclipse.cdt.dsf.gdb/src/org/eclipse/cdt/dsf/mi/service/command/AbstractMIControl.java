@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2010 Wind River Systems and others.
+ * Copyright (c) 2006, 2011 Wind River Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -21,6 +21,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -44,7 +45,11 @@ import org.eclipse.cdt.dsf.gdb.service.GDBBackend;
 import org.eclipse.cdt.dsf.mi.service.IMICommandControl;
 import org.eclipse.cdt.dsf.mi.service.IMIContainerDMContext;
 import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
+import org.eclipse.cdt.dsf.mi.service.command.commands.CLICommand;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MICommand;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIInterpreterExec;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIStackSelectFrame;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIThreadSelect;
 import org.eclipse.cdt.dsf.mi.service.command.commands.RawCommand;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIConst;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
@@ -97,6 +102,30 @@ public abstract class AbstractMIControl extends AbstractDsfService
     private final BlockingQueue<CommandHandle> fTxCommands = new LinkedBlockingQueue<CommandHandle>();
     private final Map<Integer, CommandHandle>  fRxCommands = Collections.synchronizedMap(new HashMap<Integer, CommandHandle>());
 
+    /**
+     * Default for the maximum number of commands that are sent to the back end
+     * before their results have been received.
+     * @since 4.0
+     */
+    public static final int DEFAULT_COMMAND_WINDOW_SIZE = 3;
+
+    /*
+     *  Pipelining of the commands, these variables are only accessed on the executor thread.
+     */
+    private int fCommandWindowSize = DEFAULT_COMMAND_WINDOW_SIZE;
+    // Commands handed to the TX thread whose results have not been processed, yet.
+    private int fCommandsInFlight = 0;
+    // Whether one of the commands in flight changes the context, see changesContext()
+    private boolean fContextChangeInFlight = false;
+
+    /*
+     *  Statistics about the commands, only accessed on the executor thread.
+     */
+    private long fCompletedCommandCount = 0;
+    private long fTotalCommandLatency = 0;
+    private long fMaxCommandLatency = 0;
+    private int fMaxCommandQueueDepth = 0;
+
     /**
      * Handle that's inserted into the TX commands queue to signal 
      * that the TX thread should shut down.
@@ -252,6 +281,8 @@ public abstract class AbstractMIControl extends AbstractDsfService
             commandHandle.getRequestMonitor().done();
         }
     	fCommandQueue.clear();
+    	fCommandsInFlight = 0;
+    	fContextChangeInFlight = false;
     	
     	/*
     	 *  Now go through the commands which are outstanding in that they have been sent to the backend.
@@ -311,15 +342,16 @@ public abstract class AbstractMIControl extends AbstractDsfService
             rm.done();
         } else {
         	/*
-        	 *  We only allow three outstanding commands to be on the wire to the backend
-        	 *  at any one time. This allows for coalescing as well as canceling
-        	 *  existing commands on a state change. So we add it to the waiting list and let
-        	 *  the user know they can now work with this item if need be.
+        	 *  We only allow a window of outstanding commands to be on the wire to the backend
+        	 *  at any one time, see setCommandWindowSize(). This allows for coalescing as well 
+        	 *  as canceling existing commands on a state change. So we add it to the waiting 
+        	 *  list and let the user know they can now work with this item if need be.
         	 */
         	fCommandQueue.add(handle);
+        	fMaxCommandQueueDepth = Math.max(fMaxCommandQueueDepth, getCommandQueueDepth());
             processCommandQueued(handle);
             
-            if (fRxCommands.size() < 3) {
+            if (fCommandsInFlight < fCommandWindowSize || isUrgent(miCommand)) {
                 // In a separate dispatch cycle.  This allows command listeners 
             	// to respond to the command queued event.  
                 getExecutor().execute(new DsfRunnable() {
@@ -333,61 +365,204 @@ public abstract class AbstractMIControl extends AbstractDsfService
         return handle;
     }
 
+    /**
+     * Returns whether the command changes the selected thread or frame, or the state of 
+     * the target. Such a command is sent only after the results of all previous commands 
+     * were received, and no other command is sent before its own result is received.
+     * The remaining commands are pipelined within the command window.
+     */
+    private boolean changesContext(MICommand<MIInfo> command) {
+    	if (command instanceof MIThreadSelect || command instanceof MIStackSelectFrame ||
+    			command instanceof CLICommand || command instanceof MIInterpreterExec) {
+    		return true;
+    	}
+    	String operation = command.getOperation();
+    	return operation.startsWith("-exec-") || operation.startsWith("-target-") || operation.startsWith("-gdb-exit"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    /**
+     * Returns whether the command is sent without waiting for the results of other 
+     * commands. This is the case for the input to a command that waits in the secondary 
+     * prompt, and for interrupting the target.
+     */
+    private boolean isUrgent(MICommand<MIInfo> command) {
+    	return command instanceof RawCommand || command.getOperation().equals("-exec-interrupt"); //$NON-NLS-1$
+    }
+
     private void processNextQueuedCommand() {
-		if (fCommandQueue.size() > 0) {
-			final CommandHandle handle = fCommandQueue.remove(0);
-			if (handle != null) {
-				processCommandSent(handle);
-
-				// Older debuggers didn't support the --thread/--frame options
-				// Also, not all commands support those options (e.g., CLI commands)
-				if (!fUseThreadAndFrameOptions || !handle.getCommand().supportsThreadAndFrameOptions()) {
-					// Without the --thread/--frame, we need to send the proper 
-					// -thread-select and -stack-frame-select before sending the command
-					
-					final IDMContext targetContext = handle.fCommand.getContext();
-					final String targetThread = handle.getThreadId();
-					final int targetFrame = handle.getStackFrameId();
-
-					// The thread-select and frame-select make sense only if the thread is stopped.
-					IRunControl runControl = getServicesTracker().getService(IRunControl.class);
-					IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(targetContext, IMIExecutionDMContext.class);
-					if (runControl != null && execDmc != null && runControl.isSuspended(execDmc)) {
-						// Before the command is sent, Check the Thread Id and send it to 
-						// the queue only if the id has been changed. Also, don't send a threadId of 0,
-						// because that id is only used internally for single-threaded programs
-						if (targetThread != null && !targetThread.equals("0") && !targetThread.equals(fCurrentThreadId)) { //$NON-NLS-1$
-							fCurrentThreadId = targetThread;
-							resetCurrentStackLevel();
-							CommandHandle cmdHandle = new CommandHandle(
-									(MICommand<MIInfo>)getCommandFactory().createMIThreadSelect(targetContext, targetThread), null);
-							cmdHandle.generateTokenId();
-							fTxCommands.add(cmdHandle);
-						}
+    	for (Iterator<CommandHandle> itr = fCommandQueue.iterator(); itr.hasNext();) {
+    		CommandHandle handle = itr.next();
+    		if (isUrgent(handle.getCommand())) {
+    			itr.remove();
+    			sendCommand(handle, false);
+    		}
+    	}
+		while (fCommandQueue.size() > 0 && fCommandsInFlight < fCommandWindowSize && !fContextChangeInFlight) {
+			final boolean changesContext = changesContext(fCommandQueue.get(0).getCommand());
+			if (changesContext && fCommandsInFlight > 0) {
+				// Wait for the results of the previous commands.
+				break;
+			}
+			sendCommand(fCommandQueue.remove(0), changesContext);
+		}
+    }
 
-						// Before the command is sent, Check the Stack level and send it to 
-						// the queue only if the level has been changed. 
-						if (targetFrame >= 0 && targetFrame != fCurrentStackLevel) {
-							fCurrentStackLevel = targetFrame;
-							CommandHandle cmdHandle = new CommandHandle(
-									(MICommand<MIInfo>)getCommandFactory().createMIStackSelectFrame(targetContext, targetFrame), null);
-							cmdHandle.generateTokenId();
-							fTxCommands.add(cmdHandle);
-						}
+    private void sendCommand(final CommandHandle handle, boolean changesContext) {
+		if (handle != null) {
+			processCommandSent(handle);
+
+			// Older debuggers didn't support the --thread/--frame options
+			// Also, not all commands support those options (e.g., CLI commands)
+			if (!fUseThreadAndFrameOptions || !handle.getCommand().supportsThreadAndFrameOptions()) {
+				// Without the --thread/--frame, we need to send the proper 
+				// -thread-select and -stack-frame-select before sending the command
+				
+				final IDMContext targetContext = handle.fCommand.getContext();
+				final String targetThread = handle.getThreadId();
+				final int targetFrame = handle.getStackFrameId();
+
+				// The thread-select and frame-select make sense only if the thread is stopped.
+				IRunControl runControl = getServicesTracker().getService(IRunControl.class);
+				IMIExecutionDMContext execDmc = DMContexts.getAncestorOfType(targetContext, IMIExecutionDMContext.class);
+				if (runControl != null && execDmc != null && runControl.isSuspended(execDmc)) {
+					// Before the command is sent, Check the Thread Id and send it to 
+					// the queue only if the id has been changed. Also, don't send a threadId of 0,
+					// because that id is only used internally for single-threaded programs
+					if (targetThread != null && !targetThread.equals("0") && !targetThread.equals(fCurrentThreadId)) { //$NON-NLS-1$
+						fCurrentThreadId = targetThread;
+						resetCurrentStackLevel();
+						CommandHandle cmdHandle = new CommandHandle(
+								(MICommand<MIInfo>)getCommandFactory().createMIThreadSelect(targetContext, targetThread), null);
+						cmdHandle.generateTokenId();
+						fCommandsInFlight++;
+						fTxCommands.add(cmdHandle);
+					}
+
+					// Before the command is sent, Check the Stack level and send it to 
+					// the queue only if the level has been changed. 
+					if (targetFrame >= 0 && targetFrame != fCurrentStackLevel) {
+						fCurrentStackLevel = targetFrame;
+						CommandHandle cmdHandle = new CommandHandle(
+								(MICommand<MIInfo>)getCommandFactory().createMIStackSelectFrame(targetContext, targetFrame), null);
+						cmdHandle.generateTokenId();
+						fCommandsInFlight++;
+						fTxCommands.add(cmdHandle);
 					}
 				}
+			}
 
-				if (!(handle.getCommand() instanceof RawCommand)) {
-					// Only generate a token id if the command is not a RawCommand
-					// RawCommands are sent to GDB without an answer expected, so we don't
-					// need a token id.  In fact, GDB will fail if we send one in this case.
-					handle.generateTokenId();
+			if (!(handle.getCommand() instanceof RawCommand)) {
+				// Only generate a token id if the command is not a RawCommand
+				// RawCommands are sent to GDB without an answer expected, so we don't
+				// need a token id.  In fact, GDB will fail if we send one in this case.
+				handle.generateTokenId();
+				fCommandsInFlight++;
+				if (changesContext) {
+					fContextChangeInFlight = true;
+					handle.fChangesContext = true;
 				}
-		    	fTxCommands.add(handle);
 			}
+	    	fTxCommands.add(handle);
 		}
     }
 
+    /**
+     * Called on the executor thread when the result of a command has been received.
+     */
+    private void commandCompleted(CommandHandle handle) {
+    	if (fCommandsInFlight > 0) {
+    		fCommandsInFlight--;
+    	}
+    	if (handle.fChangesContext) {
+    		fContextChangeInFlight = false;
+    	}
+    	if (handle.fLatency >= 0) {
+    		fCompletedCommandCount++;
+    		fTotalCommandLatency += handle.fLatency;
+    		fMaxCommandLatency = Math.max(fMaxCommandLatency, handle.fLatency);
+    	}
+    }
+
+    /**
+     * Sets the maximum number of commands that are sent to the back end before 
+     * their results have been received. Commands that change the selected thread 
+     * or frame, or the state of the target are never sent together with other 
+     * commands. Must be called on the executor thread.
+     * @param size the size of the window, at least 1
+     * @since 4.0
+     */
+    public void setCommandWindowSize(int size) {
+    	fCommandWindowSize = Math.max(1, size);
+    }
+
+    /**
+     * Returns the maximum number of commands that are sent to the back end 
+     * before their results have been received.
+     * @since 4.0
+     */
+    public int getCommandWindowSize() {
+    	return fCommandWindowSize;
+    }
+
+    /**
+     * Returns the number of commands that were queued but whose results have
+     * not been received, yet. Must be called on the executor thread.
+     * @since 4.0
+     */
+    public int getCommandQueueDepth() {
+    	return fCommandQueue.size() + fCommandsInFlight;
+    }
+
+    /**
+     * Returns the largest queue depth seen so far, see {@link #getCommandQueueDepth()}.
+     * Must be called on the executor thread.
+     * @since 4.0
+     */
+    public int getMaxCommandQueueDepth() {
+    	return fMaxCommandQueueDepth;
+    }
+
+    /**
+     * Returns the number of commands whose results have been received.
+     * Must be called on the executor thread.
+     * @since 4.0
+     */
+    public long getCompletedCommandCount() {
+    	return fCompletedCommandCount;
+    }
+
+    /**
+     * Returns the average time in nanoseconds between sending a command to the back
+     * end and receiving its result. Must be called on the executor thread.
+     * @since 4.0
+     */
+    public long getAverageCommandLatency() {
+    	return fCompletedCommandCount == 0 ? 0 : fTotalCommandLatency / fCompletedCommandCount;
+    }
+
+    /**
+     * Returns the longest time in nanoseconds between sending a command to the back
+     * end and receiving its result. Must be called on the executor thread.
+     * @since 4.0
+     */
+    public long getMaxCommandLatency() {
+    	return fMaxCommandLatency;
+    }
+
+    /**
+     * Returns the time in nanoseconds between sending the command to the back end and 
+     * receiving its result, or -1 if the result was not received. Can be used by command 
+     * listeners when they are notified that a command is done.
+     * @param token the token returned when the command was queued
+     * @since 4.0
+     */
+    public long getCommandLatency(ICommandToken token) {
+    	if (token instanceof CommandHandle) {
+    		return ((CommandHandle) token).fLatency;
+    	}
+    	return -1;
+    }
+
     /*
      *   This is the command which allows the user to retract a previously issued command. The
      *   state of the command  is that it is in the waiting queue  and has not yet been handed 
@@ -518,6 +693,12 @@ public abstract class AbstractMIControl extends AbstractDsfService
         private MICommand<MIInfo> fCommand;
         private DataRequestMonitor<MIInfo> fRequestMonitor;
         private int fTokenId ;
+        // Whether no other command is sent before the result of this one is received
+        private boolean fChangesContext;
+        // Set by the TX thread when the command is written
+        private volatile long fSentTime;
+        // Set by the RX thread when the result is received
+        private volatile long fLatency = -1;
         
         CommandHandle(MICommand<MIInfo> c, DataRequestMonitor<MIInfo> d) {
             fCommand = c; 
@@ -628,6 +809,7 @@ public abstract class AbstractMIControl extends AbstractDsfService
                 
                 try {
                     if (fOutputStream != null) {
+                        commandHandle.fSentTime = System.nanoTime();
                         fOutputStream.write(str.getBytes());
                         fOutputStream.flush();
 
@@ -859,6 +1041,7 @@ public abstract class AbstractMIControl extends AbstractDsfService
                 final CommandHandle commandHandle = fRxCommands.remove(id);
 
                 if (commandHandle != null) {
+                	commandHandle.fLatency = System.nanoTime() - commandHandle.fSentTime;
                     final MIOutput response = new MIOutput(
                         rr, fAccumulatedOOBRecords.toArray(new MIOOBRecord[fAccumulatedOOBRecords.size()]) );
                     fAccumulatedOOBRecords.clear();
@@ -892,6 +1075,7 @@ public abstract class AbstractMIControl extends AbstractDsfService
 						final ICommandResult finalResult = result;
 						getExecutor().execute(new DsfRunnable() {
 	                        public void run() {
+	                        	commandCompleted(commandHandle);
 	                        	/*
 	                        	 *  Complete the specific command.
 	                        	 */
@@ -919,6 +1103,7 @@ public abstract class AbstractMIControl extends AbstractDsfService
 						final ICommandResult finalResult = result;
 						getExecutor().execute(new DsfRunnable() {
 	                        public void run() {
+	                        	commandCompleted(commandHandle);
 	                            processCommandDone(commandHandle, finalResult);
 	                        }
 	                        @Override
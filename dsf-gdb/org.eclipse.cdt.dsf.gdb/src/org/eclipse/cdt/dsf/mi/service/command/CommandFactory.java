@@ -62,6 +62,7 @@ import org.eclipse.cdt.dsf.mi.service.command.commands.MIBreakPasscount;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIBreakWatch;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataDisassemble;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataEvaluateExpression;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataListChangedRegisters;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataListRegisterNames;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataListRegisterValues;
 import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataReadMemory;
@@ -160,6 +161,7 @@ import org.eclipse.cdt.dsf.mi.service.command.output.MIBreakInsertInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIBreakListInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataDisassembleInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataEvaluateExpressionInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListChangedRegistersInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListRegisterNamesInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListRegisterValuesInfo;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIDataReadMemoryBytesInfo;
@@ -365,6 +367,11 @@ public class CommandFactory {
 		return new MIDataEvaluateExpression<MIDataEvaluateExpressionInfo>(exprDmc);
 	}
 
+	/** @since 4.0 */
+	public ICommand<MIDataListChangedRegistersInfo> createMIDataListChangedRegisters(IMIExecutionDMContext ctx) {
+		return new MIDataListChangedRegisters(ctx);
+	}
+
 	public ICommand<MIDataListRegisterNamesInfo> createMIDataListRegisterNames(IContainerDMContext ctx) {
 		return new MIDataListRegisterNames(ctx);
 	}
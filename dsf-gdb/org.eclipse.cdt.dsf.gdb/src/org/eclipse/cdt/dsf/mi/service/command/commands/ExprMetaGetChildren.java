@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 Ericsson and others.
+ * Copyright (c) 2007, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -18,6 +18,7 @@ import org.eclipse.cdt.dsf.mi.service.command.output.ExprMetaGetChildrenInfo;
 public class ExprMetaGetChildren extends ExprMetaCommand<ExprMetaGetChildrenInfo> {
 
 	private int numChildLimit = IMIExpressions.CHILD_COUNT_LIMIT_UNSPECIFIED;
+	private int startIndex = 0;
 	
 	public ExprMetaGetChildren(IExpressionDMContext ctx) {
 		super(ctx);
@@ -34,6 +35,22 @@ public class ExprMetaGetChildren extends ExprMetaCommand<ExprMetaGetChildrenInfo
 		this.numChildLimit = numChildLimit;
 	}
 	
+	/**
+	 * Asks for the children in the given range.  The result may start at an
+	 * earlier child, see {@link ExprMetaGetChildrenInfo#getStartIndex()}.
+	 * 
+	 * @param ctx
+	 * @param startIndex
+	 * @param length
+	 * 
+	 * @since 4.0
+	 */
+	public ExprMetaGetChildren(IExpressionDMContext ctx, int startIndex, int length) {
+		super(ctx);
+		this.startIndex = startIndex;
+		this.numChildLimit = startIndex + length;
+	}
+	
 	/**
 	 * @since 4.0
 	 */
@@ -41,11 +58,19 @@ public class ExprMetaGetChildren extends ExprMetaCommand<ExprMetaGetChildrenInfo
 		return numChildLimit;
 	}
 
+	/**
+	 * @since 4.0
+	 */
+	public int getStartIndex() {
+		return startIndex;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
 		result = prime * result + numChildLimit;
+		result = prime * result + startIndex;
 		return result;
 	}
 
@@ -58,6 +83,8 @@ public class ExprMetaGetChildren extends ExprMetaCommand<ExprMetaGetChildrenInfo
 		ExprMetaGetChildren other = (ExprMetaGetChildren) obj;
 		if (numChildLimit != other.numChildLimit)
 			return false;
+		if (startIndex != other.startIndex)
+			return false;
 		return true;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     agent - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.cdt.dsf.mi.service.command.commands;
+
+import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIDataListChangedRegistersInfo;
+import org.eclipse.cdt.dsf.mi.service.command.output.MIOutput;
+
+/**
+ * 
+ *     -data-list-changed-registers
+ *
+ *   Display a list of the registers that have changed since the last
+ * time this command was issued.
+ *
+ * @since 4.0
+ */
+public class MIDataListChangedRegisters extends MICommand<MIDataListChangedRegistersInfo> 
+{
+    public MIDataListChangedRegisters(IMIExecutionDMContext ctx) {
+        super(ctx, "-data-list-changed-registers"); //$NON-NLS-1$
+    }
+
+    @Override
+    public MIDataListChangedRegistersInfo getResult(MIOutput output) {
+        return new MIDataListChangedRegistersInfo(output);
+    }
+}
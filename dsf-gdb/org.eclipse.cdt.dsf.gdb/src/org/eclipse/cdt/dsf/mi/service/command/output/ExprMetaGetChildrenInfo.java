@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 Ericsson and others.
+ * Copyright (c) 2007, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,13 +17,31 @@ import org.eclipse.cdt.dsf.mi.service.MIExpressions.ExpressionInfo;
 public class ExprMetaGetChildrenInfo implements ICommandResult {
     
 	private final ExpressionInfo[] childrenExpressions;
+	private final int startIndex;
 
     public ExprMetaGetChildrenInfo(ExpressionInfo[] c) {
+    	this(c, 0);
+    }
+    
+    /**
+     * @param c the children, starting with the child at the given index
+     * @param start the index of the first child within all children of the expression
+     * @since 4.0
+     */
+    public ExprMetaGetChildrenInfo(ExpressionInfo[] c, int start) {
     	childrenExpressions = c;
+    	startIndex = start;
     }
     
     public ExpressionInfo[] getChildrenExpressions() { return childrenExpressions; }
     
+    /**
+     * Returns the index of the first child of {@link #getChildrenExpressions()}
+     * within all children of the expression.
+     * @since 4.0
+     */
+    public int getStartIndex() { return startIndex; }
+    
 	public <V extends ICommandResult> V getSubsetResult(ICommand<V> command) {
 		return null;
 	}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     agent - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.cdt.dsf.mi.service.command.output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GDB/MI data list changed registers response extraction.
+ * 
+ * @since 4.0
+ */
+public class MIDataListChangedRegistersInfo extends MIInfo {
+
+    int[] registers;
+
+    public MIDataListChangedRegistersInfo(MIOutput rr) {
+        super(rr);
+        List<Integer> aList = new ArrayList<Integer>();
+        if (isDone()) {
+            MIOutput out = getMIOutput();
+            MIResultRecord outr = out.getMIResultRecord();
+            if (outr != null) {
+                MIResult[] results = outr.getMIResults();
+                for (int i = 0; i < results.length; i++) {
+                    String var = results[i].getVariable();
+                    if (var.equals("changed-registers")) { //$NON-NLS-1$
+                        MIValue value = results[i].getMIValue();
+                        if (value instanceof MIList) {
+                            parseRegisters((MIList) value, aList);
+                        }
+                    }
+                }
+            }
+        }
+        registers = new int[aList.size()];
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = aList.get(i);
+        }
+    }
+
+    /*
+     * Returns the numbers of the registers that have changed.
+     */
+    public int[] getRegisterNumbers() {
+        return registers;
+    }
+
+    private void parseRegisters(MIList list, List<Integer> aList) {
+        MIValue[] values = list.getMIValues();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof MIConst) {
+                String str = ((MIConst) values[i]).getCString();
+                if (str != null && str.length() > 0) {
+                    try {
+                        aList.add(Integer.parseInt(str.trim()));
+                    } catch (NumberFormatException e) {
+                    }
+                }
+            }
+        }
+    }
+}
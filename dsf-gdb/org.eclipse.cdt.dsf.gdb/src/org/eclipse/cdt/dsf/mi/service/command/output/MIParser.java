@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2009 QNX Software Systems and others.
+ * Copyright (c) 2000, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -96,6 +96,49 @@ public class MIParser {
     public String cliPrompt = primaryPrompt;
     public String secondaryPrompt = ">"; //$NON-NLS-1$
 
+    /**
+     * Buffer for C-strings that contain escape sequences, reused across records.
+     * Each thread reading MI output uses its own parser.
+     */
+    private final StringBuilder fCStringBuilder = new StringBuilder();
+
+    /**
+     * Position in a line of MI output. The parser reads the line in place, it
+     * neither copies nor modifies it.
+     */
+    private static final class Cursor {
+        final String line;
+        final int end;
+        int pos;
+
+        Cursor(String line, int pos, int end) {
+            this.line = line;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int length() {
+            return end - pos;
+        }
+
+        char current() {
+            return line.charAt(pos);
+        }
+
+        boolean startsWith(String prefix) {
+            return end - pos >= prefix.length() && line.startsWith(prefix, pos);
+        }
+
+        int indexOf(char c) {
+            int i = line.indexOf(c, pos);
+            return i < end ? i : -1;
+        }
+
+        String rest() {
+            return line.substring(pos, end);
+        }
+    }
+
     public RecordType getRecordType(String line) {
         int i = 0;
         if (Character.isDigit(line.charAt(0))) {
@@ -116,56 +159,63 @@ public class MIParser {
     }    
 
     /**
-     * 
+     * Parses the token and the result class of a result record. The results
+     * are parsed when they are first accessed, see {@link MIResultRecord#getMIResults()}.
+     * Commands that do not look at the results do not pay for parsing them.
      */
     public MIResultRecord parseMIResultRecord(String line) {
-        StringBuffer buffer = new StringBuffer(line);
+        Cursor buffer = new Cursor(line, 0, line.length());
         // Fetch the Token/Id
         int id = parseToken(buffer);
         // Consume the '^'
-        buffer.deleteCharAt(0);
+        buffer.pos++;
         
         MIResultRecord rr = new MIResultRecord();
         rr.setToken(id);
-        if (buffer.toString().startsWith(MIResultRecord.DONE)) {
+        if (buffer.startsWith(MIResultRecord.DONE)) {
             rr.setResultClass(MIResultRecord.DONE);
-            buffer.delete(0, MIResultRecord.DONE.length());
-        } else if (buffer.toString().startsWith(MIResultRecord.ERROR)) {
+            buffer.pos += MIResultRecord.DONE.length();
+        } else if (buffer.startsWith(MIResultRecord.ERROR)) {
             rr.setResultClass(MIResultRecord.ERROR);
-            buffer.delete(0, MIResultRecord.ERROR.length());
-        } else if (buffer.toString().startsWith(MIResultRecord.EXIT)) {
+            buffer.pos += MIResultRecord.ERROR.length();
+        } else if (buffer.startsWith(MIResultRecord.EXIT)) {
             rr.setResultClass(MIResultRecord.EXIT);
-            buffer.delete(0, MIResultRecord.EXIT.length());
-        } else if (buffer.toString().startsWith(MIResultRecord.RUNNING)) {
+            buffer.pos += MIResultRecord.EXIT.length();
+        } else if (buffer.startsWith(MIResultRecord.RUNNING)) {
             rr.setResultClass(MIResultRecord.RUNNING);
-            buffer.delete(0, MIResultRecord.RUNNING.length());
-        } else if (buffer.toString().startsWith(MIResultRecord.CONNECTED)) {
+            buffer.pos += MIResultRecord.RUNNING.length();
+        } else if (buffer.startsWith(MIResultRecord.CONNECTED)) {
             rr.setResultClass(MIResultRecord.CONNECTED);
-            buffer.delete(0, MIResultRecord.CONNECTED.length());
+            buffer.pos += MIResultRecord.CONNECTED.length();
         } else {
             // Error throw an exception?
         }
 
         // Results are separated by commas.
-        if (buffer.length() > 0 && buffer.charAt(0) == ',') {
-            buffer.deleteCharAt(0);
-            MIResult[] res = processMIResults(new FSB(buffer));
-            rr.setMIResults(res);
+        if (buffer.length() > 0 && buffer.current() == ',') {
+            rr.setUnparsedMIResults(line, buffer.pos + 1);
         }
         return rr;
     }
 
+    /**
+     * Parses the comma separated results starting at the given offset of a line.
+     */
+    MIResult[] parseMIResults(String line, int start) {
+        return processMIResults(new Cursor(line, start, line.length()));
+    }
+
     /**
      * Find OutOfBand Records depending on the starting token.
      */
     public MIOOBRecord parseMIOOBRecord(String line) {
-        StringBuffer buffer = new StringBuffer(line);
+        Cursor buffer = new Cursor(line, 0, line.length());
         int id = parseToken(buffer);
         MIOOBRecord oob = null;
-        char c = buffer.length() != 0 ? buffer.charAt(0) : 0;
+        char c = buffer.length() != 0 ? buffer.current() : 0;
         if (c == '*' || c == '+' || c == '=') {
             // Consume the first char
-            buffer.deleteCharAt(0);
+            buffer.pos++;
             MIAsyncRecord async = null;
             switch (c) {
                 case '*' :
@@ -182,22 +232,22 @@ public class MIParser {
             }
             async.setToken(id);
             // Extract the Async-Class
-            int i = buffer.toString().indexOf(',');
+            int i = buffer.indexOf(',');
             if (i != -1) {
-                String asyncClass = buffer.substring(0, i);
+                String asyncClass = line.substring(buffer.pos, i);
                 async.setAsyncClass(asyncClass);
                 // Consume the async-class and the comma
-                buffer.delete(0, i + 1);
+                buffer.pos = i + 1;
             } else {
-                async.setAsyncClass(buffer.toString().trim());
-                buffer.setLength(0);
+                async.setAsyncClass(buffer.rest().trim());
+                buffer.pos = buffer.end;
             }
-            MIResult[] res = processMIResults(new FSB(buffer));
+            MIResult[] res = processMIResults(buffer);
             async.setMIResults(res);
             oob = async;
         } else if (c == '~' || c == '@' || c == '&') {
             // Consume the first char
-            buffer.deleteCharAt(0);
+            buffer.pos++;
             MIStreamRecord stream = null;
             switch (c) {
                 case '~' :
@@ -212,11 +262,11 @@ public class MIParser {
                     stream = new MILogStreamOutput();
                     break;
             }
-            // translateCString() assumes that the leading " is deleted
-            if (buffer.length() > 0 && buffer.charAt(0) == '"') {
-                buffer.deleteCharAt(0);
+            // translateCString() assumes that the leading " is consumed
+            if (buffer.length() > 0 && buffer.current() == '"') {
+                buffer.pos++;
             }
-            stream.setCString(translateCString(new FSB(buffer)));
+            stream.setCString(translateCString(buffer));
             oob = stream;
         } else {
             // Badly format MI line, just pass it to the user as target stream
@@ -227,21 +277,21 @@ public class MIParser {
         return oob;
     }
     
-    private int parseToken(StringBuffer buffer) {
+    private int parseToken(Cursor buffer) {
         int id = -1;
         // Fetch the Token/Id
-        if (Character.isDigit(buffer.charAt(0))) {
-            int i = 1;
-            while (i < buffer.length() && Character.isDigit(buffer.charAt(i))) {
+        if (buffer.length() > 0 && Character.isDigit(buffer.current())) {
+            int i = buffer.pos + 1;
+            while (i < buffer.end && Character.isDigit(buffer.line.charAt(i))) {
                 i++;
             }
-            String numbers = buffer.substring(0, i);
+            String numbers = buffer.line.substring(buffer.pos, i);
             try {
                 id = Integer.parseInt(numbers);
             } catch (NumberFormatException e) {
             }
             // Consume the token.
-            buffer.delete(0, i);
+            buffer.pos = i;
         }
         return id;
     }
@@ -250,14 +300,14 @@ public class MIParser {
      * Assuming that the usual leading comma was consumed.
      * Extract the MI Result comma seperated responses.
      */
-    private MIResult[] processMIResults(FSB buffer) {
+    private MIResult[] processMIResults(Cursor buffer) {
         List<MIResult> aList = new ArrayList<MIResult>();
         MIResult result = processMIResult(buffer);
         if (result != null) {
             aList.add(result);
         }
-        while (buffer.length() > 0 && buffer.charAt(0) == ',') {
-            buffer.deleteCharAt(0);
+        while (buffer.length() > 0 && buffer.current() == ',') {
+            buffer.pos++;
             result = processMIResult(buffer);
             if (result != null) {
                 aList.add(result);
@@ -267,26 +317,26 @@ public class MIParser {
     }
 
     /**
-     * Construct the DsfMIResult.  Characters will be consume/delete
+     * Construct the DsfMIResult.  Characters will be consumed
      * moving forward constructing the AST.
      */
-    private MIResult processMIResult(FSB buffer) {
+    private MIResult processMIResult(Cursor buffer) {
         MIResult result = new MIResult();
         int equal;
-        if (buffer.length() > 0 && Character.isLetter(buffer.charAt(0)) && (equal = buffer.indexOf('=')) != -1) {
-            String variable = buffer.substring(0, equal);
+        if (buffer.length() > 0 && Character.isLetter(buffer.current()) && (equal = buffer.indexOf('=')) != -1) {
+            String variable = buffer.line.substring(buffer.pos, equal);
             result.setVariable(variable);
-            buffer.delete(0, equal + 1);
+            buffer.pos = equal + 1;
             MIValue value = processMIValue(buffer);
             result.setMIValue(value);
-        } else if(buffer.length()>0 && buffer.charAt(0)=='"') {
+        } else if(buffer.length()>0 && buffer.current()=='"') {
             // This an error but we just swallow it and move on.
             MIValue value = processMIValue(buffer);
             result.setMIValue(value);
         } else {
-            result.setVariable(buffer.toString());
+            result.setVariable(buffer.rest());
             result.setMIValue(new MIConst()); // Empty string:???
-            buffer.setLength(0);
+            buffer.pos = buffer.end;
         }
         return result;
     }
@@ -294,17 +344,17 @@ public class MIParser {
     /**
      * Find a DsfMIValue implementation or return null.
      */
-    private MIValue processMIValue(FSB buffer) {
+    private MIValue processMIValue(Cursor buffer) {
         MIValue value = null;
         if (buffer.length() > 0) {
-            if (buffer.charAt(0) == '{') {
-                buffer.deleteCharAt(0);
+            if (buffer.current() == '{') {
+                buffer.pos++;
                 value = processMITuple(buffer);
-            } else if (buffer.charAt(0) == '[') {
-                buffer.deleteCharAt(0);
+            } else if (buffer.current() == '[') {
+                buffer.pos++;
                 value = processMIList(buffer);
-            } else if (buffer.charAt(0) == '"') {
-                buffer.deleteCharAt(0);
+            } else if (buffer.current() == '"') {
+                buffer.pos++;
                 MIConst cnst = new MIConst();
                 cnst.setCString(translateCString(buffer));
                 value = cnst;
@@ -314,16 +364,16 @@ public class MIParser {
     }
 
     /**
-     * Assuming the starting '{' was deleted form the StringBuffer,
-     * go to the closing '}' consuming/deleting all the characters.
+     * Assuming the starting '{' was consumed, go to the closing '}'
+     * consuming all the characters.
      * This is usually call by processMIvalue();
      */
-    private MIValue processMITuple(FSB buffer) {
+    private MIValue processMITuple(Cursor buffer) {
         MITuple tuple = new MITuple();
         List<MIValue> valueList = new ArrayList<MIValue>();
         List<MIResult> resultList = new ArrayList<MIResult>();
         // Catch closing '}'
-        while (buffer.length() > 0 && buffer.charAt(0) != '}') {
+        while (buffer.length() > 0 && buffer.current() != '}') {
             // Try for the DsfMIValue first
             MIValue value = processMIValue(buffer);
             if (value != null) {
@@ -334,12 +384,12 @@ public class MIParser {
                     resultList.add(result);
                 }
             }
-            if (buffer.length() > 0 && buffer.charAt(0) == ',') {
-                buffer.deleteCharAt(0);
+            if (buffer.length() > 0 && buffer.current() == ',') {
+                buffer.pos++;
             }
         }
-        if (buffer.length() > 0 && buffer.charAt(0) == '}') {
-            buffer.deleteCharAt(0);
+        if (buffer.length() > 0 && buffer.current() == '}') {
+            buffer.pos++;
         }
         MIValue[] values = valueList.toArray(new MIValue[valueList.size()]);
         MIResult[] res = resultList.toArray(new MIResult[resultList.size()]);
@@ -349,15 +399,15 @@ public class MIParser {
     }
 
     /**
-     * Assuming the leading '[' was deleted, find the closing
-     * ']' consuming/delete chars from the StringBuffer.
+     * Assuming the leading '[' was consumed, find the closing
+     * ']' consuming the chars.
      */
-    private MIValue processMIList(FSB buffer) {
+    private MIValue processMIList(Cursor buffer) {
         MIList list = new MIList();
         List<MIValue> valueList = new ArrayList<MIValue>();
         List<MIResult> resultList = new ArrayList<MIResult>();
         // catch closing ']'
-        while (buffer.length() > 0 && buffer.charAt(0) != ']') {
+        while (buffer.length() > 0 && buffer.current() != ']') {
             // Try for the DsfMIValue first
             MIValue value = processMIValue(buffer);
             if (value != null) {
@@ -368,12 +418,12 @@ public class MIParser {
                     resultList.add(result);
                 }
             }
-            if (buffer.length() > 0 && buffer.charAt(0) == ',') {
-                buffer.deleteCharAt(0);
+            if (buffer.length() > 0 && buffer.current() == ',') {
+                buffer.pos++;
             }
         }
-        if (buffer.length() > 0 && buffer.charAt(0) == ']') {
-            buffer.deleteCharAt(0);
+        if (buffer.length() > 0 && buffer.current() == ']') {
+            buffer.pos++;
         }
         MIValue[] values = valueList.toArray(new MIValue[valueList.size()]);
         MIResult[] res = resultList.toArray(new MIResult[resultList.size()]);
@@ -385,20 +435,42 @@ public class MIParser {
     /*
      * MI C-String rather MICOnst values are enclose in double quotes
      * and any double quotes or backslash in the string are escaped.
-     * Assuming the starting double quote was removed.
+     * Assuming the starting double quote was consumed.
      * This method will stop at the closing double quote remove the extra
      * backslach escaping and return the string __without__ the enclosing double quotes
-     * The orignal StringBuffer will move forward.
+     * The cursor will move forward.
      */
-    private String translateCString(FSB buffer) {
+    private String translateCString(Cursor buffer) {
+        final String line = buffer.line;
+        final int start = buffer.pos;
+        final int end = buffer.end;
+
+        // Most strings have no escapes, they are returned as a substring of the line.
+        int index = start;
+        for (; index < end; index++) {
+            char c = line.charAt(index);
+            if (c == '"') {
+                buffer.pos = index + 1;
+                return line.substring(start, index);
+            }
+            if (c == '\\') {
+                break;
+            }
+        }
+        if (index == end) {
+            buffer.pos = end;
+            return line.substring(start, end);
+        }
+
         boolean escape = false;
         boolean closingQuotes = false;
 
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = fCStringBuilder;
+        sb.setLength(0);
+        sb.append(line, start, index);
 
-        int index = 0;
-        for (; index < buffer.length() && !closingQuotes; index++) {
-            char c = buffer.charAt(index);
+        for (; index < end && !closingQuotes; index++) {
+            char c = line.charAt(index);
             if (c == '\\') {
                 if (escape) {
                     sb.append(c);
@@ -423,8 +495,14 @@ public class MIParser {
                 escape = false;
             }
         }
-        buffer.delete(0, index);
-        return sb.toString();
+        buffer.pos = index;
+        String result = sb.toString();
+        if (sb.capacity() > 4096) {
+            // do not hold on to the buffer of a huge record
+            sb.setLength(0);
+            sb.trimToSize();
+        }
+        return result;
     }
 
     /**
@@ -451,6 +529,8 @@ public class MIParser {
     }
 
     /** 
+     * No longer used by the parser, which reads the output in place.
+     * <p>
      * Fast String Buffer class. MIParser does a lot
      * of deleting off the front of a string, that's clearly
      * an order N operation for StringBuffer which makes 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2000, 2009 QNX Software Systems and others.
+ * Copyright (c) 2000, 2011 QNX Software Systems and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -28,6 +28,12 @@ public class MIResultRecord {
     String resultClass = ""; //$NON-NLS-1$
     int token = -1;
 
+    /**
+     * Line of output holding the results that were not parsed yet, or <code>null</code>.
+     */
+    private String unparsedLine;
+    private int unparsedStart;
+
     public int getToken() {
         return token;
     }
@@ -46,12 +52,30 @@ public class MIResultRecord {
         resultClass = type;
     }
 
-    public MIResult[] getMIResults() {
+    public synchronized MIResult[] getMIResults() {
+        if (unparsedLine != null) {
+            // The results are parsed on first access, rather than by the thread
+            // receiving the output of gdb.
+            results = new MIParser().parseMIResults(unparsedLine, unparsedStart);
+            unparsedLine = null;
+        }
         return results;
     }
 
-    public void setMIResults(MIResult[] res) {
+    public synchronized void setMIResults(MIResult[] res) {
         results = res;
+        unparsedLine = null;
+    }
+
+    /**
+     * Sets the results to be parsed from the given line when they are first accessed.
+     * @param line the line of output containing the record
+     * @param start offset of the first result within the line
+     */
+    synchronized void setUnparsedMIResults(String line, int start) {
+        unparsedLine = line;
+        unparsedStart = start;
+        results = nullResults;
     }
 
     @Override
@@ -61,6 +85,7 @@ public class MIResultRecord {
         	buffer.append(token);
         }
         buffer.append('^').append(resultClass);
+        MIResult[] results = getMIResults();
         for (int i = 0; i < results.length; i++) {
             buffer.append(',').append(results[i].toString());
         }
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipse.cdt.dsf.mi.service.command.commands;
 
+import org.eclipse.cdt.dsf.mi.service.command.output.MIParserTest;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIThreadTests;
 import org.eclipse.cdt.tests.dsf.gdb.framework.OnceOnlySuite;
 import org.eclipse.cdt.tests.dsf.gdb.tests.LaunchUtilsTest;
@@ -27,6 +28,7 @@ import org.junit.runners.Suite;
         TestMIBreakInsertCommand.class,
         TestMICommandConstructCommand.class,
         MIThreadTests.class,
+        MIParserTest.class,
         LaunchUtilsTest.class
         /* Add your test class here */
         })
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2011 agent and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    agent - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.cdt.dsf.mi.service.command.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+public class MIParserTest {
+	/**
+	 * Output of gdb captured while stepping through a program, looking at
+	 * variables, registers and memory.
+	 */
+	private static final String[] CAPTURED_LOG = {
+		"=thread-group-started,id=\"i1\",pid=\"7010\"",
+		"=thread-created,id=\"1\",group-id=\"i1\"",
+		"=library-loaded,id=\"/lib/ld-linux.so.2\",target-name=\"/lib/ld-linux.so.2\",host-name=\"/lib/ld-linux.so.2\",symbols-loaded=\"0\",thread-group=\"i1\"",
+		"12^running",
+		"*running,thread-id=\"all\"",
+		"~\"\\nBreakpoint 1, main (argc=1, argv=0xbffff2b4) at MultiThread.cc:42\\n\"",
+		"*stopped,reason=\"breakpoint-hit\",disp=\"keep\",bkptno=\"1\",frame={addr=\"0x08048530\",func=\"main\",args=[{name=\"argc\",value=\"1\"},{name=\"argv\",value=\"0xbffff2b4\"}],file=\"MultiThread.cc\",fullname=\"/home/user/MultiThread.cc\",line=\"42\"},thread-id=\"1\",stopped-threads=\"all\",core=\"0\"",
+		"13^done,stack=[frame={level=\"0\",addr=\"0x08048530\",func=\"main\",file=\"MultiThread.cc\",fullname=\"/home/user/MultiThread.cc\",line=\"42\"},frame={level=\"1\",addr=\"0x0012fbc6\",func=\"__libc_start_main\",from=\"/lib/libc.so.6\"}]",
+		"14^done,variables=[{name=\"count\",value=\"3\"},{name=\"message\",value=\"0x8048700 \\\"Hello \\\\\\\"world\\\\\\\"\\\"\"},{name=\"buffer\",value=\"\\\"abc\\\\000\\\", '\\\\000' <repeats 60 times>\"}]",
+		"15^done,numchild=\"4\",children=[child={name=\"var1.x\",exp=\"x\",numchild=\"0\",value=\"1\",type=\"int\",thread-id=\"1\"},child={name=\"var1.y\",exp=\"y\",numchild=\"0\",value=\"2\",type=\"int\",thread-id=\"1\"},child={name=\"var1.next\",exp=\"next\",numchild=\"2\",value=\"0x0\",type=\"node *\",thread-id=\"1\"},child={name=\"var1.name\",exp=\"name\",numchild=\"1\",value=\"0x8048700 \\\"node\\\"\",type=\"char *\",thread-id=\"1\"}],has_more=\"0\"",
+		"16^done,changed-registers=[\"0\",\"1\",\"4\",\"5\",\"8\",\"9\"]",
+		"17^done,register-values=[{number=\"0\",value=\"0x1\"},{number=\"1\",value=\"0xbffff2b4\"},{number=\"2\",value=\"0x0\"},{number=\"3\",value=\"0x287ff4\"},{number=\"4\",value=\"0xbffff1f0\"},{number=\"5\",value=\"0xbffff218\"},{number=\"6\",value=\"0x0\"},{number=\"7\",value=\"0x0\"},{number=\"8\",value=\"0x8048530\"},{number=\"9\",value=\"0x282\"}]",
+		"18^done,memory=[{begin=\"0xbffff1f0\",offset=\"0x00000000\",end=\"0xbffff2f0\",contents=\"0100000000000000b4f2ffbf0000000000000000f47f2800000000000000000030850408f01f0000a8f2ffbf00000000c6fb1200010000000100000000000000b4f2ffbf0000000000000000f47f2800000000000000000030850408f01f0000a8f2ffbf00000000c6fb1200010000000100000000000000b4f2ffbf0000000000000000f47f2800000000000000000030850408f01f0000a8f2ffbf00000000c6fb120001000000\"}]",
+		"&\"warning: Could not load shared library symbols for linux-gate.so.1.\\n\"",
+		"19^error,msg=\"No symbol \\\"foo\\\" in current context.\"",
+		"(gdb) ",
+	};
+
+	@Test
+	public void testResultRecord() {
+		MIParser parser = new MIParser();
+		String line = "42^done,name=\"var1\",value=\"a \\\"quoted\\\" \\\\ string\",children=[child={exp=\"x\"},child={exp=\"y\"}]";
+		assertEquals(MIParser.RecordType.ResultRecord, parser.getRecordType(line));
+
+		MIResultRecord rr = parser.parseMIResultRecord(line);
+		assertEquals(42, rr.getToken());
+		assertEquals(MIResultRecord.DONE, rr.getResultClass());
+
+		MIResult[] results = rr.getMIResults();
+		assertEquals(3, results.length);
+		assertEquals("name", results[0].getVariable());
+		assertEquals("var1", ((MIConst) results[0].getMIValue()).getCString());
+		// only escaped double quotes are translated by the parser
+		assertEquals("a \"quoted\" \\\\ string", ((MIConst) results[1].getMIValue()).getCString());
+		MIList children = (MIList) results[2].getMIValue();
+		assertEquals(2, children.getMIResults().length);
+		MITuple child = (MITuple) children.getMIResults()[1].getMIValue();
+		assertEquals("y", ((MIConst) child.getMIResults()[0].getMIValue()).getCString());
+
+		// the results are parsed on demand when the record is printed
+		line = "5^done,x=\"1\",list=[a=\"b\"]";
+		assertEquals(line, parser.parseMIResultRecord(line).toString());
+	}
+
+	@Test
+	public void testResultRecordWithoutResults() {
+		MIResultRecord rr = new MIParser().parseMIResultRecord("^running");
+		assertEquals(-1, rr.getToken());
+		assertEquals(MIResultRecord.RUNNING, rr.getResultClass());
+		assertEquals(0, rr.getMIResults().length);
+	}
+
+	@Test
+	public void testOOBRecords() {
+		MIParser parser = new MIParser();
+		MIOOBRecord oob = parser.parseMIOOBRecord("*stopped,reason=\"end-stepping-range\",thread-id=\"2\"");
+		assertTrue(oob instanceof MIExecAsyncOutput);
+		MIAsyncRecord async = (MIAsyncRecord) oob;
+		assertEquals("stopped", async.getAsyncClass());
+		assertEquals(2, async.getMIResults().length);
+		assertEquals("2", ((MIConst) async.getMIResults()[1].getMIValue()).getCString());
+
+		oob = parser.parseMIOOBRecord("=thread-exited");
+		assertEquals("thread-exited", ((MIAsyncRecord) oob).getAsyncClass());
+
+		oob = parser.parseMIOOBRecord("~\"x = \\\"1\\\"\\n\"");
+		assertTrue(oob instanceof MIConsoleStreamOutput);
+		assertEquals("x = \"1\"\\n", ((MIStreamRecord) oob).getCString());
+
+		oob = parser.parseMIOOBRecord("not an MI record");
+		assertTrue(oob instanceof MITargetStreamOutput);
+		assertEquals("not an MI record\n", ((MIStreamRecord) oob).getCString());
+	}
+
+	/**
+	 * Parses the captured log repeatedly and reports the throughput and the memory
+	 * allocated by the parser.
+	 */
+	@Test
+	public void benchmarkCapturedLog() throws Exception {
+		final int repeat = 20000;
+		long chars = 0;
+		for (String line : CAPTURED_LOG) {
+			chars += line.length();
+		}
+		chars *= repeat;
+
+		MIParser parser = new MIParser();
+		// warm up
+		int records = parse(parser, 1000);
+		assertEquals(1000 * (CAPTURED_LOG.length - 1), records);
+
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		parse(parser, repeat);
+		long time = System.nanoTime() - start;
+		long allocated = getAllocatedBytes() - allocatedBefore;
+
+		double megabytes = chars / (1024.0 * 1024.0);
+		StringBuilder report = new StringBuilder();
+		report.append("MI parser: ").append(String.format("%.1f", megabytes / (time / 1e9))).append(" MB/s");
+		if (allocatedBefore >= 0) {
+			report.append(", ").append(String.format("%.2f", (double) allocated / chars)).append(" bytes allocated per char of output");
+		}
+		System.out.println(report);
+	}
+
+	private int parse(MIParser parser, int repeat) {
+		int records = 0;
+		for (int i = 0; i < repeat; i++) {
+			for (String line : CAPTURED_LOG) {
+				switch (parser.getRecordType(line)) {
+				case ResultRecord:
+					// access the results, like most commands do
+					parser.parseMIResultRecord(line).getMIResults();
+					records++;
+					break;
+				case OOBRecord:
+					parser.parseMIOOBRecord(line);
+					records++;
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if the VM
+	 * does not provide the information.
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		try {
+			// only available on Sun VMs
+			Class<?> sunBean = Class.forName("com.sun.management.ThreadMXBean");
+			Method method = sunBean.getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) method.invoke(bean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 Ericsson and others.
+ * Copyright (c) 2007, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,13 +12,17 @@ package org.eclipse.cdt.tests.dsf.gdb.tests;
 
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.cdt.core.IAddress;
 import org.eclipse.cdt.debug.core.ICDTLaunchConfigurationConstants;
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.datamodel.IDMContext;
 import org.eclipse.cdt.dsf.debug.service.IExpressions;
@@ -32,8 +36,14 @@ import org.eclipse.cdt.dsf.debug.service.IFormattedValues.FormattedValueDMContex
 import org.eclipse.cdt.dsf.debug.service.IFormattedValues.FormattedValueDMData;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StepType;
 import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandControl;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandListener;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandResult;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandToken;
 import org.eclipse.cdt.dsf.mi.service.ClassAccessor.MIExpressionDMCAccessor;
 import org.eclipse.cdt.dsf.mi.service.MIExpressions;
+import org.eclipse.cdt.dsf.mi.service.MIVariableManager;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MICommand;
 import org.eclipse.cdt.dsf.mi.service.command.events.MIStoppedEvent;
 import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
 import org.eclipse.cdt.dsf.service.DsfServicesTracker;
@@ -2015,6 +2025,239 @@ public class MIExpressionsTest extends BaseTestCase {
         
     }
     
+    /**
+     * This test verifies that the children of a large array can be fetched
+     * in windows, and that the number of children remains the size of the array.
+     */
+    @Test
+    public void testArrayChildrenWindow() throws Throwable {
+        SyncUtil.runToLocation("testDeleteChildren");
+        MIStoppedEvent stoppedEvent = SyncUtil.step(1, StepType.STEP_OVER);
+        final IFrameDMContext frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+
+        final AsyncCompletionWaitor wait = new AsyncCompletionWaitor();
+        
+        fExpService.getExecutor().submit(new Runnable() {
+        	public void run() {
+        		final IExpressionDMContext arrayDmc = fExpService.createExpression(frameDmc, "a");
+
+        		// Only ask for the first children, like the view does
+        		fExpService.getSubExpressions(
+        				arrayDmc, 0, 10,
+        				new DataRequestMonitor<IExpressionDMContext[]>(fExpService.getExecutor(), null) {
+        					@Override
+        					protected void handleCompleted() {
+        						if (!isSuccess()) {
+        							wait.waitFinished(getStatus());
+        						} else if (getData().length != 10 || !getData()[9].getExpression().equals("a[9]")) {
+        							wait.waitFinished(new Status(IStatus.ERROR, TestsPlugin.PLUGIN_ID,
+        									"Failed getting the first children of the array, got " + Arrays.toString(getData()), null));
+        						} else {
+        							fExpService.getSubExpressionCount(
+        									arrayDmc,
+        									new DataRequestMonitor<Integer>(fExpService.getExecutor(), null) {
+        										@Override
+        										protected void handleCompleted() {
+        											if (!isSuccess()) {
+        												wait.waitFinished(getStatus());
+        											} else if (getData() != 1111) {
+        												wait.waitFinished(new Status(IStatus.ERROR, TestsPlugin.PLUGIN_ID,
+        														"Failed getting count for children.  Got " + getData() + " instead of 1111", null));
+        											} else {
+        												// Then scroll to the end of the array
+        												fExpService.getSubExpressions(
+        														arrayDmc, 1100, 11,
+        														new DataRequestMonitor<IExpressionDMContext[]>(fExpService.getExecutor(), null) {
+        															@Override
+        															protected void handleCompleted() {
+        																if (!isSuccess()) {
+        																	wait.waitFinished(getStatus());
+        																} else if (getData().length != 11 || !getData()[10].getExpression().equals("a[1110]")) {
+        																	wait.waitFinished(new Status(IStatus.ERROR, TestsPlugin.PLUGIN_ID,
+        																			"Failed getting the last children of the array, got " + Arrays.toString(getData()), null));
+        																} else {
+        																	wait.waitFinished();
+        																}
+        															}
+        														});
+        											}
+        										}
+        									});
+        						}
+        					}
+        				});
+        	}
+        });
+
+        wait.waitUntilDone(AsyncCompletionWaitor.WAIT_FOREVER);
+        assertTrue(wait.getMessage(), wait.isOK());
+        wait.waitReset();
+    }
+
+    /**
+     * Records the MI commands sent to GDB.
+     */
+    private class CommandRecorder implements ICommandListener {
+    	private final List<String> fCommands = new ArrayList<String>();
+    	private ICommandControl fControl;
+
+    	void start() throws Throwable {
+    		fSession.getExecutor().submit(new Runnable() {
+    			public void run() {
+    				fControl = fServicesTracker.getService(ICommandControl.class);
+    				fControl.addCommandListener(CommandRecorder.this);
+    			}
+    		}).get();
+    	}
+
+    	void stop() throws Throwable {
+    		fSession.getExecutor().submit(new Runnable() {
+    			public void run() {
+    				fControl.removeCommandListener(CommandRecorder.this);
+    			}
+    		}).get();
+    	}
+
+    	/** Returns the commands sent for the given operation, e.g. -var-update */
+    	List<String> getCommands(String operation) {
+    		List<String> result = new ArrayList<String>();
+    		for (String command : fCommands) {
+    			if (command.startsWith(operation + " ")) {
+    				result.add(command);
+    			}
+    		}
+    		return result;
+    	}
+
+    	public void commandQueued(ICommandToken token) {}
+    	public void commandRemoved(ICommandToken token) {}
+    	public void commandDone(ICommandToken token, ICommandResult result) {}
+    	public void commandSent(ICommandToken token) {
+    		if (token.getCommand() instanceof MICommand<?>) {
+    			fCommands.add(((MICommand<?>)token.getCommand()).constructCommand().trim());
+    		}
+    	}
+    }
+
+    /**
+     * Returns the natural values of the expressions, all of them are requested
+     * in the same dispatch cycle.
+     */
+    private String[] getValues(final IExpressionDMContext... exprs) throws Throwable {
+    	Query<String[]> query = new Query<String[]>() {
+    		@Override
+    		protected void execute(final DataRequestMonitor<String[]> rm) {
+    			final String[] values = new String[exprs.length];
+    			CountingRequestMonitor crm = new CountingRequestMonitor(fExpService.getExecutor(), rm) {
+    				@Override
+    				protected void handleSuccess() {
+    					rm.setData(values);
+    					rm.done();
+    				}
+    			};
+    			crm.setDoneCount(exprs.length);
+    			for (int i = 0; i < exprs.length; i++) {
+    				final int index = i;
+    				fExpService.getFormattedExpressionValue(
+    						fExpService.getFormattedValueContext(exprs[i], IFormattedValues.NATURAL_FORMAT),
+    						new DataRequestMonitor<FormattedValueDMData>(fExpService.getExecutor(), crm) {
+    							@Override
+    							protected void handleSuccess() {
+    								values[index] = getData().getFormattedValue();
+    								crm.done();
+    							}
+    						});
+    			}
+    		}
+    	};
+    	fExpService.getExecutor().execute(query);
+    	return query.get();
+    }
+
+    /**
+     * This test verifies that out-of-date roots are updated with a single
+     * '-var-update *' after a step, and that the changes reported by it are
+     * given to the right roots.  A single out-of-date root is updated by name.
+     */
+    @Test
+    public void testBatchedVarUpdate() throws Throwable {
+        MIStoppedEvent stoppedEvent = SyncUtil.runToLocation("testLocals");
+        final IFrameDMContext frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+
+        IExpressionDMContext intDmc = SyncUtil.createExpression(frameDmc, "lIntVar");
+        IExpressionDMContext doubleDmc = SyncUtil.createExpression(frameDmc, "lDoubleVar");
+        IExpressionDMContext charDmc = SyncUtil.createExpression(frameDmc, "lCharVar");
+
+        // A single root
+        getValues(intDmc);
+        SyncUtil.step(StepType.STEP_OVER);
+
+        CommandRecorder recorder = new CommandRecorder();
+        recorder.start();
+        String[] values = getValues(intDmc);
+        recorder.stop();
+        assertTrue("Wrong value " + values[0], values[0].equals("12345"));
+        List<String> updates = recorder.getCommands("-var-update");
+        assertTrue("Expected a single update by name, got " + updates,
+        		updates.size() == 1 && !updates.get(0).endsWith(" *"));
+
+        // Several roots
+        getValues(doubleDmc, charDmc);
+        SyncUtil.step(2, StepType.STEP_OVER);
+
+        recorder = new CommandRecorder();
+        recorder.start();
+        values = getValues(intDmc, doubleDmc, charDmc);
+        recorder.stop();
+        assertTrue("Wrong value " + values[0], values[0].equals("12345"));
+        assertTrue("Wrong value " + values[1], values[1].startsWith("12345.12"));
+        assertTrue("Wrong value " + values[2], values[2].equals("109 'm'"));
+        updates = recorder.getCommands("-var-update");
+        assertTrue("Expected a single '-var-update *', got " + updates,
+        		updates.size() == 1 && updates.get(0).endsWith(" *"));
+    }
+
+    /**
+     * This test verifies that when there are too many roots, a root that was
+     * not accessed for a while is deleted in GDB, and that it is created again
+     * with the right value when it is accessed.
+     */
+    @Test
+    public void testEvictedRootIsRecreated() throws Throwable {
+        MIStoppedEvent stoppedEvent = SyncUtil.runToLocation("testLocals");
+        final IFrameDMContext frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+        SyncUtil.step(StepType.STEP_OVER);
+
+        IExpressionDMContext intDmc = SyncUtil.createExpression(frameDmc, "lIntVar");
+        assertTrue(getValues(intDmc)[0].equals("12345"));
+
+        // The roots accessed during the current or the previous suspension are kept
+        SyncUtil.step(2, StepType.STEP_OVER);
+
+        int maxRoots = Math.max(1, Integer.getInteger(MIVariableManager.MAX_ROOT_VARIABLES_PROPERTY, 200).intValue());
+        IExpressionDMContext[] others = new IExpressionDMContext[maxRoots];
+        for (int i = 0; i < others.length; i++) {
+        	others[i] = SyncUtil.createExpression(frameDmc, "lIntVar+" + i);
+        }
+
+        CommandRecorder recorder = new CommandRecorder();
+        recorder.start();
+        String[] values = getValues(others);
+        assertTrue("Wrong value " + values[maxRoots - 1], values[maxRoots - 1].equals(Integer.toString(12345 + maxRoots - 1)));
+        assertTrue("The oldest root was not deleted", recorder.getCommands("-var-delete").size() == 1);
+
+        values = getValues(intDmc);
+        recorder.stop();
+        assertTrue("Wrong value " + values[0], values[0].equals("12345"));
+        int created = 0;
+        for (String command : recorder.getCommands("-var-create")) {
+        	if (command.endsWith(" lIntVar")) {
+        		created++;
+        	}
+        }
+        assertTrue("The deleted root was not created again", created == 1);
+    }
+
     /**
 	 * GDB 6.7 has a bug which will cause var-update not to show
 	 * the new value of 'a' if we switch the format to binary,
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 Ericsson and others.
+ * Copyright (c) 2007, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,6 +16,7 @@ import static org.junit.Assert.assertTrue;
 import org.eclipse.cdt.core.IAddress;
 import org.eclipse.cdt.debug.core.ICDTLaunchConfigurationConstants;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.datamodel.IDMContext;
 import org.eclipse.cdt.dsf.debug.service.IExpressions;
@@ -28,6 +29,7 @@ import org.eclipse.cdt.dsf.debug.service.IMemory.IMemoryChangedEvent;
 import org.eclipse.cdt.dsf.debug.service.IMemory.IMemoryDMContext;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StepType;
 import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.mi.service.MIMemory;
 import org.eclipse.cdt.dsf.mi.service.MIRunControl;
 import org.eclipse.cdt.dsf.mi.service.command.events.MIStoppedEvent;
 import org.eclipse.cdt.dsf.service.DsfServiceEventHandler;
@@ -1673,4 +1675,72 @@ public class MIMemoryTest extends BaseTestCase {
 		assertTrue("MemoryChangedEvent problem: expected " + 0 + ", received " + getEventCount(), getEventCount() == 0);
 	}
 
+	// Returns the hit count, miss count and read count of the memory cache
+	private long[] getCacheStatistics() throws Throwable {
+		Query<long[]> query = new Query<long[]>() {
+			@Override
+			protected void execute(DataRequestMonitor<long[]> rm) {
+				MIMemory memory = (MIMemory) fMemoryService;
+				rm.setData(new long[] {
+						memory.getCacheHitCount(fMemoryDmc), memory.getCacheMissCount(fMemoryDmc),
+						memory.getCacheReadCount(fMemoryDmc) });
+				rm.done();
+			}
+		};
+		fSession.getExecutor().execute(query);
+		return query.get();
+	}
+
+	// ------------------------------------------------------------------------
+	// memoryCacheStatistics
+	// Concurrent reads of the same memory are coalesced and the cache
+	// reports its hits and misses
+	// ------------------------------------------------------------------------
+	@Test
+	public void memoryCacheStatistics() throws Throwable {
+
+		// Run to the point where the variable is initialized
+		SyncUtil.addBreakpoint("MemoryTestApp.cc:setBlocks", true);
+		SyncUtil.resumeUntilStopped();
+		MIStoppedEvent stoppedEvent = SyncUtil.step(StepType.STEP_RETURN);
+        IFrameDMContext frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+
+		// Setup call parameters
+		int word_size = 1;
+		int count = 1;
+		fBaseAddress = evaluateExpression(frameDmc, "&charBlock");
+		long[] before = getCacheStatistics();
+
+		// Read the block byte by byte, asynchronously
+		fWait.waitReset();
+		fWait.increment();	// see "Interesting issue" comment in asynchronousReadWrite
+		MemoryByte[] buffer = new MemoryByte[BLOCK_SIZE];
+		for (int offset = 0; offset < BLOCK_SIZE; offset++) {
+			fWait.increment();
+			readMemoryByteAtOffset(fMemoryDmc, fBaseAddress, offset, word_size, count, buffer);
+		}
+		fWait.waitFinished();
+		fWait.waitUntilDone(AsyncCompletionWaitor.WAIT_FOREVER);
+		assertTrue(fWait.getMessage(), fWait.isOK());
+		for (int offset = 0; offset < BLOCK_SIZE; offset++) {
+			assertTrue("Wrong value read at offset " + offset + ": expected '" + offset + "', received '" + buffer[offset].getValue() + "'",
+					(buffer[offset].getValue() == (byte) offset));
+		}
+
+		// The block spans at most two pages of the cache, each of them is read once
+		long[] afterBytes = getCacheStatistics();
+		long reads = afterBytes[2] - before[2];
+		assertTrue("Expected at most 2 reads, received " + reads, reads > 0 && reads <= 2);
+
+		// Reading the whole block again is served by the cache
+		fWait.waitReset();
+		readMemory(fMemoryDmc, fBaseAddress, 0, word_size, BLOCK_SIZE);
+		fWait.waitUntilDone(AsyncCompletionWaitor.WAIT_FOREVER);
+		assertTrue(fWait.getMessage(), fWait.isOK());
+		long[] afterBlock = getCacheStatistics();
+		assertTrue("Unexpected cache miss", afterBlock[1] == afterBytes[1]);
+		assertTrue("Unexpected read", afterBlock[2] == afterBytes[2]);
+		assertTrue("No cache hit", afterBlock[0] > afterBytes[0]);
+	}
+
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Ericsson and others.
+ * Copyright (c) 2009, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,7 +14,10 @@ package org.eclipse.cdt.tests.dsf.gdb.tests;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -41,10 +44,16 @@ import org.eclipse.cdt.dsf.debug.service.IRunControl.IContainerDMContext;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.IExecutionDMContext;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StepType;
 import org.eclipse.cdt.dsf.debug.service.IStack.IFrameDMContext;
+import org.eclipse.cdt.dsf.debug.service.command.ICommand;
 import org.eclipse.cdt.dsf.debug.service.command.ICommandControlService;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandListener;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandResult;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandToken;
 import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
 import org.eclipse.cdt.dsf.mi.service.IMIProcesses;
 import org.eclipse.cdt.dsf.mi.service.MIProcesses;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataListChangedRegisters;
+import org.eclipse.cdt.dsf.mi.service.command.commands.MIDataListRegisterValues;
 import org.eclipse.cdt.dsf.mi.service.command.events.MIStoppedEvent;
 import org.eclipse.cdt.dsf.service.DsfServicesTracker;
 import org.eclipse.cdt.dsf.service.DsfSession;
@@ -334,6 +343,68 @@ public class MIRegistersTest extends BaseTestCase {
     }
 
     
+    private int countCommands(List<ICommand<?>> commands, Class<?> commandClass) {
+    	int count = 0;
+    	synchronized (commands) {
+    		for (ICommand<?> command : commands) {
+    			if (commandClass.isInstance(command)) {
+    				count++;
+    			}
+    		}
+    	}
+    	return count;
+    }
+
+    /**
+     * Checks that the hex, octal and binary formats of a register share one
+     * value, and that the changed registers are asked from GDB after a step.
+     */
+    @Test
+    public void registerValuesAreSharedAcrossFormats() throws Throwable {
+    	MIStoppedEvent stoppedEvent = getInitialStoppedEvent();
+        IFrameDMContext frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+
+        final List<ICommand<?>> commands = Collections.synchronizedList(new ArrayList<ICommand<?>>());
+        final ICommandListener listener = new ICommandListener() {
+        	public void commandQueued(ICommandToken token) {
+        		commands.add(token.getCommand());
+        	}
+        	public void commandSent(ICommandToken token) {}
+        	public void commandRemoved(ICommandToken token) {}
+        	public void commandDone(ICommandToken token, ICommandResult result) {}
+        };
+        final ICommandControlService commandControl = fServicesTracker.getService(ICommandControlService.class);
+        fSession.getExecutor().submit(new Runnable() {
+        	public void run() {
+        		commandControl.addCommandListener(listener);
+        	}
+        }).get();
+
+        try {
+        	String hex = getModelDataForRegisterDataValue(frameDmc, IFormattedValues.HEX_FORMAT, 0);
+        	commands.clear();
+        	String octal = getModelDataForRegisterDataValue(frameDmc, IFormattedValues.OCTAL_FORMAT, 0);
+        	String binary = getModelDataForRegisterDataValue(frameDmc, IFormattedValues.BINARY_FORMAT, 0);
+        	assertEquals("Register values were fetched again", 0, countCommands(commands, MIDataListRegisterValues.class));
+
+        	BigInteger value = new BigInteger(hex.substring(2), 16);
+        	assertEquals(value, new BigInteger(octal, 8));
+        	assertEquals(value, new BigInteger(binary, 2));
+
+        	stoppedEvent = SyncUtil.step(StepType.STEP_OVER);
+        	frameDmc = SyncUtil.getStackFrame(stoppedEvent.getDMContext(), 0);
+        	commands.clear();
+        	getModelDataForRegisterDataValue(frameDmc, IFormattedValues.HEX_FORMAT, 0);
+        	assertEquals(1, countCommands(commands, MIDataListChangedRegisters.class));
+        } finally {
+        	fSession.getExecutor().submit(new Runnable() {
+        		public void run() {
+        			commandControl.removeCommandListener(listener);
+        		}
+        	}).get();
+        }
+    }
+
     @Test
     public void compareRegisterForMultipleExecutionContexts() throws Throwable {
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 Ericsson and others.
+ * Copyright (c) 2007, 2011 Ericsson and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -17,11 +17,17 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.cdt.debug.core.ICDTLaunchConfigurationConstants;
+import org.eclipse.cdt.dsf.concurrent.CountingRequestMonitor;
 import org.eclipse.cdt.dsf.concurrent.DataRequestMonitor;
+import org.eclipse.cdt.dsf.concurrent.Query;
 import org.eclipse.cdt.dsf.concurrent.RequestMonitor;
 import org.eclipse.cdt.dsf.debug.service.IProcesses.IProcessDMContext;
 import org.eclipse.cdt.dsf.debug.service.IProcesses.IThreadDMContext;
@@ -34,12 +40,17 @@ import org.eclipse.cdt.dsf.debug.service.IRunControl.IStartedDMEvent;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.ISuspendedDMEvent;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StateChangeReason;
 import org.eclipse.cdt.dsf.debug.service.IRunControl.StepType;
+import org.eclipse.cdt.dsf.debug.service.command.ICommand;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandListener;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandResult;
+import org.eclipse.cdt.dsf.debug.service.command.ICommandToken;
 import org.eclipse.cdt.dsf.gdb.service.command.IGDBControl;
 import org.eclipse.cdt.dsf.mi.service.IMIExecutionDMContext;
 import org.eclipse.cdt.dsf.mi.service.IMIProcesses;
 import org.eclipse.cdt.dsf.mi.service.IMIRunControl;
 import org.eclipse.cdt.dsf.mi.service.MIProcesses;
 import org.eclipse.cdt.dsf.mi.service.MIRunControl;
+import org.eclipse.cdt.dsf.mi.service.command.AbstractMIControl;
 import org.eclipse.cdt.dsf.mi.service.command.events.MIStoppedEvent;
 import org.eclipse.cdt.dsf.mi.service.command.output.MIInfo;
 import org.eclipse.cdt.dsf.service.DsfServicesTracker;
@@ -759,4 +770,121 @@ public class MIRunControlTest extends BaseTestCase {
         Assert.assertTrue("Target is running. It should have been suspended", (Boolean)wait.getReturnInfo());
         wait.waitReset();
     }
+
+    /*
+     * The command control reports the latencies of the commands it has sent
+     */
+    @Test
+    public void commandStatistics() throws Throwable {
+    	// Stepping sends commands that change the context and commands that are pipelined
+    	SyncUtil.step(StepType.STEP_OVER);
+
+    	Query<long[]> query = new Query<long[]>() {
+    		@Override
+    		protected void execute(DataRequestMonitor<long[]> rm) {
+    			AbstractMIControl control = (AbstractMIControl) fGDBCtrl;
+    			rm.setData(new long[] { 
+    					control.getCompletedCommandCount(), control.getAverageCommandLatency(), 
+    					control.getMaxCommandLatency(), control.getMaxCommandQueueDepth() });
+    			rm.done();
+    		}
+    	};
+    	fGDBCtrl.getExecutor().execute(query);
+    	long[] statistics = query.get();
+    	Assert.assertTrue("No commands completed", statistics[0] > 0);
+    	Assert.assertTrue("Invalid latency", statistics[1] > 0 && statistics[1] <= statistics[2]);
+    	Assert.assertTrue("Invalid queue depth", statistics[3] > 0);
+    }
+
+    /*
+     * More commands than fit into the window are sent in the order they were queued, 
+     * and a command that changes the context is sent only once all previous results 
+     * have been received.
+     */
+    @Test
+    public void commandPipelining() throws Throwable {
+    	final List<ICommand<?>> commands = new ArrayList<ICommand<?>>();
+    	// Sent and done events of the commands above, as indices into the list
+    	final List<Integer> sent = new ArrayList<Integer>();
+    	final List<String> errors = new ArrayList<String>();
+    	final int[] windowSize = new int[1];
+    	final int[] maxInFlight = new int[1];
+    	final int barrier;
+
+    	for (int i = 0; i < 4; i++) {
+    		commands.add(fGDBCtrl.getCommandFactory().createMIDataEvaluateExpression(fGDBCtrl.getContext(), Integer.toString(i)));
+    	}
+    	barrier = commands.size();
+    	commands.add(fGDBCtrl.getCommandFactory().createMIThreadSelect(fGDBCtrl.getContext(), "1"));
+    	for (int i = 0; i < 4; i++) {
+    		commands.add(fGDBCtrl.getCommandFactory().createMIDataEvaluateExpression(fGDBCtrl.getContext(), Integer.toString(i)));
+    	}
+
+    	final ICommandListener listener = new ICommandListener() {
+    		private final Map<ICommand<?>, Integer> fIndices = new HashMap<ICommand<?>, Integer>();
+    		private final List<Integer> fInFlight = new ArrayList<Integer>();
+    		{
+    			for (int i = 0; i < commands.size(); i++) {
+    				fIndices.put(commands.get(i), i);
+    			}
+    		}
+    		public void commandQueued(ICommandToken token) {}
+    		public void commandRemoved(ICommandToken token) {}
+    		public void commandSent(ICommandToken token) {
+    			Integer index = fIndices.get(token.getCommand());
+    			if (index == null) return;
+    			if (index == barrier && !fInFlight.isEmpty()) {
+    				errors.add("Barrier sent while commands " + fInFlight + " were in flight");
+    			}
+    			if (fInFlight.contains(barrier)) {
+    				errors.add("Command " + index + " sent before the result of the barrier");
+    			}
+    			sent.add(index);
+    			fInFlight.add(index);
+    			maxInFlight[0] = Math.max(maxInFlight[0], fInFlight.size());
+    		}
+    		public void commandDone(ICommandToken token, ICommandResult result) {
+    			fInFlight.remove(fIndices.get(token.getCommand()));
+    		}
+    	};
+
+    	Query<Object> query = new Query<Object>() {
+    		@Override
+    		protected void execute(final DataRequestMonitor<Object> rm) {
+    			final AbstractMIControl control = (AbstractMIControl) fGDBCtrl;
+    			windowSize[0] = control.getCommandWindowSize();
+    			control.addCommandListener(listener);
+    			final CountingRequestMonitor crm = new CountingRequestMonitor(fGDBCtrl.getExecutor(), null) {
+    				@Override
+    				protected void handleCompleted() {
+    					control.removeCommandListener(listener);
+    					rm.done();
+    				}
+    			};
+    			crm.setDoneCount(commands.size());
+    			for (ICommand<?> command : commands) {
+    				queueIgnoringErrors(command, crm);
+    			}
+    		}
+    	};
+    	fGDBCtrl.getExecutor().execute(query);
+    	query.get();
+
+    	Assert.assertTrue(errors.toString(), errors.isEmpty());
+    	List<Integer> expected = new ArrayList<Integer>();
+    	for (int i = 0; i < commands.size(); i++) {
+    		expected.add(i);
+    	}
+    	Assert.assertEquals("Commands sent out of order", expected, sent);
+    	Assert.assertEquals("Window not filled or exceeded", windowSize[0], maxInFlight[0]);
+    }
+
+    private <V extends ICommandResult> void queueIgnoringErrors(ICommand<V> command, final RequestMonitor rm) {
+    	fGDBCtrl.queueCommand(command, new DataRequestMonitor<V>(fGDBCtrl.getExecutor(), null) {
+    		@Override
+    		protected void handleCompleted() {
+    			rm.done();
+    		}
+    	});
+    }
 }